@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Records the compilation and validation events for Java Flight Recorder.
+ *
+ * <p>Compile and validation events are enabled by default. Compile step events must be enabled
+ * explicitly in the recording settings, since timing each step prevents the steps of the
+ * compilation pipeline from being chained.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class JfrEventRecorder implements EventRecorder {
+
+  private static final EventType COMPILE_STEP = EventType.getEventType(CompileStepEvent.class);
+
+  @Override
+  public Object beginCompile() {
+    CompileEvent event = new CompileEvent();
+    if (!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitCompile(Object event, String schema, String phase, boolean failed) {
+    if (event == null) return;
+    CompileEvent compile = (CompileEvent) event;
+    compile.end();
+    if (compile.shouldCommit()) {
+      compile.schema = schema;
+      compile.phase = phase;
+      compile.failed = failed;
+      compile.commit();
+    }
+  }
+
+  @Override
+  public Object beginCompileStep() {
+    CompileStepEvent event = new CompileStepEvent();
+    if (!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitCompileStep(Object event, String schema, String step) {
+    if (event == null) return;
+    CompileStepEvent compile = (CompileStepEvent) event;
+    compile.end();
+    if (compile.shouldCommit()) {
+      compile.schema = schema;
+      compile.step = step;
+      compile.commit();
+    }
+  }
+
+  @Override
+  public Object beginValidation() {
+    ValidationEvent event = new ValidationEvent();
+    if (!event.isEnabled()) return null;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public void commitValidation(Object event, String document, int asserts, int reports, long svrlLength, boolean failed) {
+    if (event == null) return;
+    ValidationEvent validation = (ValidationEvent) event;
+    validation.end();
+    if (validation.shouldCommit()) {
+      validation.document = document;
+      validation.asserts = asserts;
+      validation.reports = reports;
+      validation.svrlLength = svrlLength;
+      validation.failed = failed;
+      validation.commit();
+    }
+  }
+
+  @Override
+  public boolean isCompileStepEnabled() {
+    return COMPILE_STEP.isEnabled();
+  }
+
+  @Name("org.pageseeder.schematron.Compile")
+  @Label("Schematron Compile")
+  @Description("Loading and compiling a schema into a validator")
+  @Category("Schematron")
+  static final class CompileEvent extends Event {
+
+    @Label("Schema")
+    String schema;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Failed")
+    boolean failed;
+  }
+
+  @Name("org.pageseeder.schematron.CompileStep")
+  @Label("Schematron Compile Step")
+  @Description("A step of the Schematron compilation pipeline")
+  @Category("Schematron")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class CompileStepEvent extends Event {
+
+    @Label("Schema")
+    String schema;
+
+    @Label("Step")
+    String step;
+  }
+
+  @Name("org.pageseeder.schematron.Validation")
+  @Label("Schematron Validation")
+  @Description("Validating a document")
+  @Category("Schematron")
+  static final class ValidationEvent extends Event {
+
+    @Label("Document")
+    String document;
+
+    @Label("Failed Assertions")
+    int asserts;
+
+    @Label("Successful Reports")
+    int reports;
+
+    @Label("SVRL Length")
+    @Description("The number of characters of SVRL written")
+    long svrlLength;
+
+    @Label("Failed")
+    @Description("Whether the document could not be validated")
+    boolean failed;
+  }
+
+}
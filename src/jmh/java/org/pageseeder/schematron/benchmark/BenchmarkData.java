@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The schemas and generated documents used by the benchmarks.
+ *
+ * <p>Schemas are the test schemas loaded from the classpath. Documents are catalogs of books in
+ * the namespaces of <code>namespaces-xslt2.sch</code>: in valid documents, every price is within
+ * the bounds of the schema; in invalid documents, every book fails an assertion and triggers a
+ * report.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class BenchmarkData {
+
+  private BenchmarkData() {}
+
+  /**
+   * Returns the number of books in a document of the specified size.
+   *
+   * @param size "small", "medium" or "huge"
+   */
+  static int books(String size) {
+    switch (size) {
+      case "small": return 10;
+      case "medium": return 1_000;
+      case "huge": return 100_000;
+      default: throw new IllegalArgumentException("Unknown document size: "+size);
+    }
+  }
+
+  /**
+   * Load a test schema from the classpath.
+   *
+   * @param name The file name of the schema in the test resources, for example "standalone-xslt2.sch"
+   *
+   * @return The schema data
+   */
+  static Schema schema(String name) throws IOException {
+    URL url = BenchmarkData.class.getResource("/sch/"+name);
+    if (url == null) throw new IOException("Unable to find test schema "+name);
+    try (InputStream in = url.openStream()) {
+      return new Schema(url.toExternalForm(), readAll(in));
+    }
+  }
+
+  /**
+   * Load the rules of <code>namespaces-xslt2.sch</code> for the specified query binding, so that the
+   * asserts and reports apply to the generated documents whatever the version of XSLT.
+   *
+   * @param queryBinding The query binding, for example "xslt" or "xslt3"
+   *
+   * @return The schema data
+   */
+  static Schema catalog(String queryBinding) throws IOException {
+    Schema schema = schema("namespaces-xslt2.sch");
+    String xml = new String(schema.data, StandardCharsets.UTF_8).replace("queryBinding=\"xslt2\"", "queryBinding=\""+queryBinding+"\"");
+    return new Schema(schema.systemId, xml.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Generate a catalog document.
+   *
+   * @param size  "small", "medium" or "huge"
+   * @param valid Whether the document should satisfy the rules of <code>namespaces-xslt2.sch</code>
+   *
+   * @return The document encoded in UTF-8
+   */
+  static byte[] document(String size, boolean valid) {
+    int count = books(size);
+    StringBuilder xml = new StringBuilder(count * 240 + 128);
+    xml.append("<?xml version=\"1.0\"?>\n");
+    xml.append("<catalog xmlns=\"https://example.org/library\" xmlns:p=\"https://example.org/pricing\">\n");
+    for (int i = 0; i < count; i++) {
+      xml.append("  <book id=\"bk").append(i).append("\">\n");
+      xml.append("    <author>Author ").append(i % 97).append("</author>\n");
+      xml.append("    <title>Title ").append(i).append("</title>\n");
+      xml.append("    <genre>").append(i % 2 == 0 ? "Fantasy" : "Computer").append("</genre>\n");
+      xml.append("    <p:price>").append(valid ? "3.95" : (i % 2 == 0 ? "44.95" : "0.95")).append("</p:price>\n");
+      xml.append("    <publish_date>2000-10-01</publish_date>\n");
+      xml.append("  </book>\n");
+    }
+    xml.append("</catalog>\n");
+    return xml.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return A new source for the document
+   */
+  static Source source(byte[] document) {
+    return new StreamSource(new ByteArrayInputStream(document), "benchmark.xml");
+  }
+
+  /**
+   * Delete a directory generated for a benchmark.
+   */
+  static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * A schema loaded in memory.
+   */
+  static final class Schema {
+
+    private final String systemId;
+
+    private final byte[] data;
+
+    Schema(String systemId, byte[] data) {
+      this.systemId = systemId;
+      this.data = data;
+    }
+
+    /**
+     * @return A new source for the schema
+     */
+    Source source() {
+      return new StreamSource(new ByteArrayInputStream(this.data), this.systemId);
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.schematron.SchematronException;
+import org.pageseeder.schematron.Validator;
+import org.pageseeder.schematron.ValidatorFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken by {@link ValidatorFactory#newValidator(javax.xml.transform.Source)} to
+ * compile a schema.
+ *
+ * <p>The SchXslt pipeline is precompiled during setup and the factory has no cache, so each
+ * invocation runs the compilation pipeline and compiles the generated stylesheet.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+
+  @Param({"standalone-xslt1.sch", "standalone-xslt2.sch", "standalone-xslt3.sch", "namespaces-xslt2.sch", "failures-xslt2.sch"})
+  public String schema;
+
+  private ValidatorFactory factory;
+
+  private BenchmarkData.Schema data;
+
+  @Setup
+  public void setup() throws IOException, SchematronException {
+    this.factory = new ValidatorFactory();
+    this.factory.precompile();
+    this.data = BenchmarkData.schema(this.schema);
+  }
+
+  @Benchmark
+  public Validator compile() throws SchematronException {
+    return this.factory.newValidator(this.data.source());
+  }
+
+}
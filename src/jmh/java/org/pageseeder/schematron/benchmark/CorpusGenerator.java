@@ -0,0 +1,359 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates synthetic documents and schemas of configurable size for load testing.
+ *
+ * <p>The output only depends on the settings, including the seed, so the same corpus can be
+ * generated again on any machine.</p>
+ *
+ * <p>Documents contain chains of nested elements of <code>types</code> different names spread
+ * over <code>namespaces</code> namespaces. Each element has a <code>value</code> attribute which is
+ * invalid for the proportion of elements given by the error rate.</p>
+ *
+ * <p>Schemas contain patterns with rules matching each element type in turn. Each rule declares
+ * <code>sch:let</code> variables derived from the <code>value</code> attribute and asserts which
+ * all fail when the value is invalid. The first patterns can be written to separate files
+ * included with <code>sch:include</code>.</p>
+ *
+ * <pre>
+ *   CorpusGenerator generator = CorpusGenerator.defaults().elements(100_000).depth(8).errorRate(0.1);
+ *   byte[] document = generator.document();
+ *   Path schema = generator.patterns(50).rules(4).includes(10).writeSchema(directory);
+ * </pre>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class CorpusGenerator {
+
+  private static final String SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+
+  private static final CorpusGenerator DEFAULT = new CorpusGenerator(1000, 4, 16, 2, 0.0, 10, 4, 2, 1, 0, "xslt2", 42L);
+
+  // Document settings
+  private final int _elements;
+  private final int _depth;
+  private final int _types;
+  private final int _namespaces;
+  private final double _errorRate;
+
+  // Schema settings
+  private final int _patterns;
+  private final int _rules;
+  private final int _asserts;
+  private final int _lets;
+  private final int _includes;
+  private final String _queryBinding;
+
+  private final long _seed;
+
+  private CorpusGenerator(int elements, int depth, int types, int namespaces, double errorRate,
+                          int patterns, int rules, int asserts, int lets, int includes, String queryBinding, long seed) {
+    this._elements = elements;
+    this._depth = depth;
+    this._types = types;
+    this._namespaces = namespaces;
+    this._errorRate = errorRate;
+    this._patterns = patterns;
+    this._rules = rules;
+    this._asserts = asserts;
+    this._lets = lets;
+    this._includes = includes;
+    this._queryBinding = queryBinding;
+    this._seed = seed;
+  }
+
+  /**
+   * @return A generator with 1000 elements, depth 4, 16 types in 2 namespaces, no errors
+   *         and 10 patterns of 4 rules with 2 asserts and 1 variable.
+   */
+  public static CorpusGenerator defaults() {
+    return DEFAULT;
+  }
+
+  /**
+   * @param elements The total number of elements in the document, excluding the root.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator elements(int elements) {
+    if (elements < 0) throw new IllegalArgumentException("The number of elements must be positive");
+    return new CorpusGenerator(elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param depth The depth of the chains of nested elements under the root.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator depth(int depth) {
+    if (depth < 1) throw new IllegalArgumentException("The depth must be strictly positive");
+    return new CorpusGenerator(this._elements, depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param types The number of different element names.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator types(int types) {
+    if (types < 1) throw new IllegalArgumentException("The number of types must be strictly positive");
+    return new CorpusGenerator(this._elements, this._depth, types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param namespaces The number of namespaces the element types are spread over (0 for no namespace).
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator namespaces(int namespaces) {
+    if (namespaces < 0) throw new IllegalArgumentException("The number of namespaces must be positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param errorRate The proportion of elements with an invalid value between 0 and 1.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator errorRate(double errorRate) {
+    if (errorRate < 0 || errorRate > 1) throw new IllegalArgumentException("The error rate must be between 0 and 1");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param patterns The number of patterns in the schema.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator patterns(int patterns) {
+    if (patterns < 1) throw new IllegalArgumentException("The number of patterns must be strictly positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param rules The number of rules in each pattern, limited to the number of types.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator rules(int rules) {
+    if (rules < 1) throw new IllegalArgumentException("The number of rules must be strictly positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, rules, this._asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param asserts The number of asserts in each rule.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator asserts(int asserts) {
+    if (asserts < 1) throw new IllegalArgumentException("The number of asserts must be strictly positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, asserts, this._lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param lets The number of <code>sch:let</code> variables in each rule.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator lets(int lets) {
+    if (lets < 0) throw new IllegalArgumentException("The number of variables must be positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, lets, this._includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param includes The number of patterns written to separate files, limited to the number of patterns.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator includes(int includes) {
+    if (includes < 0) throw new IllegalArgumentException("The number of includes must be positive");
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, includes, this._queryBinding, this._seed);
+  }
+
+  /**
+   * @param queryBinding The query binding of the schema, for example "xslt" or "xslt2".
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator queryBinding(String queryBinding) {
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, queryBinding, this._seed);
+  }
+
+  /**
+   * @param seed The seed used to pick the invalid elements.
+   * @return A new generator with the specified setting.
+   */
+  public CorpusGenerator seed(long seed) {
+    return new CorpusGenerator(this._elements, this._depth, this._types, this._namespaces, this._errorRate,
+        this._patterns, this._rules, this._asserts, this._lets, this._includes, this._queryBinding, seed);
+  }
+
+  /**
+   * Generate the document.
+   *
+   * @return The document encoded in UTF-8
+   */
+  public byte[] document() {
+    Random random = new Random(this._seed);
+    StringBuilder xml = new StringBuilder(this._elements * 64 + 256);
+    xml.append("<?xml version=\"1.0\"?>\n<corpus");
+    for (int n = 0; n < this._namespaces; n++) {
+      xml.append(" xmlns:n").append(n).append("=\"").append(namespace(n)).append('"');
+    }
+    xml.append(">\n");
+    int count = 0;
+    while (count < this._elements) {
+      int chain = Math.min(this._depth, this._elements - count);
+      for (int level = 0; level < chain; level++) {
+        int type = (count + level) % this._types;
+        boolean invalid = random.nextDouble() < this._errorRate;
+        indent(xml, level + 1).append('<').append(name(type))
+            .append(" id=\"e").append(count + level).append('"')
+            .append(" value=\"").append(invalid ? -1 - random.nextInt(100) : random.nextInt(100)).append('"')
+            .append(level == chain - 1 ? "/>\n" : ">\n");
+      }
+      for (int level = chain - 2; level >= 0; level--) {
+        indent(xml, level + 1).append("</").append(name((count + level) % this._types)).append(">\n");
+      }
+      count += chain;
+    }
+    xml.append("</corpus>\n");
+    return xml.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write the document to the specified file.
+   *
+   * @param file The file to write
+   *
+   * @return The file
+   *
+   * @throws IOException If the file could not be written
+   */
+  public Path writeDocument(Path file) throws IOException {
+    if (file.getParent() != null) Files.createDirectories(file.getParent());
+    return Files.write(file, document());
+  }
+
+  /**
+   * Write the schema and included patterns to the specified directory.
+   *
+   * <p>The schema is written to <code>schema.sch</code> and included patterns to
+   * <code>pattern-[n].sch</code>.</p>
+   *
+   * @param directory The directory to write to, created if necessary
+   *
+   * @return The path to the main schema file
+   *
+   * @throws IOException If the files could not be written
+   */
+  public Path writeSchema(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    int includes = Math.min(this._includes, this._patterns);
+    StringBuilder schema = new StringBuilder();
+    schema.append("<?xml version=\"1.0\"?>\n");
+    schema.append("<sch:schema xmlns:sch=\"").append(SCHEMATRON_NS).append("\" queryBinding=\"").append(this._queryBinding).append("\">\n");
+    for (int n = 0; n < this._namespaces; n++) {
+      schema.append("  <sch:ns prefix=\"n").append(n).append("\" uri=\"").append(namespace(n)).append("\"/>\n");
+    }
+    for (int p = 0; p < this._patterns; p++) {
+      if (p < includes) {
+        String file = "pattern-"+p+".sch";
+        StringBuilder pattern = new StringBuilder("<?xml version=\"1.0\"?>\n");
+        appendPattern(pattern, p, true);
+        Files.write(directory.resolve(file), pattern.toString().getBytes(StandardCharsets.UTF_8));
+        schema.append("  <sch:include href=\"").append(file).append("\"/>\n");
+      } else {
+        appendPattern(schema, p, false);
+      }
+    }
+    schema.append("</sch:schema>\n");
+    Path main = directory.resolve("schema.sch");
+    Files.write(main, schema.toString().getBytes(StandardCharsets.UTF_8));
+    return main;
+  }
+
+  private void appendPattern(StringBuilder sch, int p, boolean root) {
+    sch.append(root ? "" : "  ").append("<sch:pattern id=\"p").append(p).append('"');
+    if (root) sch.append(" xmlns:sch=\"").append(SCHEMATRON_NS).append('"');
+    sch.append(">\n");
+    int rules = Math.min(this._rules, this._types);
+    for (int r = 0; r < rules; r++) {
+      int type = (p * rules + r) % this._types;
+      sch.append("    <sch:rule context=\"").append(name(type)).append("\">\n");
+      String value = "number(@value)";
+      for (int l = 0; l < this._lets; l++) {
+        sch.append("      <sch:let name=\"v").append(l).append("\" value=\"").append(value).append(" + 1\"/>\n");
+        value = "$v"+l;
+      }
+      for (int a = 0; a < this._asserts; a++) {
+        sch.append("      <sch:assert test=\"").append(value).append(" &gt;= ").append(this._lets)
+            .append(" and ").append(value).append(" &lt; ").append(this._lets + 100 + a)
+            .append("\">Value of <sch:name/> ").append(a).append(" out of range</sch:assert>\n");
+      }
+      sch.append("    </sch:rule>\n");
+    }
+    sch.append(root ? "" : "  ").append("</sch:pattern>\n");
+  }
+
+  private String name(int type) {
+    return this._namespaces > 0 ? "n" + (type % this._namespaces) + ":e" + type : "e" + type;
+  }
+
+  private static String namespace(int n) {
+    return "urn:corpus:ns" + n;
+  }
+
+  private static StringBuilder indent(StringBuilder xml, int level) {
+    for (int i = 0; i < level; i++) xml.append("  ");
+    return xml;
+  }
+
+  /**
+   * Generate a corpus on the command-line.
+   *
+   * <pre>
+   *   CorpusGenerator [directory] [elements] [patterns] [error-rate]
+   * </pre>
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("CorpusGenerator [directory] [elements] [patterns] [error-rate]");
+      System.exit(1);
+    }
+    Path directory = Paths.get(args[0]);
+    CorpusGenerator generator = CorpusGenerator.defaults();
+    if (args.length > 1) generator = generator.elements(Integer.parseInt(args[1]));
+    if (args.length > 2) generator = generator.patterns(Integer.parseInt(args[2]));
+    if (args.length > 3) generator = generator.errorRate(Double.parseDouble(args[3]));
+    generator.writeSchema(directory);
+    generator.writeDocument(directory.resolve("document.xml"));
+    System.out.println("Corpus written to "+directory);
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.schematron.SchematronException;
+import org.pageseeder.schematron.SchematronResult;
+import org.pageseeder.schematron.Validator;
+import org.pageseeder.schematron.ValidatorFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the cost of validating a document grows with its size, depth and error density
+ * and with the number of patterns in the schema using the {@link CorpusGenerator}.
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentScalingBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int elements;
+
+  @Param({"2", "16"})
+  public int depth;
+
+  @Param({"0", "0.01", "0.5"})
+  public double errorRate;
+
+  @Param({"10", "100"})
+  public int patterns;
+
+  private Validator validator;
+
+  private byte[] document;
+
+  @Setup
+  public void setup() throws IOException, SchematronException {
+    CorpusGenerator generator = CorpusGenerator.defaults()
+        .elements(this.elements)
+        .depth(this.depth)
+        .errorRate(this.errorRate)
+        .patterns(this.patterns);
+    Path directory = Files.createTempDirectory("corpus");
+    try {
+      this.validator = new ValidatorFactory().newValidator(generator.writeSchema(directory).toFile());
+    } finally {
+      BenchmarkData.delete(directory);
+    }
+    this.document = generator.document();
+  }
+
+  @Benchmark
+  public SchematronResult validate() throws SchematronException {
+    return this.validator.validate(BenchmarkData.source(this.document));
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.schematron.OutputOptions;
+import org.pageseeder.schematron.SchematronException;
+import org.pageseeder.schematron.Validator;
+import org.pageseeder.schematron.ValidatorFactory;
+import org.pageseeder.schematron.svrl.SVRLParser;
+import org.pageseeder.schematron.svrl.SVRLStreamWriter;
+import org.pageseeder.schematron.svrl.SchematronOutput;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXResult;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time taken to write and parse the SVRL produced by validating the generated
+ * documents with <code>namespaces-xslt2.sch</code>.
+ *
+ * <p>The write benchmark replays a parsed SVRL document through {@link SVRLStreamWriter} as the
+ * validation stylesheet would; the parse benchmark parses the SVRL with {@link SVRLParser}.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SVRLBenchmark {
+
+  @Param({"small", "medium", "huge"})
+  public String size;
+
+  @Param({"true", "false"})
+  public boolean valid;
+
+  private String svrl;
+
+  private Document tree;
+
+  private Transformer identity;
+
+  @Setup
+  public void setup() throws Exception {
+    Validator validator = new ValidatorFactory().newValidator(BenchmarkData.schema("namespaces-xslt2.sch").source());
+    this.svrl = validator.validate(BenchmarkData.source(BenchmarkData.document(this.size, this.valid))).getSVRLAsString();
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    this.tree = factory.newDocumentBuilder().parse(new InputSource(new StringReader(this.svrl)));
+    this.identity = TransformerFactory.newInstance().newTransformer();
+  }
+
+  @Benchmark
+  public String write() throws XMLStreamException, TransformerException {
+    StringWriter out = new StringWriter(this.svrl.length());
+    SVRLStreamWriter writer = new SVRLStreamWriter(out, OutputOptions.defaults());
+    this.identity.transform(new DOMSource(this.tree), new StAXResult(writer));
+    return out.toString();
+  }
+
+  @Benchmark
+  public SchematronOutput parse() throws SchematronException {
+    return SVRLParser.parse(new StringReader(this.svrl));
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pageseeder.schematron.SchematronException;
+import org.pageseeder.schematron.Validator;
+import org.pageseeder.schematron.ValidatorFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the cost of compiling a schema grows with the number of patterns and included files
+ * using schemas generated by the {@link CorpusGenerator}.
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaScalingBenchmark {
+
+  @Param({"1", "10", "100", "500"})
+  public int patterns;
+
+  @Param({"0", "10"})
+  public int includes;
+
+  @Param({"xslt", "xslt2"})
+  public String queryBinding;
+
+  private ValidatorFactory factory;
+
+  private Path directory;
+
+  private File schema;
+
+  @Setup
+  public void setup() throws IOException, SchematronException {
+    this.factory = new ValidatorFactory();
+    this.factory.precompile();
+    this.directory = Files.createTempDirectory("corpus");
+    this.schema = CorpusGenerator.defaults()
+        .patterns(this.patterns)
+        .includes(this.includes)
+        .lets(2)
+        .queryBinding(this.queryBinding)
+        .writeSchema(this.directory).toFile();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    BenchmarkData.delete(this.directory);
+  }
+
+  @Benchmark
+  public Validator compile() throws SchematronException {
+    return this.factory.newValidator(this.schema);
+  }
+
+}
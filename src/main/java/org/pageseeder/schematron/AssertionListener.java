@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.pageseeder.schematron.svrl.AssertOrReport;
+import org.pageseeder.schematron.svrl.FiredRule;
+
+/**
+ * Receives the assertions and reports as the SVRL is produced during validation.
+ *
+ * <p>Methods are invoked on the thread performing the validation. Throwing a runtime exception aborts
+ * the validation.</p>
+ *
+ * @see Validator#validateToListener(javax.xml.transform.Source, java.util.Map, AssertionListener)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public interface AssertionListener {
+
+  /**
+   * Invoked for each failed assertion.
+   *
+   * @param failedAssert The failed assertion
+   */
+  default void onFailedAssert(AssertOrReport failedAssert) {
+  }
+
+  /**
+   * Invoked for each successful report.
+   *
+   * @param successfulReport The successful report
+   */
+  default void onSuccessfulReport(AssertOrReport successfulReport) {
+  }
+
+  /**
+   * Invoked when a rule is fired, before its failed assertions and successful reports.
+   *
+   * @param rule The fired rule (without asserts or reports)
+   */
+  default void onFiredRule(FiredRule rule) {
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs Schematron tasks asynchronously.
+ *
+ * <p>Unlike <code>CompletableFuture.supplyAsync</code>, the futures are completed exceptionally
+ * with the <code>SchematronException</code> thrown by the task rather than a wrapper exception.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class Async {
+
+  private Async() {}
+
+  /**
+   * A task which may throw a Schematron exception.
+   */
+  @FunctionalInterface
+  interface Task<T> {
+    T run() throws SchematronException;
+  }
+
+  /**
+   * Run the task with the specified executor.
+   *
+   * @param task     The task to run
+   * @param executor The executor
+   * @param <T>      The type of value returned by the task
+   *
+   * @return A future completing with the result of the task.
+   */
+  static <T> CompletableFuture<T> supply(Task<T> task, Executor executor) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        if (future.isDone()) return;
+        try {
+          future.complete(task.run());
+        } catch (SchematronException | RuntimeException | Error ex) {
+          future.completeExceptionally(ex);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      future.completeExceptionally(ex);
+    }
+    return future;
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.Source;
+
+/**
+ * Receives the results of a batch validation as each document completes.
+ *
+ * <p>Methods are always invoked from the thread which started the batch, so implementations
+ * do not need to be thread-safe.</p>
+ *
+ * @see BatchValidator
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+@FunctionalInterface
+public interface BatchListener {
+
+  /**
+   * Invoked when a document has been validated.
+   *
+   * @param source The source that was validated
+   * @param result The results of the validation
+   *
+   * @throws SchematronException To abort the batch
+   */
+  void onResult(Source source, SchematronResult result) throws SchematronException;
+
+  /**
+   * Invoked when a document could not be validated.
+   *
+   * <p>By default, the exception is rethrown which aborts the batch.</p>
+   *
+   * @param source The source that could not be validated
+   * @param ex     The exception thrown during validation
+   *
+   * @throws SchematronException To abort the batch
+   */
+  default void onError(Source source, SchematronException ex) throws SchematronException {
+    throw ex;
+  }
+
+}
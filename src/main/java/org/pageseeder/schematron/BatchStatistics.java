@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregate statistics for a batch validation.
+ *
+ * <p>The elapsed time is the wall-clock time of the batch, while the validation time is the
+ * cumulative time spent validating individual documents across all workers.</p>
+ *
+ * @see BatchValidator
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class BatchStatistics {
+
+  private final int _valid;
+
+  private final int _invalid;
+
+  private final int _errors;
+
+  private final long _elapsed;
+
+  private final long _validationTime;
+
+  BatchStatistics(int valid, int invalid, int errors, long elapsed, long validationTime) {
+    this._valid = valid;
+    this._invalid = invalid;
+    this._errors = errors;
+    this._elapsed = elapsed;
+    this._validationTime = validationTime;
+  }
+
+  /**
+   * @return The total number of documents processed including errors.
+   */
+  public int getDocumentCount() {
+    return this._valid + this._invalid + this._errors;
+  }
+
+  /**
+   * @return The number of valid documents.
+   */
+  public int getValidCount() {
+    return this._valid;
+  }
+
+  /**
+   * @return The number of invalid documents.
+   */
+  public int getInvalidCount() {
+    return this._invalid;
+  }
+
+  /**
+   * @return The number of documents which could not be validated.
+   */
+  public int getErrorCount() {
+    return this._errors;
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The wall-clock time taken by the batch.
+   */
+  public long getElapsedTime(TimeUnit unit) {
+    return unit.convert(this._elapsed, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The cumulative time spent validating documents.
+   */
+  public long getValidationTime(TimeUnit unit) {
+    return unit.convert(this._validationTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return The number of documents processed per second.
+   */
+  public double getThroughput() {
+    if (this._elapsed == 0) return 0;
+    return getDocumentCount() * 1_000_000_000.0 / this._elapsed;
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The average time spent validating each document.
+   */
+  public double getAverageTime(TimeUnit unit) {
+    int count = getDocumentCount();
+    if (count == 0) return 0;
+    return (double) this._validationTime / count / unit.toNanos(1);
+  }
+
+  @Override
+  public String toString() {
+    return "BatchStatistics{" +
+        "documents=" + getDocumentCount() +
+        ", valid=" + this._valid +
+        ", invalid=" + this._invalid +
+        ", errors=" + this._errors +
+        ", elapsed=" + getElapsedTime(TimeUnit.MILLISECONDS) + "ms" +
+        ", throughput=" + String.format("%.1f", getThroughput()) + "/s" +
+        '}';
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.Source;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Validates many documents in parallel using the supplied executor.
+ *
+ * <p>Documents are read lazily from the sources: no more than the configured parallelism are
+ * submitted to the executor at any given time. Each worker borrows its own instance from the pool
+ * of the validator, so at most <i>parallelism</i> instances are used. If the validator already has
+ * a smaller pool, no more documents than the maximum size of the pool are in flight.</p>
+ *
+ * <p>Results are sent to the {@link BatchListener} as they complete, from the thread which invoked
+ * the <code>validate</code> method, so the order of results may differ from the order of sources.
+ * The batch is blocked while the listener processes a result.</p>
+ *
+ * <p>If the listener aborts the batch, validations which are still running are cancelled.</p>
+ *
+ * <pre>
+ *   ExecutorService executor = Executors.newFixedThreadPool(8);
+ *   BatchStatistics stats = validator.batch(executor).parallelism(8).validate(sources, (source, result) -&gt; {
+ *     if (!result.isValid()) System.out.println(source.getSystemId());
+ *   });
+ * </pre>
+ *
+ * <p>This class is immutable and thread-safe.</p>
+ *
+ * @see Validator#batch(Executor)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class BatchValidator {
+
+  /**
+   * The validator to use.
+   */
+  private final Validator _validator;
+
+  /**
+   * The executor running the validation tasks
+   */
+  private final Executor _executor;
+
+  /**
+   * The maximum number of documents validated concurrently.
+   */
+  private final int _parallelism;
+
+  /**
+   * The parameters sent to each validation.
+   */
+  private final Map<String, Object> _parameters;
+
+  BatchValidator(Validator validator, Executor executor) {
+    this(validator, executor, Runtime.getRuntime().availableProcessors(), Collections.emptyMap());
+  }
+
+  private BatchValidator(Validator validator, Executor executor, int parallelism, Map<String, Object> parameters) {
+    this._validator = Objects.requireNonNull(validator);
+    this._executor = Objects.requireNonNull(executor);
+    this._parallelism = parallelism;
+    this._parameters = Objects.requireNonNull(parameters);
+  }
+
+  /**
+   * Return a new batch validator with the specified parallelism.
+   *
+   * <p>Defaults to the number of available processors.</p>
+   *
+   * @param parallelism The maximum number of documents validated concurrently.
+   * @return A new batch validator
+   *
+   * @throws IllegalArgumentException If the parallelism is less than 1.
+   */
+  public BatchValidator parallelism(int parallelism) {
+    if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be strictly positive");
+    return new BatchValidator(this._validator, this._executor, parallelism, this._parameters);
+  }
+
+  /**
+   * @return The maximum number of documents validated concurrently.
+   */
+  public int parallelism() {
+    return this._parallelism;
+  }
+
+  /**
+   * Return a new batch validator sending the specified parameters to each validation.
+   *
+   * @param parameters The parameters to send to the schema during validation
+   * @return A new batch validator
+   *
+   * @throws NullPointerException If the parameters are <code>null</code>.
+   */
+  public BatchValidator parameters(Map<String, Object> parameters) {
+    Objects.requireNonNull(parameters, "parameters");
+    Map<String, Object> copy = Collections.unmodifiableMap(new HashMap<>(parameters));
+    return new BatchValidator(this._validator, this._executor, this._parallelism, copy);
+  }
+
+  /**
+   * Validates all the sources.
+   *
+   * @param sources  The sources to validate
+   * @param listener Receives the results as they complete
+   * @return Statistics about the batch
+   *
+   * @throws SchematronException If the listener aborted the batch or if the batch was interrupted.
+   */
+  public BatchStatistics validate(Iterable<? extends Source> sources, BatchListener listener) throws SchematronException {
+    return validate(sources.iterator(), listener);
+  }
+
+  /**
+   * Validates all the sources.
+   *
+   * @param sources  The sources to validate
+   * @param listener Receives the results as they complete
+   * @return Statistics about the batch
+   *
+   * @throws SchematronException If the listener aborted the batch or if the batch was interrupted.
+   */
+  public BatchStatistics validate(Stream<? extends Source> sources, BatchListener listener) throws SchematronException {
+    return validate(sources.iterator(), listener);
+  }
+
+  /**
+   * Validates all the sources.
+   *
+   * @param sources  The sources to validate
+   * @param listener Receives the results as they complete
+   * @return Statistics about the batch
+   *
+   * @throws SchematronException If the listener aborted the batch or if the batch was interrupted.
+   */
+  public BatchStatistics validate(Iterator<? extends Source> sources, BatchListener listener) throws SchematronException {
+    Validator validator = this._validator.pool() != null ? this._validator : this._validator.pool(this._parallelism);
+    // Workers must not wait for an instance from the pool
+    int parallelism = Math.min(this._parallelism, validator.pool().getMaxSize());
+    CompletionService<Outcome> completion = new ExecutorCompletionService<>(this._executor);
+    List<Future<Outcome>> inFlight = new ArrayList<>(parallelism);
+    int valid = 0;
+    int invalid = 0;
+    int errors = 0;
+    long validationTime = 0;
+    long start = System.nanoTime();
+    try {
+      while (true) {
+        while (inFlight.size() < parallelism && sources.hasNext()) {
+          Source source = sources.next();
+          inFlight.add(completion.submit(() -> validate(validator, source)));
+        }
+        if (inFlight.isEmpty()) break;
+        Future<Outcome> done = take(completion);
+        inFlight.remove(done);
+        Outcome outcome = get(done);
+        validationTime += outcome.time;
+        if (outcome.result != null) {
+          if (outcome.result.isValid()) valid++;
+          else invalid++;
+          listener.onResult(outcome.source, outcome.result);
+        } else {
+          errors++;
+          listener.onError(outcome.source, outcome.error);
+        }
+      }
+    } finally {
+      // Only left over when the batch was aborted
+      for (Future<Outcome> future : inFlight) future.cancel(true);
+    }
+    return new BatchStatistics(valid, invalid, errors, System.nanoTime() - start, validationTime);
+  }
+
+  private Outcome validate(Validator validator, Source source) {
+    long t0 = System.nanoTime();
+    try {
+      SchematronResult result = validator.validate(source, this._parameters);
+      return new Outcome(source, result, null, System.nanoTime() - t0);
+    } catch (SchematronException ex) {
+      return new Outcome(source, null, ex, System.nanoTime() - t0);
+    }
+  }
+
+  private static Future<Outcome> take(CompletionService<Outcome> completion) throws SchematronException {
+    try {
+      return completion.take();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SchematronException("Batch validation was interrupted", ex);
+    }
+  }
+
+  private static Outcome get(Future<Outcome> done) throws SchematronException {
+    try {
+      return done.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SchematronException("Batch validation was interrupted", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new SchematronException(cause);
+    }
+  }
+
+  /**
+   * The outcome of a validation task.
+   */
+  private static final class Outcome {
+
+    private final Source source;
+
+    private final SchematronResult result;
+
+    private final SchematronException error;
+
+    private final long time;
+
+    Outcome(Source source, SchematronResult result, SchematronException error, long time) {
+      this.source = source;
+      this.result = result;
+      this.error = error;
+      this.time = time;
+    }
+  }
+
+}
@@ -33,26 +33,31 @@ import java.util.Objects;
  * <code>org.pageseeder.schematron.compatibility</code> to "1.0".</p>
  *
  * @author Christophe Lauret
- * @version 2.0
+ * @version 2.5.0
  * @since 2.0
  */
 public final class CompileOptions {
 
-  private static final CompileOptions DEFAULT = new CompileOptions("xslt", false, false, false);
+  private static final CompileOptions DEFAULT = new CompileOptions("xslt", false, false, false, false, false);
 
-  private static final CompileOptions DEFAULT_COMPATIBILITY = new CompileOptions("xslt2", false, false, false);
+  private static final CompileOptions DEFAULT_COMPATIBILITY = new CompileOptions("xslt2", false, false, false, false, false);
 
   private final String defaultQueryBinding;
   private final boolean streamable;
   private final boolean metadata;
   private final boolean compact;
+  private final boolean profile;
+  private final boolean xpathEngine;
 
   /** Keep constructor private */
-  private CompileOptions(String defaultQueryBinding, boolean metadata, boolean streamable, boolean compact) {
+  private CompileOptions(String defaultQueryBinding, boolean metadata, boolean streamable, boolean compact, boolean profile,
+                         boolean xpathEngine) {
     this.defaultQueryBinding = defaultQueryBinding;
     this.metadata = metadata;
     this.streamable = streamable;
     this.compact = compact;
+    this.profile = profile;
+    this.xpathEngine = xpathEngine;
   }
 
   /**
@@ -64,6 +69,8 @@ public final class CompileOptions {
    *   <li><code>metadata = false</code></li>
    *   <li><code>streamable = false</code></li>
    *   <li><code>compact = false</code></li>
+   *   <li><code>profile = false</code></li>
+   *   <li><code>xpathEngine = false</code></li>
    * </ul>
    *
    * <p>In compatibility mode, <code>defaultQueryBinding = "xslt2"</code></p>
@@ -84,7 +91,7 @@ public final class CompileOptions {
    * @return A new instance using the specified option.
    */
   public CompileOptions defaultQueryBinding(String defaultQueryBinding) {
-    return new CompileOptions(defaultQueryBinding, this.metadata, this.streamable, this.compact);
+    return new CompileOptions(defaultQueryBinding, this.metadata, this.streamable, this.compact, this.profile, this.xpathEngine);
   }
 
   /**
@@ -97,18 +104,21 @@ public final class CompileOptions {
    * @return A new instance using the specified option.
    */
   public CompileOptions metadata(boolean metadata) {
-    return new CompileOptions(this.defaultQueryBinding, metadata, this.streamable, this.compact);
+    return new CompileOptions(this.defaultQueryBinding, metadata, this.streamable, this.compact, this.profile, this.xpathEngine);
   }
 
   /**
-   * Set whether the source is streamble.
+   * Set whether the source is streamable.
+   *
+   * <p>When enabled, the validator factory reports rules which are unlikely to be streamable as warnings.
+   * This is a heuristic check which can report false positives and miss some constructs.</p>
    *
    * @implNote Used to set the `schxslt.compile.streamable` XSLT parameter.
    *
    * @return A new instance using the specified option.
    */
   public CompileOptions streamable(boolean streamable) {
-    return new CompileOptions(this.defaultQueryBinding, this.metadata, streamable, this.compact);
+    return new CompileOptions(this.defaultQueryBinding, this.metadata, streamable, this.compact, this.profile, this.xpathEngine);
   }
 
   /**
@@ -119,7 +129,52 @@ public final class CompileOptions {
    * @return A new instance using the specified option.
    */
   public CompileOptions compact(boolean compact) {
-    return new CompileOptions(this.defaultQueryBinding, this.metadata, this.streamable, compact);
+    return new CompileOptions(this.defaultQueryBinding, this.metadata, this.streamable, compact, this.profile, this.xpathEngine);
+  }
+
+  /**
+   * Whether to instrument the generated validator to profile the evaluation of each rule.
+   *
+   * <p>When enabled, each validation result includes a {@link ValidationProfile} recording the number
+   * of context matches and cumulative evaluation time of each rule and pattern. Profiling adds
+   * overhead to each rule evaluation and should only be used to diagnose slow schemas.</p>
+   *
+   * <p>Profiled validators are never loaded from or saved to a stylesheet store.</p>
+   *
+   * @param profile Whether to profile rules
+   *
+   * @return A new instance using the specified option.
+   *
+   * @see SchematronResult#getProfile()
+   */
+  public CompileOptions profile(boolean profile) {
+    return new CompileOptions(this.defaultQueryBinding, this.metadata, this.streamable, this.compact, profile, this.xpathEngine);
+  }
+
+  /**
+   * Whether to evaluate schemas using the 'xslt' query binding directly with XPath instead of
+   * generating a validation stylesheet.
+   *
+   * <p>The XPath engine compiles the rules of the schema into XPath 1.0 expressions and evaluates
+   * them directly over the DOM of the document, matching the contexts of the rules in a single walk
+   * of the document for each pattern, which avoids the cost of compiling the validation stylesheet.
+   * It produces the same SVRL as the validation stylesheet, except for the order of attributes.</p>
+   *
+   * <p>Schemas which use XSLT elements or functions such as <code>key()</code> or <code>document()</code>,
+   * the namespace axis, rule contexts which are not XSLT 1.0 patterns, pattern documents or lets
+   * without a value cannot be evaluated by the XPath engine: they are compiled into a validation
+   * stylesheet as usual and a warning is reported to the error listener. The XPath engine is not
+   * used for other query bindings or when rules are profiled or metadata is included.</p>
+   *
+   * <p>Validators using the XPath engine are not loaded from or saved to a stylesheet store, and export
+   * the generated validation stylesheet.</p>
+   *
+   * @param xpathEngine Whether to use the XPath engine
+   *
+   * @return A new instance using the specified option.
+   */
+  public CompileOptions xpathEngine(boolean xpathEngine) {
+    return new CompileOptions(this.defaultQueryBinding, this.metadata, this.streamable, this.compact, this.profile, xpathEngine);
   }
 
   /**
@@ -156,6 +211,24 @@ public final class CompileOptions {
     return this.streamable;
   }
 
+  /**
+   * Indicates whether to profile the evaluation of rules
+   *
+   * @return <code>false</code> by default
+   */
+  public boolean isProfile() {
+    return this.profile;
+  }
+
+  /**
+   * Indicates whether to evaluate 'xslt' schemas directly with XPath
+   *
+   * @return <code>false</code> by default
+   */
+  public boolean isXPathEngine() {
+    return this.xpathEngine;
+  }
+
   /**
    * @return the parameters sent to the preprocessors which are equivalent to these options.
    */
@@ -192,6 +265,8 @@ public final class CompileOptions {
     if (streamable != that.streamable) return false;
     if (metadata != that.metadata) return false;
     if (compact != that.compact) return false;
+    if (profile != that.profile) return false;
+    if (xpathEngine != that.xpathEngine) return false;
     return Objects.equals(defaultQueryBinding, that.defaultQueryBinding);
   }
 
@@ -201,6 +276,8 @@ public final class CompileOptions {
     result = 31 * result + (streamable ? 1 : 0);
     result = 31 * result + (metadata ? 1 : 0);
     result = 31 * result + (compact ? 1 : 0);
+    result = 31 * result + (profile ? 1 : 0);
+    result = 31 * result + (xpathEngine ? 1 : 0);
     return result;
   }
 
@@ -211,6 +288,8 @@ public final class CompileOptions {
         ", streamable=" + streamable +
         ", metadata=" + metadata +
         ", compact=" + compact +
+        ", profile=" + profile +
+        ", xpathEngine=" + xpathEngine +
         '}';
   }
 }
@@ -20,38 +20,180 @@ import org.w3c.dom.Document;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Schematron compiler.
  *
+ * <p>When the XSLT processor supports SAX, the steps of the pipeline are chained so that
+ * no intermediate tree is built between steps.</p>
+ *
+ * <p>When a metrics listener is specified or compile step events are recorded, the steps are not
+ * chained so that the time taken by each step can be measured.</p>
+ *
  * <p>Compilers are not thread-safe, but may be reused if the same compile options are used.</p>
  *
  * @author Christophe Lauret
- * @version 2.0
+ * @version 2.5.0
  * @since 2.0
  */
 final class Compiler {
 
-  private final List<Transformer> _transformers;
+  /**
+   * Used to create the transformer handlers to chain steps (may be <code>null</code>).
+   */
+  private final SAXTransformerFactory _factory;
+
+  private final List<Templates> _pipeline;
+
+  private final ErrorListener _listener;
+
+  private final Map<String, Object> _parameters;
+
+  /**
+   * Cache for the included fragments (may be <code>null</code>).
+   */
+  private final FragmentCache _fragments;
+
+  /**
+   * The Saxon configuration of the pipeline (may be <code>null</code>).
+   */
+  private final Object _configuration;
+
+  /**
+   * Receives the time taken by each step.
+   */
+  private final MetricsListener _metrics;
 
-  Compiler(List<Transformer> transformers) {
-    this._transformers = transformers;
+  Compiler(SAXTransformerFactory factory, List<Templates> pipeline, ErrorListener listener, Map<String, Object> parameters,
+           FragmentCache fragments, Object configuration, MetricsListener metrics) {
+    this._factory = factory;
+    this._pipeline = pipeline;
+    this._listener = listener;
+    this._parameters = parameters;
+    this._fragments = fragments;
+    this._configuration = configuration;
+    this._metrics = metrics;
   }
 
+  /**
+   * Compile the schema into a validation stylesheet.
+   *
+   * @param document The source of the schema.
+   *
+   * @return The generated stylesheet as a DOM document.
+   *
+   * @throws SchematronException If an error occurs during compilation.
+   */
   public Document compile(Source document) throws SchematronException {
+    DOMResult result = new DOMResult();
+    compile(document, result);
+    return (Document) result.getNode();
+  }
+
+  /**
+   * Compile the schema into a validation stylesheet sent to the specified result.
+   *
+   * <p>To create templates directly, use a <code>SAXResult</code> wrapping a <code>TemplatesHandler</code>.</p>
+   *
+   * @param document The source of the schema.
+   * @param result   The result for the generated stylesheet
+   *
+   * @throws SchematronException If an error occurs during compilation.
+   */
+  public void compile(Source document, Result result) throws SchematronException {
     try {
-      DOMResult result = null;
-      Source source = document;
-      for (Transformer transformer : this._transformers) {
-        result = new DOMResult();
-        transformer.transform(source, result);
-        source = new DOMSource(result.getNode(), source.getSystemId());
+      boolean timed = this._metrics != MetricsListener.NONE || EventRecorder.INSTANCE.isCompileStepEnabled();
+      if (this._factory != null && !timed) {
+        compileWithSAX(document, result);
+      } else {
+        compileWithDOM(document, result, this._pipeline.size());
       }
-      return (Document) result.getNode();
     } catch (TransformerException ex) {
       throw new SchematronException("Unable to compile Schematron to transformation stylesheet", ex);
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Expand the schema by running every step of the pipeline except the last one, so that
+   * inclusions are resolved and abstract patterns and rules are instantiated.
+   *
+   * @param document The source of the schema.
+   *
+   * @return The expanded schema as a DOM document.
+   *
+   * @throws SchematronException If an error occurs during expansion.
+   */
+  public Document expand(Source document) throws SchematronException {
+    DOMResult result = new DOMResult();
+    try {
+      compileWithDOM(document, result, this._pipeline.size()-1);
+    } catch (TransformerException ex) {
+      throw new SchematronException("Unable to expand Schematron schema", ex);
+    }
+    return (Document) result.getNode();
+  }
+
+  /**
+   * Chain all steps of the pipeline as transformer handlers.
+   */
+  private void compileWithSAX(Source document, Result result) throws TransformerException {
+    String systemId = document.getSystemId();
+    Result next = result;
+    for (int i = this._pipeline.size()-1; i > 0; i--) {
+      TransformerHandler handler = this._factory.newTransformerHandler(this._pipeline.get(i));
+      configure(handler.getTransformer());
+      if (systemId != null) handler.setSystemId(systemId);
+      handler.setResult(next);
+      next = new SAXResult(handler);
+    }
+    Transformer first = this._pipeline.get(0).newTransformer();
+    configure(first);
+    first.transform(document, next);
+  }
+
+  /**
+   * Builds a DOM tree after each step of the pipeline.
+   *
+   * @param steps The number of steps to run
+   */
+  private void compileWithDOM(Source document, Result result, int steps) throws TransformerException {
+    Source source = document;
+    for (int i = 0; i < steps; i++) {
+      Object event = EventRecorder.INSTANCE.beginCompileStep();
+      long start = System.nanoTime();
+      Transformer transformer = this._pipeline.get(i).newTransformer();
+      configure(transformer);
+      if (i == steps-1) {
+        transformer.transform(source, result);
+      } else {
+        DOMResult step = new DOMResult();
+        transformer.transform(source, step);
+        source = new DOMSource(step.getNode(), document.getSystemId());
+      }
+      if (i < Precompiler.STEPS.size()) {
+        String step = Precompiler.STEPS.get(i);
+        if (this._metrics != MetricsListener.NONE) {
+          this._metrics.onCompileStep(document.getSystemId(), step, System.nanoTime() - start);
+        }
+        EventRecorder.INSTANCE.commitCompileStep(event, document.getSystemId(), step);
+      }
+    }
+  }
+
+  private void configure(Transformer transformer) {
+    transformer.setErrorListener(this._listener);
+    if (this._fragments != null) {
+      transformer.setURIResolver(this._fragments.resolver(this._configuration, transformer.getURIResolver()));
+    }
+    // set some parameters if specified (All transformers get all parameters)
+    for (Map.Entry<String, Object> p : this._parameters.entrySet()) {
+      transformer.setParameter(p.getKey(), p.getValue());
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+/**
+ * Records the compilation and validation events for Java Flight Recorder.
+ *
+ * <p>The events are implemented by <code>JfrEventRecorder</code> which requires Java 11 and is
+ * packaged in the versioned section of the jar. When it cannot be loaded, no events are recorded.</p>
+ *
+ * <p>Each <code>begin</code> method returns an opaque event or <code>null</code> if the event is not
+ * enabled in any recording; the same object must be passed to the corresponding <code>commit</code>
+ * method.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+interface EventRecorder {
+
+  /**
+   * Records nothing.
+   */
+  EventRecorder NONE = new EventRecorder() {};
+
+  /**
+   * The recorder for this JVM.
+   */
+  EventRecorder INSTANCE = load();
+
+  default Object beginCompile() {
+    return null;
+  }
+
+  default void commitCompile(Object event, String schema, String phase, boolean failed) {}
+
+  default Object beginCompileStep() {
+    return null;
+  }
+
+  default void commitCompileStep(Object event, String schema, String step) {}
+
+  default Object beginValidation() {
+    return null;
+  }
+
+  default void commitValidation(Object event, String document, int asserts, int reports, long svrlLength, boolean failed) {}
+
+  /**
+   * @return <code>true</code> if compile step events are enabled in a recording.
+   */
+  default boolean isCompileStepEnabled() {
+    return false;
+  }
+
+  static EventRecorder load() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      Class<?> recorder = Class.forName("org.pageseeder.schematron.JfrEventRecorder");
+      return (EventRecorder) recorder.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException ex) {
+      return NONE;
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * A stylesheet store saving generated stylesheets as files in a directory.
+ *
+ * <p>Each stylesheet is saved as <code>[key].xsl</code>. Files are written to a temporary file
+ * first and then moved so that other processes never read a partially written stylesheet.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class FileStylesheetStore implements StylesheetStore {
+
+  /**
+   * The directory where stylesheets are stored.
+   */
+  private final Path _directory;
+
+  /**
+   * @param directory The directory where stylesheets are stored, created if necessary.
+   */
+  public FileStylesheetStore(File directory) {
+    this._directory = Objects.requireNonNull(directory).toPath();
+  }
+
+  /**
+   * @return The directory where stylesheets are stored.
+   */
+  public File getDirectory() {
+    return this._directory.toFile();
+  }
+
+  @Override
+  public byte[] get(String key) throws IOException {
+    Path file = this._directory.resolve(key+".xsl");
+    if (!Files.isRegularFile(file)) return null;
+    return Files.readAllBytes(file);
+  }
+
+  @Override
+  public void put(String key, byte[] stylesheet) throws IOException {
+    Files.createDirectories(this._directory);
+    Path file = this._directory.resolve(key+".xsl");
+    Path temp = Files.createTempFile(this._directory, key, ".tmp");
+    try {
+      Files.write(temp, stylesheet);
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FileStylesheetStore{" + this._directory + '}';
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of the schema fragments included with <code>sch:include</code> or
+ * <code>sch:extends</code> when compiling schemas.
+ *
+ * <p>Fragments are local files keyed by their URI and checked against the SHA-256 digest of their
+ * content each time they are included: an unchanged fragment is not parsed again, while a
+ * modified fragment replaces the previous one in the cache. With Saxon, fragments are kept as
+ * Saxon trees so that they can be supplied directly to the include step of the pipeline.</p>
+ *
+ * <p>The cache only saves parsing: every included file is still read and hashed on each
+ * compilation, and the include, expand and compile steps still run over the entire schema. A
+ * change to a single fragment recompiles the whole schema.</p>
+ *
+ * <p>When the cache is full, the least recently used fragment is evicted.</p>
+ *
+ * <p>This class is thread-safe and can be shared by multiple factories.</p>
+ *
+ * @see ValidatorFactory#fragments(FragmentCache)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class FragmentCache {
+
+  /**
+   * Default maximum number of fragments to keep in the cache.
+   */
+  public static final int DEFAULT_MAX_SIZE = 1024;
+
+  /**
+   * Maximum number of fragments to keep in the cache.
+   */
+  private final int _maxSize;
+
+  /**
+   * The fragments in access order.
+   */
+  private final Map<String, Fragment> _fragments;
+
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+
+  /**
+   * Creates a new cache with the default maximum size.
+   */
+  public FragmentCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxSize The maximum number of fragments to keep in the cache.
+   *
+   * @throws IllegalArgumentException If the maximum size is lower than 1
+   */
+  public FragmentCache(int maxSize) {
+    if (maxSize < 1) throw new IllegalArgumentException("The cache max size must be strictly positive");
+    this._maxSize = maxSize;
+    this._fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+        return size() > FragmentCache.this._maxSize;
+      }
+    };
+  }
+
+  /**
+   * @return The maximum number of fragments to keep in the cache.
+   */
+  public int getMaxSize() {
+    return this._maxSize;
+  }
+
+  /**
+   * @return The number of fragments currently in the cache.
+   */
+  public synchronized int size() {
+    return this._fragments.size();
+  }
+
+  /**
+   * @return The number of times an unchanged fragment was found in the cache.
+   */
+  public long getHitCount() {
+    return this._hits.get();
+  }
+
+  /**
+   * @return The number of times a fragment had to be parsed.
+   */
+  public long getMissCount() {
+    return this._misses.get();
+  }
+
+  /**
+   * Remove all the fragments from the cache.
+   *
+   * <p>This method does not reset the counters.</p>
+   */
+  public synchronized void clear() {
+    this._fragments.clear();
+  }
+
+  /**
+   * Returns a URI resolver supplying the cached fragments to the compiler.
+   *
+   * @param configuration The Saxon configuration of the compiler or <code>null</code>
+   * @param fallback      The resolver to use first (may be <code>null</code>)
+   *
+   * @return a URI resolver using this cache for local files
+   */
+  URIResolver resolver(Object configuration, URIResolver fallback) {
+    return (href, base) -> {
+      if (fallback != null) {
+        Source source = fallback.resolve(href, base);
+        if (source != null) return source;
+      }
+      Path file = toLocalFile(href, base);
+      return file != null ? resolve(file, configuration) : null;
+    };
+  }
+
+  private Source resolve(Path file, Object configuration) throws TransformerException {
+    byte[] data;
+    try {
+      data = Files.readAllBytes(file);
+    } catch (IOException ex) {
+      throw new TransformerException("Unable to read "+file, ex);
+    }
+    String systemId = file.toUri().toString();
+    String digest = SchemaSource.toHex(SchemaSource.sha256(data));
+    synchronized (this) {
+      Fragment fragment = this._fragments.get(systemId);
+      if (fragment != null && fragment.digest.equals(digest) && fragment.configuration == configuration) {
+        this._hits.incrementAndGet();
+        return fragment.source();
+      }
+    }
+    this._misses.incrementAndGet();
+    Fragment fragment = new Fragment(systemId, digest, data, configuration);
+    synchronized (this) {
+      this._fragments.put(systemId, fragment);
+    }
+    return fragment.source();
+  }
+
+  /**
+   * @return the path to the local file or <code>null</code> if the URI does not resolve to a local file.
+   */
+  private static Path toLocalFile(String href, String base) {
+    try {
+      String path = href.replaceAll("#.*$", "").replace(" ", "%20");
+      URI uri = base != null && !base.isEmpty() ? new URI(base).resolve(path) : new URI(path);
+      if (!"file".equals(uri.getScheme())) return null;
+      Path file = Paths.get(uri).normalize();
+      return Files.isRegularFile(file) ? file : null;
+    } catch (URISyntaxException | IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FragmentCache{" +
+        "size=" + size() +
+        ", maxSize=" + this._maxSize +
+        ", hits=" + this._hits +
+        ", misses=" + this._misses +
+        '}';
+  }
+
+  /**
+   * A parsed fragment.
+   */
+  private static final class Fragment {
+
+    private final String systemId;
+    private final String digest;
+    private final byte[] data;
+    private final Object configuration;
+
+    /**
+     * The parsed tree when using Saxon.
+     */
+    private final Source tree;
+
+    Fragment(String systemId, String digest, byte[] data, Object configuration) throws TransformerException {
+      this.systemId = systemId;
+      this.digest = digest;
+      this.data = data;
+      this.configuration = configuration;
+      try {
+        this.tree = configuration != null ? SourceTree.build(configuration, newSAXSource()) : null;
+      } catch (SchematronException ex) {
+        throw new TransformerException("Unable to parse "+systemId, ex);
+      }
+    }
+
+    /**
+     * @return a source for the included fragment.
+     */
+    Source source() throws TransformerException {
+      return this.tree != null ? this.tree : newSAXSource();
+    }
+
+    private Source newSAXSource() throws TransformerException {
+      InputSource input = new InputSource(new ByteArrayInputStream(this.data));
+      input.setSystemId(this.systemId);
+      try {
+        return new SAXSource(SchemaSource.newXMLReader(), input);
+      } catch (SchematronException ex) {
+        throw new TransformerException(ex);
+      }
+    }
+  }
+
+}
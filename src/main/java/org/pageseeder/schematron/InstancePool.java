@@ -0,0 +1,277 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of validator instances so that transformers can be reused safely by multiple threads.
+ *
+ * <p>Instances must be returned to the pool after use, either by calling {@link #release(Validator.Instance)}
+ * or by closing the instance:</p>
+ *
+ * <pre>
+ *   try (Validator.Instance instance = validator.pool().borrow()) {
+ *     instance.validate(source);
+ *   }
+ * </pre>
+ *
+ * <p>The maximum size is the number of instances the pool can lend at the same time. When no idle
+ * instance is available, a new one is created unless the maximum size is reached, in which case
+ * the borrower waits until an instance is returned or the borrow timeout expires. Instances which
+ * have been idle for longer than the idle timeout are evicted.</p>
+ *
+ * <p>Parameters are cleared and the error listener and URI resolver are restored when an instance is
+ * returned to the pool.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @see Validator#pool(int)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class InstancePool {
+
+  /**
+   * Default idle timeout in milliseconds.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT = 60_000L;
+
+  /**
+   * Default time to wait for an instance in milliseconds.
+   */
+  public static final long DEFAULT_BORROW_TIMEOUT = 30_000L;
+
+  /**
+   * The validator creating the instances.
+   */
+  private final Validator _validator;
+
+  /**
+   * The maximum number of instances borrowed at the same time.
+   */
+  private final int _maxSize;
+
+  /**
+   * One permit per instance that can be borrowed.
+   */
+  private final Semaphore _permits;
+
+  /**
+   * How long an instance can stay idle in nanoseconds.
+   */
+  private final long _idleTimeout;
+
+  /**
+   * The idle instances with the most recently used first.
+   */
+  private final Deque<IdleInstance> _idle = new ArrayDeque<>();
+
+  private final AtomicInteger _active = new AtomicInteger();
+  private final AtomicLong _created = new AtomicLong();
+  private final AtomicLong _evicted = new AtomicLong();
+
+  InstancePool(Validator validator, int maxSize, long idleTimeout, TimeUnit unit) {
+    if (maxSize < 1) throw new IllegalArgumentException("The pool max size must be strictly positive");
+    if (idleTimeout <= 0) throw new IllegalArgumentException("The idle timeout must be strictly positive");
+    this._validator = validator;
+    this._maxSize = maxSize;
+    this._permits = new Semaphore(maxSize, true);
+    this._idleTimeout = unit.toNanos(idleTimeout);
+  }
+
+  /**
+   * Borrow an instance from the pool, waiting up to {@value #DEFAULT_BORROW_TIMEOUT} ms if all
+   * instances are in use.
+   *
+   * @return A validator instance which must be returned to the pool after use.
+   *
+   * @throws SchematronException If a new instance could not be created or none was returned in time.
+   */
+  public Validator.Instance borrow() throws SchematronException {
+    return borrow(DEFAULT_BORROW_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Borrow an instance from the pool, creating a new one if no idle instance is available and
+   * waiting if all instances are in use.
+   *
+   * @param timeout How long to wait for an instance to be returned
+   * @param unit    The time unit of the timeout
+   *
+   * @return A validator instance which must be returned to the pool after use.
+   *
+   * @throws SchematronException If a new instance could not be created or none was returned in time.
+   */
+  public Validator.Instance borrow(long timeout, TimeUnit unit) throws SchematronException {
+    try {
+      if (!this._permits.tryAcquire(timeout, unit))
+        throw new SchematronException("Timed out waiting for a validator instance, all "+this._maxSize+" instances are in use");
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SchematronException("Interrupted while waiting for a validator instance", ex);
+    }
+    Validator.Instance instance = null;
+    try {
+      synchronized (this._idle) {
+        evictIdle(System.nanoTime());
+        IdleInstance idle = this._idle.pollFirst();
+        if (idle != null) instance = idle.instance;
+      }
+      if (instance == null) {
+        instance = this._validator.newInstance();
+        this._created.incrementAndGet();
+      }
+    } catch (SchematronException | RuntimeException ex) {
+      this._permits.release();
+      throw ex;
+    }
+    instance.pool = this;
+    this._active.incrementAndGet();
+    return instance;
+  }
+
+  /**
+   * Return an instance to the pool.
+   *
+   * @param instance The instance borrowed from this pool
+   *
+   * @throws IllegalStateException If the instance was not borrowed from this pool or already returned.
+   */
+  public void release(Validator.Instance instance) {
+    if (instance.pool != this)
+      throw new IllegalStateException("Instance was not borrowed from this pool");
+    instance.pool = null;
+    instance.reset();
+    this._active.decrementAndGet();
+    long now = System.nanoTime();
+    synchronized (this._idle) {
+      evictIdle(now);
+      this._idle.addFirst(new IdleInstance(instance, now));
+    }
+    this._permits.release();
+  }
+
+  /**
+   * Remove all idle instances from the pool.
+   */
+  public void clear() {
+    synchronized (this._idle) {
+      this._evicted.addAndGet(this._idle.size());
+      this._idle.clear();
+    }
+  }
+
+  /**
+   * @return The maximum number of instances borrowed at the same time.
+   */
+  public int getMaxSize() {
+    return this._maxSize;
+  }
+
+  /**
+   * @param unit The time unit
+   *
+   * @return How long an instance can remain idle before it is evicted.
+   */
+  public long getIdleTimeout(TimeUnit unit) {
+    return unit.convert(this._idleTimeout, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return The number of instances currently idle in the pool.
+   */
+  public int getIdleCount() {
+    synchronized (this._idle) {
+      return this._idle.size();
+    }
+  }
+
+  /**
+   * @return The number of instances currently borrowed from the pool.
+   */
+  public int getActiveCount() {
+    return this._active.get();
+  }
+
+  /**
+   * @return The total number of instances created by the pool.
+   */
+  public long getCreatedCount() {
+    return this._created.get();
+  }
+
+  /**
+   * @return The number of threads waiting for an instance (an estimate).
+   */
+  public int getWaitingCount() {
+    return this._permits.getQueueLength();
+  }
+
+  /**
+   * @return The total number of idle instances discarded by the pool.
+   */
+  public long getEvictedCount() {
+    return this._evicted.get();
+  }
+
+  @Override
+  public String toString() {
+    return "InstancePool{" +
+        "maxSize=" + this._maxSize +
+        ", idle=" + getIdleCount() +
+        ", active=" + this._active +
+        ", created=" + this._created +
+        ", evicted=" + this._evicted +
+        '}';
+  }
+
+  /**
+   * Evict the instances which have been idle for too long, must be called within a synchronized block.
+   */
+  private void evictIdle(long now) {
+    IdleInstance oldest = this._idle.peekLast();
+    while (oldest != null && now - oldest.since > this._idleTimeout) {
+      this._idle.pollLast();
+      this._evicted.incrementAndGet();
+      oldest = this._idle.peekLast();
+    }
+  }
+
+  /**
+   * An instance in the pool and when it was returned.
+   */
+  private static final class IdleInstance {
+
+    private final Validator.Instance instance;
+
+    private final long since;
+
+    IdleInstance(Validator.Instance instance, long since) {
+      this.instance = instance;
+      this.since = since;
+    }
+  }
+
+}
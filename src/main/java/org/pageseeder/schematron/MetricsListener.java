@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+/**
+ * Receives timings, sizes and counts when schemas are compiled and documents are validated.
+ *
+ * <p>Implementations can bridge these events to any metrics backend. All methods do nothing by
+ * default so that implementations only need to override the events they are interested in.</p>
+ *
+ * <p>Methods may be invoked concurrently by different threads and should return quickly. Times
+ * are measured with <code>System.nanoTime()</code> and only when a listener other than
+ * {@link #NONE} is used.</p>
+ *
+ * @see ValidatorFactory#metrics(MetricsListener)
+ * @see Validator#metrics(MetricsListener)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public interface MetricsListener {
+
+  /**
+   * Listener ignoring all events.
+   */
+  MetricsListener NONE = new MetricsListener() {};
+
+  /**
+   * Returns the listener for the validators compiled from the specified schema.
+   *
+   * <p>This lets implementations attribute the events of each validator to its schema.</p>
+   *
+   * @param systemId The system ID of the schema (may be <code>null</code>)
+   *
+   * @return this listener by default
+   */
+  default MetricsListener forSchema(String systemId) {
+    return this;
+  }
+
+  /**
+   * Invoked when a schema has been loaded in memory before compilation.
+   *
+   * @param systemId The system ID of the schema (may be <code>null</code>)
+   * @param size     The size of the schema in bytes, or in characters if supplied as characters
+   * @param nanos    The time taken to load the schema in nanoseconds
+   */
+  default void onSchemaLoaded(String systemId, int size, long nanos) {}
+
+  /**
+   * Invoked after each step of the Schematron compilation pipeline.
+   *
+   * @param systemId The system ID of the schema (may be <code>null</code>)
+   * @param step     The name of the step: "include.xsl", "expand.xsl" or "compile-for-svrl.xsl"
+   * @param nanos    The time taken by the step in nanoseconds
+   */
+  default void onCompileStep(String systemId, String step, long nanos) {}
+
+  /**
+   * Invoked when the XSLT processor has compiled the validation stylesheet into templates.
+   *
+   * @param systemId The system ID of the schema or stylesheet (may be <code>null</code>)
+   * @param nanos    The time taken to create the templates in nanoseconds
+   */
+  default void onTemplatesCreated(String systemId, long nanos) {}
+
+  /**
+   * Invoked when a transformer has been created for a new validator instance.
+   *
+   * @param nanos The time taken to create and configure the transformer in nanoseconds
+   */
+  default void onTransformerCreated(long nanos) {}
+
+  /**
+   * Invoked when a validator creates a pool of instances.
+   *
+   * @param pool The new pool
+   */
+  default void onPoolCreated(InstancePool pool) {}
+
+  /**
+   * Invoked when a document has been validated.
+   *
+   * @param systemId   The system ID of the document (may be <code>null</code>)
+   * @param nanos      The time taken by the transformation in nanoseconds
+   * @param svrlLength The number of characters of SVRL written, 0 if the SVRL was not serialized
+   * @param asserts    The number of failed assertions
+   * @param reports    The number of successful reports
+   */
+  default void onValidated(String systemId, long nanos, long svrlLength, int asserts, int reports) {}
+
+  /**
+   * Invoked when a document could not be validated.
+   *
+   * @param systemId The system ID of the document (may be <code>null</code>)
+   * @param nanos    The time until the error in nanoseconds
+   * @param ex       The error
+   */
+  default void onValidationError(String systemId, long nanos, SchematronException ex) {}
+
+}
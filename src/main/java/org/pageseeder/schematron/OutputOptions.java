@@ -32,14 +32,14 @@ import java.nio.charset.UnsupportedCharsetException;
  *
  * @author Christophe Lauret
  *
- * @version 2.0
+ * @version 2.5.0
  * @since 2.0
  */
 public final class OutputOptions {
 
-  private static final OutputOptions DEFAULT = new OutputOptions("utf-8", false, false, false);
+  private static final OutputOptions DEFAULT = new OutputOptions("utf-8", false, false, false, 0);
 
-  private static final OutputOptions DEFAULT_COMPATIBILITY = new OutputOptions("utf-8", true, true, true);
+  private static final OutputOptions DEFAULT_COMPATIBILITY = new OutputOptions("utf-8", true, true, true, 0);
 
   private final String encoding;
 
@@ -49,12 +49,15 @@ public final class OutputOptions {
 
   private final boolean usePrefixInLocation;
 
+  private final int maxFailures;
+
   /** Keep constructor private */
-  private OutputOptions(String encoding, boolean indent, boolean omitXmlDeclaration, boolean usePrefixInLocation) {
+  private OutputOptions(String encoding, boolean indent, boolean omitXmlDeclaration, boolean usePrefixInLocation, int maxFailures) {
     this.encoding = encoding;
     this.indent = indent;
     this.omitXmlDeclaration = omitXmlDeclaration;
     this.usePrefixInLocation = usePrefixInLocation;
+    this.maxFailures = maxFailures;
   }
 
   /**
@@ -65,6 +68,7 @@ public final class OutputOptions {
    *   <li><code>indent = false</code></li>
    *   <li><code>omitXmlDeclaration = false</code></li>
    *   <li><code>usePrefixInLocation = false</code></li>
+   *   <li><code>maxFailures = 0</code> (no limit)</li>
    * </ul>
    *
    * <p>In compatibility mode, <code>omitXmlDeclaration = true</code> and <code>usePrefixInLocation = true</code></p>
@@ -88,19 +92,44 @@ public final class OutputOptions {
   public OutputOptions encoding(String encoding) {
     // Check the charset
     Charset.forName(encoding);
-    return new OutputOptions(encoding, this.indent, this.omitXmlDeclaration, this.usePrefixInLocation);
+    return new OutputOptions(encoding, this.indent, this.omitXmlDeclaration, this.usePrefixInLocation, this.maxFailures);
   }
 
   public OutputOptions indent(boolean indent) {
-    return new OutputOptions(this.encoding, indent, this.omitXmlDeclaration, this.usePrefixInLocation);
+    return new OutputOptions(this.encoding, indent, this.omitXmlDeclaration, this.usePrefixInLocation, this.maxFailures);
   }
 
   public OutputOptions omitXmlDeclaration(boolean omitXmlDeclaration) {
-    return new OutputOptions(this.encoding, this.indent, omitXmlDeclaration, this.usePrefixInLocation);
+    return new OutputOptions(this.encoding, this.indent, omitXmlDeclaration, this.usePrefixInLocation, this.maxFailures);
   }
 
   public OutputOptions usePrefixInLocation(boolean usePrefixInLocation) {
-    return new OutputOptions(this.encoding, this.indent, this.omitXmlDeclaration, usePrefixInLocation);
+    return new OutputOptions(this.encoding, this.indent, this.omitXmlDeclaration, usePrefixInLocation, this.maxFailures);
+  }
+
+  /**
+   * Set the maximum number of failed assertions to report.
+   *
+   * <p>When the limit is reached, the SVRL output is closed and the validation stops; the
+   * result is then marked as truncated.</p>
+   *
+   * @param maxFailures the maximum number of failed assertions or 0 for no limit
+   * @return A new set of options.
+   *
+   * @throws IllegalArgumentException If the max failures is negative
+   */
+  public OutputOptions maxFailures(int maxFailures) {
+    if (maxFailures < 0) throw new IllegalArgumentException("Max failures must be positive or zero");
+    return new OutputOptions(this.encoding, this.indent, this.omitXmlDeclaration, this.usePrefixInLocation, maxFailures);
+  }
+
+  /**
+   * Stop the validation at the first failed assertion, equivalent to <code>maxFailures(1)</code>.
+   *
+   * @return A new set of options.
+   */
+  public OutputOptions failFast() {
+    return maxFailures(1);
   }
 
   public String encoding() {
@@ -119,6 +148,13 @@ public final class OutputOptions {
     return this.usePrefixInLocation;
   }
 
+  /**
+   * @return the maximum number of failed assertions to report or 0 for no limit
+   */
+  public int maxFailures() {
+    return this.maxFailures;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -127,6 +163,7 @@ public final class OutputOptions {
     if (indent != that.indent) return false;
     if (omitXmlDeclaration != that.omitXmlDeclaration) return false;
     if (usePrefixInLocation != that.usePrefixInLocation) return false;
+    if (maxFailures != that.maxFailures) return false;
     return encoding.equals(that.encoding);
   }
 
@@ -136,6 +173,7 @@ public final class OutputOptions {
     result = 31 * result + (indent ? 1 : 0);
     result = 31 * result + (omitXmlDeclaration ? 1 : 0);
     result = 31 * result + (usePrefixInLocation ? 1 : 0);
+    result = 31 * result + maxFailures;
     return result;
   }
 
@@ -146,6 +184,7 @@ public final class OutputOptions {
         ", indent=" + indent +
         ", omitXmlDeclaration=" + omitXmlDeclaration +
         ", usePrefixInLocation=" + usePrefixInLocation +
+        ", maxFailures=" + maxFailures +
         '}';
   }
 }
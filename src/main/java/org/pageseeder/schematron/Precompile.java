@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates the validation stylesheets for a directory of Schematron schemas ahead of time so
+ * that they can be packaged as classpath resources.
+ *
+ * <p>Every file with the <code>.sch</code> extension and a <code>sch:schema</code> root element is
+ * compiled to a file with the same relative path and the <code>.xsl</code> extension. Fragments
+ * included by other schemas are skipped.</p>
+ *
+ * <p>When the XSLT processor can export compiled stylesheets (Saxon-EE), a compiled Saxon package
+ * with the <code>.sef</code> extension is also generated for each schema.</p>
+ *
+ * <pre>
+ *   java -cp pso-schematron.jar:Saxon.jar org.pageseeder.schematron.Precompile [schemas] [target]
+ * </pre>
+ *
+ * <p>At run time, validators are loaded with {@link ValidatorFactory#newValidatorFromResource(String)}
+ * without running the Schematron compilation pipeline.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class Precompile {
+
+  private static final String EXTENSION = ".sch";
+
+  private Precompile() {
+  }
+
+  /**
+   * Generate the validation stylesheets for all the schemas in the specified directory.
+   *
+   * @param factory The factory used to compile the schemas
+   * @param schemas The directory containing the schemas
+   * @param target  The directory where the stylesheets are written
+   *
+   * @return The stylesheets generated, excluding compiled packages
+   *
+   * @throws SchematronException If any of the schemas could not be compiled
+   * @throws IOException If the directories could not be read or written to
+   */
+  public static List<Path> precompile(ValidatorFactory factory, Path schemas, Path target)
+      throws SchematronException, IOException {
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(schemas)) {
+      files = walk.filter(p -> p.getFileName().toString().endsWith(EXTENSION) && Files.isRegularFile(p))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+    List<Path> stylesheets = new ArrayList<>();
+    for (Path file : files) {
+      if (!SchemaDependencies.of(file).isSchema()) continue;
+      String relative = schemas.relativize(file).toString();
+      String name = relative.substring(0, relative.length() - EXTENSION.length());
+      Path stylesheet = target.resolve(name + ".xsl");
+      byte[] data = factory.generateStylesheet(new StreamSource(file.toFile()), null);
+      Files.createDirectories(stylesheet.getParent());
+      Files.write(stylesheet, data);
+      stylesheets.add(stylesheet);
+
+      // Loading the stylesheet also checks that it compiles
+      Validator validator = factory.newValidatorFromExport(new ByteArrayInputStream(data), stylesheet.toUri().toString());
+      byte[] compiled = SaxonPackage.export(validator.templates());
+      if (compiled != null) {
+        Files.write(target.resolve(name + ".sef"), compiled);
+      }
+    }
+    return stylesheets;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Schematron precompiler");
+      System.err.println("java -cp pso-schematron.jar:Saxon.jar org.pageseeder.schematron.Precompile [schemas] [target]");
+      System.exit(1);
+    }
+    Path schemas = Paths.get(args[0]);
+    Path target = Paths.get(args[1]);
+    if (!Files.isDirectory(schemas)) {
+      System.err.println("Schemas must be an existing directory");
+      System.exit(1);
+    }
+    try {
+      List<Path> stylesheets = precompile(new ValidatorFactory(), schemas, target);
+      System.out.println("Precompiled "+stylesheets.size()+" schema(s) to "+target);
+    } catch (SchematronException ex) {
+      System.err.println(ex.getMessage());
+      if (ex.getCause() != null) {
+        System.err.println(ex.getCause().getMessage());
+      }
+      System.exit(1);
+    }
+  }
+
+}
@@ -17,6 +17,8 @@ package org.pageseeder.schematron;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.*;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.stream.StreamSource;
 import java.net.URL;
 import java.util.ArrayList;
@@ -31,7 +33,7 @@ import java.util.Map;
  * of the template options.
  *
  * @author Christophe Lauret
- * @version 2.0
+ * @version 2.5.0
  * @since 2.0
  */
 final class Precompiler {
@@ -39,7 +41,7 @@ final class Precompiler {
   /**
    * Name of templates files for pipeline.
    */
-  private static final List<String> STEPS = Arrays.asList("include.xsl", "expand.xsl", "compile-for-svrl.xsl");
+  static final List<String> STEPS = Arrays.asList("include.xsl", "expand.xsl", "compile-for-svrl.xsl");
 
   /**
    * XSLT implementation version
@@ -51,9 +53,21 @@ final class Precompiler {
    */
   private final List<Templates> _pipeline;
 
-  private Precompiler(String version, List<Templates> templates) {
+  /**
+   * Factory used to chain the steps of the pipeline (may be <code>null</code>).
+   */
+  private final SAXTransformerFactory _factory;
+
+  /**
+   * The Saxon configuration of the pipeline (may be <code>null</code>).
+   */
+  private final Object _configuration;
+
+  private Precompiler(String version, List<Templates> templates, SAXTransformerFactory factory) {
     this._xsltVersion = version;
     this._pipeline = templates;
+    this._factory = factory;
+    this._configuration = SourceTree.getConfiguration(templates.get(0));
   }
 
   /**
@@ -80,35 +94,46 @@ final class Precompiler {
     } catch (TransformerException ex) {
       throw new SchematronException("Unable to precompile transformation stylesheets", ex);
     }
-    return new Precompiler(binding.version(), pipeline);
+    return new Precompiler(binding.version(), pipeline, toSAXTransformerFactory(transformerFactory));
   }
 
   /**
    * Generate a compiler using the specified values
    *
    * @return A compiler usnig the specific options
+   */
+  public Compiler prepare(ErrorListener listener, Map<String, Object> parameters) {
+    return prepare(listener, parameters, null);
+  }
+
+  /**
+   * Generate a compiler using the specified values and the fragment cache for included files.
    *
-   * @throws SchematronException If an error occurs while parsing the XSLT templates
+   * @return A compiler using the specific options
    */
-  public Compiler prepare(ErrorListener listener, Map<String, Object> parameters) throws SchematronException {
-    List<Transformer> transformers = new ArrayList<>(3);
-    try {
-      for (Templates templates : this._pipeline) {
-        Transformer transformer = templates.newTransformer();
-        transformer.setErrorListener(listener);
-        // set some parameters if specified (All transformers get all parameters)
-        if (!parameters.isEmpty()) {
-          for (Map.Entry<String, Object> p : parameters.entrySet()) {
-            String name = p.getKey();
-            transformer.setParameter(name, p.getValue());
-          }
-        }
-        transformers.add(transformer);
-      }
-    } catch (TransformerException ex) {
-      throw new SchematronException("Unable to compile Schematron to transformation stylesheet", ex);
+  public Compiler prepare(ErrorListener listener, Map<String, Object> parameters, FragmentCache fragments) {
+    return prepare(listener, parameters, fragments, MetricsListener.NONE);
+  }
+
+  /**
+   * Generate a compiler reporting the time taken by each step to the metrics listener.
+   *
+   * @return A compiler using the specific options
+   */
+  public Compiler prepare(ErrorListener listener, Map<String, Object> parameters, FragmentCache fragments, MetricsListener metrics) {
+    return new Compiler(this._factory, this._pipeline, listener, parameters, fragments, this._configuration, metrics);
+  }
+
+  /**
+   * @return the factory if it supports <code>SAXTransformerFactory</code> features; <code>null</code> otherwise.
+   */
+  private static SAXTransformerFactory toSAXTransformerFactory(TransformerFactory factory) {
+    if (factory instanceof SAXTransformerFactory
+        && factory.getFeature(SAXTransformerFactory.FEATURE)
+        && factory.getFeature(SAXResult.FEATURE)) {
+      return (SAXTransformerFactory) factory;
     }
-    return new Compiler(transformers);
+    return null;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The precompilers shared by all the validator factories.
+ *
+ * <p>Precompilers are keyed by the XSLT processor, that is the implementation class of the transformer
+ * factory and the class of the URI resolver, and by the version of the XSLT templates used by the query
+ * binding, so the "xslt2" and "xslt3" query bindings share the same precompiler. Factories using the same
+ * processor share their precompilers.</p>
+ *
+ * <p>Each precompiler is created only once: when several threads request the same precompiler
+ * concurrently, one thread creates it while the others wait for it. If the precompiler cannot be
+ * created, the error is reported to every waiting thread and the next request tries again.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class PrecompilerRegistry {
+
+  /**
+   * Precompilers by XSLT processor and XSLT version.
+   */
+  private static final ConcurrentMap<Key, CompletableFuture<Precompiler>> PRECOMPILERS = new ConcurrentHashMap<>();
+
+  private PrecompilerRegistry() {}
+
+  /**
+   * Returns the precompiler for the specified processor and query binding, creating it if necessary.
+   *
+   * @param factory  The XSLT processor used to create the precompiler if needed
+   * @param resolver The class of the URI resolver set on the processor (may be <code>null</code>)
+   * @param binding  The query binding
+   *
+   * @return the corresponding precompiler
+   *
+   * @throws SchematronException If the precompiler could not be created.
+   */
+  static Precompiler get(TransformerFactory factory, Class<? extends URIResolver> resolver, QueryBinding binding)
+      throws SchematronException {
+    Key key = new Key(factory.getClass(), resolver, binding.version());
+    CompletableFuture<Precompiler> future = PRECOMPILERS.get(key);
+    if (future == null) {
+      CompletableFuture<Precompiler> created = new CompletableFuture<>();
+      future = PRECOMPILERS.putIfAbsent(key, created);
+      if (future == null) {
+        future = created;
+        try {
+          created.complete(Precompiler.create(factory, binding));
+        } catch (SchematronException | RuntimeException ex) {
+          PRECOMPILERS.remove(key, created);
+          created.completeExceptionally(ex);
+        }
+      }
+    }
+    return await(future);
+  }
+
+  /**
+   * Indicates whether the precompiler for the specified processor and query binding has been created.
+   *
+   * @param factory  The XSLT processor
+   * @param resolver The class of the URI resolver set on the processor (may be <code>null</code>)
+   * @param binding  The query binding
+   *
+   * @return <code>true</code> if the precompiler is available without compilation.
+   */
+  static boolean isReady(TransformerFactory factory, Class<? extends URIResolver> resolver, QueryBinding binding) {
+    CompletableFuture<Precompiler> future = PRECOMPILERS.get(new Key(factory.getClass(), resolver, binding.version()));
+    return future != null && future.isDone() && !future.isCompletedExceptionally();
+  }
+
+  private static Precompiler await(CompletableFuture<Precompiler> future) throws SchematronException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof SchematronException) throw (SchematronException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new SchematronException("Unable to precompile transformation stylesheets", cause);
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Identifies the XSLT processor and XSLT version of a precompiler.
+   */
+  private static final class Key {
+
+    private final Class<?> processor;
+
+    private final Class<?> resolver;
+
+    private final String version;
+
+    Key(Class<?> processor, Class<?> resolver, String version) {
+      this.processor = Objects.requireNonNull(processor);
+      this.resolver = resolver;
+      this.version = Objects.requireNonNull(version);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return this.processor == key.processor && this.resolver == key.resolver && this.version.equals(key.version);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.processor, this.resolver, this.version);
+    }
+  }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Instruments the stylesheets generated by SchXslt to measure the time spent evaluating each rule.
+ *
+ * <p>The evaluation of each rule is surrounded by <code>xsl:message</code> instructions which are
+ * timestamped by a collector as they are received. With Saxon, messages are received using the
+ * message handler of the transformer; other processors report messages as warnings to the error
+ * listener.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class Profiler {
+
+  private static final String XSLT_NS = "http://www.w3.org/1999/XSL/Transform";
+
+  private static final String SVRL_NS = "http://purl.oclc.org/dsdl/svrl";
+
+  private static final String SCHXSLT_NS = "https://doi.org/10.5281/zenodo.1495494";
+
+  /**
+   * The prefix of the messages sent by the instrumented stylesheet.
+   */
+  private static final String PREFIX = "schematron-profile:";
+
+  /**
+   * The pattern of each rule.
+   */
+  private final String[] _patterns;
+
+  /**
+   * The context of each rule.
+   */
+  private final String[] _contexts;
+
+  private Profiler(List<String> patterns, List<String> contexts) {
+    this._patterns = patterns.toArray(new String[0]);
+    this._contexts = contexts.toArray(new String[0]);
+  }
+
+  /**
+   * Instrument the generated stylesheet.
+   *
+   * @param stylesheet The stylesheet generated by SchXslt, modified by this method
+   *
+   * @return The profiler for the rules in the stylesheet.
+   */
+  static Profiler instrument(Document stylesheet) {
+    Map<String, String> names = getPatternNames(stylesheet);
+    List<String> patterns = new ArrayList<>();
+    List<String> contexts = new ArrayList<>();
+    NodeList fired = stylesheet.getElementsByTagNameNS(SVRL_NS, "fired-rule");
+    List<Element> rules = new ArrayList<>(fired.getLength());
+    for (int i = 0; i < fired.getLength(); i++) rules.add((Element) fired.item(i));
+    for (Element rule : rules) {
+      Element template = getAncestor(rule, XSLT_NS, "template");
+      if (template == null) continue;
+      Element container = getAncestor(rule, SCHXSLT_NS, "rule");
+      String key = container != null ? container.getAttribute("pattern") : template.getAttribute("mode");
+      int index = patterns.size();
+      patterns.add(names.getOrDefault(key, key));
+      contexts.add(getContext(rule));
+      if (container != null) {
+        // XSLT 2.0+: the rule is evaluated within 'schxslt:rule' before the next match
+        container.getParentNode().insertBefore(newMessage(stylesheet, index, "s"), container);
+        container.getParentNode().insertBefore(newMessage(stylesheet, index, "e"), container.getNextSibling());
+      } else {
+        // XSLT 1.0: the rule is evaluated in the template before applying templates to child nodes
+        Node parent = rule.getParentNode();
+        parent.insertBefore(newMessage(stylesheet, index, "s"), rule);
+        Element last = getLastChildElement(parent);
+        if (last != null && XSLT_NS.equals(last.getNamespaceURI()) && "apply-templates".equals(last.getLocalName()))
+          parent.insertBefore(newMessage(stylesheet, index, "e"), last);
+        else
+          parent.appendChild(newMessage(stylesheet, index, "e"));
+      }
+    }
+    return new Profiler(patterns, contexts);
+  }
+
+  /**
+   * @return The number of rules instrumented.
+   */
+  int size() {
+    return this._patterns.length;
+  }
+
+  /**
+   * @return A new collector for a single validation.
+   */
+  Collector newCollector() {
+    return new Collector(this);
+  }
+
+  /**
+   * Map the IDs generated by SchXslt for each pattern to the ID or name of the pattern.
+   */
+  private static Map<String, String> getPatternNames(Document stylesheet) {
+    Map<String, String> names = new HashMap<>();
+    NodeList active = stylesheet.getElementsByTagNameNS(SVRL_NS, "active-pattern");
+    for (int i = 0; i < active.getLength(); i++) {
+      Element pattern = (Element) active.item(i);
+      Element group = getAncestor(pattern, SCHXSLT_NS, "pattern");
+      Element template = getAncestor(pattern, XSLT_NS, "template");
+      String key = group != null ? group.getAttribute("id") : template != null ? template.getAttribute("name") : "";
+      String name = !pattern.getAttribute("id").isEmpty() ? pattern.getAttribute("id") : pattern.getAttribute("name");
+      if (!key.isEmpty() && !name.isEmpty()) names.put(key, name);
+    }
+    return names;
+  }
+
+  /**
+   * @return The context of the rule from the 'context' attribute of 'svrl:fired-rule'.
+   */
+  private static String getContext(Element rule) {
+    if (rule.hasAttribute("context")) return rule.getAttribute("context");
+    for (Node n = rule.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (n instanceof Element && XSLT_NS.equals(n.getNamespaceURI()) && "attribute".equals(n.getLocalName())
+          && "context".equals(((Element) n).getAttribute("name"))) {
+        return n.getTextContent().trim();
+      }
+    }
+    return "";
+  }
+
+  private static Element newMessage(Document stylesheet, int index, String event) {
+    Element message = stylesheet.createElementNS(XSLT_NS, "xsl:message");
+    message.setTextContent(PREFIX + index + ':' + event);
+    return message;
+  }
+
+  private static Element getAncestor(Node node, String namespace, String localName) {
+    for (Node n = node.getParentNode(); n != null; n = n.getParentNode()) {
+      if (n instanceof Element && namespace.equals(n.getNamespaceURI()) && localName.equals(n.getLocalName()))
+        return (Element) n;
+    }
+    return null;
+  }
+
+  private static Element getLastChildElement(Node parent) {
+    for (Node n = parent.getLastChild(); n != null; n = n.getPreviousSibling()) {
+      if (n instanceof Element) return (Element) n;
+    }
+    return null;
+  }
+
+  /**
+   * Collects the messages sent by the instrumented stylesheet during a validation.
+   *
+   * <p>This class is not thread-safe.</p>
+   */
+  static final class Collector implements Consumer<Object> {
+
+    private final Profiler profiler;
+
+    private final long[] matches;
+
+    private final long[] times;
+
+    private final long[] started;
+
+    private Method getStringValue;
+
+    Collector(Profiler profiler) {
+      this.profiler = profiler;
+      this.matches = new long[profiler.size()];
+      this.times = new long[profiler.size()];
+      this.started = new long[profiler.size()];
+    }
+
+    /**
+     * Receive the messages from the transformer.
+     *
+     * <p>With Saxon, the message handler of the underlying transformer is set using reflection;
+     * other messages are ignored. With other processors, messages are received as warnings and
+     * other errors are forwarded to the specified listener.</p>
+     *
+     * @param transformer The transformer
+     * @param listener    The error listener of the transformer
+     */
+    void install(Transformer transformer, ErrorListener listener) {
+      transformer.setErrorListener(new ErrorListener() {
+        @Override
+        public void warning(TransformerException ex) throws TransformerException {
+          if (!receive(ex.getMessage())) listener.warning(ex);
+        }
+        @Override
+        public void error(TransformerException ex) throws TransformerException {
+          listener.error(ex);
+        }
+        @Override
+        public void fatalError(TransformerException ex) throws TransformerException {
+          listener.fatalError(ex);
+        }
+      });
+      try {
+        Object xslt = transformer.getClass().getMethod("getUnderlyingXsltTransformer").invoke(transformer);
+        xslt.getClass().getMethod("setMessageHandler", Consumer.class).invoke(xslt, this);
+      } catch (ReflectiveOperationException | RuntimeException ex) {
+        // Not Saxon, messages are reported to the error listener
+      }
+    }
+
+    /**
+     * Receive a Saxon message.
+     */
+    @Override
+    public void accept(Object message) {
+      try {
+        if (this.getStringValue == null) this.getStringValue = message.getClass().getMethod("getStringValue");
+        receive((String) this.getStringValue.invoke(message));
+      } catch (ReflectiveOperationException | RuntimeException ex) {
+        // Ignore
+      }
+    }
+
+    /**
+     * @return <code>true</code> if the message was sent by the instrumented stylesheet.
+     */
+    private boolean receive(String message) {
+      long now = System.nanoTime();
+      if (message == null || !message.startsWith(PREFIX)) return false;
+      int colon = message.lastIndexOf(':');
+      int index;
+      try {
+        index = Integer.parseInt(message.substring(PREFIX.length(), colon));
+      } catch (NumberFormatException ex) {
+        return false;
+      }
+      if (index < 0 || index >= this.started.length) return false;
+      if (message.endsWith("s")) {
+        this.started[index] = now;
+      } else {
+        this.matches[index]++;
+        this.times[index] += now - this.started[index];
+      }
+      return true;
+    }
+
+    /**
+     * @return The profile of the validation.
+     */
+    ValidationProfile toProfile() {
+      List<ValidationProfile.Rule> rules = new ArrayList<>(this.matches.length);
+      for (int i = 0; i < this.matches.length; i++) {
+        rules.add(new ValidationProfile.Rule(this.profiler._patterns[i], this.profiler._contexts[i], this.matches[i], this.times[i]));
+      }
+      return new ValidationProfile(rules);
+    }
+  }
+
+}
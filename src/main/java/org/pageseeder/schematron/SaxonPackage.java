@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Exports and loads compiled stylesheets as Saxon packages (SEF files) using reflection so that
+ * Saxon is not required at compile time.
+ *
+ * <p>Exporting requires Saxon-EE. Loading a package requires a version of Saxon able to read the
+ * packages exported by the version which exported it.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class SaxonPackage {
+
+  /**
+   * The namespace of the root element of exported packages.
+   */
+  static final String NAMESPACE_URI = "http://ns.saxonica.com/xslt/export";
+
+  private SaxonPackage() {}
+
+  /**
+   * Export the templates as a Saxon package.
+   *
+   * @param templates The templates to export
+   *
+   * @return The exported package or <code>null</code> if the processor cannot export the templates.
+   */
+  static byte[] export(Templates templates) {
+    try {
+      Object executable = templates.getClass().getMethod("getImplementation").invoke(templates);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      executable.getClass().getMethod("export", OutputStream.class).invoke(executable, out);
+      return out.toByteArray();
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      // Not Saxon or not Saxon-EE
+      return null;
+    }
+  }
+
+  /**
+   * Load the templates from an exported Saxon package.
+   *
+   * @param factory  The Saxon transformer factory
+   * @param data     The exported package
+   * @param systemId The system ID of the package
+   *
+   * @return The templates
+   *
+   * @throws SchematronException If the factory is not Saxon or the package could not be loaded.
+   */
+  static Templates load(TransformerFactory factory, byte[] data, String systemId) throws SchematronException {
+    try {
+      Object processor = factory.getClass().getMethod("getProcessor").invoke(factory);
+      Object compiler = processor.getClass().getMethod("newXsltCompiler").invoke(processor);
+      Source source = new StreamSource(new ByteArrayInputStream(data), systemId);
+      Object executable = compiler.getClass().getMethod("loadExecutablePackage", Source.class).invoke(compiler, source);
+      Class<?> impl = Class.forName("net.sf.saxon.jaxp.TemplatesImpl", true, factory.getClass().getClassLoader());
+      for (Constructor<?> constructor : impl.getConstructors()) {
+        Class<?>[] types = constructor.getParameterTypes();
+        if (types.length == 2 && types[0].isInstance(factory) && types[1].isInstance(executable))
+          return (Templates) constructor.newInstance(factory, executable);
+      }
+      throw new SchematronException("Unable to load compiled package "+systemId+" with this version of Saxon");
+    } catch (InvocationTargetException ex) {
+      throw new SchematronException("Unable to load compiled package "+systemId, ex.getCause());
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      throw new SchematronException("Unable to load compiled package "+systemId, ex);
+    }
+  }
+
+  /**
+   * Indicates whether the data is an exported Saxon package rather than a stylesheet.
+   *
+   * @param data The exported data
+   *
+   * @return <code>true</code> if the root element is in the Saxon export namespace.
+   *
+   * @throws SchematronException If the data is not well-formed XML.
+   */
+  static boolean isPackage(byte[] data) throws SchematronException {
+    RootHandler handler = new RootHandler();
+    try {
+      XMLReader reader = SchemaSource.newXMLReader();
+      reader.setContentHandler(handler);
+      reader.parse(new InputSource(new ByteArrayInputStream(data)));
+    } catch (SAXException ex) {
+      if (handler.namespace == null) throw new SchematronException("Unable to parse compiled form", ex);
+    } catch (IOException ex) {
+      throw new SchematronException("Unable to parse compiled form", ex);
+    }
+    return NAMESPACE_URI.equals(handler.namespace);
+  }
+
+  /**
+   * Stops parsing after the root element.
+   */
+  private static final class RootHandler extends DefaultHandler {
+
+    private String namespace;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      this.namespace = uri;
+      throw new SAXException("Root element found");
+    }
+  }
+
+}
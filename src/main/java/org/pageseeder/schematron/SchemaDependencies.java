@@ -0,0 +1,324 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the files included by a Schematron schema using <code>sch:include</code> or
+ * <code>sch:extends</code>.
+ *
+ * <p>Only includes resolving to local files are reported.</p>
+ *
+ * <p>When a {@link Cache} is specified, the includes found in each file are remembered so that
+ * looking up the dependencies of a schema again only parses the files whose content has changed.
+ * Every file is still read and hashed on each lookup since the digest of its content is part of
+ * the keys of cached and stored validators.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class SchemaDependencies {
+
+  private static final String SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+
+  /**
+   * The schema file.
+   */
+  private final Path _schema;
+
+  /**
+   * Whether the root element of the file is <code>sch:schema</code>.
+   */
+  private final boolean _isSchema;
+
+  /**
+   * The digest of the content of each file included directly or indirectly by the schema
+   * (empty if the file does not exist).
+   */
+  private final Map<Path, String> _includes;
+
+  private SchemaDependencies(Path schema, boolean isSchema, Map<Path, String> includes) {
+    this._schema = schema;
+    this._isSchema = isSchema;
+    this._includes = Collections.unmodifiableMap(includes);
+  }
+
+  /**
+   * @return The schema file.
+   */
+  Path getSchema() {
+    return this._schema;
+  }
+
+  /**
+   * @return <code>true</code> if the root element of the file is <code>sch:schema</code>;
+   *         <code>false</code> if the file is a fragment.
+   */
+  boolean isSchema() {
+    return this._isSchema;
+  }
+
+  /**
+   * @return All the files included directly or indirectly by the schema.
+   */
+  Set<Path> getIncludes() {
+    return this._includes.keySet();
+  }
+
+  /**
+   * Returns a digest of the paths and content of all the included files.
+   *
+   * @return The SHA-256 digest as a lowercase hexadecimal string or an empty string if there are no includes.
+   */
+  String digest() {
+    if (this._includes.isEmpty()) return "";
+    StringBuilder all = new StringBuilder();
+    for (Map.Entry<Path, String> include : this._includes.entrySet()) {
+      all.append(include.getKey()).append('\n').append(include.getValue()).append('\n');
+    }
+    return SchemaSource.toHex(SchemaSource.sha256(all.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Indicates whether the schema depends on the specified file.
+   *
+   * @param file An absolute and normalized path
+   *
+   * @return <code>true</code> if the file is the schema or one of its includes.
+   */
+  boolean dependsOn(Path file) {
+    return this._schema.equals(file) || this._includes.containsKey(file);
+  }
+
+  /**
+   * Collect the includes of the specified schema file.
+   *
+   * @param schema The schema file
+   *
+   * @return The dependencies of the schema
+   *
+   * @throws SchematronException If the schema could not be parsed.
+   */
+  static SchemaDependencies of(Path schema) throws SchematronException {
+    return of(schema, null);
+  }
+
+  /**
+   * Collect the includes of the specified schema file.
+   *
+   * @param schema The schema file
+   * @param cache  The includes found in previous lookups (may be <code>null</code>)
+   *
+   * @return The dependencies of the schema
+   *
+   * @throws SchematronException If the schema could not be parsed.
+   */
+  static SchemaDependencies of(Path schema, Cache cache) throws SchematronException {
+    Path file = schema.toAbsolutePath().normalize();
+    return of(file, SchemaSource.load(file.toFile()), cache);
+  }
+
+  /**
+   * Collect the includes of the specified schema.
+   *
+   * @param file   The location of the schema
+   * @param source The content of the schema
+   * @param cache  The includes found in previous lookups (may be <code>null</code>)
+   *
+   * @return The dependencies of the schema
+   *
+   * @throws SchematronException If the schema or any of its includes could not be parsed.
+   */
+  static SchemaDependencies of(Path file, SchemaSource source, Cache cache) throws SchematronException {
+    Parsed root = parse(file, source, cache);
+    Map<Path, String> includes = new LinkedHashMap<>();
+    Deque<Path> queue = new ArrayDeque<>(root.includes);
+    while (!queue.isEmpty()) {
+      Path include = queue.pop();
+      if (include.equals(file) || includes.containsKey(include)) continue;
+      Parsed fragment = include(include, cache);
+      if (fragment == null) {
+        includes.put(include, "");
+        continue;
+      }
+      includes.put(include, fragment.digest);
+      queue.addAll(fragment.includes);
+    }
+    return new SchemaDependencies(file, root.isSchema, includes);
+  }
+
+  /**
+   * Returns the includes of an included file.
+   *
+   * @return the parsed include or <code>null</code> if the file does not exist.
+   */
+  private static Parsed include(Path file, Cache cache) throws SchematronException {
+    if (!Files.isRegularFile(file)) return null;
+    return parse(file, SchemaSource.load(file.toFile()), cache);
+  }
+
+  /**
+   * Returns the includes found in the specified file, only parsing it if its content is not the
+   * same as when it was last parsed.
+   */
+  private static Parsed parse(Path file, SchemaSource source, Cache cache) throws SchematronException {
+    String digest = source.digest();
+    Parsed parsed = cache != null ? cache.get(file, digest) : null;
+    if (parsed == null) {
+      parsed = Parsed.of(file, source);
+      if (cache != null) cache.put(file, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * The includes found in a file.
+   */
+  private static final class Parsed {
+
+    /**
+     * The digest of the content of the file which was parsed.
+     */
+    private final String digest;
+
+    private final boolean isSchema;
+
+    private final List<Path> includes;
+
+    private Parsed(String digest, boolean isSchema, List<Path> includes) {
+      this.digest = digest;
+      this.isSchema = isSchema;
+      this.includes = includes;
+    }
+
+    static Parsed of(Path file, SchemaSource source) throws SchematronException {
+      IncludeHandler handler = new IncludeHandler(file.toUri());
+      source.parse(handler);
+      return new Parsed(source.digest(), handler.isSchema, Collections.unmodifiableList(handler.includes));
+    }
+  }
+
+  /**
+   * A bounded cache of the includes found in each file, reused while the content of the file
+   * is the same.
+   *
+   * <p>When the cache is full, the least recently used file is evicted.</p>
+   */
+  static final class Cache {
+
+    /**
+     * Default maximum number of files to keep in the cache.
+     */
+    static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<Path, Parsed> parsed;
+
+    Cache() {
+      this(DEFAULT_MAX_SIZE);
+    }
+
+    Cache(int maxSize) {
+      this.parsed = new LinkedHashMap<Path, Parsed>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Parsed> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    /**
+     * @return The includes found in the file if its content had the specified digest.
+     */
+    synchronized Parsed get(Path file, String digest) {
+      Parsed p = this.parsed.get(file);
+      return p != null && p.digest.equals(digest) ? p : null;
+    }
+
+    synchronized void put(Path file, Parsed p) {
+      this.parsed.put(file, p);
+    }
+
+    synchronized int size() {
+      return this.parsed.size();
+    }
+
+    synchronized void clear() {
+      this.parsed.clear();
+    }
+  }
+
+  /**
+   * Collects the <code>href</code> of <code>sch:include</code> and <code>sch:extends</code> elements.
+   */
+  private static final class IncludeHandler extends DefaultHandler {
+
+    private final URI base;
+
+    private final List<Path> includes = new ArrayList<>();
+
+    private boolean root = true;
+
+    private boolean isSchema;
+
+    IncludeHandler(URI base) {
+      this.base = base;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+      boolean schematron = SCHEMATRON_NS.equals(uri);
+      if (this.root) {
+        this.isSchema = schematron && "schema".equals(localName);
+        this.root = false;
+      }
+      if (schematron && ("include".equals(localName) || "extends".equals(localName))) {
+        String href = atts.getValue("href");
+        if (href != null) add(href);
+      }
+    }
+
+    private void add(String href) {
+      try {
+        URI resolved = this.base.resolve(href.replaceAll("#.*$", "").replace(" ", "%20"));
+        if ("file".equals(resolved.getScheme())) {
+          this.includes.add(Paths.get(resolved).normalize());
+        }
+      } catch (IllegalArgumentException | FileSystemNotFoundException ex) {
+        // Not a local file, the compiler will report it if it cannot be resolved
+      }
+    }
+  }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * A schema source which can be read multiple times.
+ *
+ * <p>Stream sources are buffered in memory and other sources are serialized once, so that the
+ * schema can be streamed through the SAX compilation pipeline without building a tree. The digest
+ * of the content is only computed when a cache or stylesheet store needs a key.</p>
+ *
+ * <p>Stream sources are always parsed using a SAX parser which does not allow access to external
+ * DTDs or entities.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class SchemaSource {
+
+  /**
+   * The system ID of the schema (may be <code>null</code>)
+   */
+  private final String _systemId;
+
+  /**
+   * The raw content of the schema when loaded from bytes.
+   */
+  private final byte[] _data;
+
+  /**
+   * The content of the schema when loaded from characters.
+   */
+  private final String _text;
+
+  /**
+   * Whether the content was read from the system ID, so that it can be read again.
+   */
+  private final boolean _fromSystemId;
+
+  /**
+   * SHA-256 digest of the content computed lazily.
+   */
+  private volatile String _digest;
+
+  /**
+   * The value of the query binding on the root element computed lazily.
+   */
+  private volatile String _queryBinding;
+
+  private SchemaSource(String systemId, byte[] data, String text, boolean fromSystemId) {
+    this._systemId = systemId;
+    this._data = data;
+    this._text = text;
+    this._fromSystemId = fromSystemId;
+  }
+
+  /**
+   * Load the content of the specified source.
+   *
+   * @param source  The source of the schema
+   * @param factory The factory to use to serialize non-stream sources
+   *
+   * @return A new reusable schema source.
+   *
+   * @throws SchematronException If the schema could not be read.
+   */
+  static SchemaSource load(Source source, TransformerFactory factory) throws SchematronException {
+    String systemId = source.getSystemId();
+    try {
+      if (source instanceof StreamSource) {
+        StreamSource stream = (StreamSource) source;
+        if (stream.getInputStream() != null) {
+          return new SchemaSource(systemId, readAll(stream.getInputStream()), null, false);
+        } else if (stream.getReader() != null) {
+          return new SchemaSource(systemId, null, readAll(stream.getReader()), false);
+        } else if (systemId != null) {
+          try (InputStream in = open(systemId)) {
+            return new SchemaSource(systemId, readAll(in), null, true);
+          }
+        }
+      }
+      // Serialize any other type of source (DOM, SAX, StAX, etc...)
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      factory.newTransformer().transform(source, new StreamResult(out));
+      return new SchemaSource(systemId, out.toByteArray(), null, false);
+    } catch (IOException | TransformerException ex) {
+      throw new SchematronException("Unable to parse source schema", ex);
+    }
+  }
+
+  /**
+   * Load the content of the specified schema file.
+   *
+   * @param file The schema file
+   *
+   * @return A new reusable schema source.
+   *
+   * @throws SchematronException If the schema could not be read.
+   */
+  static SchemaSource load(File file) throws SchematronException {
+    String systemId = file.toURI().toString();
+    try (InputStream in = new FileInputStream(file)) {
+      return new SchemaSource(systemId, readAll(in), null, true);
+    } catch (IOException ex) {
+      throw new SchematronException("Unable to read source schema", ex);
+    }
+  }
+
+  /**
+   * @return The system ID of the schema.
+   */
+  String getSystemId() {
+    return this._systemId;
+  }
+
+  /**
+   * @return <code>true</code> if the schema was read from its system ID and can be loaded again from it.
+   */
+  boolean isFromSystemId() {
+    return this._fromSystemId;
+  }
+
+  /**
+   * @return The size of the schema in bytes, or in characters if it was loaded from characters.
+   */
+  int size() {
+    return this._data != null ? this._data.length : this._text.length();
+  }
+
+  /**
+   * Returns a new source for the schema ensuring that the <code>queryBinding</code> attribute
+   * is specified on the root element.
+   *
+   * @param defaultQueryBinding The query binding to use if not specified in the schema
+   *
+   * @return a new SAX source
+   *
+   * @throws SchematronException If the SAX parser could not be configured
+   */
+  Source newSource(String defaultQueryBinding) throws SchematronException {
+    XMLFilter filter = new QueryBindingFilter(newXMLReader(), defaultQueryBinding);
+    return new SAXSource(filter, newInputSource());
+  }
+
+  /**
+   * Returns the value of the <code>queryBinding</code> attribute on the root element.
+   *
+   * <p>Only the start of the schema is parsed.</p>
+   *
+   * @return The value of the attribute in lower case or an empty string if not specified.
+   *
+   * @throws SchematronException If the schema could not be parsed.
+   */
+  String getQueryBinding() throws SchematronException {
+    String queryBinding = this._queryBinding;
+    if (queryBinding == null) {
+      XMLReader reader = newXMLReader();
+      RootHandler handler = new RootHandler();
+      reader.setContentHandler(handler);
+      try {
+        reader.parse(newInputSource());
+      } catch (SAXException ex) {
+        if (handler.queryBinding == null)
+          throw new SchematronException("Unable to parse source schema", ex);
+      } catch (IOException ex) {
+        throw new SchematronException("Unable to parse source schema", ex);
+      }
+      if (handler.queryBinding == null)
+        throw new SchematronException("Unable to find root element of source schema");
+      this._queryBinding = queryBinding = handler.queryBinding.toLowerCase();
+    }
+    return queryBinding;
+  }
+
+  /**
+   * Parse the entire schema using the specified content handler.
+   *
+   * @param handler The content handler receiving the SAX events
+   *
+   * @throws SchematronException If the schema could not be parsed.
+   */
+  void parse(ContentHandler handler) throws SchematronException {
+    XMLReader reader = newXMLReader();
+    reader.setContentHandler(handler);
+    try {
+      reader.parse(newInputSource());
+    } catch (SAXException | IOException ex) {
+      throw new SchematronException("Unable to parse source schema", ex);
+    }
+  }
+
+  /**
+   * @return The SHA-256 digest of the content of the schema as a lowercase hexadecimal string.
+   */
+  String digest() throws SchematronException {
+    String digest = this._digest;
+    if (digest == null) {
+      byte[] data = this._data != null ? this._data : this._text.getBytes(StandardCharsets.UTF_8);
+      this._digest = digest = toHex(sha256(data));
+    }
+    return digest;
+  }
+
+  static byte[] sha256(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException ex) {
+      // All Java platforms are required to support SHA-256
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private InputSource newInputSource() {
+    InputSource input = this._data != null
+        ? new InputSource(new ByteArrayInputStream(this._data))
+        : new InputSource(new StringReader(this._text));
+    input.setSystemId(this._systemId);
+    return input;
+  }
+
+  static XMLReader newXMLReader() throws SchematronException {
+    try {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      XMLReader reader = factory.newSAXParser().getXMLReader();
+      // If DTDs (doctypes) are disallowed, almost all XML entity attacks are prevented
+      reader.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      return reader;
+    } catch (ParserConfigurationException | SAXException ex) {
+      throw new SchematronException("Unable to configure parser for source schema", ex);
+    }
+  }
+
+  private static InputStream open(String systemId) throws IOException {
+    try {
+      return new URL(systemId).openStream();
+    } catch (MalformedURLException ex) {
+      // Assume it is a file path
+      return new FileInputStream(systemId);
+    }
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  private static String readAll(Reader in) throws IOException {
+    StringBuilder out = new StringBuilder();
+    char[] buffer = new char[8192];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.append(buffer, 0, read);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Reads the query binding on the root element and stops parsing.
+   */
+  private static final class RootHandler extends DefaultHandler {
+
+    private String queryBinding;
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      String value = atts.getValue("", "queryBinding");
+      this.queryBinding = value != null ? value : "";
+      throw new SAXException("Root element found");
+    }
+  }
+
+  /**
+   * Adds the <code>queryBinding</code> attribute on the root element if not specified.
+   */
+  private static final class QueryBindingFilter extends XMLFilterImpl {
+
+    private final String defaultQueryBinding;
+
+    private boolean root = true;
+
+    QueryBindingFilter(XMLReader parent, String defaultQueryBinding) {
+      super(parent);
+      this.defaultQueryBinding = defaultQueryBinding;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+      if (this.root) {
+        int index = atts.getIndex("", "queryBinding");
+        if (index < 0) {
+          AttributesImpl attributes = new AttributesImpl(atts);
+          attributes.addAttribute("", "queryBinding", "queryBinding", "CDATA", this.defaultQueryBinding);
+          atts = attributes;
+        } else if (atts.getValue(index).isEmpty()) {
+          AttributesImpl attributes = new AttributesImpl(atts);
+          attributes.setValue(index, this.defaultQueryBinding);
+          atts = attributes;
+        }
+      }
+      this.root = false;
+      super.startElement(uri, localName, qName, atts);
+    }
+  }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * A snapshot of the validations performed with the validators of a schema.
+ *
+ * <p>Percentiles are computed from the most recent validations only.</p>
+ *
+ * @see ValidatorMonitor
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class SchemaStatistics {
+
+  private final String schema;
+  private final long validationCount;
+  private final long errorCount;
+  private final double throughput;
+  private final double meanMillis;
+  private final double p50Millis;
+  private final double p95Millis;
+  private final double p99Millis;
+  private final double maxMillis;
+
+  SchemaStatistics(String schema, long validationCount, long errorCount, double throughput,
+                   double meanMillis, double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+    this.schema = schema;
+    this.validationCount = validationCount;
+    this.errorCount = errorCount;
+    this.throughput = throughput;
+    this.meanMillis = meanMillis;
+    this.p50Millis = p50Millis;
+    this.p95Millis = p95Millis;
+    this.p99Millis = p99Millis;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * @return The system ID of the schema.
+   */
+  public String getSchema() {
+    return this.schema;
+  }
+
+  /**
+   * @return The number of documents validated.
+   */
+  public long getValidationCount() {
+    return this.validationCount;
+  }
+
+  /**
+   * @return The number of documents which could not be validated.
+   */
+  public long getErrorCount() {
+    return this.errorCount;
+  }
+
+  /**
+   * @return The number of validations per second since the first validation.
+   */
+  public double getThroughput() {
+    return this.throughput;
+  }
+
+  /**
+   * @return The mean validation time in milliseconds.
+   */
+  public double getMeanMillis() {
+    return this.meanMillis;
+  }
+
+  /**
+   * @return The median validation time in milliseconds.
+   */
+  public double getP50Millis() {
+    return this.p50Millis;
+  }
+
+  /**
+   * @return The 95th percentile of the validation time in milliseconds.
+   */
+  public double getP95Millis() {
+    return this.p95Millis;
+  }
+
+  /**
+   * @return The 99th percentile of the validation time in milliseconds.
+   */
+  public double getP99Millis() {
+    return this.p99Millis;
+  }
+
+  /**
+   * @return The maximum validation time in milliseconds.
+   */
+  public double getMaxMillis() {
+    return this.maxMillis;
+  }
+
+  /**
+   * Reconstructs the statistics from the data returned by the MXBean.
+   *
+   * @param data The composite data
+   *
+   * @return The corresponding statistics
+   */
+  public static SchemaStatistics from(CompositeData data) {
+    return new SchemaStatistics((String) data.get("schema"), (Long) data.get("validationCount"),
+        (Long) data.get("errorCount"), (Double) data.get("throughput"), (Double) data.get("meanMillis"),
+        (Double) data.get("p50Millis"), (Double) data.get("p95Millis"), (Double) data.get("p99Millis"),
+        (Double) data.get("maxMillis"));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d validations (%d errors), %.1f/s, mean=%.3fms p50=%.3fms p95=%.3fms p99=%.3fms max=%.3fms",
+        this.schema, this.validationCount, this.errorCount, this.throughput, this.meanMillis,
+        this.p50Millis, this.p95Millis, this.p99Millis, this.maxMillis);
+  }
+}
@@ -54,7 +54,7 @@ import org.pageseeder.schematron.svrl.*;
  * @author Christophe lauret
  * @author Willy Ekasalim
  *
- * @version 2.0
+ * @version 2.5.0
  * @since 1.0
  */
 public final class SchematronResult implements Serializable {
@@ -79,6 +79,16 @@ public final class SchematronResult implements Serializable {
    */
   private int reportsCount = -1;
 
+  /**
+   * Whether the validation stopped because the maximum number of failures was reached.
+   */
+  private boolean truncated = false;
+
+  /**
+   * The profile of the rules if the validator was compiled with profiling enabled.
+   */
+  private ValidationProfile profile;
+
   /**
    * Constructor of SchematronResult that accept the source file name (or systemID)
    *
@@ -94,10 +104,16 @@ public final class SchematronResult implements Serializable {
    * @param systemID The system ID of the XML for which this result instance is built.
    */
   public SchematronResult(String systemID, SVRLData svrl, int assertsCount, int reportsCount) {
+    this(systemID, svrl, assertsCount, reportsCount, false, null);
+  }
+
+  private SchematronResult(String systemID, SVRLData svrl, int assertsCount, int reportsCount, boolean truncated, ValidationProfile profile) {
     this.systemID = systemID;
     this.svrl = svrl;
     this.assertsCount = assertsCount;
     this.reportsCount = reportsCount;
+    this.truncated = truncated;
+    this.profile = profile;
   }
 
   /**
@@ -131,6 +147,44 @@ public final class SchematronResult implements Serializable {
     return this.reportsCount > 0;
   }
 
+  /**
+   * When the result is truncated, the counts and SVRL only include the results until the
+   * maximum number of failures was reached.
+   *
+   * @see OutputOptions#maxFailures(int)
+   *
+   * @return <code>true</code> if the validation stopped because the maximum number of failures was reached;
+   *         <code>false</code> otherwise
+   */
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+
+  /**
+   * Returns the time spent evaluating each rule during the validation.
+   *
+   * @see CompileOptions#profile(boolean)
+   *
+   * @return The profile or <code>null</code> if the validator was not compiled with profiling enabled.
+   */
+  public ValidationProfile getProfile() {
+    return this.profile;
+  }
+
+  /**
+   * @return the number of failed assertions
+   */
+  public int getAssertsCount() {
+    return this.assertsCount;
+  }
+
+  /**
+   * @return the number of successful reports
+   */
+  public int getReportsCount() {
+    return this.reportsCount;
+  }
+
   /**
    * Setter for SVRL content/file.
    *
@@ -146,12 +200,16 @@ public final class SchematronResult implements Serializable {
   /**
    * Parse the SVRL output and generate the corresponding SchematronOutput instance.
    *
+   * <p>If the result was produced with <code>validateToModel</code>, the model is returned directly.</p>
+   *
    * @return the corresponding SchematronOutput instance.
    * @throws SchematronException If any error occurs during parsing.
    */
   public SchematronOutput toSchematronOutput() throws SchematronException {
+    SVRLData svrl = svrl();
+    if (svrl instanceof SVRLModel) return ((SVRLModel)svrl).getSchematronOutput();
     try {
-      return SVRLParser.parse(this.svrl.getReader());
+      return SVRLParser.parse(svrl.getReader());
     } catch (IOException ex) {
       throw new SchematronException(ex);
     }
@@ -161,21 +219,21 @@ public final class SchematronResult implements Serializable {
    * @return SVRL content as String representation.
    */
   public String getSVRLAsString() {
-    return this.svrl.asString();
+    return svrl().asString();
   }
 
   /**
    * @return SVRL content as a byte array.
    */
   public byte[] getSVRLAsBytes() {
-    return this.svrl.asByteArray();
+    return svrl().asByteArray();
   }
 
   /**
    * @return Reader on the SVRL content.
    */
   public Reader getSVRLReader() throws IOException {
-    return this.svrl.getReader();
+    return svrl().getReader();
   }
 
   /**
@@ -183,9 +241,13 @@ public final class SchematronResult implements Serializable {
    *
    * <p>This method is used for Pageseeder Schematron Validation error output.
    *
+   * <p>When the SVRL is not available, only the number of failed assertions is returned.
+   *
    * @return a concatenation of all failed messages.
    */
   public String getFailedMessage() {
+    if (this.svrl == null && this.assertsCount > 0)
+      return this.assertsCount + (this.assertsCount == 1 ? " failed assertion" : " failed assertions");
     StringBuilder out = new StringBuilder();
     if (this.assertsCount > 0) {
       SchematronOutput output = toSchematronOutputSilently();
@@ -196,17 +258,39 @@ public final class SchematronResult implements Serializable {
     return out.toString();
   }
 
+  /**
+   * Methods accessing the SVRL throw an <code>IllegalStateException</code> when it is not available.
+   *
+   * @return <code>true</code> if the SVRL is available;
+   *         <code>false</code> if the validation only counted asserts and reports
+   */
+  public boolean hasSVRL() {
+    return this.svrl != null;
+  }
+
   // private helpers
   // ----------------------------------------------------------------------------------------------
 
+  /**
+   * @return the SVRL data
+   * @throws IllegalStateException if the validation did not produce any SVRL
+   */
+  private SVRLData svrl() {
+    if (this.svrl == null)
+      throw new IllegalStateException("No SVRL available, the document was validated in counts only mode");
+    return this.svrl;
+  }
+
   /**
    * Parse the SVRL content to extract any failed or success message.
    *
    * <p>The message will be stored in failedAssertions and successfulReports by SVRL handler.
    */
   private SchematronOutput toSchematronOutputSilently() {
+    SVRLData svrl = svrl();
+    if (svrl instanceof SVRLModel) return ((SVRLModel)svrl).getSchematronOutput();
     try {
-      return SVRLParser.parse(this.svrl.getReader());
+      return SVRLParser.parse(svrl.getReader());
     } catch (IOException ex) {
       throw new UncheckedIOException(ex);
     } catch (SchematronException ex) {
@@ -236,6 +320,16 @@ public final class SchematronResult implements Serializable {
      */
     private int reportsCount = -1;
 
+    /**
+     * Whether the validation stopped because the maximum number of failures was reached.
+     */
+    private boolean truncated = false;
+
+    /**
+     * The profile of the rules.
+     */
+    private ValidationProfile profile;
+
     public Builder setSystemID(String systemID) {
       this.systemID = systemID;
       return this;
@@ -256,8 +350,18 @@ public final class SchematronResult implements Serializable {
       return this;
     }
 
+    public Builder setTruncated(boolean truncated) {
+      this.truncated = truncated;
+      return this;
+    }
+
+    public Builder setProfile(ValidationProfile profile) {
+      this.profile = profile;
+      return this;
+    }
+
     public SchematronResult build() {
-      return new SchematronResult(this.systemID, svrl, assertsCount, reportsCount);
+      return new SchematronResult(this.systemID, svrl, assertsCount, reportsCount, truncated, profile);
     }
   }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Parses an XML document once into a tree which can be supplied as a source to multiple
+ * transformations.
+ *
+ * <p>With Saxon, the document is built into the processor's native tree using the configuration
+ * of the templates, so that it can be used concurrently by any validator compiled with the same
+ * configuration. With other processors, the document is parsed into a DOM.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class SourceTree {
+
+  private SourceTree() {}
+
+  /**
+   * Returns the configuration of the processor which compiled the templates.
+   *
+   * <p>Trees can only be shared by templates with the same configuration.</p>
+   *
+   * @param templates The templates (may be <code>null</code>)
+   *
+   * @return The Saxon configuration or <code>null</code> if the templates were not compiled by Saxon.
+   */
+  static Object getConfiguration(Templates templates) {
+    if (templates == null) return null;
+    try {
+      Object executable = templates.getClass().getMethod("getImplementation").invoke(templates);
+      Object processor = executable.getClass().getMethod("getProcessor").invoke(executable);
+      return processor.getClass().getMethod("getUnderlyingConfiguration").invoke(processor);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Build a tree from the XML source.
+   *
+   * @param configuration The Saxon configuration to use or <code>null</code> to build a DOM
+   * @param xml           The XML source to parse
+   *
+   * @return The tree as a source
+   *
+   * @throws SchematronException If the source could not be parsed.
+   */
+  static Source build(Object configuration, Source xml) throws SchematronException {
+    return configuration != null ? buildSaxonTree(configuration, xml) : buildDOM(xml);
+  }
+
+  /**
+   * @return <code>true</code> if the tree can be read concurrently by multiple transformations.
+   */
+  static boolean isThreadSafe(Source tree) {
+    return !(tree instanceof DOMSource);
+  }
+
+  /**
+   * Build a Saxon tree using reflection.
+   *
+   * @return The root node of the tree.
+   */
+  private static Source buildSaxonTree(Object configuration, Source xml) throws SchematronException {
+    try {
+      Method buildDocumentTree = configuration.getClass().getMethod("buildDocumentTree", Source.class);
+      Object treeInfo = buildDocumentTree.invoke(configuration, xml);
+      return (Source) treeInfo.getClass().getMethod("getRootNode").invoke(treeInfo);
+    } catch (InvocationTargetException ex) {
+      throw new SchematronException("Unable to parse source document", ex.getCause());
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      throw new SchematronException("Unable to parse source document", ex);
+    }
+  }
+
+  private static Source buildDOM(Source xml) throws SchematronException {
+    try {
+      TransformerFactory factory = TransformerFactory.newInstance();
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+      DOMResult result = new DOMResult();
+      factory.newTransformer().transform(xml, result);
+      return new DOMSource(result.getNode(), xml.getSystemId());
+    } catch (TransformerException ex) {
+      throw new SchematronException("Unable to parse source document", ex);
+    }
+  }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.TransformerFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A heuristic lint reporting rules of a schema which are unlikely to be streamable with XSLT 3.0.
+ *
+ * <p>This is NOT a streamability analysis: the XPath expressions are not parsed, the text of each
+ * expression is matched against regular expressions looking for constructs that are not
+ * guaranteed-streamable in XSLT 3.0: reverse or sibling axes, absolute paths, positional functions
+ * requiring look-ahead and pattern predicates that are not motionless.</p>
+ *
+ * <p>As a result, it can report false positives (for example a name test which happens to look like
+ * a keyword, or an XPath comment) and miss problems, for example a <code>preceding::</code> axis
+ * used inside a function called by the rule, in a global variable, in an abstract pattern or in an
+ * included schema, none of which are analysed. Its warnings are only hints, the XSLT processor
+ * performs the definitive analysis when compiling the validation stylesheet.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class Streamability {
+
+  private static final String SCHEMATRON_NS = "http://purl.oclc.org/dsdl/schematron";
+
+  /**
+   * Axes which are never streamable.
+   */
+  private static final Pattern NON_STREAMABLE_AXIS = Pattern.compile("\\b(preceding|preceding-sibling|following|following-sibling)\\s*::");
+
+  /**
+   * Functions which require the whole document or look-ahead.
+   */
+  private static final Pattern NON_STREAMABLE_FUNCTION = Pattern.compile("(?<![\\w.:-])(last|key|id|idref|element-with-id|root)\\s*\\(");
+
+  /**
+   * An absolute path: a slash at the start of an expression or after an operator or separator.
+   */
+  private static final Pattern ABSOLUTE_PATH = Pattern.compile("(^|[(\\[,=<>!+*|]|\\b(and|or|return|then|else|satisfies|in)\\s)\\s*/");
+
+  /**
+   * A name test (child step) or a reference to the context item within a predicate.
+   */
+  private static final Pattern NAME_TEST = Pattern.compile("(?<![@$\\w.:-])([A-Za-z_*][\\w.-]*(:[\\w.*-]+)?)(?![\\w.:-]*\\s*\\()|(?<![\\w.])\\.(?![\\w./])|\\btext\\s*\\(|\\bnode\\s*\\(");
+
+  /**
+   * XPath keywords which must not be mistaken for name tests.
+   */
+  private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+      "and", "or", "div", "idiv", "mod", "eq", "ne", "lt", "le", "gt", "ge", "is", "to",
+      "instance", "of", "treat", "as", "castable", "cast", "union", "intersect", "except",
+      "if", "then", "else", "for", "in", "return", "some", "every", "satisfies", "let"));
+
+  private Streamability() {}
+
+  /**
+   * Analyse the rules of the schema.
+   *
+   * @param source The schema
+   *
+   * @return The list of issues found, empty if the schema appears streamable.
+   *
+   * @throws SchematronException If the schema could not be parsed.
+   */
+  static List<String> check(SchemaSource source) throws SchematronException {
+    RuleHandler handler = new RuleHandler();
+    source.parse(handler);
+    return handler.issues;
+  }
+
+  /**
+   * Returns the edition of Saxon (e.g. "HE", "PE" or "EE") using reflection.
+   *
+   * @param factory The transformer factory
+   *
+   * @return the edition code or <code>null</code> if the factory is not from Saxon.
+   */
+  static String getSaxonEdition(TransformerFactory factory) {
+    try {
+      Method getConfiguration = factory.getClass().getMethod("getConfiguration");
+      Object configuration = getConfiguration.invoke(factory);
+      Method getEditionCode = configuration.getClass().getMethod("getEditionCode");
+      return (String) getEditionCode.invoke(configuration);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Check an expression used within a rule.
+   *
+   * @return the list of problems found in the expression.
+   */
+  static List<String> checkExpression(String expression) {
+    String xpath = stripLiterals(expression);
+    List<String> problems = new ArrayList<>();
+    Matcher axis = NON_STREAMABLE_AXIS.matcher(xpath);
+    if (axis.find()) problems.add("uses the '"+axis.group(1)+"' axis");
+    Matcher function = NON_STREAMABLE_FUNCTION.matcher(xpath);
+    if (function.find()) problems.add("uses the '"+function.group(1)+"()' function");
+    if (ABSOLUTE_PATH.matcher(xpath).find()) problems.add("uses an absolute path");
+    return problems;
+  }
+
+  /**
+   * Check a rule context, predicates must be motionless.
+   *
+   * @return the list of problems found in the pattern.
+   */
+  static List<String> checkPattern(String pattern) {
+    String xpath = stripLiterals(pattern);
+    List<String> problems = new ArrayList<>();
+    Matcher axis = NON_STREAMABLE_AXIS.matcher(xpath);
+    if (axis.find()) problems.add("uses the '"+axis.group(1)+"' axis");
+    for (String predicate : predicates(xpath)) {
+      if (!isMotionless(predicate)) {
+        problems.add("has a predicate which is not motionless ["+predicate+"]");
+        break;
+      }
+    }
+    return problems;
+  }
+
+  private static boolean isMotionless(String predicate) {
+    // Remove variable references and function names first
+    Matcher m = NAME_TEST.matcher(predicate);
+    while (m.find()) {
+      String name = m.group(1);
+      if (name == null || !KEYWORDS.contains(name)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the top-level predicates in the pattern.
+   */
+  private static List<String> predicates(String xpath) {
+    List<String> predicates = new ArrayList<>();
+    int depth = 0;
+    int start = -1;
+    for (int i = 0; i < xpath.length(); i++) {
+      char c = xpath.charAt(i);
+      if (c == '[') {
+        if (depth == 0) start = i+1;
+        depth++;
+      } else if (c == ']' && depth > 0) {
+        depth--;
+        if (depth == 0) predicates.add(xpath.substring(start, i).trim());
+      }
+    }
+    return predicates.isEmpty() ? Collections.emptyList() : predicates;
+  }
+
+  /**
+   * Replace string literals by empty strings so that their content is not analysed.
+   */
+  private static String stripLiterals(String xpath) {
+    return xpath.replaceAll("\"[^\"]*\"", "\"\"").replaceAll("'[^']*'", "''");
+  }
+
+  /**
+   * Collects issues for each rule in the schema.
+   */
+  private static final class RuleHandler extends DefaultHandler {
+
+    private final List<String> issues = new ArrayList<>();
+
+    private Locator locator;
+
+    private String rule;
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+      this.locator = locator;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+      if (!SCHEMATRON_NS.equals(uri)) return;
+      switch (localName) {
+        case "rule":
+          String context = atts.getValue("context");
+          String id = atts.getValue("id");
+          this.rule = id != null ? "'"+id+"'" : "'"+context+"'";
+          if (context != null) report("context", checkPattern(context));
+          break;
+        case "assert":
+        case "report":
+          if (this.rule != null) report(localName+" test", checkExpression(nonNull(atts.getValue("test"))));
+          break;
+        case "let":
+          if (this.rule != null) report("variable $"+atts.getValue("name"), checkExpression(nonNull(atts.getValue("value"))));
+          break;
+        case "value-of":
+          if (this.rule != null) report("value-of", checkExpression(nonNull(atts.getValue("select"))));
+          break;
+        default:
+      }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if (SCHEMATRON_NS.equals(uri) && "rule".equals(localName)) {
+        this.rule = null;
+      }
+    }
+
+    private void report(String what, List<String> problems) {
+      for (String problem : problems) {
+        String line = this.locator != null ? " (line "+this.locator.getLineNumber()+")" : "";
+        this.issues.add("Rule "+this.rule+line+": "+what+" "+problem);
+      }
+    }
+
+    private static String nonNull(String value) {
+      return value != null ? value : "";
+    }
+  }
+
+}
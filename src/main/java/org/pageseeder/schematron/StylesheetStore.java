@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.io.IOException;
+
+/**
+ * Implementations can store the validation stylesheets generated from a schema so that they
+ * can be reused without running the Schematron compilation pipeline again.
+ *
+ * <p>Keys are computed by the factory from the content of the schema, its system ID, the phase,
+ * the compile options and the version of this library. They only contain lowercase hexadecimal
+ * characters.</p>
+ *
+ * <p>Implementations must be thread-safe.</p>
+ *
+ * @see ValidatorFactory#store(StylesheetStore)
+ * @see FileStylesheetStore
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public interface StylesheetStore {
+
+  /**
+   * Return the stylesheet stored for the specified key.
+   *
+   * @param key The key of the stylesheet.
+   *
+   * @return The stylesheet encoded in UTF-8 or <code>null</code> if not found.
+   *
+   * @throws IOException should an IOException occur
+   */
+  byte[] get(String key) throws IOException;
+
+  /**
+   * Store the stylesheet for the specified key.
+   *
+   * @param key        The key of the stylesheet.
+   * @param stylesheet The stylesheet encoded in UTF-8.
+   *
+   * @throws IOException should an IOException occur
+   */
+  void put(String key, byte[] stylesheet) throws IOException;
+
+}
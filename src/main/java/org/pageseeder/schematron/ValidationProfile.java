@@ -0,0 +1,230 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time spent evaluating each rule and pattern of a schema during a validation.
+ *
+ * <p>Profiles are only available when the validator was compiled with the
+ * {@link CompileOptions#profile(boolean)} option.</p>
+ *
+ * <p>For each rule, the profile records the number of times its context matched a node and the
+ * cumulative time spent evaluating its variables, assertions and reports. The time spent
+ * traversing the document and serializing the SVRL is not attributed to any rule. Since profiling
+ * adds overhead to each rule evaluation, times should be compared with one another rather than
+ * with the time of an unprofiled validation.</p>
+ *
+ * @see SchematronResult#getProfile()
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class ValidationProfile implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final List<Rule> _rules;
+
+  ValidationProfile(List<Rule> rules) {
+    this._rules = Collections.unmodifiableList(new ArrayList<>(rules));
+  }
+
+  /**
+   * @return The rules in the order they are defined in the schema.
+   */
+  public List<Rule> getRules() {
+    return this._rules;
+  }
+
+  /**
+   * @return The rules sorted by decreasing evaluation time.
+   */
+  public List<Rule> getSlowestRules() {
+    List<Rule> rules = new ArrayList<>(this._rules);
+    rules.sort(Comparator.comparingLong(Rule::getTimeNanos).reversed());
+    return rules;
+  }
+
+  /**
+   * @return The patterns in the order they are defined in the schema.
+   */
+  public List<Pattern> getPatterns() {
+    Map<String, List<Rule>> patterns = new LinkedHashMap<>();
+    for (Rule rule : this._rules) {
+      patterns.computeIfAbsent(rule.getPattern(), p -> new ArrayList<>()).add(rule);
+    }
+    List<Pattern> list = new ArrayList<>(patterns.size());
+    for (Map.Entry<String, List<Rule>> pattern : patterns.entrySet()) {
+      list.add(new Pattern(pattern.getKey(), pattern.getValue()));
+    }
+    return list;
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The total time spent evaluating rules.
+   */
+  public long getTotalTime(TimeUnit unit) {
+    return unit.convert(totalNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  private long totalNanos() {
+    long total = 0;
+    for (Rule rule : this._rules) total += rule.time;
+    return total;
+  }
+
+  /**
+   * @return A table of the rules sorted by decreasing evaluation time.
+   */
+  @Override
+  public String toString() {
+    long total = Math.max(1, totalNanos());
+    StringBuilder out = new StringBuilder();
+    out.append(String.format("%10s %8s %6s  %s%n", "time(ms)", "matches", "%", "pattern / rule"));
+    for (Rule rule : getSlowestRules()) {
+      out.append(String.format("%10.3f %8d %6.1f  %s / %s%n", rule.time / 1_000_000.0, rule.matches,
+          rule.time * 100.0 / total, rule.pattern, rule.context));
+    }
+    return out.toString();
+  }
+
+  /**
+   * The profile of a single rule.
+   */
+  public static final class Rule implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String pattern;
+    private final String context;
+    private final long matches;
+    private final long time;
+
+    Rule(String pattern, String context, long matches, long time) {
+      this.pattern = pattern;
+      this.context = context;
+      this.matches = matches;
+      this.time = time;
+    }
+
+    /**
+     * @return The ID of the pattern, its title if it has no ID, or a generated ID.
+     */
+    public String getPattern() {
+      return this.pattern;
+    }
+
+    /**
+     * @return The context of the rule.
+     */
+    public String getContext() {
+      return this.context;
+    }
+
+    /**
+     * @return The number of nodes which matched the context of the rule.
+     */
+    public long getMatches() {
+      return this.matches;
+    }
+
+    /**
+     * @param unit The time unit
+     * @return The cumulative time spent evaluating the rule.
+     */
+    public long getTime(TimeUnit unit) {
+      return unit.convert(this.time, TimeUnit.NANOSECONDS);
+    }
+
+    long getTimeNanos() {
+      return this.time;
+    }
+
+    @Override
+    public String toString() {
+      return "Rule{pattern=" + this.pattern + ", context=" + this.context
+          + ", matches=" + this.matches + ", time=" + this.time + "ns}";
+    }
+  }
+
+  /**
+   * The profile of a pattern, aggregating its rules.
+   */
+  public static final class Pattern implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final List<Rule> rules;
+
+    Pattern(String name, List<Rule> rules) {
+      this.name = name;
+      this.rules = Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * @return The ID of the pattern, its title if it has no ID, or a generated ID.
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return The rules in this pattern.
+     */
+    public List<Rule> getRules() {
+      return this.rules;
+    }
+
+    /**
+     * @return The number of nodes which matched any rule in the pattern.
+     */
+    public long getMatches() {
+      long matches = 0;
+      for (Rule rule : this.rules) matches += rule.matches;
+      return matches;
+    }
+
+    /**
+     * @param unit The time unit
+     * @return The cumulative time spent evaluating the rules in this pattern.
+     */
+    public long getTime(TimeUnit unit) {
+      long time = 0;
+      for (Rule rule : this.rules) time += rule.time;
+      return unit.convert(time, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+      return "Pattern{name=" + this.name + ", rules=" + this.rules.size()
+          + ", matches=" + getMatches() + ", time=" + getTime(TimeUnit.NANOSECONDS) + "ns}";
+    }
+  }
+
+}
@@ -17,14 +17,21 @@ package org.pageseeder.schematron;
 
 import org.pageseeder.schematron.svrl.SVRLByteArray;
 import org.pageseeder.schematron.svrl.SVRLDataFile;
+import org.pageseeder.schematron.svrl.SVRLModel;
+import org.pageseeder.schematron.svrl.SVRLModelWriter;
 import org.pageseeder.schematron.svrl.SVRLStreamWriter;
 import org.pageseeder.schematron.svrl.SVRLString;
+import org.pageseeder.schematron.svrl.SchematronOutput;
+import org.pageseeder.schematron.xml.NullXMLStreamWriter;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.*;
@@ -36,13 +43,14 @@ import javax.xml.transform.stream.StreamSource;
  *
  * <p>Use the {@link ValidatorFactory} to create validators. Validators are thread-safe.
  *
- * @implNote A validator stores the precompiled XSLT templates used for validation
+ * @implNote A validator stores the precompiled XSLT templates used for validation or the XPath
+ *           engine when the schema is evaluated directly
  *
  * @author Christophe Lauret
  * @author Willy Ekasalim
  * @author Rick Jelliffe
  *
- * @version 2.0
+ * @version 2.5.0
  * @since 1.0
  */
 public final class Validator {
@@ -60,10 +68,15 @@ public final class Validator {
   };
 
   /**
-   * The generated Schematron validator transformer templates.
+   * The generated Schematron validator transformer templates (may be <code>null</code> if the XPath engine is used).
    */
   private final Templates _validator;
 
+  /**
+   * The XPath engine evaluating the schema directly (may be <code>null</code> if templates are used).
+   */
+  private final XPathEngine _engine;
+
   /**
    * The output options to use for this validator.
    */
@@ -74,6 +87,26 @@ public final class Validator {
    */
   private final URIResolver _resolver;
 
+  /**
+   * The pool of instances used for validation (may be <code>null</code>).
+   */
+  private final InstancePool _pool;
+
+  /**
+   * Supplies the stylesheet to export when the processor cannot export the templates (may be <code>null</code>).
+   */
+  private final StylesheetSupplier _stylesheet;
+
+  /**
+   * The profiler when the stylesheet was instrumented (may be <code>null</code>).
+   */
+  private final Profiler _profiler;
+
+  /**
+   * Receives the validation metrics.
+   */
+  private final MetricsListener _metrics;
+
   /**
    * Constructs a new Validator object for a given Schematron templates.
    *
@@ -82,15 +115,81 @@ public final class Validator {
    * @throws NullPointerException If the templates are <code>null</code>.
    */
   Validator(Templates templates) {
-    this(templates, OutputOptions.defaults(), null);
+    this(templates, null);
+  }
+
+  /**
+   * Constructs a new Validator object for a given Schematron templates.
+   *
+   * @param templates  The Schematron templates.
+   * @param stylesheet Supplies the generated stylesheet for exports (may be <code>null</code>)
+   *
+   * @throws NullPointerException If the templates are <code>null</code>.
+   */
+  Validator(Templates templates, StylesheetSupplier stylesheet) {
+    this(templates, stylesheet, null);
+  }
+
+  /**
+   * Constructs a new Validator object for a given Schematron templates.
+   *
+   * @param templates  The Schematron templates.
+   * @param stylesheet Supplies the generated stylesheet for exports (may be <code>null</code>)
+   * @param profiler   The profiler if the stylesheet was instrumented (may be <code>null</code>)
+   *
+   * @throws NullPointerException If the templates are <code>null</code>.
+   */
+  Validator(Templates templates, StylesheetSupplier stylesheet, Profiler profiler) {
+    this(templates, stylesheet, profiler, MetricsListener.NONE);
+  }
+
+  /**
+   * Constructs a new Validator object for a given Schematron templates.
+   *
+   * @param templates  The Schematron templates.
+   * @param stylesheet Supplies the generated stylesheet for exports (may be <code>null</code>)
+   * @param profiler   The profiler if the stylesheet was instrumented (may be <code>null</code>)
+   * @param metrics    Receives the validation metrics
+   *
+   * @throws NullPointerException If the templates are <code>null</code>.
+   */
+  Validator(Templates templates, StylesheetSupplier stylesheet, Profiler profiler, MetricsListener metrics) {
+    this(templates, null, OutputOptions.defaults(), null, 0, 0, stylesheet, profiler, metrics);
+  }
+
+  /**
+   * Constructs a new Validator object evaluating the schema with the XPath engine.
+   *
+   * @param engine     The XPath engine.
+   * @param stylesheet Supplies the generated stylesheet for exports (may be <code>null</code>)
+   * @param metrics    Receives the validation metrics
+   *
+   * @throws NullPointerException If the engine is <code>null</code>.
+   */
+  Validator(XPathEngine engine, StylesheetSupplier stylesheet, MetricsListener metrics) {
+    this(null, Objects.requireNonNull(engine), OutputOptions.defaults(), null, 0, 0, stylesheet, null, metrics);
   }
 
-  private Validator(Templates templates, OutputOptions options, URIResolver resolver) {
-    if (templates == null)
+  private Validator(Templates templates, XPathEngine engine, OutputOptions options, URIResolver resolver, int poolSize,
+                    long idleTimeout, StylesheetSupplier stylesheet, Profiler profiler, MetricsListener metrics) {
+    if (templates == null && engine == null)
       throw new NullPointerException("A validator cannot be constructed with null templates");
     this._validator = templates;
+    this._engine = engine;
     this._options = Objects.requireNonNull(options);
     this._resolver = resolver;
+    this._pool = poolSize > 0 ? new InstancePool(this, poolSize, idleTimeout, TimeUnit.MILLISECONDS) : null;
+    this._stylesheet = stylesheet;
+    this._profiler = profiler;
+    this._metrics = Objects.requireNonNull(metrics);
+    if (this._pool != null) metrics.onPoolCreated(this._pool);
+  }
+
+  /**
+   * @return The compiled templates used by this validator or <code>null</code> if it uses the XPath engine.
+   */
+  Templates templates() {
+    return this._validator;
   }
 
   /**
@@ -100,7 +199,7 @@ public final class Validator {
    * @return A new validator
    */
   public Validator options(OutputOptions options) {
-    return new Validator(this._validator, options, this._resolver);
+    return new Validator(this._validator, this._engine, options, this._resolver, poolSize(), idleTimeout(), this._stylesheet, this._profiler, this._metrics);
   }
 
   public OutputOptions options() {
@@ -114,7 +213,74 @@ public final class Validator {
    * @return A new validator
    */
   public Validator resolver(URIResolver resolver) {
-    return new Validator(this._validator, this._options, resolver);
+    return new Validator(this._validator, this._engine, this._options, resolver, poolSize(), idleTimeout(), this._stylesheet, this._profiler, this._metrics);
+  }
+
+  /**
+   * Return a new validator reporting the time taken to create transformers and validate documents
+   * to the specified listener.
+   *
+   * @param metrics The listener to use or {@link MetricsListener#NONE} to disable
+   * @return A new validator
+   */
+  public Validator metrics(MetricsListener metrics) {
+    return new Validator(this._validator, this._engine, this._options, this._resolver, poolSize(), idleTimeout(), this._stylesheet, this._profiler, metrics);
+  }
+
+  /**
+   * @return The metrics listener used by this validator.
+   */
+  public MetricsListener metrics() {
+    return this._metrics;
+  }
+
+  /**
+   * Return a new validator using a pool of instances to validate.
+   *
+   * <p>Idle instances are evicted after {@value InstancePool#DEFAULT_IDLE_TIMEOUT} ms.</p>
+   *
+   * <p>When all instances are in use, validations wait for an instance to be returned to the pool
+   * for up to {@value InstancePool#DEFAULT_BORROW_TIMEOUT} ms.</p>
+   *
+   * @param maxSize The maximum number of instances used at the same time.
+   * @return A new validator
+   *
+   * @throws IllegalArgumentException If the max size is less than 1.
+   */
+  public Validator pool(int maxSize) {
+    return pool(maxSize, InstancePool.DEFAULT_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Return a new validator using a pool of instances to validate.
+   *
+   * @param maxSize     The maximum number of instances used at the same time.
+   * @param idleTimeout How long an instance can remain idle in the pool
+   * @param unit        The time unit of the idle timeout
+   * @return A new validator
+   *
+   * @throws IllegalArgumentException If the max size or idle timeout are less than 1.
+   */
+  public Validator pool(int maxSize, long idleTimeout, TimeUnit unit) {
+    if (maxSize < 1) throw new IllegalArgumentException("The pool max size must be strictly positive");
+    long timeout = unit.toMillis(idleTimeout);
+    if (timeout < 1) throw new IllegalArgumentException("The idle timeout must be at least 1 ms");
+    return new Validator(this._validator, this._engine, this._options, this._resolver, maxSize, timeout, this._stylesheet, this._profiler, this._metrics);
+  }
+
+  /**
+   * @return The pool of instances used by this validator or <code>null</code> if instances are not pooled.
+   */
+  public InstancePool pool() {
+    return this._pool;
+  }
+
+  private int poolSize() {
+    return this._pool != null ? this._pool.getMaxSize() : 0;
+  }
+
+  private long idleTimeout() {
+    return this._pool != null ? this._pool.getIdleTimeout(TimeUnit.MILLISECONDS) : 0;
   }
 
   /**
@@ -158,7 +324,8 @@ public final class Validator {
   /**
    * Validates the XML data.
    *
-   * @implNote This method is thread-safe and create a new instance
+   * @implNote This method is thread-safe and borrows an instance from the pool if one
+   * is configured or creates a new instance otherwise.
    *
    * @param xml        XML source to validate
    * @param parameters The parameters to send to the schema during validation
@@ -168,12 +335,196 @@ public final class Validator {
    * @throws SchematronException Should an error occur during validation.
    */
   public SchematronResult validate(Source xml, Map<String, Object> parameters) throws SchematronException {
-    return newInstance().validate(xml, parameters);
+    if (this._pool == null) return newInstance().validate(xml, parameters);
+    try (Instance instance = this._pool.borrow()) {
+      return instance.validate(xml, parameters);
+    }
+  }
+
+  /**
+   * Validates the XML data building the SVRL object model directly instead of serializing the SVRL.
+   *
+   * @implNote This method is thread-safe and borrows an instance from the pool if one
+   * is configured or creates a new instance otherwise.
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to the schema during validation
+   *
+   * @return the results of the validation.
+   *
+   * @throws SchematronException Should an error occur during validation.
+   *
+   * @see Instance#validateToModel(Source, Map)
+   */
+  public SchematronResult validateToModel(Source xml, Map<String, Object> parameters) throws SchematronException {
+    if (this._pool == null) return newInstance().validateToModel(xml, parameters);
+    try (Instance instance = this._pool.borrow()) {
+      return instance.validateToModel(xml, parameters);
+    }
+  }
+
+  /**
+   * Validates the XML data only counting the failed assertions and successful reports.
+   *
+   * @implNote This method is thread-safe and borrows an instance from the pool if one
+   * is configured or creates a new instance otherwise.
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to the schema during validation
+   *
+   * @return the results of the validation without SVRL.
+   *
+   * @throws SchematronException Should an error occur during validation.
+   *
+   * @see Instance#validateCountsOnly(Source, Map)
+   */
+  public SchematronResult validateCountsOnly(Source xml, Map<String, Object> parameters) throws SchematronException {
+    if (this._pool == null) return newInstance().validateCountsOnly(xml, parameters);
+    try (Instance instance = this._pool.borrow()) {
+      return instance.validateCountsOnly(xml, parameters);
+    }
+  }
+
+  /**
+   * Validates the XML data notifying the listener of fired rules, failed assertions and successful
+   * reports as the SVRL is produced.
+   *
+   * @implNote This method is thread-safe and borrows an instance from the pool if one
+   * is configured or creates a new instance otherwise.
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to the schema during validation
+   * @param listener   The listener to notify
+   *
+   * @return the results of the validation without SVRL.
+   *
+   * @throws SchematronException Should an error occur during validation.
+   *
+   * @see Instance#validateToListener(Source, Map, AssertionListener)
+   */
+  public SchematronResult validateToListener(Source xml, Map<String, Object> parameters, AssertionListener listener)
+      throws SchematronException {
+    if (this._pool == null) return newInstance().validateToListener(xml, parameters, listener);
+    try (Instance instance = this._pool.borrow()) {
+      return instance.validateToListener(xml, parameters, listener);
+    }
+  }
+
+  /**
+   * Validates the XML data asynchronously.
+   *
+   * @param xml      XML file to validate
+   * @param executor The executor running the validation
+   *
+   * @return A future completing with the results or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<SchematronResult> validateAsync(File xml, Executor executor) {
+    return validateAsync(new StreamSource(xml), Collections.emptyMap(), executor);
+  }
+
+  /**
+   * Validates the XML data asynchronously.
+   *
+   * @param xml      XML source to validate
+   * @param executor The executor running the validation
+   *
+   * @return A future completing with the results or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<SchematronResult> validateAsync(Source xml, Executor executor) {
+    return validateAsync(xml, Collections.emptyMap(), executor);
+  }
+
+  /**
+   * Validates the XML data asynchronously.
+   *
+   * @implNote The validation borrows an instance from the pool if one is configured.
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to the schema during validation
+   * @param executor   The executor running the validation
+   *
+   * @return A future completing with the results or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<SchematronResult> validateAsync(Source xml, Map<String, Object> parameters, Executor executor) {
+    return Async.supply(() -> validate(xml, parameters), executor);
+  }
+
+  /**
+   * Return a batch validator to validate many documents in parallel with this validator.
+   *
+   * <p>If this validator is not pooled, each batch uses its own pool of instances.</p>
+   *
+   * @param executor The executor running the validation tasks
+   * @return A new batch validator
+   */
+  public BatchValidator batch(Executor executor) {
+    return new BatchValidator(this, executor);
   }
 
+  /**
+   * Export the compiled form of this validator so that it can be loaded later without compiling
+   * the schema again using {@link ValidatorFactory#newValidatorFromExport(InputStream, String)}.
+   *
+   * <p>When the XSLT processor supports it (Saxon-EE), the validator is exported as a compiled
+   * Saxon package (SEF). Otherwise, the validation stylesheet generated from the schema is exported.</p>
+   *
+   * <p>The output options, resolver and pool of this validator are not exported.</p>
+   *
+   * @param out Where the compiled form is written
+   *
+   * @throws SchematronException If the validator cannot be exported or an error occurs while writing.
+   */
+  public void export(OutputStream out) throws SchematronException {
+    byte[] data = this._validator != null ? SaxonPackage.export(this._validator) : null;
+    if (data == null) {
+      if (this._stylesheet == null)
+        throw new SchematronException("This validator cannot be exported by the XSLT processor");
+      data = this._stylesheet.get();
+    }
+    try {
+      out.write(data);
+    } catch (IOException ex) {
+      throw new SchematronException("Unable to write exported validator", ex);
+    }
+  }
+
+  /**
+   * @return The compiled form of this validator
+   *
+   * @throws SchematronException If the validator cannot be exported.
+   *
+   * @see #export(OutputStream)
+   */
+  public byte[] export() throws SchematronException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    export(out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Create a new validator instance.
+   *
+   * <p>Instances created with this method are not pooled, use {@link InstancePool#borrow()} instead.</p>
+   *
+   * @return A new instance
+   *
+   * @throws SchematronException If the transformer could not be created.
+   */
   public Instance newInstance() throws SchematronException {
+    if (this._engine != null) {
+      long start = System.nanoTime();
+      XPathEngine.Evaluator evaluator = this._engine.newEvaluator();
+      if (this._metrics != MetricsListener.NONE) this._metrics.onTransformerCreated(System.nanoTime() - start);
+      return new Instance(null, evaluator, this._options, null, this._metrics);
+    }
+    if (this._metrics == MetricsListener.NONE) {
+      Transformer transformer = newTransformer(this._validator, this._options, this._resolver);
+      return new Instance(transformer, null, this._options, this._profiler, this._metrics);
+    }
+    long start = System.nanoTime();
     Transformer transformer = newTransformer(this._validator, this._options, this._resolver);
-    return new Instance(transformer, this._options);
+    this._metrics.onTransformerCreated(System.nanoTime() - start);
+    return new Instance(transformer, null, this._options, this._profiler, this._metrics);
   }
 
   private static Transformer newTransformer(Templates validator, OutputOptions options, URIResolver resolver)
@@ -197,28 +548,100 @@ public final class Validator {
     return transformer;
   }
 
+  /**
+   * Counts the characters written to the SVRL writer.
+   */
+  private static final class CountingWriter extends FilterWriter {
+
+    private long count;
+
+    CountingWriter(Writer out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      this.out.write(c);
+      this.count++;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      this.out.write(buffer, offset, length);
+      this.count += length;
+    }
+
+    @Override
+    public void write(String s, int offset, int length) throws IOException {
+      this.out.write(s, offset, length);
+      this.count += length;
+    }
+  }
+
+  /**
+   * Supplies the validation stylesheet generated from the schema.
+   */
+  @FunctionalInterface
+  interface StylesheetSupplier {
+
+    /**
+     * @return The stylesheet encoded in UTF-8
+     *
+     * @throws SchematronException If the stylesheet could not be generated.
+     */
+    byte[] get() throws SchematronException;
+
+  }
+
   /**
    * A validating instance lets you reuse a validator that uses the same output options and resolver.
    *
    * <p>It is not thread-safe</p>
    *
+   * <p>When the instance was borrowed from an {@link InstancePool}, closing it returns it to the pool;
+   * otherwise closing an instance has no effect.</p>
+   *
    * @implNote This class lets you reuse a transformer which more efficient when validating a collection of files, but not thread-safe.
    *
    * @author Christophe Lauret
    *
-   * @version 2.0
+   * @version 2.5.0
    * @since 2.0
    */
-  public static class Instance {
+  public static class Instance implements AutoCloseable {
 
     private final Transformer _transformer;
+    private final XPathEngine.Evaluator _evaluator;
     private final OutputOptions _options;
+    private final Profiler _profiler;
+    private final MetricsListener _metrics;
+
+    /**
+     * The error listener and URI resolver of the transformer when the instance was created.
+     */
+    private final ErrorListener _errorListener;
+    private final URIResolver _resolver;
 
     private volatile boolean validating = false;
 
-    private Instance(Transformer transformer, OutputOptions options) {
+    /**
+     * The pool this instance was borrowed from, if any.
+     */
+    volatile InstancePool pool;
+
+    /**
+     * @param transformer The transformer (<code>null</code> when the XPath engine is used)
+     * @param evaluator   The XPath engine evaluator (<code>null</code> when the transformer is used)
+     */
+    private Instance(Transformer transformer, XPathEngine.Evaluator evaluator, OutputOptions options, Profiler profiler,
+                     MetricsListener metrics) {
       this._transformer = transformer;
+      this._evaluator = evaluator;
       this._options = options;
+      this._profiler = profiler;
+      this._metrics = metrics;
+      this._errorListener = transformer != null ? transformer.getErrorListener() : null;
+      this._resolver = transformer != null ? transformer.getURIResolver() : null;
     }
 
     public SchematronResult validate(File xml) throws SchematronException {
@@ -292,36 +715,170 @@ public final class Validator {
       }
     }
 
+    /**
+     * Validates the XML data building the SVRL object model directly.
+     *
+     * <p>The SVRL is not serialized during validation, {@link SchematronResult#toSchematronOutput()}
+     * returns the model without parsing, and the SVRL is only generated from the model if requested.</p>
+     *
+     * @param xml XML source to validate
+     * @param parameters Parameters to pass to the validators
+     *
+     * @return the results of the validation.
+     *
+     * @throws SchematronException Should an error occur during validation.
+     */
+    public SchematronResult validateToModel(Source xml, Map<String, Object> parameters) throws SchematronException {
+      SVRLModelWriter model = new SVRLModelWriter();
+      SchematronResult.Builder result = transform(xml, parameters, new SVRLStreamWriter(model, this._options.indent(false)));
+      SchematronOutput output = model.getSchematronOutput();
+      if (output == null) throw new SchematronException("Validation did not produce any SVRL");
+      result.setSVRL(new SVRLModel(output, this._options));
+      return result.build();
+    }
+
+    /**
+     * Validates the XML data only counting the failed assertions and successful reports.
+     *
+     * <p>The SVRL is discarded as it is produced so the results only include the counts.</p>
+     *
+     * @param xml XML source to validate
+     * @param parameters Parameters to pass to the validators
+     *
+     * @return the results of the validation without SVRL.
+     *
+     * @throws SchematronException Should an error occur during validation.
+     */
+    public SchematronResult validateCountsOnly(Source xml, Map<String, Object> parameters) throws SchematronException {
+      OutputOptions options = this._options.indent(false).usePrefixInLocation(false);
+      return transform(xml, parameters, new SVRLStreamWriter(new NullXMLStreamWriter(), options)).build();
+    }
+
+    /**
+     * Validates the XML data notifying the listener of fired rules, failed assertions and successful
+     * reports as the SVRL is produced.
+     *
+     * <p>The SVRL is not kept, so the results only include the counts.</p>
+     *
+     * @param xml        XML source to validate
+     * @param parameters Parameters to pass to the validators
+     * @param listener   The listener to notify
+     *
+     * @return the results of the validation without SVRL.
+     *
+     * @throws SchematronException Should an error occur during validation.
+     */
+    public SchematronResult validateToListener(Source xml, Map<String, Object> parameters, AssertionListener listener)
+        throws SchematronException {
+      SVRLModelWriter events = new SVRLModelWriter(listener);
+      return transform(xml, parameters, new SVRLStreamWriter(events, this._options.indent(false))).build();
+    }
+
+    /**
+     * Return this instance to the pool it was borrowed from, if any.
+     */
+    @Override
+    public void close() {
+      InstancePool pool = this.pool;
+      if (pool != null) pool.release(this);
+    }
+
+    /**
+     * Clear the parameters and restore the error listener and URI resolver so that the instance can
+     * be reused safely.
+     */
+    void reset() {
+      if (this._transformer != null) {
+        this._transformer.clearParameters();
+        if (this._errorListener != null) this._transformer.setErrorListener(this._errorListener);
+        this._transformer.setURIResolver(this._resolver);
+      }
+    }
+
     private SchematronResult.Builder transform(Source xml, Map<String, Object> parameters, Writer writer) throws SchematronException {
+      try {
+        Object event = EventRecorder.INSTANCE.beginValidation();
+        if (this._metrics == MetricsListener.NONE && event == null)
+          return transform(xml, parameters, new SVRLStreamWriter(writer, this._options), null, null);
+        CountingWriter counter = new CountingWriter(writer);
+        return transform(xml, parameters, new SVRLStreamWriter(counter, this._options), counter, event);
+      } catch (XMLStreamException ex) {
+        throw new SchematronException("Unable to process SVRL results", ex);
+      }
+    }
+
+    private SchematronResult.Builder transform(Source xml, Map<String, Object> parameters, SVRLStreamWriter svrl) throws SchematronException {
+      return transform(xml, parameters, svrl, null, EventRecorder.INSTANCE.beginValidation());
+    }
+
+    /**
+     * @param counter Counts the characters of SVRL written (may be <code>null</code>)
+     * @param event   The flight recorder event (may be <code>null</code>)
+     */
+    private SchematronResult.Builder transform(Source xml, Map<String, Object> parameters, SVRLStreamWriter svrl,
+                                               CountingWriter counter, Object event) throws SchematronException {
       if (this.validating) throw new IllegalStateException("Unable to validate multiple source concurrently");
       this.validating = true;
+      long start = this._metrics != MetricsListener.NONE ? System.nanoTime() : 0;
       SchematronResult.Builder result = new SchematronResult.Builder();
       result.setSystemID(xml.getSystemId());
       try {
-        // Set the parameters if any
-        if (parameters != null && parameters.size() > 0) {
-          for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
-            this._transformer.setParameter(parameter.getKey(), parameter.getValue());
+        Profiler.Collector profile = null;
+        try {
+          if (this._evaluator != null) {
+            this._evaluator.validate(xml, parameters, svrl);
+          } else {
+            profile = this._profiler != null ? this._profiler.newCollector() : null;
+            transform(xml, parameters, svrl, profile);
           }
+        } catch (TransformerException ex) {
+          // The SVRL writer aborts the validation when the maximum number of failures is reached
+          if (!svrl.isLimitReached()) throw ex;
+          result.setTruncated(true);
         }
-        this._transformer.setErrorListener(QUIET_LISTENER);
-
-        // NB Saxon does not support XMLEventWriter, so we use XMLStreamWriter instead
-        SVRLStreamWriter svrl = new SVRLStreamWriter(writer, this._options);
-        this._transformer.transform(xml, new StAXResult(svrl));
         result.setAssertsCount(svrl.getAssertsCount());
         result.setReportsCount(svrl.getReportsCount());
+        if (profile != null) result.setProfile(profile.toProfile());
+        long length = counter != null ? counter.count : 0;
+        if (this._metrics != MetricsListener.NONE) {
+          this._metrics.onValidated(xml.getSystemId(), System.nanoTime() - start, length,
+              svrl.getAssertsCount(), svrl.getReportsCount());
+        }
+        EventRecorder.INSTANCE.commitValidation(event, xml.getSystemId(), svrl.getAssertsCount(), svrl.getReportsCount(), length, false);
 
       } catch (TransformerException ex) {
-        throw new ValidationException(ex);
-      } catch (XMLStreamException ex) {
-        throw new SchematronException("Unable to process SVRL results", ex);
+        ValidationException error = new ValidationException(ex);
+        if (this._metrics != MetricsListener.NONE) {
+          this._metrics.onValidationError(xml.getSystemId(), System.nanoTime() - start, error);
+        }
+        EventRecorder.INSTANCE.commitValidation(event, xml.getSystemId(), svrl.getAssertsCount(), svrl.getReportsCount(), 0, true);
+        throw error;
       } finally {
         this.validating = false;
       }
       return result;
     }
 
+    /**
+     * Runs the validation transformation.
+     *
+     * @param profile Collects the rule profile (may be <code>null</code>)
+     */
+    private void transform(Source xml, Map<String, Object> parameters, SVRLStreamWriter svrl, Profiler.Collector profile)
+        throws TransformerException {
+      // Set the parameters if any
+      if (parameters != null && parameters.size() > 0) {
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+          this._transformer.setParameter(parameter.getKey(), parameter.getValue());
+        }
+      }
+      if (profile != null) profile.install(this._transformer, QUIET_LISTENER);
+      else this._transformer.setErrorListener(QUIET_LISTENER);
+
+      // NB Saxon does not support XMLEventWriter, so we use XMLStreamWriter instead
+      this._transformer.transform(xml, new StAXResult(svrl));
+    }
+
   }
 
 }
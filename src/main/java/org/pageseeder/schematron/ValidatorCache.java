@@ -0,0 +1,316 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of compiled validators.
+ *
+ * <p>Validators are keyed by the content of the schema, its system ID, the phase, the compile
+ * options, the query binding, the XSLT processor, the URI resolver, the metrics listener and the
+ * debug output, so that the same schema is only compiled once by the factory as long as it remains
+ * in the cache. When several threads request the same validator concurrently, one thread compiles
+ * it while the others wait for it.</p>
+ *
+ * <p>When the cache is full, the least recently used validator is evicted.</p>
+ *
+ * <p>This class is thread-safe and can be shared by multiple factories.</p>
+ *
+ * @see ValidatorFactory#cache(ValidatorCache)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class ValidatorCache {
+
+  /**
+   * Default maximum number of validators to keep in the cache.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  /**
+   * Maximum number of validators to keep in the cache.
+   */
+  private final int _maxSize;
+
+  /**
+   * The validators in access order, completed once compiled.
+   */
+  private final Map<Key, CompletableFuture<Validator>> _validators;
+
+  /**
+   * The includes found in the schemas and their fragments, used to compute the keys.
+   */
+  private final SchemaDependencies.Cache _dependencies = new SchemaDependencies.Cache();
+
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _evictions = new AtomicLong();
+
+  /**
+   * Creates a new cache with the default maximum size.
+   */
+  public ValidatorCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Creates a new cache.
+   *
+   * @param maxSize The maximum number of validators to keep in the cache.
+   *
+   * @throws IllegalArgumentException If the maximum size is lower than 1
+   */
+  public ValidatorCache(int maxSize) {
+    if (maxSize < 1) throw new IllegalArgumentException("The cache max size must be strictly positive");
+    this._maxSize = maxSize;
+    this._validators = new LinkedHashMap<Key, CompletableFuture<Validator>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<Validator>> eldest) {
+        boolean evict = size() > ValidatorCache.this._maxSize;
+        if (evict) ValidatorCache.this._evictions.incrementAndGet();
+        return evict;
+      }
+    };
+  }
+
+  /**
+   * @return The maximum number of validators to keep in the cache.
+   */
+  public int getMaxSize() {
+    return this._maxSize;
+  }
+
+  /**
+   * @return The number of validators currently in the cache.
+   */
+  public synchronized int size() {
+    return this._validators.size();
+  }
+
+  /**
+   * @return The number of times a validator was found in the cache.
+   */
+  public long getHitCount() {
+    return this._hits.get();
+  }
+
+  /**
+   * @return The number of times a validator was not found in the cache.
+   */
+  public long getMissCount() {
+    return this._misses.get();
+  }
+
+  /**
+   * @return The number of validators evicted from the cache because it was full.
+   */
+  public long getEvictionCount() {
+    return this._evictions.get();
+  }
+
+  /**
+   * Remove all the validators from the cache.
+   *
+   * <p>This method does not reset the counters.</p>
+   */
+  public synchronized void clear() {
+    this._validators.clear();
+    this._dependencies.clear();
+  }
+
+  /**
+   * Remove the validators compiled from the schema with the specified system ID.
+   *
+   * <p>Validators for all phases, options and contents of the schema are removed.</p>
+   *
+   * @param systemId The system ID of the schema
+   *
+   * @return The number of validators removed.
+   */
+  public synchronized int evict(String systemId) {
+    int count = 0;
+    for (Iterator<Key> i = this._validators.keySet().iterator(); i.hasNext();) {
+      if (Objects.equals(i.next().systemId, systemId)) {
+        i.remove();
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return The includes found in the schemas and their fragments.
+   */
+  SchemaDependencies.Cache dependencies() {
+    return this._dependencies;
+  }
+
+  /**
+   * Return the validator for the specified key compiling it if it is not in the cache, and update
+   * the hit or miss counters.
+   *
+   * <p>If the validator cannot be compiled, the error is reported to every waiting thread and the
+   * next request compiles it again.</p>
+   *
+   * @param key     The key of the validator
+   * @param compile Compiles the validator on a miss
+   *
+   * @return The validator in the cache for this key.
+   *
+   * @throws SchematronException If the validator could not be compiled.
+   */
+  Validator get(Key key, Compilation compile) throws SchematronException {
+    CompletableFuture<Validator> future;
+    CompletableFuture<Validator> created = null;
+    synchronized (this) {
+      future = this._validators.get(key);
+      if (future == null) {
+        future = created = new CompletableFuture<>();
+        this._validators.put(key, created);
+        this._misses.incrementAndGet();
+      } else {
+        this._hits.incrementAndGet();
+      }
+    }
+    if (created != null) {
+      try {
+        created.complete(compile.compile());
+      } catch (SchematronException | RuntimeException ex) {
+        synchronized (this) {
+          this._validators.remove(key, created);
+        }
+        created.completeExceptionally(ex);
+      }
+    }
+    return await(future);
+  }
+
+  private static Validator await(CompletableFuture<Validator> future) throws SchematronException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof SchematronException) throw (SchematronException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new SchematronException("Unable to compile schema", cause);
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ValidatorCache{" +
+        "size=" + size() +
+        ", maxSize=" + this._maxSize +
+        ", hits=" + this._hits +
+        ", misses=" + this._misses +
+        ", evictions=" + this._evictions +
+        '}';
+  }
+
+  /**
+   * Compiles the validator on a cache miss.
+   */
+  @FunctionalInterface
+  interface Compilation {
+
+    Validator compile() throws SchematronException;
+
+  }
+
+  /**
+   * The key for a compiled validator.
+   */
+  static final class Key {
+
+    private final String digest;
+    private final String systemId;
+    private final String phase;
+    private final CompileOptions options;
+    private final QueryBinding binding;
+    private final Class<?> processor;
+    private final Class<?> resolver;
+    private final MetricsListener metrics;
+    private final DebugOutput debug;
+
+    /**
+     * @param processor The class of the XSLT processor's transformer factory
+     * @param resolver  The class of the URI resolver (may be <code>null</code>)
+     * @param metrics   The metrics listener the validator reports to, compared by identity
+     * @param debug     Where the factory saves the generated stylesheets, compared by identity
+     */
+    Key(String digest, String systemId, String phase, CompileOptions options, QueryBinding binding,
+        Class<?> processor, Class<?> resolver, MetricsListener metrics, DebugOutput debug) {
+      this.digest = Objects.requireNonNull(digest);
+      this.systemId = systemId;
+      this.phase = phase;
+      this.options = Objects.requireNonNull(options);
+      this.binding = Objects.requireNonNull(binding);
+      this.processor = Objects.requireNonNull(processor);
+      this.resolver = resolver;
+      this.metrics = Objects.requireNonNull(metrics);
+      this.debug = debug;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key) o;
+      return this.digest.equals(key.digest)
+          && Objects.equals(this.systemId, key.systemId)
+          && Objects.equals(this.phase, key.phase)
+          && this.options.equals(key.options)
+          && this.binding == key.binding
+          && this.processor == key.processor
+          && this.resolver == key.resolver
+          && this.metrics == key.metrics
+          && this.debug == key.debug;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = this.digest.hashCode();
+      result = 31 * result + (this.systemId != null ? this.systemId.hashCode() : 0);
+      result = 31 * result + (this.phase != null ? this.phase.hashCode() : 0);
+      result = 31 * result + this.options.hashCode();
+      result = 31 * result + this.binding.hashCode();
+      result = 31 * result + this.processor.hashCode();
+      result = 31 * result + (this.resolver != null ? this.resolver.hashCode() : 0);
+      result = 31 * result + System.identityHashCode(this.metrics);
+      result = 31 * result + System.identityHashCode(this.debug);
+      return result;
+    }
+  }
+}
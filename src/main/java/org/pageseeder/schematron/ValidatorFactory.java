@@ -47,13 +47,26 @@ package org.pageseeder.schematron;
 import org.w3c.dom.Document;
 
 import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TemplatesHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -64,11 +77,16 @@ import javax.xml.transform.stream.StreamSource;
  *
  * @author Christophe Lauret
  *
- * @version 2.0
+ * @version 2.5.0
  * @since 1.0
  */
 public final class ValidatorFactory {
 
+  /**
+   * The version of this library used to invalidate stored stylesheets.
+   */
+  private static final String VERSION = getVersion();
+
   private static final DebugOutput NO_DEBUG = (systemId) -> null;
 
   private static final DebugOutput BASIC_DEBUG = (systemId) -> {
@@ -76,6 +94,25 @@ public final class ValidatorFactory {
     return new OutputStreamWriter(new FileOutputStream(filename), StandardCharsets.UTF_8);
   };
 
+  /**
+   * Schema used for the synthetic validation during warm-up.
+   */
+  private static final String WARM_UP_SCHEMA = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='%s'>"
+      + "<sch:pattern><sch:rule context='item'><sch:let name='id' value='@id'/>"
+      + "<sch:assert test='string-length($id) &gt; 0'>Item <sch:value-of select='$id'/> must have an ID</sch:assert>"
+      + "<sch:report test='count(*) &gt; 1'>Item <sch:name/> has <sch:value-of select='count(*)'/> children</sch:report>"
+      + "</sch:rule></sch:pattern></sch:schema>";
+
+  /**
+   * Document used for the synthetic validation during warm-up.
+   */
+  private static final String WARM_UP_DOCUMENT = "<items><item id='a'><x/><y/></item><item id='b'><x/></item><item/></items>";
+
+  /**
+   * Number of synthetic validations for each XSLT version.
+   */
+  private static final int WARM_UP_ITERATIONS = 10;
+
   /**
    * Default XSLT processor.
    */
@@ -102,10 +139,24 @@ public final class ValidatorFactory {
   private final CompileOptions _options;
 
   /**
-   * We keep a shared copy of precompilers (they are thread-safe)
+   * Cache of compiled validators (may be <code>null</code>).
+   */
+  private final ValidatorCache _cache;
+
+  /**
+   * Where generated stylesheets are stored (may be <code>null</code>).
+   */
+  private final StylesheetStore _store;
+
+  /**
+   * Cache of included schema fragments (may be <code>null</code>).
    */
-  private static volatile Precompiler precompiler1 = null;
-  private static volatile Precompiler precompiler2 = null;
+  private final FragmentCache _fragments;
+
+  /**
+   * Receives the compile and validation metrics.
+   */
+  private final MetricsListener _metrics;
 
   /**
    * Constructs a new factory.
@@ -123,18 +174,28 @@ public final class ValidatorFactory {
     this._listener = this._factory.getErrorListener();
     this._resolver = null;
     this._debug = NO_DEBUG;
+    this._cache = null;
+    this._store = null;
+    this._fragments = null;
+    this._metrics = MetricsListener.NONE;
   }
 
-  private ValidatorFactory(TransformerFactory factory, CompileOptions options, ErrorListener listener, Class<URIResolver> resolver, DebugOutput debug) {
+  private ValidatorFactory(TransformerFactory factory, CompileOptions options, ErrorListener listener,
+                           Class<URIResolver> resolver, DebugOutput debug, ValidatorCache cache, StylesheetStore store, FragmentCache fragments,
+                           MetricsListener metrics) {
     this._factory = factory;
     this._options = Objects.requireNonNull(options);
     this._listener = Objects.requireNonNull(listener);
     this._resolver = resolver;
     this._debug = debug;
+    this._cache = cache;
+    this._store = store;
+    this._fragments = fragments;
+    this._metrics = Objects.requireNonNull(metrics);
   }
 
   public ValidatorFactory options(CompileOptions options) {
-    return new ValidatorFactory(this._factory, options, this._listener, this._resolver, this._debug);
+    return new ValidatorFactory(this._factory, options, this._listener, this._resolver, this._debug, this._cache, this._store, this._fragments, this._metrics);
   }
 
   @Deprecated
@@ -153,7 +214,7 @@ public final class ValidatorFactory {
    * @param listener The error listener.
    */
   public ValidatorFactory errorListener(ErrorListener listener) {
-    return new ValidatorFactory(this._factory, this._options, listener, this._resolver, this._debug);
+    return new ValidatorFactory(this._factory, this._options, listener, this._resolver, this._debug, this._cache, this._store, this._fragments, this._metrics);
   }
 
   /**
@@ -176,7 +237,7 @@ public final class ValidatorFactory {
   public ValidatorFactory enableDebug() {
     // Debug is already enabled
     if (this._debug != null && this._debug != NO_DEBUG) return this;
-    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, BASIC_DEBUG);
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, BASIC_DEBUG, this._cache, this._store, this._fragments, this._metrics);
   }
 
   /**
@@ -187,7 +248,7 @@ public final class ValidatorFactory {
   public ValidatorFactory disableDebug() {
     // Debug is already disabled
     if (this._debug == null || this._debug == NO_DEBUG) return this;
-    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, NO_DEBUG);
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, NO_DEBUG, this._cache, this._store, this._fragments, this._metrics);
   }
 
   /**
@@ -196,14 +257,100 @@ public final class ValidatorFactory {
    * @return A new factory if debug is not already enabled.
    */
   public ValidatorFactory debug(DebugOutput debug) {
-    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, debug);
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, debug, this._cache, this._store, this._fragments, this._metrics);
   }
 
   /**
    * Set the class name of the resolver to use, overriding built-in Apache resolver
    */
   public ValidatorFactory resolver(Class<URIResolver> resolver) {
-    return new ValidatorFactory(this._factory, this._options, this._listener, resolver, this._debug);
+    return new ValidatorFactory(this._factory, this._options, this._listener, resolver, this._debug, this._cache, this._store, this._fragments, this._metrics);
+  }
+
+  /**
+   * Use the specified cache to reuse validators that have already been compiled.
+   *
+   * <p>Validators are cached using the content of the schema and the local files it includes, its
+   * system ID, the phase, the compile options and query binding. When a validator is returned from
+   * the cache, the schema is not compiled again and no debug output is produced.</p>
+   *
+   * @param cache The cache to use or <code>null</code> to disable caching
+   *
+   * @return A new factory using the specified cache.
+   */
+  public ValidatorFactory cache(ValidatorCache cache) {
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, this._debug, cache, this._store, this._fragments, this._metrics);
+  }
+
+  /**
+   * @return The cache used by this factory or <code>null</code> if validators are not cached.
+   */
+  public ValidatorCache cache() {
+    return this._cache;
+  }
+
+  /**
+   * Use the specified store to save the stylesheets generated from schemas and reuse them
+   * later, including after the JVM restarts.
+   *
+   * <p>Stylesheets are stored using the content of the schema and the local files it includes, its
+   * system ID, the phase, the compile options, query binding and the version of this library. When
+   * a stored stylesheet is found, the Schematron compilation pipeline is skipped and no debug output
+   * is produced.</p>
+   *
+   * <p>Errors reading or writing stylesheets are reported as warnings to the error listener.</p>
+   *
+   * @param store The store to use or <code>null</code> to disable
+   *
+   * @return A new factory using the specified store.
+   */
+  public ValidatorFactory store(StylesheetStore store) {
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, this._debug, this._cache, store, this._fragments, this._metrics);
+  }
+
+  /**
+   * Use the specified cache for the fragments included by schemas using <code>sch:include</code>
+   * or <code>sch:extends</code>.
+   *
+   * <p>When a schema is recompiled, unchanged fragments are taken from the cache instead of being
+   * parsed again. The rest of the compilation still runs over the entire schema.</p>
+   *
+   * @param fragments The cache to use or <code>null</code> to disable
+   *
+   * @return A new factory using the specified fragment cache.
+   */
+  public ValidatorFactory fragments(FragmentCache fragments) {
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, this._debug, this._cache, this._store, fragments, this._metrics);
+  }
+
+  /**
+   * Use the specified listener to receive the timings of each step when compiling schemas.
+   *
+   * <p>The validators created by this factory use the same listener, see {@link Validator#metrics(MetricsListener)}.</p>
+   *
+   * <p>When a listener is used, the steps of the compilation pipeline are no longer chained so
+   * that each step can be measured individually.</p>
+   *
+   * @param metrics The listener to use or {@link MetricsListener#NONE} to disable
+   *
+   * @return A new factory using the specified metrics listener.
+   */
+  public ValidatorFactory metrics(MetricsListener metrics) {
+    return new ValidatorFactory(this._factory, this._options, this._listener, this._resolver, this._debug, this._cache, this._store, this._fragments, metrics);
+  }
+
+  /**
+   * @return The metrics listener used by this factory.
+   */
+  public MetricsListener metrics() {
+    return this._metrics;
+  }
+
+  /**
+   * @return The stylesheet store used by this factory or <code>null</code>.
+   */
+  public StylesheetStore store() {
+    return this._store;
   }
 
   /**
@@ -258,82 +405,562 @@ public final class ValidatorFactory {
    * @throws SchematronException Will wrap any exception occurring while attempting to instantiate a validator.
    */
   public Validator newValidator(Source schema, String phase) throws SchematronException {
-    Document schematron = this.loadSchema(schema);
-    String systemId = schematron.getDocumentURI();
+    Object event = EventRecorder.INSTANCE.beginCompile();
+    boolean failed = true;
+    try {
+      Validator validator = loadAndCompile(schema, phase);
+      failed = false;
+      return validator;
+    } finally {
+      EventRecorder.INSTANCE.commitCompile(event, schema.getSystemId(), phase, failed);
+    }
+  }
+
+  private Validator loadAndCompile(Source schema, String phase) throws SchematronException {
+    SchemaSource source = loadSchema(schema);
+    QueryBinding binding = getQueryBinding(source, this._options);
+
+    // Check whether we have already compiled this schema
+    if (this._cache != null) {
+      ValidatorCache.Key key = new ValidatorCache.Key(digest(source), source.getSystemId(), phase, this._options, binding,
+          this._factory.getClass(), this._resolver, this._metrics, this._debug);
+      return this._cache.get(key, () -> compile(source, binding, phase));
+    }
+    return compile(source, binding, phase);
+  }
+
+  /**
+   * Process the specified schema into a Validator object asynchronously.
+   *
+   * @param schema   The Schematron schema to use.
+   * @param executor The executor used to compile the schema
+   *
+   * @return A future completing with the validator or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<Validator> newValidatorAsync(File schema, Executor executor) {
+    return Async.supply(() -> newValidator(schema), executor);
+  }
+
+  /**
+   * Process the specified schema into a Validator object asynchronously.
+   *
+   * @param schema   The Schematron schema to use.
+   * @param phase    The phase for this schema.
+   * @param executor The executor used to compile the schema
+   *
+   * @return A future completing with the validator or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<Validator> newValidatorAsync(File schema, String phase, Executor executor) {
+    return Async.supply(() -> newValidator(schema, phase), executor);
+  }
+
+  /**
+   * Process the specified schema into a Validator object asynchronously.
+   *
+   * @param schema   The Schematron schema to use.
+   * @param executor The executor used to compile the schema
+   *
+   * @return A future completing with the validator or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<Validator> newValidatorAsync(Source schema, Executor executor) {
+    return Async.supply(() -> newValidator(schema), executor);
+  }
+
+  /**
+   * Process the specified schema into a Validator object asynchronously.
+   *
+   * @param schema   The Schematron schema to use.
+   * @param phase    The phase for this schema.
+   * @param executor The executor used to compile the schema
+   *
+   * @return A future completing with the validator or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<Validator> newValidatorAsync(Source schema, String phase, Executor executor) {
+    return Async.supply(() -> newValidator(schema, phase), executor);
+  }
+
+  /**
+   * Load a validator from a validation stylesheet generated ahead of time by {@link Precompile}.
+   *
+   * <p>The Schematron compilation pipeline is never invoked: the stylesheet is loaded directly
+   * by the XSLT processor. The resource is located using the context class loader of the current
+   * thread or, if not found, the class loader of this library.</p>
+   *
+   * <p>If a compiled Saxon package with the same name and the <code>.sef</code> extension is
+   * available, it is loaded instead of the stylesheet when possible.</p>
+   *
+   * @param name The name of the resource, for example "schematron/business.xsl"
+   *
+   * @return A Validator instance for the specified stylesheet.
+   *
+   * @throws SchematronException If the resource cannot be found or the stylesheet could not be loaded.
+   */
+  public Validator newValidatorFromResource(String name) throws SchematronException {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    if (loader == null || loader.getResource(name) == null) {
+      loader = ValidatorFactory.class.getClassLoader();
+    }
+    return newValidatorFromResource(name, loader);
+  }
+
+  /**
+   * Load a validator from a validation stylesheet generated ahead of time by {@link Precompile}.
+   *
+   * @param name   The name of the resource, for example "schematron/business.xsl"
+   * @param loader The class loader used to locate the resource
+   *
+   * @return A Validator instance for the specified stylesheet.
+   *
+   * @throws SchematronException If the resource cannot be found or the stylesheet could not be loaded.
+   */
+  public Validator newValidatorFromResource(String name, ClassLoader loader) throws SchematronException {
+    URL url = loader.getResource(name);
+    if (url == null)
+      throw new SchematronException("Unable to find precompiled stylesheet", new FileNotFoundException(name));
+    URL compiled = name.endsWith(".xsl") ? loader.getResource(name.substring(0, name.length() - 4) + ".sef") : null;
+    if (compiled != null) {
+      try {
+        return newValidatorFromExport(compiled);
+      } catch (SchematronException ex) {
+        warning("Unable to load compiled package "+compiled+", using stylesheet instead", ex);
+      }
+    }
+    return newValidatorFromExport(url);
+  }
+
+  private Validator newValidatorFromExport(URL url) throws SchematronException {
+    String systemId = url.toExternalForm();
+    try (InputStream in = url.openStream()) {
+      return newValidatorFromExport(in, systemId);
+    } catch (IOException ex) {
+      throw new SchematronException("Unable to read precompiled stylesheet "+systemId, ex);
+    }
+  }
+
+  /**
+   * Rebuild a validator from the compiled form exported by {@link Validator#export(OutputStream)}.
+   *
+   * <p>A compiled Saxon package can only be loaded if this factory uses Saxon; a validation
+   * stylesheet can be loaded by any XSLT processor supporting its XSLT version.</p>
+   *
+   * @param export   The exported validator
+   * @param systemId The system ID of the export (may be <code>null</code>)
+   *
+   * @return A Validator instance for the exported validator.
+   *
+   * @throws SchematronException If the export could not be read or loaded.
+   */
+  public Validator newValidatorFromExport(InputStream export, String systemId) throws SchematronException {
+    byte[] data;
+    try {
+      data = SchemaSource.readAll(export);
+    } catch (IOException ex) {
+      throw new SchematronException("Unable to read exported validator "+systemId, ex);
+    }
+    Templates templates;
+    if (SaxonPackage.isPackage(data)) {
+      templates = SaxonPackage.load(this._factory, data, systemId);
+    } else {
+      templates = newTemplates(new StreamSource(new ByteArrayInputStream(data), systemId), systemId);
+    }
+    return new Validator(templates, () -> data, null, this._metrics.forSchema(systemId));
+  }
+
+  /**
+   * Generate the validation stylesheet for the specified schema without creating a validator.
+   *
+   * <p>The cache and stylesheet store are ignored.</p>
+   *
+   * @param schema The Schematron schema to use.
+   * @param phase  The phase for this schema.
+   *
+   * @return The stylesheet encoded in UTF-8
+   *
+   * @throws SchematronException If the schema could not be compiled.
+   */
+  byte[] generateStylesheet(Source schema, String phase) throws SchematronException {
+    SchemaSource source = SchemaSource.load(schema, this._factory);
+    return generateStylesheet(source, getQueryBinding(source, this._options), phase);
+  }
+
+  private byte[] generateStylesheet(SchemaSource source, QueryBinding binding, String phase) throws SchematronException {
+    Precompiler precompiler = PrecompilerRegistry.get(this._factory, this._resolver, binding);
+    Compiler compiler = precompiler.prepare(this._listener, this._options.toParameters(phase), this._fragments);
+    Document stylesheet = compiler.compile(source.newSource(this._options.defaultQueryBinding()));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      serialize(stylesheet, new StreamResult(out), false);
+      return out.toByteArray();
+    } catch (TransformerException ex) {
+      throw new SchematronException("Unable to write stylesheet for "+source.getSystemId(), ex);
+    }
+  }
+
+  /**
+   * Eagerly prepare the precompilers for the specified query bindings so that the first call to
+   * <code>newValidator</code> does not have to compile the SchXslt pipeline.
+   *
+   * <p>Precompilers are shared with every factory using the same XSLT processor and URI resolver.
+   * If no query binding is specified, all query bindings are prepared.</p>
+   *
+   * @param bindings The query bindings to prepare
+   *
+   * @throws SchematronException If a precompiler could not be created.
+   */
+  public void precompile(QueryBinding... bindings) throws SchematronException {
+    for (QueryBinding binding : bindings.length > 0 ? bindings : QueryBinding.values()) {
+      PrecompilerRegistry.get(this._factory, this._resolver, binding);
+    }
+  }
+
+  /**
+   * Warm up this factory by building the precompilers for every query binding and running a
+   * synthetic validation for each XSLT version.
+   *
+   * @return The timings of the warm-up
+   *
+   * @throws SchematronException If the warm-up failed.
+   */
+  public WarmUpReport warmUp() throws SchematronException {
+    return warmUp(Collections.emptyList(), Runnable::run);
+  }
+
+  /**
+   * Warm up this factory by building the precompilers for every query binding, compiling the
+   * specified schemas in parallel and running a synthetic validation for each XSLT version.
+   *
+   * <p>If this factory has a cache, the compiled validators are cached. This method blocks until
+   * the warm-up is complete, so it can be invoked before reporting that an application is ready.</p>
+   *
+   * @param schemas  The schemas to compile
+   * @param executor The executor used to compile the schemas
+   *
+   * @return The timings of the warm-up and compiled validators
+   *
+   * @throws SchematronException If the warm-up failed or any of the schemas could not be compiled.
+   */
+  public WarmUpReport warmUp(List<File> schemas, Executor executor) throws SchematronException {
+    long t0 = System.nanoTime();
+    precompile();
+    long t1 = System.nanoTime();
+    List<CompletableFuture<Validator>> futures = new ArrayList<>(schemas.size());
+    for (File schema : schemas) {
+      futures.add(newValidatorAsync(schema, executor));
+    }
+    List<Validator> validators = new ArrayList<>(schemas.size());
+    for (CompletableFuture<Validator> future : futures) {
+      validators.add(await(future));
+    }
+    long t2 = System.nanoTime();
+    ValidatorFactory factory = new ValidatorFactory(this._factory, CompileOptions.defaults(),
+        this._listener, this._resolver, NO_DEBUG, null, null, null, MetricsListener.NONE);
+    for (String binding : new String[]{ "xslt", "xslt2" }) {
+      String schema = String.format(WARM_UP_SCHEMA, binding);
+      Validator validator = factory.newValidator(new StreamSource(new StringReader(schema), "warm-up.sch"));
+      for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+        validator.validate(new StreamSource(new StringReader(WARM_UP_DOCUMENT), "warm-up.xml"));
+      }
+    }
+    long t3 = System.nanoTime();
+    return new WarmUpReport(t1 - t0, t2 - t1, t3 - t2, validators);
+  }
+
+  private static Validator await(CompletableFuture<Validator> future) throws SchematronException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SchematronException("Interrupted while compiling schemas", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof SchematronException) throw (SchematronException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new SchematronException("Unable to compile schema", cause);
+    }
+  }
+
+  /**
+   * Load the schema in memory reporting the time and size to the metrics listener.
+   *
+   * <p>The schema is buffered rather than parsed into a tree: it is streamed through the compilation
+   * pipeline and only hashed when the cache or the stylesheet store needs a key.</p>
+   */
+  private SchemaSource loadSchema(Source schema) throws SchematronException {
+    if (this._metrics == MetricsListener.NONE) return SchemaSource.load(schema, this._factory);
+    long start = System.nanoTime();
+    SchemaSource source = SchemaSource.load(schema, this._factory);
+    this._metrics.onSchemaLoaded(source.getSystemId(), source.size(), System.nanoTime() - start);
+    return source;
+  }
+
+  private Validator compile(SchemaSource source, QueryBinding binding, String phase) throws SchematronException {
+    String systemId = source.getSystemId();
+    Validator.StylesheetSupplier export = newExport(source, binding, phase);
+    if (this._options.isStreamable()) {
+      checkStreamability(source, binding);
+    }
+
+    // Evaluate the schema directly with XPath if possible (profiled schemas always use XSLT)
+    boolean profile = this._options.isProfile();
+    if (this._options.isXPathEngine() && !profile && !this._options.hasMetadata()) {
+      XPathEngine engine = newXPathEngine(source, binding, phase);
+      if (engine != null) return new Validator(engine, export, this._metrics.forSchema(systemId));
+    }
+
+    // Check whether the stylesheet was generated previously (profiled stylesheets are not stored)
+    String key = null;
+    if (this._store != null && !profile) {
+      key = toStoreKey(source, binding, phase);
+      export = storedExport(key, export);
+      Templates templates = loadStoredStylesheet(key, systemId);
+      if (templates != null) return new Validator(templates, export, null, this._metrics.forSchema(systemId));
+    }
 
     // Prepare the compiler
-    QueryBinding binding = getQueryBinding(schematron, this._options);
-    Precompiler precompiler = getPrecompiler(binding);
-    Compiler compiler = precompiler.prepare(this._listener, this._options.toParameters(phase));
+    Precompiler precompiler = PrecompilerRegistry.get(this._factory, this._resolver, binding);
+    Compiler compiler = precompiler.prepare(this._listener, this._options.toParameters(phase), this._fragments, this._metrics);
+    Source schemaSource = source.newSource(this._options.defaultQueryBinding());
+
+    // Unless we need a copy of the stylesheet, generate the templates directly
+    boolean debug = this._debug != null && this._debug != NO_DEBUG;
+    if (!debug && !profile && this._metrics == MetricsListener.NONE && this._store == null && this._factory instanceof SAXTransformerFactory
+        && this._factory.getFeature(SAXResult.FEATURE)) {
+      return new Validator(newTemplates(compiler, schemaSource, systemId), export, null, this._metrics.forSchema(systemId));
+    }
 
-    DOMSource schemaSource = new DOMSource(schematron, systemId);
     Document stylesheet = compiler.compile(schemaSource);
     stylesheet.setDocumentURI(systemId);
 
     // check debug mode, if true then print the preprocessing results to debug.xslt
-    if (this._debug != null) {
+    if (debug) {
       try {
         Writer writer = this._debug.getWriter(systemId);
         if (writer != null) {
-          StreamResult result = new StreamResult(writer);
-          Transformer transformer = this._factory.newTransformer();
-          transformer.setOutputProperty(OutputKeys.INDENT, this._debug.indent() ? "yes" : "no");
-          transformer.transform(new DOMSource(stylesheet), result);
+          serialize(stylesheet, new StreamResult(writer), this._debug.indent());
         }
       } catch (TransformerException | IOException ex) {
         throw new SchematronException("Unable to save debug output", ex);
       }
     }
 
-    // Generate the templates from the preprocessing results
-    if (this._resolver != null) {
+    // Save a copy of the generated stylesheet for next time
+    if (this._store != null && !profile) {
+      storeStylesheet(key, stylesheet);
+    }
+
+    // Instrument the stylesheet to measure the time spent evaluating each rule
+    Profiler profiler = profile ? Profiler.instrument(stylesheet) : null;
+
+    return new Validator(newTemplates(new DOMSource(stylesheet), systemId), export, profiler, this._metrics.forSchema(systemId));
+  }
+
+  /**
+   * Supplies the stylesheet to export without keeping the schema in memory when it can be read again
+   * from its system ID.
+   */
+  private Validator.StylesheetSupplier newExport(SchemaSource source, QueryBinding binding, String phase) {
+    if (!source.isFromSystemId()) return () -> generateStylesheet(source, binding, phase);
+    String systemId = source.getSystemId();
+    return () -> generateStylesheet(SchemaSource.load(new StreamSource(systemId), this._factory), binding, phase);
+  }
+
+  /**
+   * Supplies the stylesheet to export from the stylesheet store, generating it again if it was removed.
+   */
+  private Validator.StylesheetSupplier storedExport(String key, Validator.StylesheetSupplier generate) {
+    StylesheetStore store = this._store;
+    return () -> {
       try {
-        this._factory.setURIResolver(this._resolver.newInstance());
-      } catch (Throwable t) {
-        throw new SchematronException("Unable to instantiate new resolver", t);
+        byte[] stylesheet = store.get(key);
+        if (stylesheet != null) return stylesheet;
+      } catch (IOException ex) {
+        warning("Unable to load stored stylesheet for export", ex);
       }
+      return generate.get();
+    };
+  }
+
+  /**
+   * Compile the schema for the XPath engine.
+   *
+   * @return the XPath engine or <code>null</code> if the schema cannot be evaluated without XSLT
+   */
+  private XPathEngine newXPathEngine(SchemaSource source, QueryBinding binding, String phase) throws SchematronException {
+    String systemId = source.getSystemId();
+    if (binding != QueryBinding.XSLT1 && binding != QueryBinding.DEFAULT) {
+      warning("Schema "+systemId+" cannot be evaluated with the XPath engine: it uses the '"+source.getQueryBinding()+"' query binding");
+      return null;
+    }
+    Precompiler precompiler = PrecompilerRegistry.get(this._factory, this._resolver, binding);
+    Compiler compiler = precompiler.prepare(this._listener, this._options.toParameters(phase), this._fragments, this._metrics);
+    Document schema = compiler.expand(source.newSource(this._options.defaultQueryBinding()));
+    try {
+      return XPathEngine.compile(schema, phase);
+    } catch (SchematronException ex) {
+      warning("Schema "+systemId+" cannot be evaluated with the XPath engine, using XSLT instead: "+ex.getMessage());
+      return null;
     }
+  }
 
-    // Generate the validator instance
-    Templates validator;
+  /**
+   * Generate the templates by sending the output of the compiler to a templates handler.
+   */
+  private Templates newTemplates(Compiler compiler, Source schema, String systemId) throws SchematronException {
+    setURIResolver();
     try {
-      validator = this._factory.newTemplates(new DOMSource(stylesheet));
+      TemplatesHandler handler = ((SAXTransformerFactory)this._factory).newTemplatesHandler();
+      if (systemId != null) handler.setSystemId(systemId);
+      compiler.compile(schema, new SAXResult(handler));
+      return handler.getTemplates();
+    } catch (TransformerConfigurationException | IllegalStateException ex) {
+      // Some processors throw an IllegalStateException when the stylesheet has static errors
+      throw new SchematronException("Unable to generate new Validator from preprocessed "+systemId, ex);
+    }
+  }
+
+  private Templates newTemplates(Source stylesheet, String systemId) throws SchematronException {
+    setURIResolver();
+    try {
+      if (this._metrics == MetricsListener.NONE) return this._factory.newTemplates(stylesheet);
+      long start = System.nanoTime();
+      Templates templates = this._factory.newTemplates(stylesheet);
+      this._metrics.onTemplatesCreated(systemId, System.nanoTime() - start);
+      return templates;
     } catch (TransformerException ex) {
-      throw new SchematronException("Unable to generate new Validator from preprocessed "+schema.getSystemId(), ex);
+      throw new SchematronException("Unable to generate new Validator from preprocessed "+systemId, ex);
+    }
+  }
+
+  /**
+   * Load the templates from the stylesheet store.
+   *
+   * <p>Any error reading or parsing the stored stylesheet is reported as a warning and
+   * the schema is compiled again.</p>
+   *
+   * @return the templates or <code>null</code> if not found.
+   */
+  private Templates loadStoredStylesheet(String key, String systemId) {
+    try {
+      byte[] stylesheet = this._store.get(key);
+      if (stylesheet == null) return null;
+      return newTemplates(new StreamSource(new ByteArrayInputStream(stylesheet), systemId), systemId);
+    } catch (IOException | SchematronException ex) {
+      warning("Unable to load stored stylesheet for "+systemId, ex);
+      return null;
+    }
+  }
+
+  private void storeStylesheet(String key, Document stylesheet) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      serialize(stylesheet, new StreamResult(out), false);
+      this._store.put(key, out.toByteArray());
+    } catch (IOException | TransformerException ex) {
+      warning("Unable to store generated stylesheet for "+stylesheet.getDocumentURI(), ex);
     }
-    return new Validator(validator);
   }
 
-  private Document loadSchema(Source source) throws SchematronException {
+  private void serialize(Document stylesheet, Result result, boolean indent) throws TransformerException {
+    Transformer transformer = this._factory.newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, indent ? "yes" : "no");
+    transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
+    transformer.transform(new DOMSource(stylesheet), result);
+  }
+
+  /**
+   * Report any rule unlikely to be streamable as a warning to the error listener.
+   *
+   * <p>Streaming is only possible with the "xslt3" query binding and an XSLT processor supporting
+   * streaming such as Saxon-EE.</p>
+   */
+  private void checkStreamability(SchemaSource source, QueryBinding binding) throws SchematronException {
     String systemId = source.getSystemId();
+    if (binding != QueryBinding.XSLT3) {
+      warning("Schema "+systemId+" cannot be streamed: streaming requires the 'xslt3' query binding but uses "+binding);
+      return;
+    }
+    String edition = Streamability.getSaxonEdition(this._factory);
+    if (!"EE".equals(edition)) {
+      warning("Schema "+systemId+" will not be streamed: the XSLT processor "+(edition != null ? "Saxon-"+edition : this._factory.getClass().getName())+" does not support streaming");
+    }
+    for (String issue : Streamability.check(source)) {
+      warning("Schema "+systemId+" may not be streamable. "+issue);
+    }
+  }
+
+  private void warning(String message) {
     try {
-      DOMResult schema = new DOMResult();
-      this._factory.newTransformer().transform(source, schema);
-      Document schemaDocument = (Document)schema.getNode();
-      schemaDocument.setDocumentURI(systemId);
-      return schemaDocument;
-    } catch (TransformerException ex) {
-      throw new SchematronException("Unable to parse source schema", ex);
+      this._listener.warning(new TransformerException(message));
+    } catch (TransformerException ignore) {
+      // The listener chose to rethrow the warning, warnings must not prevent compilation
+    }
+  }
+
+  private void warning(String message, Exception ex) {
+    try {
+      this._listener.warning(new TransformerException(message, ex));
+    } catch (TransformerException ignore) {
+      // The listener chose to rethrow the warning, the stylesheet store is only a cache
+    }
+  }
+
+  /**
+   * Returns the digest of the schema including the content of the local files it includes so that
+   * a change to any included file produces a different key.
+   *
+   * <p>When the factory has a validator cache, only the files whose content has changed since the
+   * last lookup are parsed again.</p>
+   */
+  private String digest(SchemaSource source) throws SchematronException {
+    Path file = toLocalFile(source.getSystemId());
+    if (file == null) return source.digest();
+    SchemaDependencies.Cache dependencies = this._cache != null ? this._cache.dependencies() : null;
+    return source.digest() + SchemaDependencies.of(file, source, dependencies).digest();
+  }
+
+  /**
+   * @return the path to the local file or <code>null</code> if the system ID is not a local file.
+   */
+  private static Path toLocalFile(String systemId) {
+    if (systemId == null) return null;
+    try {
+      URI uri = new URI(systemId);
+      return "file".equals(uri.getScheme()) ? Paths.get(uri).toAbsolutePath().normalize() : null;
+    } catch (URISyntaxException | IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The key used in the stylesheet store.
+   */
+  private String toStoreKey(SchemaSource source, QueryBinding binding, String phase) throws SchematronException {
+    String key = digest(source) + '\n' + source.getSystemId() + '\n' + phase + '\n'
+        + this._options + '\n' + binding + '\n' + VERSION;
+    return SchemaSource.toHex(SchemaSource.sha256(key.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Set the URI resolver on the XSLT processor before generating the templates.
+   */
+  private void setURIResolver() throws SchematronException {
+    if (this._resolver != null) {
+      try {
+        this._factory.setURIResolver(this._resolver.newInstance());
+      } catch (Throwable t) {
+        throw new SchematronException("Unable to instantiate new resolver", t);
+      }
     }
   }
 
-  private QueryBinding getQueryBinding(Document schematron, CompileOptions options) throws SchematronException {
-    String queryBinding = schematron.getDocumentElement().getAttribute("queryBinding").toLowerCase();
+  private QueryBinding getQueryBinding(SchemaSource schema, CompileOptions options) throws SchematronException {
+    String queryBinding = schema.getQueryBinding();
     if ("".equals(queryBinding)) {
       queryBinding = options.defaultQueryBinding();
-      schematron.getDocumentElement().setAttribute("queryBinding", queryBinding);
     }
     return QueryBinding.forValue(queryBinding);
   }
 
-  private Precompiler getPrecompiler(QueryBinding binding) throws SchematronException {
-    if ("1.0".equals(binding.version()) && precompiler1 != null) return precompiler1;
-    if ("2.0".equals(binding.version()) && precompiler2 != null) return precompiler2;
-    Precompiler precompiler = Precompiler.create(this._factory, binding);
-    if ("1.0".equals(binding.version())) precompiler1 = precompiler;
-    else if ("2.0".equals(binding.version())) precompiler2 = precompiler;
-    return precompiler;
-  }
 
   /**
    * Given full path to the path and return file name only
@@ -346,6 +973,14 @@ public final class ValidatorFactory {
     return split[split.length - 1].replaceAll(".sch$", "");
   }
 
+  /**
+   * @return The implementation version of this library or "unknown"
+   */
+  private static String getVersion() {
+    String version = ValidatorFactory.class.getPackage().getImplementationVersion();
+    return version != null ? version : "unknown";
+  }
+
   private static TransformerFactory newSafeTransformerFactory() {
     TransformerFactory factory = TransformerFactory.newInstance();
     // If DTDs (doctypes) are disallowed, almost all XML entity attacks are prevented
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+/**
+ * Validates a document against multiple schemas parsing the document only once.
+ *
+ * <p>The document is parsed into a tree which is then supplied to each validator in turn, or in
+ * parallel when validating asynchronously. Results are returned in the same order as the
+ * validators.</p>
+ *
+ * <pre>
+ *   ValidatorGroup group = new ValidatorGroup(business, metadata, accessibility);
+ *   List&lt;SchematronResult&gt; results = group.validate(new File("document.xml"));
+ * </pre>
+ *
+ * <p>With Saxon, the document is parsed into the processor's native tree. Validators compiled by
+ * different factories use different configurations, in which case the tree is copied once for each
+ * configuration. Validators should therefore be compiled using the same factory.</p>
+ *
+ * <p>With other XSLT processors, the document is parsed into a DOM and validations are always
+ * sequential as DOM trees are not thread-safe.</p>
+ *
+ * <p>This class is immutable and thread-safe.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class ValidatorGroup {
+
+  /**
+   * The validators in this group.
+   */
+  private final List<Validator> _validators;
+
+  /**
+   * The processor configuration of each validator, used to build compatible trees.
+   */
+  private final Object[] _configurations;
+
+  /**
+   * Creates a new group of validators.
+   *
+   * @param validators The validators in the group
+   *
+   * @throws NullPointerException If any of the validators is <code>null</code>
+   */
+  public ValidatorGroup(Validator... validators) {
+    this(Arrays.asList(validators));
+  }
+
+  /**
+   * Creates a new group of validators.
+   *
+   * @param validators The validators in the group
+   *
+   * @throws NullPointerException If any of the validators is <code>null</code>
+   */
+  public ValidatorGroup(List<Validator> validators) {
+    List<Validator> list = new ArrayList<>(validators);
+    Object[] configurations = new Object[list.size()];
+    for (int i = 0; i < configurations.length; i++) {
+      configurations[i] = SourceTree.getConfiguration(Objects.requireNonNull(list.get(i)).templates());
+    }
+    this._validators = Collections.unmodifiableList(list);
+    this._configurations = configurations;
+  }
+
+  /**
+   * @return The validators in this group.
+   */
+  public List<Validator> getValidators() {
+    return this._validators;
+  }
+
+  /**
+   * Validates the XML file against every validator in the group.
+   *
+   * @param xml XML file to validate
+   *
+   * @return the results of the validation for each validator.
+   *
+   * @throws SchematronException Should an error occur during parsing or validation.
+   */
+  public List<SchematronResult> validate(File xml) throws SchematronException {
+    return validate(new StreamSource(xml), Collections.emptyMap());
+  }
+
+  /**
+   * Validates the XML data against every validator in the group.
+   *
+   * @param xml XML source to validate
+   *
+   * @return the results of the validation for each validator.
+   *
+   * @throws SchematronException Should an error occur during parsing or validation.
+   */
+  public List<SchematronResult> validate(Source xml) throws SchematronException {
+    return validate(xml, Collections.emptyMap());
+  }
+
+  /**
+   * Validates the XML data against every validator in the group sequentially.
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to each schema during validation
+   *
+   * @return the results of the validation for each validator.
+   *
+   * @throws SchematronException Should an error occur during parsing or validation.
+   */
+  public List<SchematronResult> validate(Source xml, Map<String, Object> parameters) throws SchematronException {
+    return validate(parse(xml), parameters);
+  }
+
+  /**
+   * Validates the XML file against every validator in the group in parallel.
+   *
+   * @param xml      XML file to validate
+   * @param executor The executor running the parsing and validation tasks
+   *
+   * @return A future completing with the results or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<List<SchematronResult>> validateAsync(File xml, Executor executor) {
+    return validateAsync(new StreamSource(xml), Collections.emptyMap(), executor);
+  }
+
+  /**
+   * Validates the XML data against every validator in the group in parallel.
+   *
+   * <p>The document is parsed first, then each validation is submitted to the executor.</p>
+   *
+   * @param xml        XML source to validate
+   * @param parameters The parameters to send to each schema during validation
+   * @param executor   The executor running the parsing and validation tasks
+   *
+   * @return A future completing with the results or exceptionally with a <code>SchematronException</code>.
+   */
+  public CompletableFuture<List<SchematronResult>> validateAsync(Source xml, Map<String, Object> parameters, Executor executor) {
+    CompletableFuture<List<SchematronResult>> future = new CompletableFuture<>();
+    Async.supply(() -> parse(xml), executor).whenComplete((trees, ex) -> {
+      if (ex != null) {
+        future.completeExceptionally(ex);
+      } else if (!isThreadSafe(trees)) {
+        Async.supply(() -> validate(trees, parameters), executor).whenComplete(complete(future));
+      } else {
+        List<CompletableFuture<SchematronResult>> tasks = new ArrayList<>(trees.length);
+        for (int i = 0; i < trees.length; i++) {
+          Validator validator = this._validators.get(i);
+          Source tree = trees[i];
+          tasks.add(Async.supply(() -> validator.validate(tree, parameters), executor));
+        }
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).whenComplete((done, error) -> {
+          if (error != null) {
+            future.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+          } else {
+            List<SchematronResult> results = new ArrayList<>(tasks.size());
+            for (CompletableFuture<SchematronResult> task : tasks) results.add(task.join());
+            future.complete(results);
+          }
+        });
+      }
+    });
+    return future;
+  }
+
+  private List<SchematronResult> validate(Source[] trees, Map<String, Object> parameters) throws SchematronException {
+    List<SchematronResult> results = new ArrayList<>(trees.length);
+    for (int i = 0; i < trees.length; i++) {
+      results.add(this._validators.get(i).validate(trees[i], parameters));
+    }
+    return results;
+  }
+
+  /**
+   * Parse the source once and copy the tree for each additional processor configuration.
+   *
+   * @return the tree to use for each validator.
+   */
+  private Source[] parse(Source xml) throws SchematronException {
+    Source[] trees = new Source[this._configurations.length];
+    Map<Object, Source> built = new IdentityHashMap<>();
+    Source first = null;
+    for (int i = 0; i < trees.length; i++) {
+      Object configuration = this._configurations[i];
+      Source tree = built.get(configuration);
+      if (tree == null) {
+        tree = SourceTree.build(configuration, first != null ? first : xml);
+        if (first == null) first = tree;
+        built.put(configuration, tree);
+      }
+      trees[i] = tree;
+    }
+    return trees;
+  }
+
+  private static boolean isThreadSafe(Source[] trees) {
+    for (Source tree : trees) {
+      if (!SourceTree.isThreadSafe(tree)) return false;
+    }
+    return true;
+  }
+
+  private static <T> BiConsumer<T, Throwable> complete(CompletableFuture<T> future) {
+    return (value, ex) -> {
+      if (ex != null) future.completeExceptionally(ex);
+      else future.complete(value);
+    };
+  }
+
+}
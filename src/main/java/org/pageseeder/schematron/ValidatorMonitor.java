@@ -0,0 +1,420 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monitors the validators created by a factory and exposes their statistics as an MXBean.
+ *
+ * <p>The monitor is a {@link MetricsListener}: set it on the factory so that it receives the
+ * events of every validator compiled by the factory, and register it with the platform MBean
+ * server to inspect it with any JMX client.</p>
+ *
+ * <pre>{@code
+ * ValidatorCache cache = new ValidatorCache();
+ * ValidatorMonitor monitor = new ValidatorMonitor("catalog", cache, null);
+ * monitor.register();
+ * ValidatorFactory factory = new ValidatorFactory().cache(cache).metrics(monitor);
+ * }</pre>
+ *
+ * <p>Validation times are attributed to the schema the validator was compiled from. Percentiles
+ * are computed from the last {@value #SAMPLES} validations of each schema.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class ValidatorMonitor implements MetricsListener, ValidatorMonitorMXBean {
+
+  /**
+   * The number of recent validation times kept for each schema to compute percentiles.
+   */
+  public static final int SAMPLES = 1024;
+
+  /**
+   * The key used for schemas without a system ID.
+   */
+  private static final String UNKNOWN = "unknown";
+
+  private final String _name;
+
+  /**
+   * The validator cache used by the factory (may be <code>null</code>).
+   */
+  private final ValidatorCache _cache;
+
+  /**
+   * The fragment cache used by the factory (may be <code>null</code>).
+   */
+  private final FragmentCache _fragments;
+
+  /**
+   * The statistics for each schema.
+   */
+  private final Map<String, Schema> _schemas = new ConcurrentHashMap<>();
+
+  /**
+   * The pools created by the monitored validators.
+   */
+  private final Map<InstancePool, Boolean> _pools = Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final AtomicLong _validators = new AtomicLong();
+  private final AtomicLong _templates = new AtomicLong();
+  private final AtomicLong _transformers = new AtomicLong();
+  private final AtomicLong _validations = new AtomicLong();
+  private final AtomicLong _errors = new AtomicLong();
+
+  private volatile long _since = System.nanoTime();
+
+  /**
+   * Creates a new monitor without caches.
+   *
+   * @param name The name of the monitor used in its object name
+   */
+  public ValidatorMonitor(String name) {
+    this(name, null, null);
+  }
+
+  /**
+   * Creates a new monitor.
+   *
+   * @param name      The name of the monitor used in its object name
+   * @param cache     The validator cache used by the factory (may be <code>null</code>)
+   * @param fragments The fragment cache used by the factory (may be <code>null</code>)
+   */
+  public ValidatorMonitor(String name, ValidatorCache cache, FragmentCache fragments) {
+    this._name = name;
+    this._cache = cache;
+    this._fragments = fragments;
+  }
+
+  /**
+   * @return The object name of this monitor: <code>org.pageseeder.schematron:type=ValidatorMonitor,name=[name]</code>
+   *
+   * @throws MalformedObjectNameException If the name is not valid
+   */
+  public ObjectName getObjectName() throws MalformedObjectNameException {
+    return new ObjectName("org.pageseeder.schematron:type=ValidatorMonitor,name="+ObjectName.quote(this._name));
+  }
+
+  /**
+   * Register this monitor with the platform MBean server.
+   *
+   * @return The object name of this monitor
+   *
+   * @throws JMException If the monitor could not be registered
+   */
+  public ObjectName register() throws JMException {
+    ObjectName name = getObjectName();
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    return name;
+  }
+
+  /**
+   * Unregister this monitor from the platform MBean server if it was registered.
+   *
+   * @throws JMException If the monitor could not be unregistered
+   */
+  public void unregister() throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = getObjectName();
+    if (server.isRegistered(name)) server.unregisterMBean(name);
+  }
+
+  // MetricsListener
+  // ---------------------------------------------------------------------------------------------
+
+  @Override
+  public MetricsListener forSchema(String systemId) {
+    this._validators.incrementAndGet();
+    return new SchemaListener(schema(systemId));
+  }
+
+  @Override
+  public void onTemplatesCreated(String systemId, long nanos) {
+    this._templates.incrementAndGet();
+  }
+
+  @Override
+  public void onTransformerCreated(long nanos) {
+    this._transformers.incrementAndGet();
+  }
+
+  @Override
+  public void onPoolCreated(InstancePool pool) {
+    this._pools.put(pool, Boolean.TRUE);
+  }
+
+  /**
+   * The system ID is the document's: validators which did not get their listener from
+   * {@link #forSchema(String)} are recorded under the unknown schema.
+   */
+  @Override
+  public void onValidated(String systemId, long nanos, long svrlLength, int asserts, int reports) {
+    schema(null).record(nanos);
+    this._validations.incrementAndGet();
+  }
+
+  @Override
+  public void onValidationError(String systemId, long nanos, SchematronException ex) {
+    schema(null).errors.incrementAndGet();
+    this._errors.incrementAndGet();
+  }
+
+  // MXBean
+  // ---------------------------------------------------------------------------------------------
+
+  @Override
+  public String getName() {
+    return this._name;
+  }
+
+  @Override
+  public long getValidatorCount() {
+    return this._validators.get();
+  }
+
+  @Override
+  public long getTemplatesCount() {
+    return this._templates.get();
+  }
+
+  @Override
+  public long getTransformerCount() {
+    return this._transformers.get();
+  }
+
+  @Override
+  public int getPooledInstanceCount() {
+    int count = 0;
+    for (InstancePool pool : pools()) count += pool.getIdleCount();
+    return count;
+  }
+
+  @Override
+  public int getActiveInstanceCount() {
+    int count = 0;
+    for (InstancePool pool : pools()) count += pool.getActiveCount();
+    return count;
+  }
+
+  @Override
+  public long getValidationCount() {
+    return this._validations.get();
+  }
+
+  @Override
+  public long getValidationErrorCount() {
+    return this._errors.get();
+  }
+
+  @Override
+  public double getThroughput() {
+    return perSecond(this._validations.get(), this._since);
+  }
+
+  @Override
+  public int getCacheSize() {
+    return this._cache != null ? this._cache.size() : -1;
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    return this._cache != null ? ratio(this._cache.getHitCount(), this._cache.getMissCount()) : -1;
+  }
+
+  @Override
+  public long getCacheEvictionCount() {
+    return this._cache != null ? this._cache.getEvictionCount() : -1;
+  }
+
+  @Override
+  public double getFragmentCacheHitRatio() {
+    return this._fragments != null ? ratio(this._fragments.getHitCount(), this._fragments.getMissCount()) : -1;
+  }
+
+  @Override
+  public List<SchemaStatistics> getSchemaStatistics() {
+    List<SchemaStatistics> statistics = new ArrayList<>(this._schemas.size());
+    for (Map.Entry<String, Schema> schema : this._schemas.entrySet()) {
+      statistics.add(schema.getValue().toStatistics(schema.getKey()));
+    }
+    statistics.sort((a, b) -> a.getSchema().compareTo(b.getSchema()));
+    return statistics;
+  }
+
+  @Override
+  public int evict(String schema) {
+    return this._cache != null ? this._cache.evict(schema) : 0;
+  }
+
+  @Override
+  public void clearCaches() {
+    if (this._cache != null) this._cache.clear();
+    if (this._fragments != null) this._fragments.clear();
+    for (InstancePool pool : pools()) pool.clear();
+  }
+
+  @Override
+  public void resetStatistics() {
+    this._validators.set(0);
+    this._templates.set(0);
+    this._transformers.set(0);
+    this._validations.set(0);
+    this._errors.set(0);
+    for (Schema schema : this._schemas.values()) schema.reset();
+    this._since = System.nanoTime();
+  }
+
+  @Override
+  public String toString() {
+    return "ValidatorMonitor{" +
+        "name=" + this._name +
+        ", validators=" + this._validators +
+        ", validations=" + this._validations +
+        ", errors=" + this._errors +
+        ", schemas=" + this._schemas.size() +
+        '}';
+  }
+
+  private Schema schema(String systemId) {
+    return this._schemas.computeIfAbsent(systemId != null ? systemId : UNKNOWN, s -> new Schema());
+  }
+
+  private List<InstancePool> pools() {
+    synchronized (this._pools) {
+      return new ArrayList<>(this._pools.keySet());
+    }
+  }
+
+  private static double ratio(long hits, long misses) {
+    long total = hits + misses;
+    return total > 0 ? (double) hits / total : 0;
+  }
+
+  private static double perSecond(long count, long since) {
+    long elapsed = System.nanoTime() - since;
+    return elapsed > 0 ? count * 1_000_000_000.0 / elapsed : 0;
+  }
+
+  /**
+   * The listener for the validators of a schema.
+   */
+  private final class SchemaListener implements MetricsListener {
+
+    private final Schema schema;
+
+    SchemaListener(Schema schema) {
+      this.schema = schema;
+    }
+
+    @Override
+    public MetricsListener forSchema(String systemId) {
+      return ValidatorMonitor.this.forSchema(systemId);
+    }
+
+    @Override
+    public void onTransformerCreated(long nanos) {
+      ValidatorMonitor.this.onTransformerCreated(nanos);
+    }
+
+    @Override
+    public void onPoolCreated(InstancePool pool) {
+      ValidatorMonitor.this.onPoolCreated(pool);
+    }
+
+    @Override
+    public void onValidated(String systemId, long nanos, long svrlLength, int asserts, int reports) {
+      this.schema.record(nanos);
+      ValidatorMonitor.this._validations.incrementAndGet();
+    }
+
+    @Override
+    public void onValidationError(String systemId, long nanos, SchematronException ex) {
+      this.schema.errors.incrementAndGet();
+      ValidatorMonitor.this._errors.incrementAndGet();
+    }
+  }
+
+  /**
+   * The validation times of a schema.
+   */
+  private static final class Schema {
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final long[] samples = new long[SAMPLES];
+
+    private long since = System.nanoTime();
+
+    private long count;
+
+    private long total;
+
+    private long max;
+
+    synchronized void record(long nanos) {
+      this.samples[(int) (this.count % SAMPLES)] = nanos;
+      this.count++;
+      this.total += nanos;
+      if (nanos > this.max) this.max = nanos;
+    }
+
+    synchronized void reset() {
+      this.errors.set(0);
+      this.since = System.nanoTime();
+      this.count = 0;
+      this.total = 0;
+      this.max = 0;
+    }
+
+    synchronized SchemaStatistics toStatistics(String systemId) {
+      long[] sorted = Arrays.copyOf(this.samples, (int) Math.min(this.count, SAMPLES));
+      Arrays.sort(sorted);
+      double mean = this.count > 0 ? this.total / (double) this.count : 0;
+      return new SchemaStatistics(systemId, this.count, this.errors.get(), perSecond(this.count, this.since),
+          millis(mean), millis(percentile(sorted, .50)), millis(percentile(sorted, .95)),
+          millis(percentile(sorted, .99)), millis(this.max));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+      if (sorted.length == 0) return 0;
+      int index = (int) Math.ceil(p * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(double nanos) {
+      return nanos / 1_000_000.0;
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.List;
+
+/**
+ * The management interface of the {@link ValidatorMonitor}.
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public interface ValidatorMonitorMXBean {
+
+  /**
+   * @return The name of the monitor used in its object name.
+   */
+  String getName();
+
+  /**
+   * @return The number of validators created from schemas.
+   */
+  long getValidatorCount();
+
+  /**
+   * @return The number of stylesheets compiled into templates by the XSLT processor.
+   */
+  long getTemplatesCount();
+
+  /**
+   * @return The number of transformers created for validator instances.
+   */
+  long getTransformerCount();
+
+  /**
+   * @return The number of idle instances in the pools of the monitored validators.
+   */
+  int getPooledInstanceCount();
+
+  /**
+   * @return The number of instances borrowed from the pools of the monitored validators.
+   */
+  int getActiveInstanceCount();
+
+  /**
+   * @return The number of documents validated.
+   */
+  long getValidationCount();
+
+  /**
+   * @return The number of documents which could not be validated.
+   */
+  long getValidationErrorCount();
+
+  /**
+   * @return The number of validations per second since the monitor was created or reset.
+   */
+  double getThroughput();
+
+  /**
+   * @return The number of validators in the validator cache, -1 if there is no cache.
+   */
+  int getCacheSize();
+
+  /**
+   * @return The ratio of validators found in the validator cache, -1 if there is no cache.
+   */
+  double getCacheHitRatio();
+
+  /**
+   * @return The number of validators evicted from the validator cache because it was full, -1 if there is no cache.
+   */
+  long getCacheEvictionCount();
+
+  /**
+   * @return The ratio of included fragments found in the fragment cache, -1 if there is no cache.
+   */
+  double getFragmentCacheHitRatio();
+
+  /**
+   * @return The validation statistics of each schema.
+   */
+  List<SchemaStatistics> getSchemaStatistics();
+
+  /**
+   * Remove the validators compiled from the specified schema from the validator cache.
+   *
+   * @param schema The system ID of the schema
+   *
+   * @return The number of validators removed.
+   */
+  int evict(String schema);
+
+  /**
+   * Clear the validator and fragment caches and the idle instances of all pools.
+   */
+  void clearCaches();
+
+  /**
+   * Reset the counters and validation statistics.
+   */
+  void resetStatistics();
+
+}
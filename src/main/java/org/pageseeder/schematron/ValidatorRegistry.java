@@ -0,0 +1,349 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.transform.TransformerException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A registry of validators for the schemas in watched directories, recompiled automatically when
+ * the schemas or any of the files they include change.
+ *
+ * <pre>
+ *   ValidatorRegistry registry = new ValidatorRegistry(factory, executor);
+ *   registry.watch(Paths.get("schemas"));
+ *   Validator validator = registry.get(Paths.get("schemas/business.sch"));
+ * </pre>
+ *
+ * <p>Every file with the <code>.sch</code> extension and a <code>sch:schema</code> root element in
+ * a watched directory is compiled when the directory is first watched. Changes are detected using
+ * a {@link WatchService}: modified schemas, and schemas including a modified file, are recompiled
+ * in the background using the executor. The new validator replaces the previous one atomically
+ * once compiled, so validations in progress complete with the previous validator.</p>
+ *
+ * <p>Changes to a schema are coalesced while its recompilation is waiting to run, and
+ * recompilations of the same schema never run concurrently. If a schema can no longer be
+ * compiled, the previous validator is kept and the error is reported as a warning to the error
+ * listener of the factory.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class ValidatorRegistry implements Closeable {
+
+  /**
+   * The extension of schema files.
+   */
+  private static final String EXTENSION = ".sch";
+
+  /**
+   * The factory used to compile the validators.
+   */
+  private final ValidatorFactory _factory;
+
+  /**
+   * The executor used to recompile the validators.
+   */
+  private final Executor _executor;
+
+  /**
+   * The file system watch service.
+   */
+  private final WatchService _watcher;
+
+  /**
+   * The compiled validators by schema path.
+   */
+  private final ConcurrentMap<Path, Entry> _entries = new ConcurrentHashMap<>();
+
+  /**
+   * The schema directories being watched.
+   */
+  private final Set<Path> _directories = ConcurrentHashMap.newKeySet();
+
+  /**
+   * All the directories registered with the watch service, including those of included files.
+   */
+  private final Map<Path, WatchKey> _keys = new HashMap<>();
+
+  /**
+   * The schemas waiting to be recompiled.
+   */
+  private final Set<Path> _pending = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Locks ensuring that a schema is not compiled concurrently.
+   */
+  private final ConcurrentMap<Path, Object> _locks = new ConcurrentHashMap<>();
+
+  /**
+   * Number of times a validator was replaced.
+   */
+  private final AtomicLong _reloads = new AtomicLong();
+
+  /**
+   * The includes found in the watched schemas and their fragments.
+   */
+  private final SchemaDependencies.Cache _dependencies = new SchemaDependencies.Cache();
+
+  /**
+   * The thread processing file system events.
+   */
+  private final Thread _thread;
+
+  /**
+   * Creates a new registry.
+   *
+   * @param factory  The factory used to compile validators
+   * @param executor The executor used to recompile validators in the background
+   *
+   * @throws IOException If the watch service could not be created.
+   */
+  public ValidatorRegistry(ValidatorFactory factory, Executor executor) throws IOException {
+    this._factory = Objects.requireNonNull(factory);
+    this._executor = Objects.requireNonNull(executor);
+    this._watcher = FileSystems.getDefault().newWatchService();
+    this._thread = new Thread(this::processEvents, "schematron-registry");
+    this._thread.setDaemon(true);
+    this._thread.start();
+  }
+
+  /**
+   * Watch the specified directory compiling all the schemas it contains.
+   *
+   * <p>Schemas which cannot be compiled are reported as warnings to the error listener of the
+   * factory and will be compiled again when they change.</p>
+   *
+   * @param directory The directory containing the schemas
+   *
+   * @throws IOException If the directory cannot be read or watched.
+   */
+  public void watch(Path directory) throws IOException {
+    Path dir = directory.toAbsolutePath().normalize();
+    register(dir);
+    this._directories.add(dir);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*"+EXTENSION)) {
+      for (Path file : files) {
+        if (Files.isRegularFile(file)) reload(file);
+      }
+    }
+  }
+
+  /**
+   * Returns the current validator for the specified schema.
+   *
+   * @param schema The path to the schema
+   *
+   * @return The validator or <code>null</code> if the schema is not in a watched directory or could not be compiled.
+   */
+  public Validator get(Path schema) {
+    Entry entry = this._entries.get(schema.toAbsolutePath().normalize());
+    return entry != null ? entry.validator : null;
+  }
+
+  /**
+   * @return A snapshot of the current validators by schema path.
+   */
+  public Map<Path, Validator> getValidators() {
+    Map<Path, Validator> validators = new HashMap<>();
+    for (Map.Entry<Path, Entry> entry : this._entries.entrySet()) {
+      validators.put(entry.getKey(), entry.getValue().validator);
+    }
+    return Collections.unmodifiableMap(validators);
+  }
+
+  /**
+   * @return The number of times a validator was recompiled after a change.
+   */
+  public long getReloadCount() {
+    return this._reloads.get();
+  }
+
+  /**
+   * Stop watching the directories.
+   *
+   * <p>Validators remain available but are no longer updated.</p>
+   *
+   * @throws IOException If thrown while closing the watch service
+   */
+  @Override
+  public void close() throws IOException {
+    this._watcher.close();
+    this._thread.interrupt();
+    this._dependencies.clear();
+  }
+
+  /**
+   * Process the file system events until the watch service is closed.
+   */
+  private void processEvents() {
+    try {
+      while (true) {
+        WatchKey key = this._watcher.take();
+        Path dir = (Path) key.watchable();
+        Set<Path> changed = new LinkedHashSet<>();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) overflow = true;
+          else changed.add(dir.resolve((Path) event.context()).normalize());
+        }
+        key.reset();
+        if (overflow) rescan(dir);
+        for (Path file : changed) {
+          onChange(file);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ex) {
+      // Registry closed
+    }
+  }
+
+  /**
+   * Schedule the recompilation of every schema affected by a change to the specified file.
+   */
+  private void onChange(Path file) {
+    for (Map.Entry<Path, Entry> entry : this._entries.entrySet()) {
+      if (entry.getValue().dependencies.dependsOn(file)) schedule(entry.getKey());
+    }
+    if (!this._entries.containsKey(file) && isCandidate(file)) {
+      schedule(file);
+    }
+  }
+
+  /**
+   * Schedule the recompilation of all the schemas after events were lost.
+   */
+  private void rescan(Path dir) {
+    for (Map.Entry<Path, Entry> entry : this._entries.entrySet()) {
+      Path schema = entry.getKey();
+      if (dir.equals(schema.getParent()) || entry.getValue().dependencies.getIncludes().stream().anyMatch(p -> dir.equals(p.getParent())))
+        schedule(schema);
+    }
+    if (this._directories.contains(dir)) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*"+EXTENSION)) {
+        for (Path file : files) schedule(file.normalize());
+      } catch (IOException ex) {
+        warning("Unable to list schemas in "+dir, ex);
+      }
+    }
+  }
+
+  /**
+   * Schedule the recompilation of the schema unless it is already waiting.
+   */
+  private void schedule(Path schema) {
+    if (this._pending.add(schema)) {
+      try {
+        this._executor.execute(() -> {
+          this._pending.remove(schema);
+          reload(schema);
+        });
+      } catch (RuntimeException ex) {
+        this._pending.remove(schema);
+        warning("Unable to schedule recompilation of "+schema, ex);
+      }
+    }
+  }
+
+  /**
+   * Recompile the schema and replace its validator.
+   */
+  private void reload(Path file) {
+    Path schema = file.toAbsolutePath().normalize();
+    synchronized (this._locks.computeIfAbsent(schema, p -> new Object())) {
+      if (!Files.isRegularFile(schema)) {
+        this._entries.remove(schema);
+        return;
+      }
+      try {
+        SchemaDependencies dependencies = SchemaDependencies.of(schema, this._dependencies);
+        if (!dependencies.isSchema()) return;
+        for (Path include : dependencies.getIncludes()) {
+          register(include.getParent());
+        }
+        Validator validator = this._factory.newValidator(schema.toFile());
+        Entry previous = this._entries.put(schema, new Entry(validator, dependencies));
+        if (previous != null) this._reloads.incrementAndGet();
+      } catch (SchematronException | IOException ex) {
+        warning("Unable to compile "+schema, ex);
+      }
+    }
+  }
+
+  private boolean isCandidate(Path file) {
+    return file.getFileName().toString().endsWith(EXTENSION)
+        && this._directories.contains(file.getParent())
+        && Files.isRegularFile(file);
+  }
+
+  private void register(Path dir) throws IOException {
+    synchronized (this._keys) {
+      if (!this._keys.containsKey(dir) && Files.isDirectory(dir)) {
+        WatchKey key = dir.register(this._watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this._keys.put(dir, key);
+      }
+    }
+  }
+
+  private void warning(String message, Exception ex) {
+    try {
+      this._factory.getErrorListener().warning(new TransformerException(message, ex));
+    } catch (TransformerException ignore) {
+      // The listener chose to rethrow the warning, the previous validator is kept
+    }
+  }
+
+  /**
+   * A compiled validator and the files it depends on.
+   */
+  private static final class Entry {
+
+    private final Validator validator;
+
+    private final SchemaDependencies dependencies;
+
+    Entry(Validator validator, SchemaDependencies dependencies) {
+      this.validator = validator;
+      this.dependencies = dependencies;
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timings of a factory warm-up.
+ *
+ * <p>The warm-up happens in three stages: the precompilers are built for every query binding,
+ * the schemas are compiled, then a synthetic validation is run for each XSLT version.</p>
+ *
+ * @see ValidatorFactory#warmUp(List, java.util.concurrent.Executor)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class WarmUpReport {
+
+  private final long _precompileTime;
+
+  private final long _compileTime;
+
+  private final long _validationTime;
+
+  private final List<Validator> _validators;
+
+  WarmUpReport(long precompileTime, long compileTime, long validationTime, List<Validator> validators) {
+    this._precompileTime = precompileTime;
+    this._compileTime = compileTime;
+    this._validationTime = validationTime;
+    this._validators = Collections.unmodifiableList(validators);
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The time taken to build the precompilers.
+   */
+  public long getPrecompileTime(TimeUnit unit) {
+    return unit.convert(this._precompileTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The wall-clock time taken to compile the schemas.
+   */
+  public long getCompileTime(TimeUnit unit) {
+    return unit.convert(this._compileTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The time taken by the synthetic validations.
+   */
+  public long getValidationTime(TimeUnit unit) {
+    return unit.convert(this._validationTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param unit The time unit
+   * @return The total time taken by the warm-up.
+   */
+  public long getTotalTime(TimeUnit unit) {
+    return unit.convert(this._precompileTime + this._compileTime + this._validationTime, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return The validators compiled during the warm-up in the same order as the schemas.
+   */
+  public List<Validator> getValidators() {
+    return this._validators;
+  }
+
+  @Override
+  public String toString() {
+    return "WarmUpReport{" +
+        "schemas=" + this._validators.size() +
+        ", precompile=" + getPrecompileTime(TimeUnit.MILLISECONDS) + "ms" +
+        ", compile=" + getCompileTime(TimeUnit.MILLISECONDS) + "ms" +
+        ", validation=" + getValidationTime(TimeUnit.MILLISECONDS) + "ms" +
+        ", total=" + getTotalTime(TimeUnit.MILLISECONDS) + "ms" +
+        '}';
+  }
+}
@@ -0,0 +1,1210 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.pageseeder.schematron.svrl.SVRL;
+import org.pageseeder.schematron.svrl.SVRLStreamWriter;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates a Schematron schema using the 'xslt' query binding directly with XPath instead
+ * of generating and running a validation stylesheet.
+ *
+ * <p>The schema is compiled once into an immutable rule model of patterns, rules, lets and
+ * assertions, so that the engine can be shared by all the instances of a validator. The XPath
+ * expressions are compiled into {@link XPathExpr} and evaluated over the DOM of the document,
+ * and the contexts of the rules are matched as XSLT patterns during a single walk of the document
+ * for each pattern, so that the cost of a validation grows with the size of the document as with
+ * the validation stylesheet. The SVRL produced is the same as the SVRL produced by the stylesheet
+ * generated by SchXslt.</p>
+ *
+ * <p>Schemas using features which cannot be evaluated without XSLT, such as XSLT elements or
+ * functions, pattern documents or lets without a value, are rejected during compilation.</p>
+ *
+ * <p>Unlike in the validation stylesheet, the context position and size are always 1 at the top
+ * level of the expressions of a rule.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class XPathEngine {
+
+  /**
+   * The Schematron namespace URI.
+   */
+  private static final String SCH = "http://purl.oclc.org/dsdl/schematron";
+
+  /**
+   * The XSLT namespace URI.
+   */
+  private static final String XSL = "http://www.w3.org/1999/XSL/Transform";
+
+  /**
+   * Shared factory to create the document builders of the evaluators.
+   */
+  private static final DocumentBuilderFactory BUILDERS = newDocumentBuilderFactory();
+
+  /**
+   * The value of the <code>schemaVersion</code> attribute (may be <code>null</code>).
+   */
+  private final String _schemaVersion;
+
+  /**
+   * The effective phase.
+   */
+  private final String _phase;
+
+  /**
+   * The string value of the schema title (may be <code>null</code>).
+   */
+  private final String _title;
+
+  /**
+   * The paragraphs of the schema.
+   */
+  private final List<Text> _paragraphs;
+
+  /**
+   * The namespaces declared by the schema, by prefix.
+   */
+  private final Map<String, String> _namespaces;
+
+  /**
+   * The schema lets which can be overridden by validation parameters.
+   */
+  private final Map<String, Let> _parameters;
+
+  /**
+   * All the global lets including the schema, phase and pattern lets.
+   */
+  private final Map<String, Let> _globals;
+
+  /**
+   * The active patterns which have rules.
+   */
+  private final List<Pattern> _patterns;
+
+  private XPathEngine(String schemaVersion, String phase, String title, List<Text> paragraphs, Map<String, String> namespaces,
+                      Map<String, Let> parameters, Map<String, Let> globals, List<Pattern> patterns) {
+    this._schemaVersion = schemaVersion;
+    this._phase = phase;
+    this._title = title;
+    this._paragraphs = paragraphs;
+    this._namespaces = namespaces;
+    this._parameters = parameters;
+    this._globals = globals;
+    this._patterns = patterns;
+  }
+
+  /**
+   * @return A new evaluator using this engine.
+   */
+  Evaluator newEvaluator() {
+    return new Evaluator(this);
+  }
+
+  /**
+   * Compile the specified schema for the given phase.
+   *
+   * @param schema The schema after inclusions and abstract patterns and rules have been expanded
+   * @param phase  The phase to use (may be <code>null</code>)
+   *
+   * @return the engine
+   *
+   * @throws SchematronException If the schema uses features which cannot be evaluated by this engine
+   */
+  static XPathEngine compile(Document schema, String phase) throws SchematronException {
+    return new Builder(schema).build(phase);
+  }
+
+  // Rule model
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * An XPath expression.
+   */
+  private static final class Expr {
+
+    private final String source;
+
+    /** The type of the result as an <code>XPathConstants</code> type or <code>null</code> to keep the value as is. */
+    private final QName type;
+
+    private final XPathExpr compiled;
+
+    Expr(String source, QName type, XPathExpr compiled) {
+      this.source = source;
+      this.type = type;
+      this.compiled = compiled;
+    }
+
+    @Override
+    public String toString() {
+      return this.source;
+    }
+  }
+
+  /**
+   * A let binding.
+   */
+  private static final class Let {
+
+    private final String name;
+
+    private final Expr value;
+
+    Let(String name, Expr value) {
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  /**
+   * An attribute copied from the schema.
+   */
+  private static final class Attribute {
+
+    private final String prefix;
+
+    private final String namespace;
+
+    private final String local;
+
+    private final String value;
+
+    Attribute(Node attribute) {
+      String prefix = attribute.getPrefix();
+      this.prefix = prefix != null ? prefix : "";
+      this.namespace = XPathTree.namespaceURI(attribute);
+      this.local = XPathTree.localName(attribute);
+      this.value = attribute.getNodeValue();
+    }
+
+    void write(SVRLStreamWriter svrl, String value) throws XMLStreamException {
+      if (this.namespace.isEmpty()) svrl.writeAttribute(this.local, value);
+      else svrl.writeAttribute(this.prefix, this.namespace, this.local, value);
+    }
+
+    void write(SVRLStreamWriter svrl) throws XMLStreamException {
+      write(svrl, this.value);
+    }
+  }
+
+  /**
+   * An active pattern.
+   */
+  private static final class Pattern {
+
+    private final List<Attribute> attributes;
+
+    /** The title or ID (may be <code>null</code>). */
+    private final String name;
+
+    private final List<Rule> rules;
+
+    Pattern(List<Attribute> attributes, String name, List<Rule> rules) {
+      this.attributes = attributes;
+      this.name = name;
+      this.rules = rules;
+    }
+  }
+
+  /**
+   * A rule.
+   */
+  private static final class Rule {
+
+    private final List<Attribute> attributes;
+
+    private final String contextSource;
+
+    /** The context as an XSLT pattern matching the nodes the rule applies to. */
+    private final XPathExpr.Pattern context;
+
+    private final List<Let> lets;
+
+    private final List<Check> checks;
+
+    Rule(List<Attribute> attributes, String contextSource, XPathExpr.Pattern context, List<Let> lets, List<Check> checks) {
+      this.attributes = attributes;
+      this.contextSource = contextSource;
+      this.context = context;
+      this.lets = lets;
+      this.checks = checks;
+    }
+  }
+
+  /**
+   * An assert or report.
+   */
+  private static final class Check {
+
+    private final boolean report;
+
+    private final List<Attribute> attributes;
+
+    private final String testSource;
+
+    private final Expr test;
+
+    /** The subject of the assertion or rule (may be <code>null</code>). */
+    private final Expr subject;
+
+    /** Diagnostic references (may be <code>null</code>). */
+    private final List<Reference> diagnostics;
+
+    /** Property references (may be <code>null</code>). */
+    private final List<Reference> properties;
+
+    /** The message (may be <code>null</code>). */
+    private final Text message;
+
+    Check(boolean report, List<Attribute> attributes, String testSource, Expr test, Expr subject,
+          List<Reference> diagnostics, List<Reference> properties, Text message) {
+      this.report = report;
+      this.attributes = attributes;
+      this.testSource = testSource;
+      this.test = test;
+      this.subject = subject;
+      this.diagnostics = diagnostics;
+      this.properties = properties;
+      this.message = message;
+    }
+  }
+
+  /**
+   * A diagnostic or property reference.
+   */
+  private static final class Reference {
+
+    private final String id;
+
+    /** Attributes for the reference element. */
+    private final List<Attribute> attributes;
+
+    /** The text element. */
+    private final Text text;
+
+    Reference(String id, List<Attribute> attributes, Text text) {
+      this.id = id;
+      this.attributes = attributes;
+      this.text = text;
+    }
+  }
+
+  /**
+   * A <code>svrl:text</code> element.
+   */
+  private static final class Text {
+
+    private final List<Attribute> attributes;
+
+    private final List<Content> content;
+
+    Text(List<Attribute> attributes, List<Content> content) {
+      this.attributes = attributes;
+      this.content = content;
+    }
+
+    void write(SVRLStreamWriter svrl, Node node, Run run) throws XMLStreamException, XPathExpressionException {
+      svrl.writeStartElement("svrl", "text", SVRL.NAMESPACE_URI);
+      for (Attribute attribute : this.attributes) attribute.write(svrl);
+      for (Content c : this.content) c.write(svrl, node, run);
+      svrl.writeEndElement();
+    }
+  }
+
+  /**
+   * The content of a message.
+   */
+  private interface Content {
+
+    void write(SVRLStreamWriter svrl, Node node, Run run) throws XMLStreamException, XPathExpressionException;
+
+  }
+
+  /**
+   * Literal text.
+   */
+  private static final class Literal implements Content {
+
+    private final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public void write(SVRLStreamWriter svrl, Node node, Run run) throws XMLStreamException {
+      svrl.writeCharacters(this.text);
+    }
+  }
+
+  /**
+   * The <code>sch:name</code> and <code>sch:value-of</code> elements.
+   */
+  private static final class Value implements Content {
+
+    /** The expression to evaluate or <code>null</code> for the name of the context node. */
+    private final Expr select;
+
+    Value(Expr select) {
+      this.select = select;
+    }
+
+    @Override
+    public void write(SVRLStreamWriter svrl, Node node, Run run) throws XMLStreamException, XPathExpressionException {
+      String value = this.select != null ? run.string(this.select, node) : XPathTree.name(node);
+      if (!value.isEmpty()) svrl.writeCharacters(value);
+    }
+  }
+
+  /**
+   * The <code>sch:emph</code>, <code>sch:dir</code> and <code>sch:span</code> elements and
+   * foreign elements.
+   *
+   * <p>As in SchXslt, the value of each attribute is the string value of the context node.</p>
+   */
+  private static final class Markup implements Content {
+
+    private final String namespace;
+
+    private final String local;
+
+    private final List<Attribute> attributes;
+
+    private final List<Content> content;
+
+    Markup(String namespace, String local, List<Attribute> attributes, List<Content> content) {
+      this.namespace = namespace;
+      this.local = local;
+      this.attributes = attributes;
+      this.content = content;
+    }
+
+    @Override
+    public void write(SVRLStreamWriter svrl, Node node, Run run) throws XMLStreamException, XPathExpressionException {
+      String defaultNamespace = run.defaultNamespace;
+      if (SVRL.NAMESPACE_URI.equals(this.namespace)) {
+        svrl.writeStartElement("svrl", this.local, this.namespace);
+      } else {
+        svrl.writeStartElement("", this.local, this.namespace);
+        if (!this.namespace.equals(defaultNamespace)) svrl.writeDefaultNamespace(this.namespace);
+        run.defaultNamespace = this.namespace;
+      }
+      String value = this.attributes.isEmpty() ? null : XPathTree.stringValue(node);
+      for (Attribute attribute : this.attributes) {
+        if (!attribute.namespace.isEmpty() && !XMLConstants.XML_NS_URI.equals(attribute.namespace))
+          svrl.writeNamespace(attribute.prefix, attribute.namespace);
+        attribute.write(svrl, value);
+      }
+      for (Content c : this.content) c.write(svrl, node, run);
+      svrl.writeEndElement();
+      run.defaultNamespace = defaultNamespace;
+    }
+  }
+
+  // Evaluation
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Writes the SVRL for the specified document.
+   */
+  private void validate(Node document, Run run, SVRLStreamWriter svrl) throws XMLStreamException, XPathExpressionException {
+    svrl.writeStartDocument();
+    svrl.writeStartElement("svrl", "schematron-output", SVRL.NAMESPACE_URI);
+    svrl.writeNamespace("svrl", SVRL.NAMESPACE_URI);
+    for (Map.Entry<String, String> ns : this._namespaces.entrySet()) {
+      svrl.writeNamespace(ns.getKey(), ns.getValue());
+    }
+    if (this._schemaVersion != null) svrl.writeAttribute("schemaVersion", this._schemaVersion);
+    if (!"#ALL".equals(this._phase)) svrl.writeAttribute("phase", this._phase);
+    if (this._title != null) svrl.writeAttribute("title", this._title);
+    for (Text paragraph : this._paragraphs) {
+      paragraph.write(svrl, document, run);
+    }
+    for (Map.Entry<String, String> ns : this._namespaces.entrySet()) {
+      svrl.writeStartElement("svrl", "ns-prefix-in-attribute-values", SVRL.NAMESPACE_URI);
+      svrl.writeAttribute("prefix", ns.getKey());
+      svrl.writeAttribute("uri", ns.getValue());
+      svrl.writeEndElement();
+    }
+    for (Pattern pattern : this._patterns) {
+      svrl.writeStartElement("svrl", "active-pattern", SVRL.NAMESPACE_URI);
+      for (Attribute attribute : pattern.attributes) attribute.write(svrl);
+      if (pattern.name != null) svrl.writeAttribute("name", pattern.name);
+      svrl.writeEndElement();
+      fireAll(pattern, document, svrl, run);
+    }
+    svrl.writeEndElement();
+    svrl.writeEndDocument();
+    svrl.flush();
+  }
+
+  /**
+   * Fires the rules of the pattern in document order, each element precedes its attributes which
+   * precede its children: the first rule matching a node in the pattern applies.
+   */
+  private static void fireAll(Pattern pattern, Node document, SVRLStreamWriter svrl, Run run)
+      throws XMLStreamException, XPathExpressionException {
+    for (Node node = document; node != null; node = XPathTree.following(node, document)) {
+      fireFirst(pattern, node, svrl, run);
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+          Node attribute = attributes.item(i);
+          if (!XPathTree.isNamespaceDeclaration(attribute)) fireFirst(pattern, attribute, svrl, run);
+        }
+      }
+    }
+  }
+
+  private static void fireFirst(Pattern pattern, Node node, SVRLStreamWriter svrl, Run run)
+      throws XMLStreamException, XPathExpressionException {
+    for (Rule rule : pattern.rules) {
+      if (rule.context.matches(node, run)) {
+        fire(rule, node, svrl, run);
+        return;
+      }
+    }
+  }
+
+  private static void fire(Rule rule, Node node, SVRLStreamWriter svrl, Run run) throws XMLStreamException, XPathExpressionException {
+    int locals = run.locals.size();
+    for (Let let : rule.lets) {
+      Object value = run.evaluate(let.value, node);
+      run.locals.add(let.name);
+      run.locals.add(value);
+    }
+    svrl.writeStartElement("svrl", "fired-rule", SVRL.NAMESPACE_URI);
+    for (Attribute attribute : rule.attributes) attribute.write(svrl);
+    svrl.writeAttribute("context", rule.contextSource);
+    svrl.writeEndElement();
+    for (Check check : rule.checks) {
+      if (run.test(check.test, node) != check.report) continue;
+      Node subject = node;
+      if (check.subject != null) {
+        List<Node> subjects = run.nodes(check.subject, node);
+        subject = subjects.isEmpty() ? null : subjects.get(0);
+      }
+      svrl.writeStartElement("svrl", check.report ? "successful-report" : "failed-assert", SVRL.NAMESPACE_URI);
+      svrl.writeAttribute("location", location(subject, node));
+      for (Attribute attribute : check.attributes) attribute.write(svrl);
+      svrl.writeAttribute("test", check.testSource);
+      if (check.diagnostics != null) {
+        for (Reference diagnostic : check.diagnostics) {
+          svrl.writeStartElement("svrl", "diagnostic-reference", SVRL.NAMESPACE_URI);
+          svrl.writeAttribute("diagnostic", diagnostic.id);
+          diagnostic.text.write(svrl, node, run);
+          svrl.writeEndElement();
+        }
+      }
+      if (check.properties != null) {
+        for (Reference property : check.properties) {
+          svrl.writeStartElement("svrl", "property-reference", SVRL.NAMESPACE_URI);
+          svrl.writeAttribute("property", property.id);
+          for (Attribute attribute : property.attributes) attribute.write(svrl);
+          property.text.write(svrl, node, run);
+          svrl.writeEndElement();
+        }
+      }
+      if (check.message != null) check.message.write(svrl, node, run);
+      svrl.writeEndElement();
+    }
+    run.locals.subList(locals, run.locals.size()).clear();
+  }
+
+  /**
+   * Computes the location of the subject as SchXslt: the position of the last step is the
+   * position of the rule context node.
+   *
+   * @param subject The subject of the assertion (may be <code>null</code>)
+   * @param context The rule context node
+   */
+  private static String location(Node subject, Node context) {
+    if (subject == null) return "/@Q{}";
+    StringBuilder location = new StringBuilder();
+    List<Node> ancestors = new ArrayList<>();
+    for (Node parent = XPathTree.parent(subject); parent != null; parent = XPathTree.parent(parent)) {
+      if (parent.getNodeType() == Node.ELEMENT_NODE) ancestors.add(parent);
+    }
+    for (int i = ancestors.size()-1; i >= 0; i--) {
+      Node ancestor = ancestors.get(i);
+      location.append("/Q{").append(XPathTree.namespaceURI(ancestor)).append('}')
+          .append(XPathTree.localName(ancestor)).append('[').append(number(ancestor)).append(']');
+    }
+    location.append('/');
+    switch (subject.getNodeType()) {
+      case Node.ELEMENT_NODE:
+        location.append("Q{").append(XPathTree.namespaceURI(subject)).append('}')
+            .append(XPathTree.localName(subject)).append('[').append(number(context)).append(']');
+        break;
+      case Node.ATTRIBUTE_NODE:
+        location.append("@Q{").append(XPathTree.namespaceURI(subject)).append('}').append(XPathTree.localName(subject));
+        break;
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        location.append("processing-instruction(\"").append(XPathTree.name(context)).append("\")[")
+            .append(number(context)).append(']');
+        break;
+      case Node.COMMENT_NODE:
+        location.append("comment()[").append(number(context)).append(']');
+        break;
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+        location.append("text()[").append(number(context)).append(']');
+        break;
+      default:
+    }
+    return XPathExpr.normalizeSpace(location.toString());
+  }
+
+  /**
+   * @return the position of the node among its siblings of the same kind and name as <code>xsl:number</code>.
+   */
+  private static int number(Node node) {
+    short type = node.getNodeType();
+    if (type == Node.ATTRIBUTE_NODE || XPathTree.isRoot(node)) return 1;
+    boolean text = XPathTree.isText(node);
+    int number = 1;
+    for (Node sibling = XPathTree.previousSibling(node); sibling != null; sibling = XPathTree.previousSibling(sibling)) {
+      if (text ? XPathTree.isText(sibling) : sibling.getNodeType() == type
+          && (type != Node.ELEMENT_NODE && type != Node.PROCESSING_INSTRUCTION_NODE
+              || (XPathTree.localName(sibling).equals(XPathTree.localName(node))
+                  && XPathTree.namespaceURI(sibling).equals(XPathTree.namespaceURI(node))))) {
+        number++;
+      }
+    }
+    return number;
+  }
+
+  /**
+   * The environment of a single validation.
+   */
+  private static final class Run implements XPathExpr.Context {
+
+    private final XPathEngine engine;
+
+    private final Map<String, Object> parameters;
+
+    /** The values of the global variables evaluated so far. */
+    private final Map<String, Object> globals = new HashMap<>();
+
+    /** The names of the global variables being evaluated to detect circular references. */
+    private final Set<String> evaluating = new HashSet<>();
+
+    /** The rule variables in scope as name/value pairs. */
+    final List<Object> locals = new ArrayList<>();
+
+    /** The default namespace in scope when writing messages. */
+    String defaultNamespace = "";
+
+    /** The root of the document being validated. */
+    private final Node root;
+
+    private final XPathTree tree = new XPathTree();
+
+    /** The last nodes selected by each step of a pattern with positional predicates and the node they were selected from. */
+    private final Map<XPathExpr.Step, Object[]> selected = new IdentityHashMap<>();
+
+    Run(XPathEngine engine, Node root, Map<String, Object> parameters) {
+      this.engine = engine;
+      this.root = root;
+      this.parameters = parameters != null ? parameters : Collections.emptyMap();
+    }
+
+    /**
+     * @return the value of the expression converted to the type of the expression.
+     */
+    Object evaluate(Expr expr, Node node) throws XPathExpressionException {
+      Object value = expr.compiled.evaluate(node, 1, 1, this);
+      if (expr.type == XPathConstants.BOOLEAN) return XPathExpr.toBoolean(value);
+      if (expr.type == XPathConstants.STRING) return XPathExpr.toString(value);
+      if (expr.type == XPathConstants.NODESET) return XPathExpr.toNodes(value, expr.compiled);
+      return value;
+    }
+
+    List<Node> nodes(Expr expr, Node node) throws XPathExpressionException {
+      return XPathExpr.toNodes(evaluate(expr, node));
+    }
+
+    boolean test(Expr expr, Node node) throws XPathExpressionException {
+      return (Boolean)evaluate(expr, node);
+    }
+
+    String string(Expr expr, Node node) throws XPathExpressionException {
+      return (String)evaluate(expr, node);
+    }
+
+    @Override
+    public Object variable(String name) throws XPathExpressionException {
+      for (int i = this.locals.size()-2; i >= 0; i -= 2) {
+        if (name.equals(this.locals.get(i))) return this.locals.get(i+1);
+      }
+      Object value = this.globals.get(name);
+      if (value != null) return value;
+      if (this.engine._parameters.containsKey(name) && this.parameters.containsKey(name)) {
+        value = toValue(this.parameters.get(name));
+      } else {
+        Let let = this.engine._globals.get(name);
+        if (let == null) throw new XPathExpressionException("Undefined variable $"+name);
+        if (!this.evaluating.add(name)) throw new XPathExpressionException("Circular definition of variable $"+name);
+        // Global variables are evaluated lazily with the root as context node
+        value = evaluate(let.value, this.root);
+        this.evaluating.remove(name);
+      }
+      this.globals.put(name, value);
+      return value;
+    }
+
+    @Override
+    public XPathTree tree() {
+      return this.tree;
+    }
+
+    @Override
+    public Set<Node> selected(XPathExpr.Step step, Node node) throws XPathExpressionException {
+      Object[] selected = this.selected.get(step);
+      if (selected == null || selected[0] != node) {
+        Set<Node> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        nodes.addAll(step.select(node, this));
+        selected = new Object[]{node, nodes};
+        this.selected.put(step, selected);
+      }
+      @SuppressWarnings("unchecked")
+      Set<Node> nodes = (Set<Node>)selected[1];
+      return nodes;
+    }
+
+    /**
+     * @return the parameter as an XPath value.
+     */
+    private static Object toValue(Object parameter) {
+      if (parameter instanceof Boolean || parameter instanceof String) return parameter;
+      if (parameter instanceof Node) return Collections.singletonList((Node)parameter);
+      if (parameter instanceof Number) return ((Number)parameter).doubleValue();
+      return String.valueOf(parameter);
+    }
+  }
+
+  // Compilation
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Builds the rule model from the schema.
+   */
+  private static final class Builder {
+
+    private final Element schema;
+
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
+
+    /** The names of the variables in scope. */
+    private final Set<String> scope = new HashSet<>();
+
+    Builder(Document schema) {
+      this.schema = schema.getDocumentElement();
+    }
+
+    XPathEngine build(String phase) throws SchematronException {
+      if (this.schema == null || !isSchematron(this.schema, "schema"))
+        throw new SchematronException("Not a Schematron schema");
+      String binding = this.schema.getAttribute("queryBinding");
+      if (!binding.isEmpty() && !"xslt".equalsIgnoreCase(binding))
+        throw new SchematronException("Unsupported query binding '"+binding+"'");
+      checkSupported(this.schema);
+      for (Element ns : children(this.schema, "ns")) {
+        this.namespaces.put(ns.getAttribute("prefix"), ns.getAttribute("uri"));
+      }
+
+      // Effective phase
+      String effective = phase;
+      if (effective == null || effective.isEmpty() || "#DEFAULT".equals(effective)) {
+        effective = this.schema.hasAttribute("defaultPhase") ? this.schema.getAttribute("defaultPhase") : "#ALL";
+      }
+      Element phaseElement = null;
+      if (!"#ALL".equals(effective)) {
+        for (Element p : children(this.schema, "phase")) {
+          if (effective.equals(p.getAttribute("id"))) {
+            phaseElement = p;
+            break;
+          }
+        }
+        if (phaseElement == null) throw new SchematronException("The phase '"+effective+"' is undefined");
+      }
+
+      // Active patterns
+      List<Element> patterns = new ArrayList<>();
+      Set<String> active = new HashSet<>();
+      if (phaseElement != null) {
+        for (Element a : children(phaseElement, "active")) active.add(a.getAttribute("pattern"));
+      }
+      for (Element pattern : children(this.schema, "pattern")) {
+        if (phaseElement == null || active.contains(pattern.getAttribute("id"))) patterns.add(pattern);
+      }
+
+      // Global variables
+      Map<String, XPathSyntax> values = lets(this.schema, new LinkedHashMap<>());
+      Set<String> names = new HashSet<>(values.keySet());
+      if (phaseElement != null) lets(phaseElement, values);
+      for (Element pattern : patterns) lets(pattern, values);
+      for (XPathSyntax value : values.values()) {
+        for (String name : value.variables()) {
+          if (!values.containsKey(name)) throw new SchematronException("Undefined variable $"+name+" in '"+value+"'");
+        }
+      }
+      this.scope.addAll(values.keySet());
+      Map<String, Let> parameters = new LinkedHashMap<>();
+      Map<String, Let> globals = new LinkedHashMap<>();
+      for (Map.Entry<String, XPathSyntax> value : values.entrySet()) {
+        String name = value.getKey();
+        Let let = new Let(name, expression(value.getValue(), null));
+        globals.put(name, let);
+        if (names.contains(name)) parameters.put(name, let);
+      }
+
+      // Schema attributes, title and paragraphs
+      String schemaVersion = this.schema.hasAttribute("schemaVersion") ? this.schema.getAttribute("schemaVersion") : null;
+      List<Element> titles = children(this.schema, "title");
+      String title = titles.isEmpty() ? null : XPathTree.stringValue(titles.get(0));
+      List<Text> paragraphs = new ArrayList<>();
+      for (Element p : children(this.schema, "p")) {
+        paragraphs.add(new Text(attributes(p, "id", "class", "icon"), message(p)));
+      }
+
+      List<Pattern> model = new ArrayList<>();
+      for (Element pattern : patterns) {
+        List<Element> rules = children(pattern, "rule");
+        if (rules.isEmpty()) continue;
+        List<Rule> compiled = new ArrayList<>(rules.size());
+        for (Element rule : rules) compiled.add(rule(rule, pattern));
+        List<Element> patternTitles = children(pattern, "title");
+        String name = !patternTitles.isEmpty() ? XPathTree.stringValue(patternTitles.get(0))
+            : pattern.hasAttribute("id") ? pattern.getAttribute("id") : null;
+        model.add(new Pattern(attributes(pattern, "id", "role"), name, compiled));
+      }
+      return new XPathEngine(schemaVersion, effective, title, paragraphs, new LinkedHashMap<>(this.namespaces),
+          parameters, globals, model);
+    }
+
+    private Rule rule(Element rule, Element pattern) throws SchematronException {
+      if (!rule.hasAttribute("context")) throw new SchematronException("Rule without context");
+      String context = rule.getAttribute("context");
+      Set<String> scope = new HashSet<>(this.scope);
+      List<Let> lets = new ArrayList<>();
+      Set<String> names = new HashSet<>();
+      for (Element let : children(rule, "let")) {
+        XPathSyntax value = let(let);
+        String name = let.getAttribute("name");
+        if (!names.add(name)) throw new SchematronException("Variable $"+name+" is multiply defined");
+        checkScope(value);
+        lets.add(new Let(name, expression(value, null)));
+        this.scope.add(name);
+      }
+      Expr subject = rule.hasAttribute("subject") ? compileInScope(rule.getAttribute("subject"), XPathConstants.NODESET) : null;
+      List<Check> checks = new ArrayList<>();
+      for (Element child : children(rule, null)) {
+        if (!isSchematron(child, "assert") && !isSchematron(child, "report")) continue;
+        checks.add(check(child, pattern, subject));
+      }
+      this.scope.clear();
+      this.scope.addAll(scope);
+      XPathSyntax syntax = parse(context);
+      checkScope(syntax);
+      XPathExpr.Pattern match;
+      try {
+        match = syntax.compilePattern(this.namespaces);
+      } catch (XPathExpressionException ex) {
+        throw new SchematronException(ex.getMessage(), ex);
+      }
+      return new Rule(attributes(rule, "id", "role", "flag", "see", "icon", "fpi"), context, match, lets, checks);
+    }
+
+    private Check check(Element check, Element pattern, Expr ruleSubject) throws SchematronException {
+      boolean report = isSchematron(check, "report");
+      if (!check.hasAttribute("test")) throw new SchematronException("Assertion without test");
+      String test = check.getAttribute("test");
+      Expr subject = check.hasAttribute("subject") ? compileInScope(check.getAttribute("subject"), XPathConstants.NODESET) : ruleSubject;
+      List<Reference> diagnostics = null;
+      if (check.hasAttribute("diagnostics")) {
+        diagnostics = new ArrayList<>();
+        for (String id : references(check.getAttribute("diagnostics"))) {
+          Element global = definition(this.schema, "diagnostics", "diagnostic", id);
+          List<Attribute> attributes = new ArrayList<>();
+          if (global != null) attributes.addAll(allAttributes(global));
+          diagnostics.add(new Reference(id, Collections.emptyList(), new Text(attributes, content(pattern, global, "diagnostics", "diagnostic", id))));
+        }
+      }
+      List<Reference> properties = null;
+      if (check.hasAttribute("properties")) {
+        properties = new ArrayList<>();
+        for (String id : references(check.getAttribute("properties"))) {
+          Element global = definition(this.schema, "properties", "property", id);
+          List<Attribute> attributes = global != null ? attributes(global, "role", "schema") : Collections.emptyList();
+          properties.add(new Reference(id, attributes, new Text(Collections.emptyList(), content(pattern, global, "properties", "property", id))));
+        }
+      }
+      Text message = null;
+      for (Node child = check.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (XPathTree.isText(child) || child.getNodeType() == Node.ELEMENT_NODE) {
+          message = new Text(attributes(check, new String[0]), message(check));
+          break;
+        }
+      }
+      return new Check(report, attributes(check, "role", "flag", "id", "see", "icon", "fpi"), test, compileInScope(test, XPathConstants.BOOLEAN),
+          subject, diagnostics, properties, message);
+    }
+
+    /**
+     * @return the content of the pattern definition if any, otherwise of the global definition.
+     */
+    private List<Content> content(Element pattern, Element global, String group, String name, String id)
+        throws SchematronException {
+      List<Content> content = new ArrayList<>();
+      for (Element definitions : children(pattern, group)) {
+        for (Element definition : children(definitions, name)) {
+          if (id.equals(definition.getAttribute("id"))) content.addAll(message(definition));
+        }
+      }
+      if (content.isEmpty() && global != null) {
+        for (Element definitions : children(this.schema, group)) {
+          for (Element definition : children(definitions, name)) {
+            if (id.equals(definition.getAttribute("id"))) content.addAll(message(definition));
+          }
+        }
+      }
+      return content;
+    }
+
+    /**
+     * Compiles the message content of the element.
+     */
+    private List<Content> message(Element element) throws SchematronException {
+      List<Content> content = new ArrayList<>();
+      StringBuilder text = new StringBuilder();
+      for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (XPathTree.isText(child)) {
+          text.append(child.getNodeValue());
+        } else if (child.getNodeType() == Node.ELEMENT_NODE) {
+          flush(text, content);
+          Element e = (Element)child;
+          if (isSchematron(e, "name")) {
+            content.add(new Value(e.hasAttribute("path") ? compileInScope(e.getAttribute("path"), XPathConstants.STRING) : null));
+          } else if (isSchematron(e, "value-of")) {
+            if (!e.hasAttribute("select")) throw new SchematronException("value-of without select");
+            content.add(new Value(compileInScope(e.getAttribute("select"), XPathConstants.STRING)));
+          } else if (isSchematron(e, "emph") || isSchematron(e, "dir") || isSchematron(e, "span")) {
+            // The attributes in the XML namespace are copied first
+            List<Attribute> attributes = new ArrayList<>();
+            for (Attribute attribute : allAttributes(e)) {
+              if (XMLConstants.XML_NS_URI.equals(attribute.namespace)) attributes.add(attribute);
+            }
+            for (Attribute attribute : allAttributes(e)) {
+              if (!XMLConstants.XML_NS_URI.equals(attribute.namespace)) attributes.add(attribute);
+            }
+            content.add(new Markup(SVRL.NAMESPACE_URI, e.getLocalName(), attributes, message(e)));
+          } else {
+            content.add(new Markup(XPathTree.namespaceURI(e), XPathTree.localName(e), allAttributes(e), message(e)));
+          }
+        }
+        // Comments and processing instructions are ignored
+      }
+      flush(text, content);
+      return content;
+    }
+
+    /**
+     * Whitespace-only text is stripped from stylesheets, so it is ignored.
+     */
+    private static void flush(StringBuilder text, List<Content> content) {
+      if (text.length() == 0) return;
+      for (int i = 0; i < text.length(); i++) {
+        if (!XPathSyntax.isWhitespace(text.charAt(i))) {
+          content.add(new Literal(text.toString()));
+          break;
+        }
+      }
+      text.setLength(0);
+    }
+
+    private Map<String, XPathSyntax> lets(Element parent, Map<String, XPathSyntax> lets) throws SchematronException {
+      for (Element let : children(parent, "let")) {
+        String name = let.getAttribute("name");
+        if (lets.put(name, let(let)) != null) throw new SchematronException("Variable $"+name+" is multiply defined");
+      }
+      return lets;
+    }
+
+    private XPathSyntax let(Element let) throws SchematronException {
+      if (!let.hasAttribute("name")) throw new SchematronException("Let without name");
+      if (!let.hasAttribute("value")) throw new SchematronException("Let without value are not supported");
+      return parse(let.getAttribute("value"));
+    }
+
+    private XPathSyntax parse(String xpath) throws SchematronException {
+      try {
+        return XPathSyntax.of(xpath);
+      } catch (XPathExpressionException ex) {
+        String message = ex.getMessage() != null ? ex.getMessage() : "Unable to parse '"+xpath+"'";
+        throw new SchematronException(message, ex);
+      }
+    }
+
+    /**
+     * Compiles the expression.
+     *
+     * @param type The type to convert the value to or <code>null</code> to keep the value as is.
+     */
+    private Expr expression(XPathSyntax syntax, QName type) throws SchematronException {
+      try {
+        return new Expr(syntax.toString(), type, syntax.compile(this.namespaces));
+      } catch (XPathExpressionException ex) {
+        String message = ex.getMessage() != null ? ex.getMessage() : "Unable to compile '"+syntax+"'";
+        throw new SchematronException(message, ex);
+      }
+    }
+
+    private Expr compileInScope(String xpath, QName type) throws SchematronException {
+      XPathSyntax syntax = parse(xpath);
+      checkScope(syntax);
+      return expression(syntax, type);
+    }
+
+    private void checkScope(XPathSyntax syntax) throws SchematronException {
+      for (String name : syntax.variables()) {
+        if (!this.scope.contains(name)) throw new SchematronException("Undefined variable $"+name+" in '"+syntax+"'");
+      }
+    }
+
+    /**
+     * Rejects the features which cannot be evaluated without XSLT.
+     */
+    private static void checkSupported(Element element) throws SchematronException {
+      if (XSL.equals(element.getNamespaceURI()))
+        throw new SchematronException("XSLT element "+element.getNodeName()+" is not supported");
+      if (isSchematron(element, "pattern") && element.hasAttribute("documents"))
+        throw new SchematronException("Pattern documents are not supported");
+      for (Element child : children(element, null)) checkSupported(child);
+    }
+
+    // Static helpers
+
+    private static List<String> references(String value) {
+      String normalized = XPathExpr.normalizeSpace(value);
+      List<String> ids = new ArrayList<>();
+      if (normalized.isEmpty()) ids.add("");
+      else Collections.addAll(ids, normalized.split(" "));
+      return ids;
+    }
+
+    private static Element definition(Element schema, String group, String name, String id) {
+      for (Element definitions : children(schema, group)) {
+        for (Element definition : children(definitions, name)) {
+          if (id.equals(definition.getAttribute("id"))) return definition;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return the attributes with the specified names and all the attributes in the XML namespace.
+     */
+    private static List<Attribute> attributes(Element element, String... names) {
+      List<Attribute> attributes = new ArrayList<>();
+      for (String name : names) {
+        Node attribute = element.getAttributeNodeNS(null, name);
+        if (attribute != null) attributes.add(new Attribute(attribute));
+      }
+      NamedNodeMap all = element.getAttributes();
+      for (int i = 0; i < all.getLength(); i++) {
+        Node attribute = all.item(i);
+        if (XMLConstants.XML_NS_URI.equals(attribute.getNamespaceURI())) attributes.add(new Attribute(attribute));
+      }
+      return attributes;
+    }
+
+    /**
+     * @return all the attributes of the element excluding namespace declarations.
+     */
+    private static List<Attribute> allAttributes(Element element) {
+      List<Attribute> attributes = new ArrayList<>();
+      NamedNodeMap all = element.getAttributes();
+      for (int i = 0; i < all.getLength(); i++) {
+        Node attribute = all.item(i);
+        if (!XPathTree.isNamespaceDeclaration(attribute)) attributes.add(new Attribute(attribute));
+      }
+      return attributes;
+    }
+
+    /**
+     * @return the child elements in the Schematron namespace with the specified local name or all
+     *         child elements if the name is <code>null</code>
+     */
+    private static List<Element> children(Element parent, String name) {
+      List<Element> children = new ArrayList<>();
+      for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+        if (child.getNodeType() != Node.ELEMENT_NODE) continue;
+        if (name == null || isSchematron((Element)child, name)) children.add((Element)child);
+      }
+      return children;
+    }
+
+    private static boolean isSchematron(Element element, String name) {
+      return SCH.equals(element.getNamespaceURI()) && name.equals(element.getLocalName());
+    }
+  }
+
+  // Parsing
+  // ----------------------------------------------------------------------------------------------
+
+  private static DocumentBuilderFactory newDocumentBuilderFactory() {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    factory.setCoalescing(true);
+    try {
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    } catch (ParserConfigurationException ex) {
+      // Not supported by this parser
+    }
+    try {
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+      factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+    } catch (IllegalArgumentException ex) {
+      // Not supported by this parser
+    }
+    return factory;
+  }
+
+  /**
+   * Reports parsing errors as exceptions instead of printing them.
+   */
+  private static final ErrorHandler STRICT = new ErrorHandler() {
+    @Override
+    public void warning(SAXParseException ex) {}
+    @Override
+    public void error(SAXParseException ex) throws SAXException {
+      throw ex;
+    }
+    @Override
+    public void fatalError(SAXParseException ex) throws SAXException {
+      throw ex;
+    }
+  };
+
+  /**
+   * Validates documents with the engine.
+   *
+   * <p>Evaluators reuse the same document builder, so they are not thread-safe.</p>
+   */
+  static final class Evaluator {
+
+    private final XPathEngine _engine;
+
+    private DocumentBuilder _builder;
+
+    private Evaluator(XPathEngine engine) {
+      this._engine = engine;
+    }
+
+    /**
+     * Validates the XML source writing the SVRL to the specified writer.
+     *
+     * @param xml        The XML source to validate
+     * @param parameters Values for the schema lets (may be <code>null</code>)
+     * @param svrl       Receives the SVRL
+     *
+     * @throws TransformerException If the source cannot be parsed, an expression cannot be evaluated
+     *                              or the SVRL cannot be written.
+     */
+    void validate(Source xml, Map<String, Object> parameters, SVRLStreamWriter svrl) throws TransformerException {
+      Node document = parse(xml);
+      Run run = new Run(this._engine, document, parameters);
+      try {
+        this._engine.validate(document, run, svrl);
+      } catch (XMLStreamException | XPathExpressionException ex) {
+        throw new TransformerException(ex.getMessage(), ex);
+      }
+    }
+
+    private Node parse(Source xml) throws TransformerException {
+      if (xml instanceof DOMSource && ((DOMSource)xml).getNode() != null) {
+        Node node = ((DOMSource)xml).getNode();
+        return XPathTree.isRoot(node) ? node : node.getOwnerDocument();
+      }
+      if (xml instanceof StreamSource || (xml instanceof SAXSource && ((SAXSource)xml).getXMLReader() == null)) {
+        InputSource input = SAXSource.sourceToInputSource(xml);
+        if (input != null) {
+          try {
+            DocumentBuilder builder = this._builder;
+            if (builder == null) {
+              synchronized (BUILDERS) {
+                builder = BUILDERS.newDocumentBuilder();
+              }
+              builder.setErrorHandler(STRICT);
+              this._builder = builder;
+            }
+            try {
+              return builder.parse(input);
+            } finally {
+              builder.reset();
+              builder.setErrorHandler(STRICT);
+            }
+          } catch (ParserConfigurationException | SAXException | IOException ex) {
+            throw new TransformerException("Unable to parse source document", ex);
+          }
+        }
+      }
+      try {
+        return ((DOMSource)SourceTree.build(null, xml)).getNode();
+      } catch (SchematronException ex) {
+        throw new TransformerException("Unable to parse source document", ex);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,1362 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled XPath 1.0 expression evaluated over the DOM of a document.
+ *
+ * <p>Expressions are immutable and can be shared by concurrent validations: the state of an
+ * evaluation is held by its {@link Context}. Values are represented by {@link Boolean},
+ * {@link Double}, {@link String} and lists of nodes in document order without duplicates.</p>
+ *
+ * @see XPathSyntax#compile(java.util.Map)
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+abstract class XPathExpr {
+
+  /**
+   * The environment of an evaluation.
+   */
+  interface Context {
+
+    /**
+     * @return the value of the variable.
+     *
+     * @throws XPathExpressionException If the variable is undefined or cannot be evaluated.
+     */
+    Object variable(String name) throws XPathExpressionException;
+
+    /**
+     * @return the tree model to sort node-sets.
+     */
+    XPathTree tree();
+
+    /**
+     * Returns the nodes selected by a step of a pattern from a node, so that the siblings of a
+     * node matched by a pattern with positional predicates can reuse the same selection.
+     *
+     * @param step The step
+     * @param node The node the step is evaluated from
+     *
+     * @return the selected nodes.
+     *
+     * @throws XPathExpressionException If the predicates of the step cannot be evaluated.
+     */
+    Set<Node> selected(Step step, Node node) throws XPathExpressionException;
+
+  }
+
+  /**
+   * Evaluate the expression.
+   *
+   * @param node     The context node
+   * @param position The context position
+   * @param size     The context size
+   * @param context  The environment of the evaluation
+   *
+   * @return the value of the expression.
+   *
+   * @throws XPathExpressionException If the expression cannot be evaluated.
+   */
+  abstract Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException;
+
+  /**
+   * @return the type of the result as an <code>XPathConstants</code> type or <code>null</code> if
+   *         it is only known when the expression is evaluated.
+   */
+  abstract QName type();
+
+  /**
+   * @return <code>true</code> if the expression depends on the context position or size.
+   */
+  boolean usesPosition() {
+    return false;
+  }
+
+  /**
+   * @return <code>true</code> if the expression, used as a predicate, only depends on the context node.
+   */
+  final boolean isNodeTest() {
+    QName type = type();
+    return type != null && type != XPathConstants.NUMBER && !usesPosition();
+  }
+
+  // Conversions
+  // ----------------------------------------------------------------------------------------------
+
+  static boolean toBoolean(Object value) {
+    if (value instanceof Boolean) return (Boolean)value;
+    if (value instanceof Double) {
+      double d = (Double)value;
+      return d != 0 && !Double.isNaN(d);
+    }
+    if (value instanceof String) return !((String)value).isEmpty();
+    return !((List<?>)value).isEmpty();
+  }
+
+  static double toNumber(Object value) {
+    if (value instanceof Double) return (Double)value;
+    if (value instanceof Boolean) return (Boolean)value ? 1 : 0;
+    return toNumber(toString(value));
+  }
+
+  static String toString(Object value) {
+    if (value instanceof String) return (String)value;
+    if (value instanceof Boolean) return value.toString();
+    if (value instanceof Double) return toString((double)(Double)value);
+    List<Node> nodes = toNodes(value);
+    return nodes.isEmpty() ? "" : XPathTree.stringValue(nodes.get(0));
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<Node> toNodes(Object value) {
+    return (List<Node>)value;
+  }
+
+  /**
+   * @return the node-set or throws an exception if the value is not a node-set.
+   */
+  static List<Node> toNodes(Object value, XPathExpr expr) throws XPathExpressionException {
+    if (value instanceof List) return toNodes(value);
+    throw new XPathExpressionException("The expression '"+expr+"' does not return a node-set");
+  }
+
+  /**
+   * @return the number as a string following the rules of XPath 1.0.
+   */
+  static String toString(double number) {
+    if (Double.isNaN(number)) return "NaN";
+    if (Double.isInfinite(number)) return number > 0 ? "Infinity" : "-Infinity";
+    if (number == 0) return "0";
+    if (number == Math.rint(number) && Math.abs(number) < 1e15) return Long.toString((long)number);
+    return new BigDecimal(Double.toString(number)).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * @return the string as a number following the rules of XPath 1.0.
+   */
+  static double toNumber(String value) {
+    String s = value.trim();
+    int i = s.startsWith("-") ? 1 : 0;
+    int digits = 0;
+    boolean point = false;
+    for (; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') digits++;
+      else if (c == '.' && !point) point = true;
+      else return Double.NaN;
+    }
+    return digits > 0 ? Double.parseDouble(s) : Double.NaN;
+  }
+
+  static String normalizeSpace(String s) {
+    StringBuilder normalized = new StringBuilder(s.length());
+    boolean space = false;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (XPathSyntax.isWhitespace(c)) {
+        space = normalized.length() > 0;
+      } else {
+        if (space) normalized.append(' ');
+        normalized.append(c);
+        space = false;
+      }
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Keeps the nodes matching the predicate, the position of each node is its index in the list.
+   */
+  static List<Node> filter(List<Node> nodes, XPathExpr predicate, Context context) throws XPathExpressionException {
+    int size = nodes.size();
+    List<Node> kept = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      Node node = nodes.get(i);
+      Object value = predicate.evaluate(node, i+1, size, context);
+      if (value instanceof Double ? (Double)value == i+1 : toBoolean(value)) kept.add(node);
+    }
+    return kept;
+  }
+
+  // Primary expressions
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * A string literal.
+   */
+  static final class StringLiteral extends XPathExpr {
+
+    private final String value;
+
+    StringLiteral(String value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) {
+      return this.value;
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.STRING;
+    }
+
+    @Override
+    public String toString() {
+      return '"'+this.value+'"';
+    }
+  }
+
+  /**
+   * A number.
+   */
+  static final class NumberLiteral extends XPathExpr {
+
+    private final Double value;
+
+    NumberLiteral(double value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) {
+      return this.value;
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NUMBER;
+    }
+
+    @Override
+    public String toString() {
+      return toString(this.value);
+    }
+  }
+
+  /**
+   * A variable reference.
+   */
+  static final class Variable extends XPathExpr {
+
+    private final String name;
+
+    Variable(String name) {
+      this.name = name;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      return context.variable(this.name);
+    }
+
+    @Override
+    QName type() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return '$'+this.name;
+    }
+  }
+
+  // Operators
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * The <code>or</code> and <code>and</code> operators.
+   */
+  static final class Logical extends XPathExpr {
+
+    private final boolean or;
+
+    private final XPathExpr left;
+
+    private final XPathExpr right;
+
+    Logical(boolean or, XPathExpr left, XPathExpr right) {
+      this.or = or;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      boolean left = toBoolean(this.left.evaluate(node, position, size, context));
+      if (left == this.or) return left;
+      return toBoolean(this.right.evaluate(node, position, size, context));
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.BOOLEAN;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.left.usesPosition() || this.right.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      return this.left+(this.or ? " or " : " and ")+this.right;
+    }
+  }
+
+  /**
+   * The equality and relational operators.
+   */
+  static final class Comparison extends XPathExpr {
+
+    private final String operator;
+
+    private final XPathExpr left;
+
+    private final XPathExpr right;
+
+    Comparison(String operator, XPathExpr left, XPathExpr right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      Object left = this.left.evaluate(node, position, size, context);
+      Object right = this.right.evaluate(node, position, size, context);
+      return compare(left, right);
+    }
+
+    private boolean compare(Object left, Object right) {
+      if (left instanceof List && right instanceof List) {
+        List<Node> a = toNodes(left);
+        List<Node> b = toNodes(right);
+        if (a.isEmpty() || b.isEmpty()) return false;
+        if ("=".equals(this.operator)) {
+          Set<String> values = new HashSet<>();
+          for (Node n : b) values.add(XPathTree.stringValue(n));
+          for (Node n : a) {
+            if (values.contains(XPathTree.stringValue(n))) return true;
+          }
+          return false;
+        }
+        for (Node x : a) {
+          String sx = XPathTree.stringValue(x);
+          for (Node y : b) {
+            if (compareValues(sx, XPathTree.stringValue(y))) return true;
+          }
+        }
+        return false;
+      }
+      if (left instanceof List) {
+        if (right instanceof Boolean) return compareValues(toBoolean(left), right);
+        for (Node x : toNodes(left)) {
+          String sx = XPathTree.stringValue(x);
+          if (compareValues(right instanceof Double ? toNumber(sx) : sx, right)) return true;
+        }
+        return false;
+      }
+      if (right instanceof List) {
+        if (left instanceof Boolean) return compareValues(left, toBoolean(right));
+        for (Node y : toNodes(right)) {
+          String sy = XPathTree.stringValue(y);
+          if (compareValues(left, left instanceof Double ? toNumber(sy) : sy)) return true;
+        }
+        return false;
+      }
+      return compareValues(left, right);
+    }
+
+    /**
+     * Compares two values which are not node-sets.
+     */
+    private boolean compareValues(Object left, Object right) {
+      switch (this.operator) {
+        case "=": return equal(left, right);
+        case "!=": return !equal(left, right);
+        case "<": return toNumber(left) < toNumber(right);
+        case "<=": return toNumber(left) <= toNumber(right);
+        case ">": return toNumber(left) > toNumber(right);
+        default: return toNumber(left) >= toNumber(right);
+      }
+    }
+
+    private static boolean equal(Object left, Object right) {
+      if (left instanceof Boolean || right instanceof Boolean) return toBoolean(left) == toBoolean(right);
+      if (left instanceof Double || right instanceof Double) return toNumber(left) == toNumber(right);
+      return toString(left).equals(toString(right));
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.BOOLEAN;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.left.usesPosition() || this.right.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      return this.left+" "+this.operator+" "+this.right;
+    }
+  }
+
+  /**
+   * The arithmetic operators.
+   */
+  static final class Arithmetic extends XPathExpr {
+
+    private final String operator;
+
+    private final XPathExpr left;
+
+    private final XPathExpr right;
+
+    Arithmetic(String operator, XPathExpr left, XPathExpr right) {
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      double left = toNumber(this.left.evaluate(node, position, size, context));
+      double right = toNumber(this.right.evaluate(node, position, size, context));
+      switch (this.operator) {
+        case "+": return left + right;
+        case "-": return left - right;
+        case "*": return left * right;
+        case "div": return left / right;
+        default: return left % right;
+      }
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NUMBER;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.left.usesPosition() || this.right.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      return this.left+" "+this.operator+" "+this.right;
+    }
+  }
+
+  /**
+   * The unary minus.
+   */
+  static final class Negation extends XPathExpr {
+
+    private final XPathExpr operand;
+
+    Negation(XPathExpr operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      return -toNumber(this.operand.evaluate(node, position, size, context));
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NUMBER;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.operand.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      return "-"+this.operand;
+    }
+  }
+
+  /**
+   * The union of two node-sets.
+   */
+  static final class Union extends XPathExpr {
+
+    private final XPathExpr left;
+
+    private final XPathExpr right;
+
+    Union(XPathExpr left, XPathExpr right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      List<Node> left = toNodes(this.left.evaluate(node, position, size, context), this.left);
+      List<Node> right = toNodes(this.right.evaluate(node, position, size, context), this.right);
+      if (left.isEmpty()) return right;
+      if (right.isEmpty()) return left;
+      List<Node> all = new ArrayList<>(left.size()+right.size());
+      all.addAll(left);
+      all.addAll(right);
+      return context.tree().sort(all);
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NODESET;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.left.usesPosition() || this.right.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      return this.left+" | "+this.right;
+    }
+  }
+
+  // Functions
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * A call to a function of the XPath 1.0 core library.
+   */
+  static final class Function extends XPathExpr {
+
+    private final String name;
+
+    private final XPathExpr[] arguments;
+
+    private Function(String name, XPathExpr[] arguments) {
+      this.name = name;
+      this.arguments = arguments;
+    }
+
+    /**
+     * @throws XPathExpressionException If the number of arguments is not supported by the function.
+     */
+    static Function of(String name, List<XPathExpr> arguments) throws XPathExpressionException {
+      int min;
+      int max;
+      switch (name) {
+        case "last": case "position": case "true": case "false":
+          min = 0; max = 0; break;
+        case "local-name": case "namespace-uri": case "name": case "string": case "string-length":
+        case "normalize-space": case "number":
+          min = 0; max = 1; break;
+        case "count": case "id": case "boolean": case "not": case "lang": case "sum": case "floor":
+        case "ceiling": case "round":
+          min = 1; max = 1; break;
+        case "starts-with": case "contains": case "substring-before": case "substring-after":
+          min = 2; max = 2; break;
+        case "substring":
+          min = 2; max = 3; break;
+        case "translate":
+          min = 3; max = 3; break;
+        case "concat":
+          min = 2; max = Integer.MAX_VALUE; break;
+        default:
+          throw new XPathExpressionException("Function "+name+"() is not an XPath 1.0 function");
+      }
+      if (arguments.size() < min || arguments.size() > max)
+        throw new XPathExpressionException("Wrong number of arguments for function "+name+"()");
+      return new Function(name, arguments.toArray(new XPathExpr[0]));
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      switch (this.name) {
+        case "last": return (double)size;
+        case "position": return (double)position;
+        case "count": return (double)nodes(0, node, position, size, context).size();
+        case "id": return id(node, position, size, context);
+        case "local-name": {
+          Node n = node(node, position, size, context);
+          return n != null ? XPathTree.localName(n) : "";
+        }
+        case "namespace-uri": {
+          Node n = node(node, position, size, context);
+          return n != null ? XPathTree.namespaceURI(n) : "";
+        }
+        case "name": {
+          Node n = node(node, position, size, context);
+          return n != null ? XPathTree.name(n) : "";
+        }
+        case "string": return string(node, position, size, context);
+        case "concat": {
+          StringBuilder concat = new StringBuilder();
+          for (int i = 0; i < this.arguments.length; i++) concat.append(string(i, node, position, size, context));
+          return concat.toString();
+        }
+        case "starts-with": return string(0, node, position, size, context).startsWith(string(1, node, position, size, context));
+        case "contains": return string(0, node, position, size, context).contains(string(1, node, position, size, context));
+        case "substring-before": {
+          String s = string(0, node, position, size, context);
+          int i = s.indexOf(string(1, node, position, size, context));
+          return i >= 0 ? s.substring(0, i) : "";
+        }
+        case "substring-after": {
+          String s = string(0, node, position, size, context);
+          String after = string(1, node, position, size, context);
+          int i = s.indexOf(after);
+          return i >= 0 ? s.substring(i + after.length()) : "";
+        }
+        case "substring": return substring(node, position, size, context);
+        case "string-length": {
+          String s = string(node, position, size, context);
+          return (double)s.codePointCount(0, s.length());
+        }
+        case "normalize-space": return normalizeSpace(string(node, position, size, context));
+        case "translate": return translate(string(0, node, position, size, context),
+            string(1, node, position, size, context), string(2, node, position, size, context));
+        case "boolean": return toBoolean(value(0, node, position, size, context));
+        case "not": return !toBoolean(value(0, node, position, size, context));
+        case "true": return Boolean.TRUE;
+        case "false": return Boolean.FALSE;
+        case "lang": return lang(node, string(0, node, position, size, context));
+        case "number": return this.arguments.length == 0 ? toNumber(XPathTree.stringValue(node)) : toNumber(value(0, node, position, size, context));
+        case "sum": {
+          double sum = 0;
+          for (Node n : nodes(0, node, position, size, context)) sum += toNumber(XPathTree.stringValue(n));
+          return sum;
+        }
+        case "floor": return Math.floor(toNumber(value(0, node, position, size, context)));
+        case "ceiling": return Math.ceil(toNumber(value(0, node, position, size, context)));
+        default: return round(toNumber(value(0, node, position, size, context)));
+      }
+    }
+
+    private Object value(int i, Node node, int position, int size, Context context) throws XPathExpressionException {
+      return this.arguments[i].evaluate(node, position, size, context);
+    }
+
+    private String string(int i, Node node, int position, int size, Context context) throws XPathExpressionException {
+      return XPathExpr.toString(value(i, node, position, size, context));
+    }
+
+    private List<Node> nodes(int i, Node node, int position, int size, Context context) throws XPathExpressionException {
+      return toNodes(value(i, node, position, size, context), this.arguments[i]);
+    }
+
+    /**
+     * @return the string value of the argument or of the context node.
+     */
+    private String string(Node node, int position, int size, Context context) throws XPathExpressionException {
+      return this.arguments.length == 0 ? XPathTree.stringValue(node) : string(0, node, position, size, context);
+    }
+
+    /**
+     * @return the first node of the argument, the context node or <code>null</code>.
+     */
+    private Node node(Node node, int position, int size, Context context) throws XPathExpressionException {
+      if (this.arguments.length == 0) return node;
+      List<Node> nodes = nodes(0, node, position, size, context);
+      return nodes.isEmpty() ? null : nodes.get(0);
+    }
+
+    private List<Node> id(Node node, int position, int size, Context context) throws XPathExpressionException {
+      Object value = value(0, node, position, size, context);
+      StringBuilder ids = new StringBuilder();
+      if (value instanceof List) {
+        for (Node n : toNodes(value)) ids.append(XPathTree.stringValue(n)).append(' ');
+      } else {
+        ids.append(XPathExpr.toString(value));
+      }
+      Node root = XPathTree.root(node);
+      String normalized = normalizeSpace(ids.toString());
+      if (!(root instanceof Document) || normalized.isEmpty()) return Collections.emptyList();
+      List<Node> elements = new ArrayList<>();
+      for (String id : normalized.split(" ")) {
+        Element element = ((Document)root).getElementById(id);
+        if (element != null) elements.add(element);
+      }
+      return context.tree().sort(elements);
+    }
+
+    private String substring(Node node, int position, int size, Context context) throws XPathExpressionException {
+      String s = string(0, node, position, size, context);
+      double start = round(toNumber(value(1, node, position, size, context)));
+      double end = this.arguments.length == 2 ? Double.POSITIVE_INFINITY
+          : start + round(toNumber(value(2, node, position, size, context)));
+      StringBuilder substring = new StringBuilder();
+      int p = 1;
+      for (int i = 0; i < s.length(); p++) {
+        int c = s.codePointAt(i);
+        if (p >= start && p < end) substring.appendCodePoint(c);
+        i += Character.charCount(c);
+      }
+      return substring.toString();
+    }
+
+    private static String translate(String s, String from, String to) {
+      int[] source = from.codePoints().toArray();
+      int[] target = to.codePoints().toArray();
+      StringBuilder translated = new StringBuilder(s.length());
+      for (int i = 0; i < s.length();) {
+        int c = s.codePointAt(i);
+        int index = -1;
+        for (int j = 0; j < source.length && index < 0; j++) {
+          if (source[j] == c) index = j;
+        }
+        if (index < 0) translated.appendCodePoint(c);
+        else if (index < target.length) translated.appendCodePoint(target[index]);
+        i += Character.charCount(c);
+      }
+      return translated.toString();
+    }
+
+    private static boolean lang(Node node, String lang) {
+      for (Node n = node; n != null; n = XPathTree.parent(n)) {
+        if (n.getNodeType() != Node.ELEMENT_NODE) continue;
+        Attr attribute = ((Element)n).getAttributeNodeNS(XMLConstants.XML_NS_URI, "lang");
+        if (attribute == null) attribute = ((Element)n).getAttributeNode("xml:lang");
+        if (attribute != null) {
+          String value = attribute.getValue();
+          return value.equalsIgnoreCase(lang)
+              || (value.length() > lang.length() && value.charAt(lang.length()) == '-' && value.regionMatches(true, 0, lang, 0, lang.length()));
+        }
+      }
+      return false;
+    }
+
+    private static double round(double number) {
+      if (Double.isNaN(number) || Double.isInfinite(number) || number == 0) return number;
+      if (number < 0 && number >= -0.5) return -0.0;
+      return Math.floor(number + 0.5);
+    }
+
+    @Override
+    QName type() {
+      return XPathSyntax.returnType(this.name);
+    }
+
+    @Override
+    boolean usesPosition() {
+      if ("position".equals(this.name) || "last".equals(this.name)) return true;
+      for (XPathExpr argument : this.arguments) {
+        if (argument.usesPosition()) return true;
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder(this.name).append('(');
+      for (int i = 0; i < this.arguments.length; i++) {
+        if (i > 0) s.append(", ");
+        s.append(this.arguments[i]);
+      }
+      return s.append(')').toString();
+    }
+  }
+
+  // Paths
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * A primary expression followed by predicates.
+   */
+  static final class Filter extends XPathExpr {
+
+    private final XPathExpr primary;
+
+    private final XPathExpr[] predicates;
+
+    Filter(XPathExpr primary, List<XPathExpr> predicates) {
+      this.primary = primary;
+      this.predicates = predicates.toArray(new XPathExpr[0]);
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      List<Node> nodes = toNodes(this.primary.evaluate(node, position, size, context), this.primary);
+      for (XPathExpr predicate : this.predicates) {
+        if (nodes.isEmpty()) break;
+        nodes = filter(nodes, predicate, context);
+      }
+      return nodes;
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NODESET;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.primary.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder("(").append(this.primary).append(')');
+      for (XPathExpr predicate : this.predicates) s.append('[').append(predicate).append(']');
+      return s.toString();
+    }
+  }
+
+  /**
+   * A location path, possibly starting from a filter expression.
+   */
+  static final class Path extends XPathExpr {
+
+    /** The expression selecting the first nodes or <code>null</code>. */
+    private final XPathExpr start;
+
+    /** Whether the path starts from the root. */
+    private final boolean absolute;
+
+    private final Step[] steps;
+
+    Path(XPathExpr start, boolean absolute, List<Step> steps) {
+      this.start = start;
+      this.absolute = absolute;
+      this.steps = steps.toArray(new Step[0]);
+    }
+
+    @Override
+    Object evaluate(Node node, int position, int size, Context context) throws XPathExpressionException {
+      List<Node> nodes;
+      if (this.start != null) nodes = toNodes(this.start.evaluate(node, position, size, context), this.start);
+      else nodes = Collections.singletonList(this.absolute ? XPathTree.root(node) : node);
+      for (Step step : this.steps) {
+        if (nodes.isEmpty()) break;
+        if (nodes.size() == 1) {
+          nodes = step.select(nodes.get(0), context);
+        } else {
+          List<Node> all = new ArrayList<>();
+          for (Node n : nodes) all.addAll(step.select(n, context));
+          // Attributes and self of nodes in document order are in document order
+          nodes = step.axis == Axis.ATTRIBUTE || step.axis == Axis.SELF ? all : context.tree().sort(all);
+        }
+      }
+      return nodes;
+    }
+
+    @Override
+    QName type() {
+      return XPathConstants.NODESET;
+    }
+
+    @Override
+    boolean usesPosition() {
+      return this.start != null && this.start.usesPosition();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      if (this.start != null) s.append(this.start);
+      for (int i = 0; i < this.steps.length; i++) {
+        if (i > 0 || this.start != null || this.absolute) s.append('/');
+        s.append(this.steps[i]);
+      }
+      if (this.steps.length == 0 && this.absolute) s.append('/');
+      return s.toString();
+    }
+  }
+
+  /**
+   * The axes except the namespace axis.
+   */
+  enum Axis {
+
+    ANCESTOR("ancestor", true),
+    ANCESTOR_OR_SELF("ancestor-or-self", true),
+    ATTRIBUTE("attribute", false),
+    CHILD("child", false),
+    DESCENDANT("descendant", false),
+    DESCENDANT_OR_SELF("descendant-or-self", false),
+    FOLLOWING("following", false),
+    FOLLOWING_SIBLING("following-sibling", false),
+    PARENT("parent", true),
+    PRECEDING("preceding", true),
+    PRECEDING_SIBLING("preceding-sibling", true),
+    SELF("self", false);
+
+    private final String axisName;
+
+    private final boolean reverse;
+
+    Axis(String name, boolean reverse) {
+      this.axisName = name;
+      this.reverse = reverse;
+    }
+
+    /**
+     * @return the axis with the specified name or <code>null</code>.
+     */
+    static Axis forName(String name) {
+      for (Axis axis : values()) {
+        if (axis.axisName.equals(name)) return axis;
+      }
+      return null;
+    }
+
+    /**
+     * Adds the nodes on this axis matching the test in the order of the axis.
+     *
+     * @param limit The number of nodes after which the nodes further along the axis are not needed
+     */
+    void select(Node node, NodeTest test, List<Node> nodes, int limit) {
+      switch (this) {
+        case ANCESTOR:
+        case ANCESTOR_OR_SELF:
+          for (Node n = this == ANCESTOR ? XPathTree.parent(node) : node; n != null && nodes.size() < limit; n = XPathTree.parent(n)) {
+            if (test.matches(n, false)) nodes.add(n);
+          }
+          break;
+        case ATTRIBUTE:
+          if (node.getNodeType() != Node.ELEMENT_NODE) break;
+          NamedNodeMap attributes = node.getAttributes();
+          for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (!XPathTree.isNamespaceDeclaration(attribute) && test.matches(attribute, true)) nodes.add(attribute);
+          }
+          break;
+        case CHILD:
+          for (Node n = XPathTree.firstChild(node); n != null && nodes.size() < limit; n = XPathTree.nextSibling(n)) {
+            if (test.matches(n, false)) nodes.add(n);
+          }
+          break;
+        case DESCENDANT_OR_SELF:
+          if (test.matches(node, false)) nodes.add(node);
+          // fall through
+        case DESCENDANT:
+          descendants(node, test, nodes, limit);
+          break;
+        case FOLLOWING:
+          Node from = node;
+          if (node.getNodeType() == Node.ATTRIBUTE_NODE) {
+            from = XPathTree.parent(node);
+            if (from == null) break;
+            descendants(from, test, nodes, limit);
+          }
+          for (Node n = from; n != null && nodes.size() < limit; n = XPathTree.parent(n)) {
+            for (Node sibling = XPathTree.nextSibling(n); sibling != null && nodes.size() < limit; sibling = XPathTree.nextSibling(sibling)) {
+              if (test.matches(sibling, false)) nodes.add(sibling);
+              descendants(sibling, test, nodes, limit);
+            }
+          }
+          break;
+        case FOLLOWING_SIBLING:
+          for (Node n = XPathTree.nextSibling(node); n != null && nodes.size() < limit; n = XPathTree.nextSibling(n)) {
+            if (test.matches(n, false)) nodes.add(n);
+          }
+          break;
+        case PARENT:
+          Node parent = XPathTree.parent(node);
+          if (parent != null && test.matches(parent, false)) nodes.add(parent);
+          break;
+        case PRECEDING:
+          Node start = node.getNodeType() == Node.ATTRIBUTE_NODE ? XPathTree.parent(node) : node;
+          for (Node n = start; n != null; n = XPathTree.parent(n)) {
+            for (Node sibling = XPathTree.previousSibling(n); sibling != null; sibling = XPathTree.previousSibling(sibling)) {
+              reverseDescendants(sibling, test, nodes);
+              if (test.matches(sibling, false)) nodes.add(sibling);
+            }
+          }
+          break;
+        case PRECEDING_SIBLING:
+          for (Node n = XPathTree.previousSibling(node); n != null && nodes.size() < limit; n = XPathTree.previousSibling(n)) {
+            if (test.matches(n, false)) nodes.add(n);
+          }
+          break;
+        default:
+          if (test.matches(node, false)) nodes.add(node);
+      }
+    }
+
+    private static void descendants(Node node, NodeTest test, List<Node> nodes, int limit) {
+      for (Node n = XPathTree.following(node, node); n != null && nodes.size() < limit; n = XPathTree.following(n, node)) {
+        if (test.matches(n, false)) nodes.add(n);
+      }
+    }
+
+    private static void reverseDescendants(Node node, NodeTest test, List<Node> nodes) {
+      for (Node child = XPathTree.lastChild(node); child != null; child = XPathTree.previousSibling(child)) {
+        reverseDescendants(child, test, nodes);
+        if (test.matches(child, false)) nodes.add(child);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return this.axisName;
+    }
+  }
+
+  /**
+   * A node test.
+   */
+  static final class NodeTest {
+
+    /** Matches any node with <code>node()</code>. */
+    static final NodeTest ANY = new NodeTest(Node.DOCUMENT_NODE, null, null);
+
+    /** The DOM node type or the document node type for any node. */
+    private final short type;
+
+    /** The namespace URI or the target of processing instructions, <code>null</code> for any. */
+    private final String uri;
+
+    /** The local name, <code>null</code> for any. */
+    private final String local;
+
+    private NodeTest(short type, String uri, String local) {
+      this.type = type;
+      this.uri = uri;
+      this.local = local;
+    }
+
+    /**
+     * @param uri   The namespace URI or <code>null</code> for any
+     * @param local The local name or <code>null</code> for any
+     *
+     * @return a name test for the principal node type of the axis.
+     */
+    static NodeTest name(String uri, String local) {
+      return new NodeTest(Node.ELEMENT_NODE, uri, local);
+    }
+
+    static NodeTest text() {
+      return new NodeTest(Node.TEXT_NODE, null, null);
+    }
+
+    static NodeTest comment() {
+      return new NodeTest(Node.COMMENT_NODE, null, null);
+    }
+
+    static NodeTest processingInstruction(String target) {
+      return new NodeTest(Node.PROCESSING_INSTRUCTION_NODE, target, null);
+    }
+
+    /**
+     * @param node      The node to test
+     * @param attribute Whether the principal node type is attribute
+     */
+    boolean matches(Node node, boolean attribute) {
+      switch (this.type) {
+        case Node.DOCUMENT_NODE:
+          return true;
+        case Node.TEXT_NODE:
+          return XPathTree.isText(node);
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          return node.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE && (this.uri == null || this.uri.equals(node.getNodeName()));
+        case Node.ELEMENT_NODE:
+          return node.getNodeType() == (attribute ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE)
+              && (this.local == null || this.local.equals(XPathTree.localName(node)))
+              && (this.uri == null || this.uri.equals(XPathTree.namespaceURI(node)));
+        default:
+          return node.getNodeType() == this.type;
+      }
+    }
+
+    boolean isAny() {
+      return this == ANY;
+    }
+
+    @Override
+    public String toString() {
+      switch (this.type) {
+        case Node.DOCUMENT_NODE: return "node()";
+        case Node.TEXT_NODE: return "text()";
+        case Node.COMMENT_NODE: return "comment()";
+        case Node.PROCESSING_INSTRUCTION_NODE: return "processing-instruction("+(this.uri != null ? "'"+this.uri+"'" : "")+")";
+        default:
+          String local = this.local != null ? this.local : "*";
+          return this.uri == null || this.uri.isEmpty() ? local : "Q{"+this.uri+"}"+local;
+      }
+    }
+  }
+
+  /**
+   * A step of a location path.
+   */
+  static final class Step {
+
+    private final Axis axis;
+
+    private final NodeTest test;
+
+    private final XPathExpr[] predicates;
+
+    /** Whether the predicates only depend on the node they are evaluated for. */
+    private final boolean nodeTests;
+
+    /** The number of nodes on the axis the first predicate may keep, as with <code>[1]</code>. */
+    private final int limit;
+
+    Step(Axis axis, NodeTest test, List<XPathExpr> predicates) {
+      this.axis = axis;
+      this.test = test;
+      this.predicates = predicates.toArray(new XPathExpr[0]);
+      boolean nodeTests = true;
+      for (XPathExpr predicate : this.predicates) nodeTests &= predicate.isNodeTest();
+      this.nodeTests = nodeTests;
+      double position = this.predicates.length > 0 && this.predicates[0] instanceof NumberLiteral
+          ? ((NumberLiteral)this.predicates[0]).value : Double.NaN;
+      this.limit = position >= 1 && position < Integer.MAX_VALUE ? (int)Math.ceil(position) : Integer.MAX_VALUE;
+    }
+
+    Axis axis() {
+      return this.axis;
+    }
+
+    NodeTest test() {
+      return this.test;
+    }
+
+    /**
+     * @return <code>true</code> if this step is <code>descendant-or-self::node()</code>.
+     */
+    boolean isDescendantOrSelf() {
+      return this.axis == Axis.DESCENDANT_OR_SELF && this.test.isAny() && this.predicates.length == 0;
+    }
+
+    /**
+     * @return <code>true</code> if the predicates only depend on the node they are evaluated for.
+     */
+    boolean hasNodeTestsOnly() {
+      return this.nodeTests;
+    }
+
+    /**
+     * @return the same step on another axis.
+     */
+    Step on(Axis axis) {
+      return new Step(axis, this.test, Arrays.asList(this.predicates));
+    }
+
+    /**
+     * @return the nodes selected by this step from the node in document order.
+     */
+    List<Node> select(Node node, Context context) throws XPathExpressionException {
+      List<Node> nodes = new ArrayList<>();
+      this.axis.select(node, this.test, nodes, this.limit);
+      for (XPathExpr predicate : this.predicates) {
+        if (nodes.isEmpty()) break;
+        nodes = filter(nodes, predicate, context);
+      }
+      if (this.axis.reverse && nodes.size() > 1) Collections.reverse(nodes);
+      return nodes;
+    }
+
+    /**
+     * Indicates whether the node is selected by this step from its parent, which is how XSLT
+     * patterns are matched.
+     */
+    boolean matches(Node node, Context context) throws XPathExpressionException {
+      boolean attribute = this.axis == Axis.ATTRIBUTE;
+      if (attribute != (node.getNodeType() == Node.ATTRIBUTE_NODE) || XPathTree.isRoot(node)) return false;
+      if (!this.test.matches(node, attribute)) return false;
+      if (this.predicates.length == 0) return true;
+      if (this.nodeTests) {
+        boolean positional = false;
+        for (XPathExpr predicate : this.predicates) {
+          Object value = predicate.evaluate(node, 1, 1, context);
+          if (value instanceof Double) {
+            positional = true;
+            break;
+          }
+          if (!toBoolean(value)) return false;
+        }
+        if (!positional) return true;
+      }
+      Node parent = XPathTree.parent(node);
+      return parent != null && context.selected(this, parent).contains(node);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder(this.axis.toString()).append("::").append(this.test);
+      for (XPathExpr predicate : this.predicates) s.append('[').append(predicate).append(']');
+      return s.toString();
+    }
+  }
+
+  // Patterns
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * The context of a rule, which is an XSLT pattern.
+   *
+   * <p>A node matches when it would be selected by one of the location paths of the pattern. Each
+   * location path is matched from its last step up the ancestors of the node, so that testing a
+   * node only evaluates the predicates of the nodes on its path.</p>
+   */
+  static final class Pattern {
+
+    private final String source;
+
+    private final Alternative[] alternatives;
+
+    private Pattern(String source, List<Alternative> alternatives) {
+      this.source = source;
+      this.alternatives = alternatives.toArray(new Alternative[0]);
+    }
+
+    /**
+     * @param source The pattern
+     * @param expr   The pattern compiled as an expression without rewriting its steps
+     *
+     * @return the pattern
+     *
+     * @throws XPathExpressionException If the expression is not an XSLT 1.0 pattern.
+     */
+    static Pattern of(String source, XPathExpr expr) throws XPathExpressionException {
+      List<Alternative> alternatives = new ArrayList<>();
+      alternatives(source, expr, alternatives);
+      return new Pattern(source, alternatives);
+    }
+
+    private static void alternatives(String source, XPathExpr expr, List<Alternative> alternatives) throws XPathExpressionException {
+      if (expr instanceof Union) {
+        alternatives(source, ((Union)expr).left, alternatives);
+        alternatives(source, ((Union)expr).right, alternatives);
+      } else if (isId(expr)) {
+        alternatives.add(new Alternative(expr, false, Collections.emptyList(), Collections.emptyList()));
+      } else if (expr instanceof Path && (((Path)expr).start == null || isId(((Path)expr).start))) {
+        Path path = (Path)expr;
+        List<Step> steps = new ArrayList<>();
+        List<Boolean> descendant = new ArrayList<>();
+        boolean anyDepth = false;
+        for (Step step : path.steps) {
+          if (step.isDescendantOrSelf() && !anyDepth) {
+            anyDepth = true;
+          } else if (step.axis == Axis.CHILD || step.axis == Axis.ATTRIBUTE) {
+            steps.add(step);
+            descendant.add(anyDepth);
+            anyDepth = false;
+          } else {
+            throw new XPathExpressionException("The rule context '"+source+"' is not an XSLT 1.0 pattern");
+          }
+        }
+        if (anyDepth || (steps.isEmpty() && !path.absolute))
+          throw new XPathExpressionException("The rule context '"+source+"' is not an XSLT 1.0 pattern");
+        alternatives.add(new Alternative(path.start, path.absolute, steps, descendant));
+      } else {
+        throw new XPathExpressionException("The rule context '"+source+"' is not an XSLT 1.0 pattern");
+      }
+    }
+
+    private static boolean isId(XPathExpr expr) {
+      return expr instanceof Function && "id".equals(((Function)expr).name);
+    }
+
+    /**
+     * @param node    The node to test
+     * @param context The environment of the evaluation
+     *
+     * @return <code>true</code> if the node matches the pattern.
+     *
+     * @throws XPathExpressionException If a predicate cannot be evaluated.
+     */
+    boolean matches(Node node, Context context) throws XPathExpressionException {
+      for (Alternative alternative : this.alternatives) {
+        if (alternative.matches(node, context)) return true;
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      return this.source;
+    }
+  }
+
+  /**
+   * A location path pattern.
+   */
+  private static final class Alternative {
+
+    /** The call to <code>id()</code> the pattern starts with or <code>null</code>. */
+    private final XPathExpr id;
+
+    private final boolean absolute;
+
+    private final Step[] steps;
+
+    /** Whether each step is preceded by <code>//</code>. */
+    private final boolean[] descendant;
+
+    Alternative(XPathExpr id, boolean absolute, List<Step> steps, List<Boolean> descendant) {
+      this.id = id;
+      this.absolute = absolute;
+      this.steps = steps.toArray(new Step[0]);
+      this.descendant = new boolean[steps.size()];
+      for (int i = 0; i < this.descendant.length; i++) this.descendant[i] = descendant.get(i);
+    }
+
+    boolean matches(Node node, Context context) throws XPathExpressionException {
+      if (this.steps.length == 0) return isStart(node, context);
+      return matches(node, this.steps.length-1, context);
+    }
+
+    private boolean matches(Node node, int i, Context context) throws XPathExpressionException {
+      if (!this.steps[i].matches(node, context)) return false;
+      Node parent = XPathTree.parent(node);
+      if (parent == null) return false;
+      if (!this.descendant[i]) return i > 0 ? matches(parent, i-1, context) : isStart(parent, context);
+      for (Node ancestor = parent; ancestor != null; ancestor = XPathTree.parent(ancestor)) {
+        if (i > 0 ? matches(ancestor, i-1, context) : isStart(ancestor, context)) return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return <code>true</code> if the first step of the pattern can be evaluated from this node.
+     */
+    private boolean isStart(Node node, Context context) throws XPathExpressionException {
+      if (this.id != null) return toNodes(this.id.evaluate(node, 1, 1, context)).contains(node);
+      return !this.absolute || XPathTree.isRoot(node);
+    }
+  }
+
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The syntax of an XPath 1.0 expression.
+ *
+ * <p>The expression is split into tokens to find the variables it references before it is
+ * compiled into an {@link XPathExpr} or, for the context of rules, into an XSLT pattern.</p>
+ *
+ * <p>Only the functions of the XPath 1.0 core library are accepted: XSLT functions such as
+ * <code>current()</code> or <code>key()</code> require a validation stylesheet.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class XPathSyntax {
+
+  /**
+   * The return types of the functions in the XPath 1.0 core library.
+   */
+  private static final Map<String, QName> FUNCTIONS = new HashMap<>();
+  static {
+    for (String f : Arrays.asList("last", "position", "count", "number", "sum", "floor", "ceiling", "round", "string-length"))
+      FUNCTIONS.put(f, XPathConstants.NUMBER);
+    for (String f : Arrays.asList("local-name", "namespace-uri", "name", "string", "concat",
+        "substring-before", "substring-after", "substring", "normalize-space", "translate"))
+      FUNCTIONS.put(f, XPathConstants.STRING);
+    for (String f : Arrays.asList("boolean", "not", "true", "false", "lang", "starts-with", "contains"))
+      FUNCTIONS.put(f, XPathConstants.BOOLEAN);
+    FUNCTIONS.put("id", XPathConstants.NODESET);
+  }
+
+  /**
+   * The node types, which look like function calls.
+   */
+  private static final Set<String> NODE_TYPES = new HashSet<>(Arrays.asList("node", "text", "comment", "processing-instruction"));
+
+  /**
+   * The kinds of tokens.
+   */
+  private enum Kind { LITERAL, NUMBER, VARIABLE, FUNCTION, NAME, OPERATOR, OPEN, CLOSE, OTHER }
+
+  private static final class Token {
+
+    private final Kind kind;
+
+    private final String value;
+
+    Token(Kind kind, String value) {
+      this.kind = kind;
+      this.value = value;
+    }
+
+    boolean is(String value) {
+      return this.value.equals(value);
+    }
+  }
+
+  private final String _expression;
+
+  private final List<Token> _tokens;
+
+  private XPathSyntax(String expression, List<Token> tokens) {
+    this._expression = expression;
+    this._tokens = tokens;
+  }
+
+  /**
+   * Split the expression into tokens.
+   *
+   * @param expression The XPath 1.0 expression
+   *
+   * @return The syntax of the expression
+   *
+   * @throws XPathExpressionException If the expression contains invalid characters or calls a function
+   *                                  outside the XPath 1.0 core library.
+   */
+  static XPathSyntax of(String expression) throws XPathExpressionException {
+    List<Token> tokens = new ArrayList<>();
+    int i = 0;
+    int length = expression.length();
+    while (i < length) {
+      char c = expression.charAt(i);
+      if (isWhitespace(c)) {
+        i++;
+      } else if (c == '"' || c == '\'') {
+        int end = expression.indexOf(c, i+1);
+        if (end < 0) throw new XPathExpressionException("Unterminated literal in '"+expression+"'");
+        tokens.add(new Token(Kind.LITERAL, expression.substring(i+1, end)));
+        i = end+1;
+      } else if (isDigit(c) || (c == '.' && i+1 < length && isDigit(expression.charAt(i+1)))) {
+        int start = i;
+        while (i < length && (isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) i++;
+        tokens.add(new Token(Kind.NUMBER, expression.substring(start, i)));
+      } else if (c == '$') {
+        int start = ++i;
+        i = qname(expression, i);
+        if (i == start) throw new XPathExpressionException("Invalid variable reference in '"+expression+"'");
+        tokens.add(new Token(Kind.VARIABLE, expression.substring(start, i)));
+      } else if (c == '(' || c == '[') {
+        tokens.add(new Token(Kind.OPEN, String.valueOf(c)));
+        i++;
+      } else if (c == ')' || c == ']') {
+        tokens.add(new Token(Kind.CLOSE, String.valueOf(c)));
+        i++;
+      } else if (c == '*' && !isOperand(tokens)) {
+        tokens.add(new Token(Kind.NAME, "*"));
+        i++;
+      } else if (isNameStart(c)) {
+        int start = i;
+        i = qname(expression, i);
+        String name = expression.substring(start, i);
+        int next = skipWhitespace(expression, i);
+        if (isOperand(tokens) && isOperatorName(name)) {
+          tokens.add(new Token(Kind.OPERATOR, name));
+        } else if (next < length && expression.charAt(next) == '(' && !NODE_TYPES.contains(name)) {
+          if (!FUNCTIONS.containsKey(name))
+            throw new XPathExpressionException("Function "+name+"() is not an XPath 1.0 function");
+          tokens.add(new Token(Kind.FUNCTION, name));
+        } else {
+          tokens.add(new Token(Kind.NAME, name));
+        }
+      } else {
+        String operator = operator(expression, i);
+        if (operator == null) throw new XPathExpressionException("Unexpected character '"+c+"' in '"+expression+"'");
+        tokens.add(new Token("..".equals(operator) || ".".equals(operator) || "@".equals(operator) || "::".equals(operator)
+            ? Kind.OTHER : Kind.OPERATOR, operator));
+        i += operator.length();
+      }
+    }
+    return new XPathSyntax(expression, tokens);
+  }
+
+  /**
+   * @return the names of the variables referenced by the expression.
+   */
+  Set<String> variables() {
+    Set<String> variables = new LinkedHashSet<>();
+    for (Token token : this._tokens) {
+      if (token.kind == Kind.VARIABLE) variables.add(token.value);
+    }
+    return variables.isEmpty() ? Collections.emptySet() : variables;
+  }
+
+  /**
+   * Compile the expression.
+   *
+   * @param namespaces The namespace URIs by prefix
+   *
+   * @return The compiled expression
+   *
+   * @throws XPathExpressionException If the expression is invalid or uses an undeclared prefix.
+   */
+  XPathExpr compile(Map<String, String> namespaces) throws XPathExpressionException {
+    return new Parser(namespaces, true).parse();
+  }
+
+  /**
+   * Compile the expression as an XSLT 1.0 pattern.
+   *
+   * @param namespaces The namespace URIs by prefix
+   *
+   * @return The compiled pattern
+   *
+   * @throws XPathExpressionException If the expression is not a valid pattern.
+   */
+  XPathExpr.Pattern compilePattern(Map<String, String> namespaces) throws XPathExpressionException {
+    return XPathExpr.Pattern.of(this._expression, new Parser(namespaces, false).parse());
+  }
+
+  @Override
+  public String toString() {
+    return this._expression;
+  }
+
+  /**
+   * @return the type of the result of the function as an <code>XPathConstants</code> type.
+   */
+  static QName returnType(String function) {
+    return FUNCTIONS.get(function);
+  }
+
+  /**
+   * A recursive descent parser following the grammar of the XPath 1.0 specification.
+   */
+  private final class Parser {
+
+    private final Map<String, String> namespaces;
+
+    /** Whether to select <code>//name</code> with the descendant axis, which patterns cannot use. */
+    private final boolean optimize;
+
+    private int index;
+
+    Parser(Map<String, String> namespaces, boolean optimize) {
+      this.namespaces = namespaces;
+      this.optimize = optimize;
+    }
+
+    XPathExpr parse() throws XPathExpressionException {
+      XPathExpr expr = or();
+      if (this.index < _tokens.size()) throw error("Unexpected '"+_tokens.get(this.index).value+"'");
+      return expr;
+    }
+
+    private XPathExpr or() throws XPathExpressionException {
+      XPathExpr expr = and();
+      while (isOperator("or")) {
+        this.index++;
+        expr = new XPathExpr.Logical(true, expr, and());
+      }
+      return expr;
+    }
+
+    private XPathExpr and() throws XPathExpressionException {
+      XPathExpr expr = equality();
+      while (isOperator("and")) {
+        this.index++;
+        expr = new XPathExpr.Logical(false, expr, equality());
+      }
+      return expr;
+    }
+
+    private XPathExpr equality() throws XPathExpressionException {
+      XPathExpr expr = relational();
+      while (isOperator("=") || isOperator("!=")) {
+        expr = new XPathExpr.Comparison(next().value, expr, relational());
+      }
+      return expr;
+    }
+
+    private XPathExpr relational() throws XPathExpressionException {
+      XPathExpr expr = additive();
+      while (isOperator("<") || isOperator("<=") || isOperator(">") || isOperator(">=")) {
+        expr = new XPathExpr.Comparison(next().value, expr, additive());
+      }
+      return expr;
+    }
+
+    private XPathExpr additive() throws XPathExpressionException {
+      XPathExpr expr = multiplicative();
+      while (isOperator("+") || isOperator("-")) {
+        expr = new XPathExpr.Arithmetic(next().value, expr, multiplicative());
+      }
+      return expr;
+    }
+
+    private XPathExpr multiplicative() throws XPathExpressionException {
+      XPathExpr expr = unary();
+      while (isOperator("*") || isOperator("div") || isOperator("mod")) {
+        expr = new XPathExpr.Arithmetic(next().value, expr, unary());
+      }
+      return expr;
+    }
+
+    private XPathExpr unary() throws XPathExpressionException {
+      if (isOperator("-")) {
+        this.index++;
+        return new XPathExpr.Negation(unary());
+      }
+      XPathExpr expr = path();
+      while (isOperator("|")) {
+        this.index++;
+        expr = new XPathExpr.Union(expr, path());
+      }
+      return expr;
+    }
+
+    private XPathExpr path() throws XPathExpressionException {
+      List<XPathExpr.Step> steps = new ArrayList<>();
+      if (isOperator("/")) {
+        this.index++;
+        if (isStep()) relative(steps);
+        return new XPathExpr.Path(null, true, optimize(steps));
+      }
+      if (isOperator("//")) {
+        this.index++;
+        steps.add(descendantOrSelf());
+        relative(steps);
+        return new XPathExpr.Path(null, true, optimize(steps));
+      }
+      Token token = peek();
+      if (token != null && (token.kind == Kind.VARIABLE || token.kind == Kind.LITERAL || token.kind == Kind.NUMBER
+          || token.kind == Kind.FUNCTION || (token.kind == Kind.OPEN && token.is("(")))) {
+        XPathExpr expr = primary();
+        List<XPathExpr> predicates = predicates();
+        if (!predicates.isEmpty()) expr = new XPathExpr.Filter(expr, predicates);
+        if (!isOperator("/") && !isOperator("//")) return expr;
+        if (next().is("//")) steps.add(descendantOrSelf());
+        relative(steps);
+        return new XPathExpr.Path(expr, false, optimize(steps));
+      }
+      relative(steps);
+      return new XPathExpr.Path(null, false, optimize(steps));
+    }
+
+    private void relative(List<XPathExpr.Step> steps) throws XPathExpressionException {
+      steps.add(step());
+      while (isOperator("/") || isOperator("//")) {
+        if (next().is("//")) steps.add(descendantOrSelf());
+        steps.add(step());
+      }
+    }
+
+    private XPathExpr.Step step() throws XPathExpressionException {
+      Token token = next();
+      if (token.kind == Kind.OTHER && token.is(".")) return new XPathExpr.Step(XPathExpr.Axis.SELF, XPathExpr.NodeTest.ANY, Collections.emptyList());
+      if (token.kind == Kind.OTHER && token.is("..")) return new XPathExpr.Step(XPathExpr.Axis.PARENT, XPathExpr.NodeTest.ANY, Collections.emptyList());
+      XPathExpr.Axis axis = XPathExpr.Axis.CHILD;
+      if (token.kind == Kind.OTHER && token.is("@")) {
+        axis = XPathExpr.Axis.ATTRIBUTE;
+        token = next();
+      } else if (token.kind == Kind.NAME && peek() != null && peek().kind == Kind.OTHER && peek().is("::")) {
+        axis = XPathExpr.Axis.forName(token.value);
+        if (axis == null) throw error("namespace".equals(token.value) ? "The namespace axis is not supported" : "Unknown axis "+token.value);
+        this.index++;
+        token = next();
+      }
+      return new XPathExpr.Step(axis, nodeTest(token), predicates());
+    }
+
+    private XPathExpr.NodeTest nodeTest(Token token) throws XPathExpressionException {
+      if (token.kind != Kind.NAME) throw error("Unexpected '"+token.value+"'");
+      Token next = peek();
+      if (NODE_TYPES.contains(token.value) && next != null && next.kind == Kind.OPEN && next.is("(")) {
+        this.index++;
+        String target = null;
+        if ("processing-instruction".equals(token.value) && peek() != null && peek().kind == Kind.LITERAL) target = next().value;
+        expect(Kind.CLOSE, ")");
+        switch (token.value) {
+          case "text": return XPathExpr.NodeTest.text();
+          case "comment": return XPathExpr.NodeTest.comment();
+          case "processing-instruction": return XPathExpr.NodeTest.processingInstruction(target);
+          default: return XPathExpr.NodeTest.ANY;
+        }
+      }
+      String name = token.value;
+      if ("*".equals(name)) return XPathExpr.NodeTest.name(null, null);
+      int colon = name.indexOf(':');
+      if (colon < 0) return XPathExpr.NodeTest.name("", name);
+      String local = name.substring(colon+1);
+      return XPathExpr.NodeTest.name(namespace(name.substring(0, colon)), "*".equals(local) ? null : local);
+    }
+
+    private String namespace(String prefix) throws XPathExpressionException {
+      if (XMLConstants.XML_NS_PREFIX.equals(prefix)) return XMLConstants.XML_NS_URI;
+      String uri = this.namespaces.get(prefix);
+      if (uri == null) throw error("Undeclared prefix '"+prefix+"'");
+      return uri;
+    }
+
+    private List<XPathExpr> predicates() throws XPathExpressionException {
+      List<XPathExpr> predicates = new ArrayList<>();
+      while (peek() != null && peek().kind == Kind.OPEN && peek().is("[")) {
+        this.index++;
+        predicates.add(or());
+        expect(Kind.CLOSE, "]");
+      }
+      return predicates;
+    }
+
+    private XPathExpr primary() throws XPathExpressionException {
+      Token token = next();
+      switch (token.kind) {
+        case VARIABLE:
+          return new XPathExpr.Variable(token.value);
+        case LITERAL:
+          return new XPathExpr.StringLiteral(token.value);
+        case NUMBER:
+          if (token.value.indexOf('.') != token.value.lastIndexOf('.')) throw error("Invalid number "+token.value);
+          return new XPathExpr.NumberLiteral(Double.parseDouble(token.value));
+        case FUNCTION:
+          expect(Kind.OPEN, "(");
+          List<XPathExpr> arguments = new ArrayList<>();
+          if (peek() == null || peek().kind != Kind.CLOSE) {
+            arguments.add(or());
+            while (isOperator(",")) {
+              this.index++;
+              arguments.add(or());
+            }
+          }
+          expect(Kind.CLOSE, ")");
+          return XPathExpr.Function.of(token.value, arguments);
+        default:
+          XPathExpr expr = or();
+          expect(Kind.CLOSE, ")");
+          return expr;
+      }
+    }
+
+    private XPathExpr.Step descendantOrSelf() {
+      return new XPathExpr.Step(XPathExpr.Axis.DESCENDANT_OR_SELF, XPathExpr.NodeTest.ANY, Collections.emptyList());
+    }
+
+    /**
+     * Selects <code>//name</code> with the descendant axis when the predicates do not depend on
+     * the position, so that the nodes are found in document order without being sorted.
+     */
+    private List<XPathExpr.Step> optimize(List<XPathExpr.Step> steps) {
+      if (!this.optimize) return steps;
+      List<XPathExpr.Step> optimized = new ArrayList<>(steps.size());
+      for (int i = 0; i < steps.size(); i++) {
+        XPathExpr.Step step = steps.get(i);
+        if (step.isDescendantOrSelf() && i+1 < steps.size()) {
+          XPathExpr.Step child = steps.get(i+1);
+          if (child.axis() == XPathExpr.Axis.CHILD && child.hasNodeTestsOnly()) {
+            optimized.add(child.on(XPathExpr.Axis.DESCENDANT));
+            i++;
+            continue;
+          }
+        }
+        optimized.add(step);
+      }
+      return optimized;
+    }
+
+    /**
+     * @return <code>true</code> if the next token starts a step.
+     */
+    private boolean isStep() {
+      Token token = peek();
+      return token != null && (token.kind == Kind.NAME || (token.kind == Kind.OTHER && !token.is("::")));
+    }
+
+    private boolean isOperator(String value) {
+      Token token = peek();
+      return token != null && token.kind == Kind.OPERATOR && token.is(value);
+    }
+
+    private Token peek() {
+      return this.index < _tokens.size() ? _tokens.get(this.index) : null;
+    }
+
+    private Token next() throws XPathExpressionException {
+      if (this.index >= _tokens.size()) throw error("Unexpected end");
+      return _tokens.get(this.index++);
+    }
+
+    private void expect(Kind kind, String value) throws XPathExpressionException {
+      Token token = next();
+      if (token.kind != kind || !token.is(value)) throw error("Expected '"+value+"' instead of '"+token.value+"'");
+    }
+
+    private XPathExpressionException error(String message) {
+      return new XPathExpressionException(message+" in '"+_expression+"'");
+    }
+  }
+
+  /**
+   * As in the XPath specification: a token preceded by an operand is an operator.
+   */
+  private static boolean isOperand(List<Token> tokens) {
+    if (tokens.isEmpty()) return false;
+    Token last = tokens.get(tokens.size()-1);
+    if (last.kind == Kind.OPERATOR || last.kind == Kind.OPEN || last.kind == Kind.FUNCTION) return false;
+    return !(last.is("@") || last.is("::") || last.is(","));
+  }
+
+  private static boolean isOperatorName(String name) {
+    return "and".equals(name) || "or".equals(name) || "div".equals(name) || "mod".equals(name);
+  }
+
+  private static String operator(String expression, int i) {
+    for (String operator : new String[]{"!=", "<=", ">=", "//", "::", "..", "=", "<", ">", "/", "|", "+", "-", "*", ".", "@", ","}) {
+      if (expression.startsWith(operator, i)) return operator;
+    }
+    return null;
+  }
+
+  /**
+   * @return the index after the qualified name, or name test with a wildcard, at the specified index.
+   */
+  private static int qname(String expression, int i) {
+    int length = expression.length();
+    while (i < length && isNameChar(expression.charAt(i))) i++;
+    if (i+1 < length && expression.charAt(i) == ':' && expression.charAt(i+1) != ':') {
+      i++;
+      if (expression.charAt(i) == '*') return i+1;
+      while (i < length && isNameChar(expression.charAt(i))) i++;
+    }
+    return i;
+  }
+
+  private static int skipWhitespace(String expression, int i) {
+    while (i < expression.length() && isWhitespace(expression.charAt(i))) i++;
+    return i;
+  }
+
+  private static boolean isNameStart(char c) {
+    return Character.isLetter(c) || c == '_';
+  }
+
+  private static boolean isNameChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+}
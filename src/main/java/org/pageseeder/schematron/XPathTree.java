@@ -0,0 +1,375 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The XPath 1.0 data model over a DOM.
+ *
+ * <p>Adjacent text nodes and CDATA sections form a single text node represented by the first
+ * one, entity references are transparent, and document types and namespace declarations are
+ * not part of the tree.</p>
+ *
+ * <p>An instance holds the position in document order of the nodes of the documents being
+ * evaluated. A document is only indexed the first time a node-set must be sorted, so that the
+ * evaluation of an expression never walks the document to find where a node is.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+final class XPathTree {
+
+  /**
+   * The position of each node in document order.
+   */
+  private final Map<Node, Integer> _order = new IdentityHashMap<>();
+
+  /**
+   * The position of the next node to index.
+   */
+  private int _next;
+
+  /**
+   * Returns the position of the node in document order.
+   *
+   * <p>The nodes of different documents are ordered by the first time one of their nodes is
+   * looked up.</p>
+   *
+   * @param node The node
+   *
+   * @return the position of the node.
+   */
+  int order(Node node) {
+    Integer order = this._order.get(node);
+    if (order == null) {
+      index(root(node));
+      order = this._order.get(node);
+      if (order == null) {
+        order = this._next++;
+        this._order.put(node, order);
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Sorts the nodes in document order and removes duplicates.
+   *
+   * @param nodes The nodes to sort
+   *
+   * @return the sorted node-set.
+   */
+  List<Node> sort(List<Node> nodes) {
+    if (nodes.size() < 2) return nodes;
+    long[] keys = new long[nodes.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = (long)order(nodes.get(i)) << 32 | i;
+    }
+    Arrays.sort(keys);
+    List<Node> sorted = new ArrayList<>(keys.length);
+    Node previous = null;
+    for (long key : keys) {
+      Node node = nodes.get((int)key);
+      if (node != previous) sorted.add(node);
+      previous = node;
+    }
+    return sorted;
+  }
+
+  private void index(Node root) {
+    Node node = root;
+    while (node != null) {
+      this._order.put(node, this._next++);
+      if (node.getNodeType() == Node.ELEMENT_NODE) {
+        NamedNodeMap attributes = node.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+          Node attribute = attributes.item(i);
+          if (!isNamespaceDeclaration(attribute)) this._order.put(attribute, this._next++);
+        }
+      }
+      node = following(node, root);
+    }
+  }
+
+  // Navigation
+  // ----------------------------------------------------------------------------------------------
+
+  /**
+   * Returns the next node in document order within the subtree, attributes excluded.
+   *
+   * @param node The current node
+   * @param root The root of the subtree
+   *
+   * @return the next node or <code>null</code> at the end of the subtree.
+   */
+  static Node following(Node node, Node root) {
+    Node next = firstChild(node);
+    while (next == null && node != root) {
+      next = nextSibling(node);
+      if (next == null) {
+        node = parent(node);
+        if (node == null) return null;
+      }
+    }
+    return next;
+  }
+
+  /**
+   * @return The first child of the node or <code>null</code>.
+   */
+  static Node firstChild(Node node) {
+    short type = node.getNodeType();
+    if (type != Node.ELEMENT_NODE && type != Node.DOCUMENT_NODE && type != Node.DOCUMENT_FRAGMENT_NODE) return null;
+    return enter(node.getFirstChild());
+  }
+
+  /**
+   * @return The last child of the node or <code>null</code>.
+   */
+  static Node lastChild(Node node) {
+    short type = node.getNodeType();
+    if (type != Node.ELEMENT_NODE && type != Node.DOCUMENT_NODE && type != Node.DOCUMENT_FRAGMENT_NODE) return null;
+    return startOfText(enterLast(node.getLastChild()));
+  }
+
+  /**
+   * @return The next sibling of the node or <code>null</code>.
+   */
+  static Node nextSibling(Node node) {
+    if (node.getNodeType() == Node.ATTRIBUTE_NODE || isRoot(node)) return null;
+    Node next = enter(exitNext(node));
+    if (isText(node)) {
+      while (next != null && isText(next)) next = enter(exitNext(next));
+    }
+    return next;
+  }
+
+  /**
+   * @return The previous sibling of the node or <code>null</code>.
+   */
+  static Node previousSibling(Node node) {
+    if (node.getNodeType() == Node.ATTRIBUTE_NODE || isRoot(node)) return null;
+    return startOfText(enterLast(exitPrevious(node)));
+  }
+
+  /**
+   * @return The parent in the XPath data model, that is the owner element of attributes.
+   */
+  static Node parent(Node node) {
+    if (node.getNodeType() == Node.ATTRIBUTE_NODE) return ((Attr)node).getOwnerElement();
+    Node parent = node.getParentNode();
+    // Skip entity references if they were not expanded
+    while (parent != null && parent.getNodeType() == Node.ENTITY_REFERENCE_NODE) parent = parent.getParentNode();
+    return parent;
+  }
+
+  /**
+   * @return The root of the tree containing the node.
+   */
+  static Node root(Node node) {
+    Node root = node;
+    for (Node parent = parent(node); parent != null; parent = parent(parent)) root = parent;
+    return root;
+  }
+
+  /**
+   * @return The first node in the XPath data model at or after the specified sibling.
+   */
+  private static Node enter(Node node) {
+    while (node != null) {
+      switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+        case Node.COMMENT_NODE:
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          return node;
+        case Node.ENTITY_REFERENCE_NODE:
+          Node child = node.getFirstChild();
+          node = child != null ? child : exitNext(node);
+          break;
+        default:
+          node = exitNext(node);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The last node in the XPath data model at or before the specified sibling.
+   */
+  private static Node enterLast(Node node) {
+    while (node != null) {
+      switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+        case Node.COMMENT_NODE:
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          return node;
+        case Node.ENTITY_REFERENCE_NODE:
+          Node child = node.getLastChild();
+          node = child != null ? child : exitPrevious(node);
+          break;
+        default:
+          node = exitPrevious(node);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The next sibling in the DOM leaving the entity references ending with the node.
+   */
+  private static Node exitNext(Node node) {
+    Node next = node.getNextSibling();
+    while (next == null) {
+      node = node.getParentNode();
+      if (node == null || node.getNodeType() != Node.ENTITY_REFERENCE_NODE) return null;
+      next = node.getNextSibling();
+    }
+    return next;
+  }
+
+  /**
+   * @return The previous sibling in the DOM leaving the entity references starting with the node.
+   */
+  private static Node exitPrevious(Node node) {
+    Node previous = node.getPreviousSibling();
+    while (previous == null) {
+      node = node.getParentNode();
+      if (node == null || node.getNodeType() != Node.ENTITY_REFERENCE_NODE) return null;
+      previous = node.getPreviousSibling();
+    }
+    return previous;
+  }
+
+  /**
+   * @return The first node of the text node ending with the specified DOM node.
+   */
+  private static Node startOfText(Node node) {
+    if (node == null || !isText(node)) return node;
+    for (Node previous = enterLast(exitPrevious(node)); previous != null && isText(previous); previous = enterLast(exitPrevious(previous))) {
+      node = previous;
+    }
+    return node;
+  }
+
+  // Node properties
+  // ----------------------------------------------------------------------------------------------
+
+  static boolean isText(Node node) {
+    short type = node.getNodeType();
+    return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE;
+  }
+
+  static boolean isRoot(Node node) {
+    short type = node.getNodeType();
+    return type == Node.DOCUMENT_NODE || type == Node.DOCUMENT_FRAGMENT_NODE;
+  }
+
+  static boolean isNamespaceDeclaration(Node attribute) {
+    return XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+        || (attribute.getNamespaceURI() == null && attribute.getNodeName().startsWith(XMLConstants.XMLNS_ATTRIBUTE)
+            && (attribute.getNodeName().length() == 5 || attribute.getNodeName().charAt(5) == ':'));
+  }
+
+  /**
+   * @return The string value of the node.
+   */
+  static String stringValue(Node node) {
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+      case Node.DOCUMENT_NODE:
+      case Node.DOCUMENT_FRAGMENT_NODE:
+        StringBuilder value = new StringBuilder();
+        appendText(node, value);
+        return value.toString();
+      case Node.ATTRIBUTE_NODE:
+        return ((Attr)node).getValue();
+      case Node.TEXT_NODE:
+      case Node.CDATA_SECTION_NODE:
+        String text = node.getNodeValue();
+        Node next = enter(exitNext(node));
+        if (next == null || !isText(next)) return text;
+        StringBuilder adjacent = new StringBuilder(text);
+        for (; next != null && isText(next); next = enter(exitNext(next))) adjacent.append(next.getNodeValue());
+        return adjacent.toString();
+      default:
+        String nodeValue = node.getNodeValue();
+        return nodeValue != null ? nodeValue : "";
+    }
+  }
+
+  private static void appendText(Node node, StringBuilder value) {
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      short type = child.getNodeType();
+      if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE) value.append(child.getNodeValue());
+      else if (type == Node.ELEMENT_NODE || type == Node.ENTITY_REFERENCE_NODE) appendText(child, value);
+    }
+  }
+
+  /**
+   * @return The local part of the expanded name of the node or an empty string.
+   */
+  static String localName(Node node) {
+    switch (node.getNodeType()) {
+      case Node.ELEMENT_NODE:
+      case Node.ATTRIBUTE_NODE:
+        String local = node.getLocalName();
+        return local != null ? local : node.getNodeName();
+      case Node.PROCESSING_INSTRUCTION_NODE:
+        return node.getNodeName();
+      default:
+        return "";
+    }
+  }
+
+  /**
+   * @return The namespace URI of the expanded name of the node or an empty string.
+   */
+  static String namespaceURI(Node node) {
+    short type = node.getNodeType();
+    if (type == Node.ELEMENT_NODE || type == Node.ATTRIBUTE_NODE) {
+      String uri = node.getNamespaceURI();
+      return uri != null ? uri : "";
+    }
+    return "";
+  }
+
+  /**
+   * @return The qualified name of the node as in the source or an empty string.
+   */
+  static String name(Node node) {
+    short type = node.getNodeType();
+    if (type == Node.ELEMENT_NODE || type == Node.ATTRIBUTE_NODE || type == Node.PROCESSING_INSTRUCTION_NODE)
+      return node.getNodeName();
+    return "";
+  }
+
+}
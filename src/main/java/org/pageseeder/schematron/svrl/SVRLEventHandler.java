@@ -15,6 +15,8 @@
  */
 package org.pageseeder.schematron.svrl;
 
+import org.pageseeder.schematron.AssertionListener;
+
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLStreamConstants;
@@ -41,17 +43,51 @@ final class SVRLEventHandler {
 
   private final Set<String> namespaces = new HashSet<>();
 
-  public SchematronOutput parse(XMLEventReader eventReader) throws XMLStreamException {
+  /**
+   * Notified of fired rules, asserts and reports (may be <code>null</code>)
+   */
+  private final AssertionListener listener;
+
+  /**
+   * Whether to keep the active patterns, fired rules, asserts and reports in the SVRL output.
+   */
+  private final boolean retain;
+
+  SVRLEventHandler() {
+    this(null, true);
+  }
+
+  /**
+   * @param listener Notified of fired rules, asserts and reports (may be <code>null</code>)
+   * @param retain   Whether to keep patterns, rules, asserts and reports in the output
+   */
+  SVRLEventHandler(AssertionListener listener, boolean retain) {
     this.namespaces.add(SVRL.NAMESPACE_URI);
+    this.listener = listener;
+    this.retain = retain;
+  }
+
+  public SchematronOutput parse(XMLEventReader eventReader) throws XMLStreamException {
     while (eventReader.hasNext()) {
       XMLEvent event = eventReader.nextEvent();
       handle(event);
     }
-    this.schematronOutput.addNsDeclaration(new Namespace("svrl", SVRL.NAMESPACE_URI));
+    return end();
+  }
+
+  /**
+   * Complete the SVRL output once all the events have been handled.
+   *
+   * @return the SVRL output or <code>null</code> if no SVRL was found.
+   */
+  SchematronOutput end() {
+    if (this.schematronOutput != null) {
+      this.schematronOutput.addNsDeclaration(new Namespace("svrl", SVRL.NAMESPACE_URI));
+    }
     return this.schematronOutput;
   }
 
-  private void handle(XMLEvent event) {
+  void handle(XMLEvent event) {
     if (event.getEventType() == XMLStreamConstants.START_ELEMENT) {
       StartElement startElement = event.asStartElement();
       QName name = startElement.getName();
@@ -93,6 +129,10 @@ final class SVRLEventHandler {
         switch (name.getLocalPart()) {
           case "failed-assert":
           case "successful-report":
+            if (this.listener != null) {
+              if (this.currentAssertOrReport.isFailedAssert()) this.listener.onFailedAssert(this.currentAssertOrReport);
+              else this.listener.onSuccessfulReport(this.currentAssertOrReport);
+            }
             this.currentAssertOrReport = null;
             break;
           case "diagnostic-reference":
@@ -149,7 +189,7 @@ final class SVRLEventHandler {
     if (name != null) activePattern.setName(name);
     if (documents != null) activePattern.setDocuments(documents);
     if (role != null) activePattern.setDocuments(role);
-    this.schematronOutput.addActivePattern(activePattern);
+    if (this.retain) this.schematronOutput.addActivePattern(activePattern);
     this.currentActivePattern = activePattern;
   }
 
@@ -169,14 +209,14 @@ final class SVRLEventHandler {
     // Handle compact format
     if (this.currentActivePattern == null) {
       this.currentActivePattern = new ActivePattern();
-      this.schematronOutput.addActivePattern(this.currentActivePattern);
+      if (this.retain) this.schematronOutput.addActivePattern(this.currentActivePattern);
       this.schematronOutput.setCompact(true);
     }
     if (this.currentFiredRule == null) {
       this.currentFiredRule = new FiredRule();
-      this.currentActivePattern.addFiredRule(this.currentFiredRule);
+      if (this.retain) this.currentActivePattern.addFiredRule(this.currentFiredRule);
     }
-    this.currentFiredRule.addAssertOrReport(assertOrReport);
+    if (this.retain) this.currentFiredRule.addAssertOrReport(assertOrReport);
     this.currentAssertOrReport = assertOrReport;
   }
 
@@ -200,8 +240,9 @@ final class SVRLEventHandler {
     if (context != null) firedRule.setContext(context);
     if (role != null) firedRule.setRole(role);
     if (flag != null) firedRule.setFlag(flag);
-    this.currentActivePattern.addFiredRule(firedRule);
+    if (this.retain) this.currentActivePattern.addFiredRule(firedRule);
     this.currentFiredRule = firedRule;
+    if (this.listener != null) this.listener.onFiredRule(firedRule);
   }
 
   private void handlePropertyReference(StartElement startElement) {
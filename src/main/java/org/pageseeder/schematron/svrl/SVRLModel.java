@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.svrl;
+
+import org.pageseeder.schematron.OutputOptions;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+/**
+ * SVRL data held as an object model.
+ *
+ * <p>The SVRL is only serialized when requested using the output options.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class SVRLModel implements SVRLData {
+
+  private final SchematronOutput _output;
+
+  private final OutputOptions _options;
+
+  private volatile String _svrl;
+
+  public SVRLModel(SchematronOutput output, OutputOptions options) {
+    this._output = Objects.requireNonNull(output);
+    this._options = Objects.requireNonNull(options);
+  }
+
+  /**
+   * @return The SVRL object model
+   */
+  public SchematronOutput getSchematronOutput() {
+    return this._output;
+  }
+
+  @Override
+  public String asString() {
+    String s = this._svrl;
+    if (s == null) {
+      s = serialize();
+      this._svrl = s;
+    }
+    return s;
+  }
+
+  /**
+   * @return The SVRL encoded using the encoding declared by the output options.
+   */
+  @Override
+  public byte[] asByteArray() {
+    return asString().getBytes(Charset.forName(this._options.encoding()));
+  }
+
+  @Override
+  public Reader getReader() {
+    return new StringReader(asString());
+  }
+
+  private String serialize() {
+    StringWriter out = new StringWriter();
+    try {
+      // Locations have already been updated when the model was built
+      SVRLStreamWriter writer = new SVRLStreamWriter(out, this._options.usePrefixInLocation(false));
+      writer.writeStartDocument(this._options.encoding(), "1.0");
+      this._output.toXMLStream(writer);
+      writer.writeEndDocument();
+      writer.flush();
+    } catch (XMLStreamException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return out.toString();
+  }
+
+}
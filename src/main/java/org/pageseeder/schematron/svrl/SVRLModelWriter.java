@@ -0,0 +1,347 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.svrl;
+
+import org.pageseeder.schematron.AssertionListener;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import java.util.*;
+
+/**
+ * An XML stream writer building the SVRL object model directly from the events it receives
+ * without serializing the SVRL.
+ *
+ * <p>Use {@link #getSchematronOutput()} once the SVRL has been written to retrieve the model.</p>
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class SVRLModelWriter implements XMLStreamWriter {
+
+  private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+
+  private final SVRLEventHandler _handler;
+
+  /**
+   * The names of the open elements.
+   */
+  private final Deque<QName> _elements = new ArrayDeque<>();
+
+  /**
+   * The namespace declarations for each open element.
+   */
+  private final Deque<Map<String, String>> _scopes = new ArrayDeque<>();
+
+  private final Context _context = new Context();
+
+  // The start element is only reported once all attributes and namespaces have been written
+  private QName _pendingName;
+  private boolean _pendingEmpty;
+  private final List<Attribute> _pendingAttributes = new ArrayList<>();
+  private final List<javax.xml.stream.events.Namespace> _pendingNamespaces = new ArrayList<>();
+
+  private SchematronOutput _output;
+
+  /**
+   * A namespace context supplied by the caller to resolve prefixes not declared in the SVRL.
+   */
+  private NamespaceContext _namespaceContext;
+
+  public SVRLModelWriter() {
+    this._handler = new SVRLEventHandler();
+    this._scopes.push(new HashMap<>());
+  }
+
+  /**
+   * Creates a writer notifying the listener of fired rules, failed asserts and successful reports
+   * as they are written.
+   *
+   * <p>Active patterns, fired rules, asserts and reports are not kept in the SVRL output so that
+   * memory does not grow with the number of results.</p>
+   *
+   * @param listener The listener to notify
+   */
+  public SVRLModelWriter(AssertionListener listener) {
+    this._handler = new SVRLEventHandler(Objects.requireNonNull(listener), false);
+    this._scopes.push(new HashMap<>());
+  }
+
+  /**
+   * @return The SVRL object model or <code>null</code> if no SVRL was written.
+   */
+  public SchematronOutput getSchematronOutput() {
+    if (this._output == null) {
+      this._output = this._handler.end();
+    }
+    return this._output;
+  }
+
+  @Override
+  public void writeStartElement(String localName) throws XMLStreamException {
+    writeStartElement(XMLConstants.DEFAULT_NS_PREFIX, localName, toNamespaceURI(XMLConstants.DEFAULT_NS_PREFIX));
+  }
+
+  @Override
+  public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+    writeStartElement(toPrefix(namespaceURI), localName, namespaceURI);
+  }
+
+  @Override
+  public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    flushStartElement();
+    this._pendingName = new QName(namespaceURI != null ? namespaceURI : XMLConstants.NULL_NS_URI, localName,
+        prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+    this._pendingEmpty = false;
+    this._scopes.push(new HashMap<>());
+  }
+
+  @Override
+  public void writeEmptyElement(String localName) throws XMLStreamException {
+    writeStartElement(localName);
+    this._pendingEmpty = true;
+  }
+
+  @Override
+  public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+    writeStartElement(namespaceURI, localName);
+    this._pendingEmpty = true;
+  }
+
+  @Override
+  public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    writeStartElement(prefix, localName, namespaceURI);
+    this._pendingEmpty = true;
+  }
+
+  @Override
+  public void writeEndElement() throws XMLStreamException {
+    flushStartElement();
+    endElement();
+  }
+
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    flushStartElement();
+    while (!this._elements.isEmpty()) {
+      endElement();
+    }
+  }
+
+  @Override
+  public void close() throws XMLStreamException {
+    flushStartElement();
+  }
+
+  @Override
+  public void flush() throws XMLStreamException {
+  }
+
+  @Override
+  public void writeAttribute(String localName, String value) throws XMLStreamException {
+    this._pendingAttributes.add(EVENTS.createAttribute(localName, value));
+  }
+
+  @Override
+  public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+    this._pendingAttributes.add(EVENTS.createAttribute(prefix, namespaceURI, localName, value));
+  }
+
+  @Override
+  public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+    this._pendingAttributes.add(EVENTS.createAttribute(toPrefix(namespaceURI), namespaceURI, localName, value));
+  }
+
+  @Override
+  public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+    if (prefix == null || prefix.isEmpty() || XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+      writeDefaultNamespace(namespaceURI);
+    } else {
+      this._scopes.peek().put(prefix, namespaceURI);
+      this._pendingNamespaces.add(EVENTS.createNamespace(prefix, namespaceURI));
+    }
+  }
+
+  @Override
+  public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+    this._scopes.peek().put(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+    this._pendingNamespaces.add(EVENTS.createNamespace(namespaceURI));
+  }
+
+  @Override
+  public void writeComment(String data) throws XMLStreamException {
+    flushStartElement();
+    this._handler.handle(EVENTS.createComment(data));
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target) throws XMLStreamException {
+    writeProcessingInstruction(target, "");
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+    flushStartElement();
+    this._handler.handle(EVENTS.createProcessingInstruction(target, data));
+  }
+
+  @Override
+  public void writeCData(String data) throws XMLStreamException {
+    flushStartElement();
+    this._handler.handle(EVENTS.createCData(data));
+  }
+
+  @Override
+  public void writeDTD(String dtd) {
+  }
+
+  @Override
+  public void writeEntityRef(String name) throws XMLStreamException {
+    flushStartElement();
+    this._handler.handle(EVENTS.createEntityReference(name, null));
+  }
+
+  @Override
+  public void writeStartDocument() {
+  }
+
+  @Override
+  public void writeStartDocument(String version) {
+  }
+
+  @Override
+  public void writeStartDocument(String encoding, String version) {
+  }
+
+  @Override
+  public void writeCharacters(String text) throws XMLStreamException {
+    flushStartElement();
+    this._handler.handle(EVENTS.createCharacters(text));
+  }
+
+  @Override
+  public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+    writeCharacters(new String(text, start, len));
+  }
+
+  @Override
+  public String getPrefix(String uri) {
+    return this._context.getPrefix(uri);
+  }
+
+  @Override
+  public void setPrefix(String prefix, String uri) {
+    this._scopes.peek().put(prefix, uri);
+  }
+
+  @Override
+  public void setDefaultNamespace(String uri) {
+    this._scopes.peek().put(XMLConstants.DEFAULT_NS_PREFIX, uri);
+  }
+
+  @Override
+  public void setNamespaceContext(NamespaceContext context) {
+    this._namespaceContext = context;
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return this._context;
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    if (XMLOutputFactory.IS_REPAIRING_NAMESPACES.equals(name)) return Boolean.FALSE;
+    throw new IllegalArgumentException("Unsupported property: "+name);
+  }
+
+  private void flushStartElement() {
+    if (this._pendingName == null) return;
+    QName name = this._pendingName;
+    this._handler.handle(EVENTS.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+        this._pendingAttributes.iterator(), this._pendingNamespaces.iterator(), this._context));
+    this._elements.push(name);
+    this._pendingName = null;
+    this._pendingAttributes.clear();
+    this._pendingNamespaces.clear();
+    if (this._pendingEmpty) {
+      this._pendingEmpty = false;
+      endElement();
+    }
+  }
+
+  private void endElement() {
+    QName name = this._elements.pop();
+    this._handler.handle(EVENTS.createEndElement(name, null));
+    this._scopes.pop();
+  }
+
+  private String toPrefix(String namespaceURI) {
+    if (namespaceURI == null || namespaceURI.isEmpty()) return XMLConstants.DEFAULT_NS_PREFIX;
+    String prefix = this._context.getPrefix(namespaceURI);
+    return prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX;
+  }
+
+  private String toNamespaceURI(String prefix) {
+    String uri = this._context.getNamespaceURI(prefix);
+    return uri != null ? uri : XMLConstants.NULL_NS_URI;
+  }
+
+  /**
+   * The namespace context based on the namespaces declared on open elements.
+   */
+  private final class Context implements NamespaceContext {
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+      if (XMLConstants.XML_NS_PREFIX.equals(prefix)) return XMLConstants.XML_NS_URI;
+      for (Map<String, String> scope : SVRLModelWriter.this._scopes) {
+        String uri = scope.get(prefix);
+        if (uri != null) return uri;
+      }
+      NamespaceContext root = SVRLModelWriter.this._namespaceContext;
+      return root != null ? root.getNamespaceURI(prefix) : null;
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+      if (XMLConstants.XML_NS_URI.equals(namespaceURI)) return XMLConstants.XML_NS_PREFIX;
+      for (Map<String, String> scope : SVRLModelWriter.this._scopes) {
+        for (Map.Entry<String, String> ns : scope.entrySet()) {
+          if (ns.getValue().equals(namespaceURI) && namespaceURI.equals(getNamespaceURI(ns.getKey())))
+            return ns.getKey();
+        }
+      }
+      NamespaceContext root = SVRLModelWriter.this._namespaceContext;
+      return root != null ? root.getPrefix(namespaceURI) : null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+      String prefix = getPrefix(namespaceURI);
+      return prefix != null ? Collections.singleton(prefix).iterator() : Collections.<String>emptyIterator();
+    }
+  }
+
+}
@@ -30,8 +30,12 @@ import java.util.*;
  * XML Stream writer for SVRL that intercepts events and ensure that the correct output options are
  * applied.
  *
+ * <p>When the maximum number of failures specified in the output options is reached, the writer closes
+ * the SVRL, ignores any subsequent event and throws an <code>XMLStreamException</code> to abort the
+ * transformation. Use {@link #isLimitReached()} to distinguish this case from other errors.</p>
+ *
  * @author Christophe Lauret
- * @version 2.0
+ * @version 2.5.0
  * @since 2.0
  */
 public class SVRLStreamWriter extends XMLStreamWriterWrapper {
@@ -49,6 +53,8 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
   private int assertsCount = 0;
   private int reportsCount = 0;
 
+  private boolean limitReached = false;
+
   private Set<String> globalNamespaces = new HashSet<>();
   private Set<String> metadataNamespaces = new HashSet<>();
 
@@ -57,7 +63,19 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
   }
 
   public SVRLStreamWriter(Writer out, OutputOptions options) throws XMLStreamException {
-    super(newXMLStreamWriter(out));
+    this(newXMLStreamWriter(out), options);
+  }
+
+  /**
+   * Wraps the specified XML stream writer, which must not repair namespaces.
+   *
+   * @param writer  The XML stream writer receiving the SVRL
+   * @param options The output options
+   *
+   * @since 2.5.0
+   */
+  public SVRLStreamWriter(XMLStreamWriter writer, OutputOptions options) {
+    super(writer);
     this.options = options;
   }
 
@@ -80,8 +98,18 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
     return reportsCount;
   }
 
+  /**
+   * @return <code>true</code> if the output was truncated because the maximum number of failures was reached.
+   *
+   * @since 2.5.0
+   */
+  public boolean isLimitReached() {
+    return limitReached;
+  }
+
   @Override
   public void writeAttribute(String localName, String value) throws XMLStreamException {
+    if (this.limitReached) return;
     if ("location".equals(localName) && this.options.usePrefixInLocation()) {
       NamespaceContext context = this.getNamespaceContext();
       super.writeAttribute(localName, SVRL.toLocationPrefix(value, context));
@@ -92,6 +120,7 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
 
   @Override
   public void writeStartElement(String localName) throws XMLStreamException {
+    if (this.limitReached) return;
     this.elements.push(new QName(localName));
     indentIfRequired();
     super.writeStartElement(localName);
@@ -99,6 +128,7 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
 
   @Override
   public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+    if (this.limitReached) return;
     this.elements.push(new QName(namespaceURI, localName));
     indentIfRequired();
     if (isSvrlElement(namespaceURI) && "failed-assert".equals(localName)) this.assertsCount += 1;
@@ -112,6 +142,7 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
 
   @Override
   public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    if (this.limitReached) return;
     this.elements.push(new QName(namespaceURI, localName, prefix));
     indentIfRequired();
     if (isSvrlElement(namespaceURI) && "failed-assert".equals(localName)) this.assertsCount += 1;
@@ -125,24 +156,102 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
 
   @Override
   public void writeEmptyElement(String localName) throws XMLStreamException {
+    if (this.limitReached) return;
     indentIfRequired();
     super.writeEmptyElement(localName);
   }
 
   @Override
   public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+    if (this.limitReached) return;
     indentIfRequired();
     super.writeEmptyElement(namespaceURI, localName);
   }
 
   @Override
   public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+    if (this.limitReached) return;
     indentIfRequired();
     super.writeEmptyElement(prefix, localName, namespaceURI);
   }
 
   @Override
   public void writeEndElement() throws XMLStreamException {
+    if (this.limitReached) return;
+    QName name = endElement();
+    int maxFailures = this.options.maxFailures();
+    if (maxFailures > 0 && this.assertsCount >= maxFailures
+        && isSvrlElement(name.getNamespaceURI()) && "failed-assert".equals(name.getLocalPart())) {
+      // Close the SVRL and stop
+      while (!this.elements.isEmpty()) endElement();
+      super.writeEndDocument();
+      super.flush();
+      this.limitReached = true;
+      throw new XMLStreamException("Maximum number of failures reached ("+maxFailures+")");
+    }
+  }
+
+  @Override
+  public void writeEndDocument() throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeEndDocument();
+  }
+
+  @Override
+  public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeAttribute(prefix, namespaceURI, localName, value);
+  }
+
+  @Override
+  public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeAttribute(namespaceURI, localName, value);
+  }
+
+  @Override
+  public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeDefaultNamespace(namespaceURI);
+  }
+
+  @Override
+  public void writeComment(String data) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeComment(data);
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeProcessingInstruction(target);
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeProcessingInstruction(target, data);
+  }
+
+  @Override
+  public void writeCData(String data) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeCData(data);
+  }
+
+  @Override
+  public void writeEntityRef(String name) throws XMLStreamException {
+    if (this.limitReached) return;
+    super.writeEntityRef(name);
+  }
+
+  @Override
+  public void flush() throws XMLStreamException {
+    if (this.limitReached) return;
+    super.flush();
+  }
+
+  private QName endElement() throws XMLStreamException {
     QName name = this.elements.pop();
     if (!isEmptySvrlElement(name.getNamespaceURI(), name.getLocalPart())) {
       if (this.options.isIndent() && isSvrlElement(name.getNamespaceURI())) {
@@ -155,38 +264,42 @@ public class SVRLStreamWriter extends XMLStreamWriterWrapper {
       }
       super.writeEndElement();
     }
+    return name;
   }
 
   @Override
   public void writeCharacters(String text) throws XMLStreamException {
+    if (this.limitReached) return;
     super.writeCharacters(text);
   }
 
   @Override
   public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+    if (this.limitReached) return;
     super.writeCharacters(text, start, len);
   }
 
   @Override
   public void writeStartDocument() throws XMLStreamException {
-    if (this.options.isOmitXmlDeclaration()) return;
+    if (this.limitReached || this.options.isOmitXmlDeclaration()) return;
     super.writeStartDocument();
   }
 
   @Override
   public void writeStartDocument(String version) throws XMLStreamException {
-    if (this.options.isOmitXmlDeclaration()) return;
+    if (this.limitReached || this.options.isOmitXmlDeclaration()) return;
     super.writeStartDocument(version);
   }
 
   @Override
   public void writeStartDocument(String encoding, String version) throws XMLStreamException {
-    if (this.options.isOmitXmlDeclaration()) return;
+    if (this.limitReached || this.options.isOmitXmlDeclaration()) return;
     super.writeStartDocument(encoding, version);
   }
 
   @Override
   public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+    if (this.limitReached) return;
     // Filter out the SchXslt namespace URIs, we shouldn't need them in the output
     if (namespaceURI.startsWith("https://doi.org/10.5281/zenodo.1495494")) return;
     boolean declare = true;
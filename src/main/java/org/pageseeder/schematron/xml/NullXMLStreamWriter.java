@@ -0,0 +1,185 @@
+/*
+ * Copyright 2022 Allette Systems (Australia)
+ * http://www.allette.com.au
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.pageseeder.schematron.xml;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * An XMLStreamWriter discarding all events.
+ *
+ * @author Christophe Lauret
+ *
+ * @version 2.5.0
+ * @since 2.5.0
+ */
+public final class NullXMLStreamWriter implements XMLStreamWriter {
+
+  private static final NamespaceContext EMPTY_CONTEXT = new NamespaceContext() {
+    @Override
+    public String getNamespaceURI(String prefix) {
+      return XMLConstants.XML_NS_PREFIX.equals(prefix) ? XMLConstants.XML_NS_URI : null;
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+      return XMLConstants.XML_NS_URI.equals(namespaceURI) ? XMLConstants.XML_NS_PREFIX : null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+      String prefix = getPrefix(namespaceURI);
+      return prefix != null ? Collections.singleton(prefix).iterator() : Collections.<String>emptyIterator();
+    }
+  };
+
+  @Override
+  public void writeStartElement(String localName) {
+  }
+
+  @Override
+  public void writeStartElement(String namespaceURI, String localName) {
+  }
+
+  @Override
+  public void writeStartElement(String prefix, String localName, String namespaceURI) {
+  }
+
+  @Override
+  public void writeEmptyElement(String namespaceURI, String localName) {
+  }
+
+  @Override
+  public void writeEmptyElement(String prefix, String localName, String namespaceURI) {
+  }
+
+  @Override
+  public void writeEmptyElement(String localName) {
+  }
+
+  @Override
+  public void writeEndElement() {
+  }
+
+  @Override
+  public void writeEndDocument() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void writeAttribute(String localName, String value) {
+  }
+
+  @Override
+  public void writeAttribute(String prefix, String namespaceURI, String localName, String value) {
+  }
+
+  @Override
+  public void writeAttribute(String namespaceURI, String localName, String value) {
+  }
+
+  @Override
+  public void writeNamespace(String prefix, String namespaceURI) {
+  }
+
+  @Override
+  public void writeDefaultNamespace(String namespaceURI) {
+  }
+
+  @Override
+  public void writeComment(String data) {
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target) {
+  }
+
+  @Override
+  public void writeProcessingInstruction(String target, String data) {
+  }
+
+  @Override
+  public void writeCData(String data) {
+  }
+
+  @Override
+  public void writeDTD(String dtd) {
+  }
+
+  @Override
+  public void writeEntityRef(String name) {
+  }
+
+  @Override
+  public void writeStartDocument() {
+  }
+
+  @Override
+  public void writeStartDocument(String version) {
+  }
+
+  @Override
+  public void writeStartDocument(String encoding, String version) {
+  }
+
+  @Override
+  public void writeCharacters(String text) {
+  }
+
+  @Override
+  public void writeCharacters(char[] text, int start, int len) {
+  }
+
+  @Override
+  public String getPrefix(String uri) {
+    return EMPTY_CONTEXT.getPrefix(uri);
+  }
+
+  @Override
+  public void setPrefix(String prefix, String uri) {
+  }
+
+  @Override
+  public void setDefaultNamespace(String uri) {
+  }
+
+  @Override
+  public void setNamespaceContext(NamespaceContext context) {
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return EMPTY_CONTEXT;
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    if (XMLOutputFactory.IS_REPAIRING_NAMESPACES.equals(name)) return Boolean.FALSE;
+    throw new IllegalArgumentException("Unsupported property: "+name);
+  }
+
+}
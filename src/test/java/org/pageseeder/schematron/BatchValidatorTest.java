@@ -0,0 +1,161 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class BatchValidatorTest {
+
+  @Test
+  public void testValidateAll() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    List<Source> sources = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      sources.add(new StreamSource(new File("src/test/resources/xml/books.xml")));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Set<Source> seen = new HashSet<>();
+      Thread caller = Thread.currentThread();
+      BatchStatistics stats = validator.batch(executor).parallelism(4).validate(sources, (source, result) -> {
+        Assert.assertSame(caller, Thread.currentThread());
+        Assert.assertNotNull(result);
+        seen.add(source);
+      });
+      Assert.assertEquals(50, seen.size());
+      Assert.assertEquals(50, stats.getDocumentCount());
+      Assert.assertEquals(50, stats.getValidCount() + stats.getInvalidCount());
+      Assert.assertEquals(0, stats.getErrorCount());
+      Assert.assertTrue(stats.getThroughput() > 0);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateBackpressure() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch")).pool(2);
+    AtomicInteger pulled = new AtomicInteger();
+    AtomicInteger received = new AtomicInteger();
+    Stream<Source> sources = IntStream.range(0, 20).mapToObj(i -> {
+      // Never more than 2 documents in flight
+      Assert.assertTrue(pulled.incrementAndGet() - received.get() <= 2);
+      return new StreamSource(new File("src/test/resources/xml/books.xml"));
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BatchStatistics stats = validator.batch(executor).parallelism(2).validate(sources, (source, result) -> received.incrementAndGet());
+      Assert.assertEquals(20, stats.getDocumentCount());
+      Assert.assertTrue(validator.pool().getCreatedCount() <= 2);
+      Assert.assertEquals(0, validator.pool().getActiveCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateSmallerPool() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch")).pool(1);
+    AtomicInteger pulled = new AtomicInteger();
+    AtomicInteger received = new AtomicInteger();
+    Stream<Source> sources = IntStream.range(0, 10).mapToObj(i -> {
+      // The pool only has one instance
+      Assert.assertTrue(pulled.incrementAndGet() - received.get() <= 1);
+      return new StreamSource(new File("src/test/resources/xml/books.xml"));
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BatchStatistics stats = validator.batch(executor).parallelism(4).validate(sources, (source, result) -> received.incrementAndGet());
+      Assert.assertEquals(10, stats.getDocumentCount());
+      Assert.assertEquals(0, stats.getErrorCount());
+      Assert.assertEquals(0, validator.pool().getWaitingCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateErrors() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    List<Source> sources = new ArrayList<>();
+    sources.add(new StreamSource(new File("src/test/resources/xml/books.xml")));
+    sources.add(new StreamSource(new File("src/test/resources/xml/xml_bomb.xml")));
+    AtomicInteger errors = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      BatchStatistics stats = validator.batch(executor).validate(sources, new BatchListener() {
+        @Override
+        public void onResult(Source source, SchematronResult result) {
+        }
+        @Override
+        public void onError(Source source, SchematronException ex) {
+          errors.incrementAndGet();
+        }
+      });
+      Assert.assertEquals(1, errors.get());
+      Assert.assertEquals(1, stats.getErrorCount());
+      Assert.assertEquals(2, stats.getDocumentCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = ValidationException.class)
+  public void testValidateAbort() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    List<Source> sources = Collections.singletonList(new StreamSource(new File("src/test/resources/xml/xml_bomb.xml")));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      validator.batch(executor).validate(sources, (source, result) -> {});
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateAbortCancelsRunning() throws SchematronException {
+    Validator validator = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch")).pool(3);
+    List<Source> sources = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      sources.add(new StreamSource(new File("src/test/resources/xml/books.xml")));
+    }
+    // Runs the first task immediately and holds on to the others
+    List<Runnable> queued = new ArrayList<>();
+    Executor executor = task -> {
+      if (validator.pool().getCreatedCount() == 0) task.run();
+      else queued.add(task);
+    };
+    try {
+      validator.batch(executor).parallelism(3).validate(sources, (source, result) -> {
+        throw new SchematronException("Abort");
+      });
+      Assert.fail("The batch should have been aborted");
+    } catch (SchematronException ex) {
+      Assert.assertEquals("Abort", ex.getMessage());
+    }
+    Assert.assertEquals(2, queued.size());
+    queued.forEach(Runnable::run);
+    Assert.assertEquals(1, validator.pool().getCreatedCount());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testParametersNull() throws SchematronException {
+    Executor executor = Runnable::run;
+    new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch")).batch(executor).parameters(null);
+  }
+
+}
@@ -11,6 +11,8 @@ public final class CompileOptionsTest {
     Assert.assertFalse(CompileOptions.defaults().hasMetadata());
     Assert.assertFalse(CompileOptions.defaults().isStreamable());
     Assert.assertFalse(CompileOptions.defaults().isCompact());
+    Assert.assertFalse(CompileOptions.defaults().isProfile());
+    Assert.assertFalse(CompileOptions.defaults().isXPathEngine());
   }
 
   @Test
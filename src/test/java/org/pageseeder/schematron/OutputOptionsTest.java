@@ -11,6 +11,23 @@ public final class OutputOptionsTest {
     Assert.assertFalse(OutputOptions.defaults().isIndent());
     Assert.assertFalse(OutputOptions.defaults().isOmitXmlDeclaration());
     Assert.assertFalse(OutputOptions.defaults().usePrefixInLocation());
+    Assert.assertEquals(0, OutputOptions.defaults().maxFailures());
+  }
+
+  @Test
+  public void testMaxFailures() {
+    OutputOptions options = OutputOptions.defaults().maxFailures(10);
+    Assert.assertEquals(10, options.maxFailures());
+    Assert.assertEquals(1, options.failFast().maxFailures());
+    Assert.assertEquals(10, options.indent(true).maxFailures());
+    Assert.assertNotEquals(OutputOptions.defaults(), options);
+    Assert.assertEquals(OutputOptions.defaults().maxFailures(10), options);
+    Assert.assertEquals(OutputOptions.defaults().maxFailures(10).hashCode(), options.hashCode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMaxFailuresNegative() {
+    OutputOptions.defaults().maxFailures(-1);
   }
 
   @Test
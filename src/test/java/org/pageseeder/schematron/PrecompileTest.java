@@ -0,0 +1,78 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class PrecompileTest {
+
+  private static final File BOOKS = new File("src/test/resources/xml/books.xml");
+
+  private static final String SCHEMA = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='xslt2'>"
+      + "<sch:include href='rules.sch'/></sch:schema>";
+
+  private static final String RULES = "<sch:pattern xmlns:sch='http://purl.oclc.org/dsdl/schematron'>"
+      + "<sch:rule context='catalog'><sch:assert test='count(book) %s'>Books</sch:assert></sch:rule></sch:pattern>";
+
+  @Test
+  public void testPrecompile() throws Exception {
+    Path schemas = Files.createTempDirectory("schemas");
+    Path target = Files.createTempDirectory("target");
+    try {
+      Files.createDirectories(schemas.resolve("sub"));
+      write(schemas.resolve("main.sch"), SCHEMA);
+      write(schemas.resolve("rules.sch"), String.format(RULES, "= 12"));
+      write(schemas.resolve("sub/main.sch"), SCHEMA);
+      write(schemas.resolve("sub/rules.sch"), String.format(RULES, "&gt; 100"));
+      List<Path> stylesheets = Precompile.precompile(new ValidatorFactory(), schemas, target);
+      // Fragments are not compiled
+      Assert.assertEquals(2, stylesheets.size());
+      Assert.assertTrue(Files.isRegularFile(target.resolve("main.xsl")));
+      Assert.assertTrue(Files.isRegularFile(target.resolve("sub/main.xsl")));
+      Assert.assertFalse(Files.exists(target.resolve("rules.xsl")));
+
+      // Load the stylesheets as resources
+      try (URLClassLoader loader = new URLClassLoader(new URL[]{ target.toUri().toURL() }, null)) {
+        ValidatorFactory factory = new ValidatorFactory();
+        Assert.assertTrue(factory.newValidatorFromResource("main.xsl", loader).validate(BOOKS).isValid());
+        Assert.assertFalse(factory.newValidatorFromResource("sub/main.xsl", loader).validate(BOOKS).isValid());
+      }
+
+      // A compiled package which cannot be loaded falls back to the stylesheet
+      write(target.resolve("main.sef"), "<package xmlns='"+SaxonPackage.NAMESPACE_URI+"'/>");
+      try (URLClassLoader loader = new URLClassLoader(new URL[]{ target.toUri().toURL() }, null)) {
+        ValidatorFactory factory = new ValidatorFactory();
+        Assert.assertTrue(factory.newValidatorFromResource("main.xsl", loader).validate(BOOKS).isValid());
+      }
+    } finally {
+      delete(schemas);
+      delete(target);
+    }
+  }
+
+  @Test(expected = SchematronException.class)
+  public void testMissingResource() throws SchematronException {
+    new ValidatorFactory().newValidatorFromResource("schematron/missing.xsl");
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+}
@@ -0,0 +1,95 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PrecompilerRegistryTest {
+
+  @Test
+  public void testGet() throws SchematronException {
+    // A resolver class of its own so that the precompilers are not shared with other tests
+    TransformerFactory factory = TransformerFactory.newInstance();
+    Assert.assertFalse(PrecompilerRegistry.isReady(factory, GetResolver.class, QueryBinding.XSLT2));
+    Precompiler xslt2 = PrecompilerRegistry.get(factory, GetResolver.class, QueryBinding.XSLT2);
+    Assert.assertTrue(PrecompilerRegistry.isReady(factory, GetResolver.class, QueryBinding.XSLT2));
+    Assert.assertTrue(PrecompilerRegistry.isReady(factory, GetResolver.class, QueryBinding.XSLT3));
+    Assert.assertFalse(PrecompilerRegistry.isReady(factory, GetResolver.class, QueryBinding.XSLT1));
+    Assert.assertSame(xslt2, PrecompilerRegistry.get(factory, GetResolver.class, QueryBinding.XSLT2));
+    Assert.assertSame(xslt2, PrecompilerRegistry.get(factory, GetResolver.class, QueryBinding.XSLT3));
+    Precompiler xslt1 = PrecompilerRegistry.get(factory, GetResolver.class, QueryBinding.XSLT1);
+    Assert.assertNotSame(xslt1, xslt2);
+    Assert.assertSame(xslt1, PrecompilerRegistry.get(factory, GetResolver.class, QueryBinding.DEFAULT));
+  }
+
+  @Test
+  public void testGetConcurrent() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Precompiler>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        Callable<Precompiler> task = () -> {
+          start.await();
+          return PrecompilerRegistry.get(TransformerFactory.newInstance(), ConcurrentResolver.class, QueryBinding.XSLT2);
+        };
+        futures.add(executor.submit(task));
+      }
+      start.countDown();
+      Precompiler first = futures.get(0).get();
+      for (Future<Precompiler> future : futures) {
+        Assert.assertSame(first, future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSharedByFactories() throws SchematronException {
+    TransformerFactory a = TransformerFactory.newInstance();
+    TransformerFactory b = TransformerFactory.newInstance();
+    Assert.assertSame(PrecompilerRegistry.get(a, null, QueryBinding.XSLT2), PrecompilerRegistry.get(b, null, QueryBinding.XSLT2));
+    new ValidatorFactory().precompile(QueryBinding.XSLT2);
+    Assert.assertTrue(PrecompilerRegistry.isReady(b, null, QueryBinding.XSLT2));
+  }
+
+  @Test
+  public void testSeparateResolvers() throws SchematronException {
+    TransformerFactory factory = TransformerFactory.newInstance();
+    Assert.assertNotSame(PrecompilerRegistry.get(factory, null, QueryBinding.XSLT2),
+        PrecompilerRegistry.get(factory, OtherResolver.class, QueryBinding.XSLT2));
+  }
+
+  public static final class GetResolver implements URIResolver {
+    @Override
+    public Source resolve(String href, String base) {
+      return null;
+    }
+  }
+
+  public static final class OtherResolver implements URIResolver {
+    @Override
+    public Source resolve(String href, String base) {
+      return null;
+    }
+  }
+
+  public static final class ConcurrentResolver implements URIResolver {
+    @Override
+    public Source resolve(String href, String base) {
+      return null;
+    }
+  }
+
+}
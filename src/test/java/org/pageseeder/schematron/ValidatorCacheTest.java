@@ -0,0 +1,121 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class ValidatorCacheTest {
+
+  @Test
+  public void testCacheHit() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File schema = new File("src/test/resources/sch/standalone-xslt2.sch");
+    Validator first = factory.newValidator(schema);
+    Validator second = factory.newValidator(schema);
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testCacheKeyPhase() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File schema = new File("src/test/resources/sch/standalone-phase.sch");
+    Validator all = factory.newValidator(schema);
+    Validator authoring = factory.newValidator(schema, "authoring");
+    Assert.assertNotSame(all, authoring);
+    Assert.assertSame(authoring, factory.newValidator(schema, "authoring"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCacheKeyOptions() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    Validator noMetadata = factory.newValidator(schema);
+    Validator metadata = factory.options(CompileOptions.defaults().metadata(true)).newValidator(schema);
+    Assert.assertNotSame(noMetadata, metadata);
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testCacheKeyMetrics() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    MetricsListener a = new MetricsListener() {};
+    MetricsListener b = new MetricsListener() {};
+    Validator first = factory.metrics(a).newValidator(schema);
+    Validator second = factory.metrics(b).newValidator(schema);
+    Assert.assertNotSame(first, second);
+    Assert.assertSame(a, first.metrics());
+    Assert.assertSame(b, second.metrics());
+    Assert.assertSame(first, factory.metrics(a).newValidator(schema));
+    Assert.assertNotSame(first, factory.metrics(a).debug(systemId -> null).newValidator(schema));
+    Assert.assertEquals(3, cache.getMissCount());
+  }
+
+  @Test
+  public void testConcurrentMisses() throws Exception {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Validator>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) futures.add(executor.submit(() -> factory.newValidator(schema)));
+      Validator first = futures.get(0).get();
+      for (Future<Validator> future : futures) Assert.assertSame(first, future.get());
+      Assert.assertEquals(1, cache.getMissCount());
+      Assert.assertEquals(7, cache.getHitCount());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCacheKeyContent() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    String schema = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='xslt2'>"
+        + "<sch:pattern><sch:rule context='/'><sch:assert test='%s'>OK</sch:assert></sch:rule></sch:pattern>"
+        + "</sch:schema>";
+    Validator yes = factory.newValidator(new StreamSource(new StringReader(String.format(schema, "true()")), "test.sch"));
+    Validator no = factory.newValidator(new StreamSource(new StringReader(String.format(schema, "false()")), "test.sch"));
+    Assert.assertNotSame(yes, no);
+    Assert.assertSame(no, factory.newValidator(new StreamSource(new StringReader(String.format(schema, "false()")), "test.sch")));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testCacheEviction() throws SchematronException {
+    ValidatorCache cache = new ValidatorCache(1);
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    factory.newValidator(new File("src/test/resources/sch/standalone-xslt1.sch"));
+    factory.newValidator(new File("src/test/resources/sch/standalone-xslt2.sch"));
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    factory.newValidator(new File("src/test/resources/sch/standalone-xslt1.sch"));
+    Assert.assertEquals(3, cache.getMissCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxSize() {
+    new ValidatorCache(0);
+  }
+
+}
@@ -6,10 +6,24 @@ import org.xml.sax.*;
 import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 public final class ValidatorFactoryTest {
@@ -115,6 +129,26 @@ public final class ValidatorFactoryTest {
     Assert.assertTrue(debugFile.get().length() > 0);
   }
 
+  @Test
+  public void testCompileStreamingSameAsDebug() throws SchematronException {
+    File schema = new File("src/test/resources/sch/namespaces-xslt2.sch");
+    File sample = new File("src/test/resources/xml/namespaces.xml");
+    Validator streaming = new ValidatorFactory().newValidator(schema);
+    Validator debug = new ValidatorFactory().debug((systemId -> new StringWriter())).newValidator(schema);
+    Assert.assertEquals(debug.validate(sample).getSVRLAsString(), streaming.validate(sample).getSVRLAsString());
+  }
+
+  @Test
+  public void testCompileDefaultQueryBinding() throws SchematronException {
+    String schema = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron'>"
+        + "<sch:pattern><sch:rule context='/*'><sch:report test='string-join((\"a\",\"b\"), \"-\")'>X</sch:report></sch:rule></sch:pattern>"
+        + "</sch:schema>";
+    ValidatorFactory factory = new ValidatorFactory(CompileOptions.defaults().defaultQueryBinding("xslt2"));
+    Validator validator = factory.newValidator(new StreamSource(new StringReader(schema)));
+    SchematronResult result = validator.validate(new File("src/test/resources/xml/books.xml"));
+    Assert.assertTrue(result.hasReports());
+  }
+
   @Test(expected = SchematronException.class)
   public void testNoXXEWithExpansion() throws SchematronException {
     StringWriter debug = new StringWriter();
@@ -142,6 +176,76 @@ public final class ValidatorFactoryTest {
     Assert.assertTrue(debug.toString().length() > 0);
   }
 
+  @Test
+  public void testCompileWithStore() throws Exception {
+    File directory = Files.createTempDirectory("schematron-store").toFile();
+    directory.deleteOnExit();
+    AtomicInteger found = new AtomicInteger();
+    StylesheetStore store = new FileStylesheetStore(directory);
+    StylesheetStore counting = new StylesheetStore() {
+      @Override
+      public byte[] get(String key) throws IOException {
+        byte[] stylesheet = store.get(key);
+        if (stylesheet != null) found.incrementAndGet();
+        return stylesheet;
+      }
+      @Override
+      public void put(String key, byte[] stylesheet) throws IOException {
+        store.put(key, stylesheet);
+      }
+    };
+    File schema = new File("src/test/resources/sch/standalone-xslt2.sch");
+    File sample = new File("src/test/resources/xml/books.xml");
+    SchematronResult expected = new ValidatorFactory().store(counting).newValidator(schema).validate(sample);
+    Assert.assertEquals(0, found.get());
+    File[] files = directory.listFiles();
+    Assert.assertNotNull(files);
+    Assert.assertEquals(1, files.length);
+    Assert.assertTrue(files[0].getName().matches("[0-9a-f]{64}\\.xsl"));
+    for (File f : files) f.deleteOnExit();
+
+    // A new factory should reuse the stored stylesheet
+    SchematronResult actual = new ValidatorFactory().store(counting).newValidator(schema).validate(sample);
+    Assert.assertEquals(1, found.get());
+    Assert.assertEquals(expected.getSVRLAsString(), actual.getSVRLAsString());
+
+    // But not for a different phase or compile options
+    new ValidatorFactory().store(counting).newValidator(schema, "#ALL");
+    new ValidatorFactory(CompileOptions.defaults().compact(true)).store(counting).newValidator(schema);
+    Assert.assertEquals(1, found.get());
+    Assert.assertEquals(3, directory.listFiles().length);
+    for (File f : directory.listFiles()) f.deleteOnExit();
+  }
+
+  @Test
+  public void testCompileWithCorruptedStore() throws Exception {
+    List<TransformerException> warnings = new ArrayList<>();
+    StylesheetStore store = new StylesheetStore() {
+      @Override
+      public byte[] get(String key) {
+        return "<xsl:stylesheet".getBytes(StandardCharsets.UTF_8);
+      }
+      @Override
+      public void put(String key, byte[] stylesheet) throws IOException {
+        throw new IOException("Read-only");
+      }
+    };
+    ErrorListener listener = new ErrorListener() {
+      @Override
+      public void warning(TransformerException ex) {
+        warnings.add(ex);
+      }
+      @Override
+      public void error(TransformerException ex) {}
+      @Override
+      public void fatalError(TransformerException ex) {}
+    };
+    File schema = new File("src/test/resources/sch/standalone-xslt2.sch");
+    Validator validator = new ValidatorFactory().errorListener(listener).store(store).newValidator(schema);
+    Assert.assertNotNull(validator);
+    Assert.assertEquals(2, warnings.size());
+  }
+
   private static List<String> validateSchematron(InputSource source) throws IOException {
     List<String> errors = new ArrayList<>();
     try {
@@ -176,4 +280,353 @@ public final class ValidatorFactoryTest {
     return errors;
   }
 
+  @Test
+  public void testCompileAsync() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletableFuture<Validator> future = factory.newValidatorAsync(schema, executor);
+      Validator validator = future.get();
+      Assert.assertNotNull(validator);
+      Assert.assertTrue(future.isDone());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCompileAsyncError() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/standalone-invalid.sch");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CompletableFuture<Validator> future = factory.newValidatorAsync(schema, executor);
+      future.get();
+      Assert.fail("Expected compilation to fail");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof SchematronException);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCompileStreamable() throws Exception {
+    List<String> warnings = new ArrayList<>();
+    ValidatorFactory factory = new ValidatorFactory()
+        .options(CompileOptions.defaults().streamable(true))
+        .errorListener(newWarningCollector(warnings));
+    File schema = new File("src/test/resources/sch/streamable-xslt3.sch");
+    Validator validator = factory.newValidator(schema);
+    SchematronResult result = validator.validate(new File("src/test/resources/xml/books.xml"));
+    Assert.assertTrue(result.isValid());
+    // Saxon-HE does not support streaming
+    Assert.assertTrue(warnings.get(0).contains("Saxon-HE"));
+    Assert.assertEquals(4, warnings.size());
+    Assert.assertTrue(warnings.get(1).contains("'following-sibling' axis"));
+    Assert.assertTrue(warnings.get(2).contains("not motionless [author]"));
+    Assert.assertTrue(warnings.get(3).contains("'last()' function"));
+  }
+
+  @Test
+  public void testCompileStreamableRequiresXSLT3() throws Exception {
+    List<String> warnings = new ArrayList<>();
+    ValidatorFactory factory = new ValidatorFactory()
+        .options(CompileOptions.defaults().streamable(true))
+        .errorListener(newWarningCollector(warnings));
+    factory.newValidator(new File("src/test/resources/sch/standalone-xslt2.sch"));
+    Assert.assertEquals(1, warnings.size());
+    Assert.assertTrue(warnings.get(0).contains("'xslt3' query binding"));
+  }
+
+  @Test
+  public void testStreamabilityCheck() {
+    Assert.assertTrue(Streamability.checkPattern("book[@id = 'x']").isEmpty());
+    Assert.assertTrue(Streamability.checkPattern("book[not(@id)]").isEmpty());
+    Assert.assertTrue(Streamability.checkPattern("book[1]").isEmpty());
+    Assert.assertFalse(Streamability.checkPattern("book[title = 'x']").isEmpty());
+    Assert.assertFalse(Streamability.checkPattern("book[.='x']").isEmpty());
+    Assert.assertTrue(Streamability.checkExpression("count(author) > 0 and @id != ''").isEmpty());
+    Assert.assertTrue(Streamability.checkExpression("'/following::x'").isEmpty());
+    Assert.assertFalse(Streamability.checkExpression("preceding::book").isEmpty());
+    Assert.assertFalse(Streamability.checkExpression("@id = /catalog/@id").isEmpty());
+    Assert.assertFalse(Streamability.checkExpression("key('k', @id)").isEmpty());
+  }
+
+  @Test
+  public void testPrecompile() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    factory.precompile(QueryBinding.XSLT2);
+    factory.precompile();
+    Validator validator = factory.options(CompileOptions.defaults().metadata(true))
+        .newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    Assert.assertTrue(validator.validate(new File("src/test/resources/xml/books.xml")).isValid());
+  }
+
+  @Test
+  public void testWarmUp() throws SchematronException {
+    WarmUpReport report = new ValidatorFactory().warmUp();
+    Assert.assertTrue(report.getValidators().isEmpty());
+    Assert.assertTrue(report.getTotalTime(TimeUnit.NANOSECONDS) > 0);
+    Assert.assertEquals(report.getTotalTime(TimeUnit.NANOSECONDS), report.getPrecompileTime(TimeUnit.NANOSECONDS)
+        + report.getCompileTime(TimeUnit.NANOSECONDS) + report.getValidationTime(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void testWarmUpSchemas() throws Exception {
+    ValidatorCache cache = new ValidatorCache(10);
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    List<File> schemas = Arrays.asList(new File("src/test/resources/sch/basic-xslt2.sch"),
+        new File("src/test/resources/sch/standalone-xslt1.sch"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      WarmUpReport report = factory.warmUp(schemas, executor);
+      Assert.assertEquals(2, report.getValidators().size());
+      Assert.assertEquals(2, cache.size());
+      Assert.assertSame(report.getValidators().get(0), factory.newValidator(schemas.get(0)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = SchematronException.class)
+  public void testWarmUpInvalidSchema() throws Exception {
+    List<File> schemas = Collections.singletonList(new File("src/test/resources/sch/standalone-invalid.sch"));
+    new ValidatorFactory().warmUp(schemas, Runnable::run);
+  }
+
+  @Test
+  public void testCompileWithFragmentCache() throws Exception {
+    File dir = Files.createTempDirectory("fragments").toFile();
+    File main = writeIncludingSchema(dir, "&gt; 100");
+    FragmentCache fragments = new FragmentCache();
+    ValidatorFactory factory = new ValidatorFactory().fragments(fragments);
+    File books = new File("src/test/resources/xml/books.xml");
+    try {
+      Assert.assertFalse(factory.newValidator(main).validate(books).isValid());
+      Assert.assertEquals(1, fragments.getMissCount());
+      Assert.assertEquals(0, fragments.getHitCount());
+      Assert.assertFalse(factory.newValidator(main).validate(books).isValid());
+      Assert.assertEquals(1, fragments.getMissCount());
+      Assert.assertEquals(1, fragments.getHitCount());
+      writeIncludingSchema(dir, "&gt; 0");
+      Assert.assertTrue(factory.newValidator(main).validate(books).isValid());
+      Assert.assertEquals(2, fragments.getMissCount());
+      Assert.assertEquals(1, fragments.size());
+    } finally {
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testCacheWithIncludes() throws Exception {
+    File dir = Files.createTempDirectory("fragments").toFile();
+    File main = writeIncludingSchema(dir, "&gt; 100");
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File books = new File("src/test/resources/xml/books.xml");
+    try {
+      Validator first = factory.newValidator(main);
+      Assert.assertSame(first, factory.newValidator(main));
+      Assert.assertFalse(first.validate(books).isValid());
+      // Only the included file changes
+      writeIncludingSchema(dir, "&gt; 0");
+      Validator second = factory.newValidator(main);
+      Assert.assertNotSame(first, second);
+      Assert.assertTrue(second.validate(books).isValid());
+    } finally {
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testCacheWithIncludeSameSizeAndTime() throws Exception {
+    File dir = Files.createTempDirectory("fragments").toFile();
+    File main = writeIncludingSchema(dir, "&gt; 100");
+    File rules = new File(dir, "rules.sch");
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorFactory factory = new ValidatorFactory().cache(cache);
+    File books = new File("src/test/resources/xml/books.xml");
+    try {
+      long modified = rules.lastModified();
+      Validator first = factory.newValidator(main);
+      Assert.assertFalse(first.validate(books).isValid());
+      // Same size and last modified time, different content
+      writeIncludingSchema(dir, "&gt; 000");
+      Assert.assertTrue(rules.setLastModified(modified));
+      Validator second = factory.newValidator(main);
+      Assert.assertNotSame(first, second);
+      Assert.assertTrue(second.validate(books).isValid());
+      Assert.assertEquals(2, cache.dependencies().size());
+      cache.clear();
+      Assert.assertEquals(0, cache.dependencies().size());
+    } finally {
+      for (File f : dir.listFiles()) f.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testExportAndImport() throws Exception {
+    File schema = new File("src/test/resources/sch/standalone-xslt2.sch");
+    File books = new File("src/test/resources/xml/books.xml");
+    ValidatorFactory factory = new ValidatorFactory();
+    Validator validator = factory.newValidator(schema).options(OutputOptions.defaults().indent(true));
+    byte[] export = validator.export();
+    // Saxon-HE cannot export packages so the generated stylesheet is exported instead
+    Assert.assertFalse(SaxonPackage.isPackage(export));
+    Validator imported = factory.newValidatorFromExport(new ByteArrayInputStream(export), "export.xsl");
+    Assert.assertEquals(validator.validate(books).isValid(), imported.validate(books).isValid());
+    Assert.assertArrayEquals(export, imported.export());
+  }
+
+  @Test
+  public void testExportWithoutSchemaInMemory() throws Exception {
+    File schema = new File("src/test/resources/sch/standalone-xslt2.sch");
+    ValidatorFactory factory = new ValidatorFactory();
+    // Read again from the file or taken from the buffered stream
+    byte[] fromFile = factory.newValidator(schema).export();
+    byte[] fromStream = factory.newValidator(new StreamSource(new ByteArrayInputStream(Files.readAllBytes(schema.toPath())))).export();
+    File books = new File("src/test/resources/xml/books.xml");
+    for (byte[] export : Arrays.asList(fromFile, fromStream)) {
+      Validator imported = factory.newValidatorFromExport(new ByteArrayInputStream(export), "export.xsl");
+      Assert.assertEquals(factory.newValidator(schema).validate(books).getAssertsCount(), imported.validate(books).getAssertsCount());
+    }
+    // Taken from the store
+    Map<String, byte[]> stored = new HashMap<>();
+    StylesheetStore store = new StylesheetStore() {
+      @Override
+      public byte[] get(String key) {
+        return stored.get(key);
+      }
+      @Override
+      public void put(String key, byte[] stylesheet) {
+        stored.put(key, stylesheet);
+      }
+    };
+    Validator validator = factory.store(store).newValidator(schema);
+    Assert.assertEquals(1, stored.size());
+    Assert.assertArrayEquals(stored.values().iterator().next(), validator.export());
+  }
+
+  @Test
+  public void testIsPackage() throws Exception {
+    String sef = "<package xmlns='"+SaxonPackage.NAMESPACE_URI+"'><co/></package>";
+    String xslt = "<xsl:stylesheet xmlns:xsl='http://www.w3.org/1999/XSL/Transform' version='2.0'/>";
+    Assert.assertTrue(SaxonPackage.isPackage(sef.getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(SaxonPackage.isPackage(xslt.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test(expected = SchematronException.class)
+  public void testImportInvalidExport() throws Exception {
+    new ValidatorFactory().newValidatorFromExport(new ByteArrayInputStream("<oops".getBytes(StandardCharsets.UTF_8)), null);
+  }
+
+  @Test
+  public void testProfile() throws SchematronException {
+    File schema = new File("src/test/resources/sch/namespaces-xslt2.sch");
+    File xml = new File("src/test/resources/xml/namespaces.xml");
+    SchematronResult expected = new ValidatorFactory().newValidator(schema).validate(xml);
+    Assert.assertNull(expected.getProfile());
+
+    ValidatorFactory factory = new ValidatorFactory().options(CompileOptions.defaults().profile(true));
+    SchematronResult result = factory.newValidator(schema).validate(xml);
+    Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+    ValidationProfile profile = result.getProfile();
+    Assert.assertNotNull(profile);
+    Assert.assertEquals(1, profile.getRules().size());
+    ValidationProfile.Rule rule = profile.getRules().get(0);
+    Assert.assertEquals("Prices", rule.getPattern());
+    Assert.assertEquals("lib:book", rule.getContext());
+    Assert.assertEquals(12, rule.getMatches());
+    Assert.assertEquals(1, profile.getPatterns().size());
+    Assert.assertEquals(12, profile.getPatterns().get(0).getMatches());
+  }
+
+  @Test
+  public void testMetrics() throws SchematronException {
+    File schema = new File("src/test/resources/sch/namespaces-xslt2.sch");
+    File xml = new File("src/test/resources/xml/namespaces.xml");
+    List<String> events = Collections.synchronizedList(new ArrayList<>());
+    AtomicReference<long[]> validated = new AtomicReference<>();
+    MetricsListener metrics = new MetricsListener() {
+      @Override
+      public void onSchemaLoaded(String systemId, int size, long nanos) {
+        events.add("load:"+(size == schema.length()));
+      }
+      @Override
+      public void onCompileStep(String systemId, String step, long nanos) {
+        events.add("step:"+step);
+      }
+      @Override
+      public void onTemplatesCreated(String systemId, long nanos) {
+        events.add("templates");
+      }
+      @Override
+      public void onTransformerCreated(long nanos) {
+        events.add("transformer");
+      }
+      @Override
+      public void onValidated(String systemId, long nanos, long svrlLength, int asserts, int reports) {
+        events.add("validated");
+        validated.set(new long[]{svrlLength, asserts, reports});
+      }
+    };
+    ValidatorFactory factory = new ValidatorFactory().metrics(metrics);
+    Assert.assertSame(metrics, factory.metrics());
+    Validator validator = factory.newValidator(schema);
+    Assert.assertSame(metrics, validator.metrics());
+    SchematronResult result = validator.validate(xml);
+    Assert.assertEquals(Arrays.asList("load:true", "step:include.xsl", "step:expand.xsl", "step:compile-for-svrl.xsl",
+        "templates", "transformer", "validated"), events);
+    Assert.assertEquals(result.getSVRLAsString().length(), validated.get()[0]);
+    Assert.assertEquals(result.getAssertsCount(), validated.get()[1]);
+    Assert.assertEquals(result.getReportsCount(), validated.get()[2]);
+
+    // Same results as without metrics
+    SchematronResult expected = new ValidatorFactory().newValidator(schema).validate(xml);
+    Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+    Assert.assertSame(MetricsListener.NONE, validator.metrics(MetricsListener.NONE).metrics());
+  }
+
+  @Test
+  public void testProfileXSLT1() throws SchematronException {
+    File schema = new File("src/test/resources/sch/standalone-xslt1.sch");
+    File xml = new File("src/test/resources/xml/books.xml");
+    ValidatorFactory factory = new ValidatorFactory().options(CompileOptions.defaults().profile(true));
+    SchematronResult result = factory.newValidator(schema).validate(xml);
+    Assert.assertEquals(1, result.getReportsCount());
+    ValidationProfile profile = result.getProfile();
+    Assert.assertEquals(1, profile.getRules().size());
+    Assert.assertEquals("/", profile.getRules().get(0).getContext());
+    Assert.assertEquals(1, profile.getRules().get(0).getMatches());
+  }
+
+  private static File writeIncludingSchema(File dir, String condition) throws IOException {
+    File main = new File(dir, "main.sch");
+    String schema = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='xslt2'>"
+        + "<sch:include href='rules.sch'/></sch:schema>";
+    String rules = "<sch:pattern xmlns:sch='http://purl.oclc.org/dsdl/schematron'>"
+        + "<sch:rule context='catalog'><sch:assert test='count(book) "+condition+"'>Books</sch:assert></sch:rule></sch:pattern>";
+    Files.write(main.toPath(), schema.getBytes(StandardCharsets.UTF_8));
+    Files.write(new File(dir, "rules.sch").toPath(), rules.getBytes(StandardCharsets.UTF_8));
+    return main;
+  }
+
+  private static ErrorListener newWarningCollector(List<String> warnings) {
+    return new ErrorListener() {
+      @Override
+      public void warning(TransformerException ex) {
+        warnings.add(ex.getMessage());
+      }
+      @Override
+      public void error(TransformerException ex) {}
+      @Override
+      public void fatalError(TransformerException ex) {}
+    };
+  }
+
 }
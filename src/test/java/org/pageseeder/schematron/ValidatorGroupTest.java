@@ -0,0 +1,73 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ValidatorGroupTest {
+
+  private static final File BOOKS = new File("src/test/resources/xml/books.xml");
+
+  @Test
+  public void testValidate() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    Validator basic = factory.newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    Validator failures = factory.newValidator(new File("src/test/resources/sch/failures-xslt2.sch"));
+    ValidatorGroup group = new ValidatorGroup(basic, failures);
+    List<SchematronResult> results = group.validate(BOOKS);
+    Assert.assertEquals(2, results.size());
+    Assert.assertTrue(results.get(0).isValid());
+    Assert.assertFalse(results.get(1).isValid());
+    Assert.assertEquals(failures.validate(BOOKS).getSVRLAsString(), results.get(1).getSVRLAsString());
+    Assert.assertEquals(12, results.get(1).getAssertsCount());
+  }
+
+  @Test
+  public void testValidateDifferentFactories() throws SchematronException {
+    Validator basic = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    Validator failures = new ValidatorFactory().newValidator(new File("src/test/resources/sch/failures-xslt2.sch"));
+    List<SchematronResult> results = new ValidatorGroup(basic, failures, basic).validate(BOOKS);
+    Assert.assertEquals(3, results.size());
+    Assert.assertTrue(results.get(0).isValid());
+    Assert.assertFalse(results.get(1).isValid());
+    Assert.assertTrue(results.get(2).isValid());
+  }
+
+  @Test
+  public void testValidateAsync() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    Validator basic = factory.newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    Validator failures = factory.newValidator(new File("src/test/resources/sch/failures-xslt2.sch"));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<SchematronResult> results = new ValidatorGroup(basic, failures, basic, failures).validateAsync(BOOKS, executor).get();
+      Assert.assertEquals(4, results.size());
+      Assert.assertTrue(results.get(0).isValid());
+      Assert.assertFalse(results.get(1).isValid());
+      Assert.assertTrue(results.get(2).isValid());
+      Assert.assertEquals(results.get(1).getSVRLAsString(), results.get(3).getSVRLAsString());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateAsyncError() throws Exception {
+    Validator basic = new ValidatorFactory().newValidator(new File("src/test/resources/sch/basic-xslt2.sch"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      new ValidatorGroup(basic).validateAsync(new File("src/test/resources/xml/xml_bomb.xml"), executor).get();
+      Assert.fail("Expected parsing to fail");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof SchematronException);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public final class ValidatorMonitorTest {
+
+  private static final File SCHEMA = new File("src/test/resources/sch/namespaces-xslt2.sch");
+
+  private static final File XML = new File("src/test/resources/xml/namespaces.xml");
+
+  @Test
+  public void testStatistics() throws Exception {
+    ValidatorCache cache = new ValidatorCache();
+    ValidatorMonitor monitor = new ValidatorMonitor("test", cache, null);
+    ValidatorFactory factory = new ValidatorFactory().cache(cache).metrics(monitor);
+    Validator validator = factory.newValidator(SCHEMA).pool(2);
+    for (int i = 0; i < 5; i++) validator.validate(XML);
+    factory.newValidator(SCHEMA);
+
+    Assert.assertEquals(1, monitor.getValidatorCount());
+    Assert.assertEquals(1, monitor.getTemplatesCount());
+    Assert.assertEquals(1, monitor.getTransformerCount());
+    Assert.assertEquals(1, monitor.getPooledInstanceCount());
+    Assert.assertEquals(0, monitor.getActiveInstanceCount());
+    Assert.assertEquals(5, monitor.getValidationCount());
+    Assert.assertEquals(0, monitor.getValidationErrorCount());
+    Assert.assertEquals(1, monitor.getCacheSize());
+    Assert.assertEquals(0.5, monitor.getCacheHitRatio(), 0.001);
+    Assert.assertEquals(-1, monitor.getFragmentCacheHitRatio(), 0.001);
+
+    List<SchemaStatistics> statistics = monitor.getSchemaStatistics();
+    Assert.assertEquals(1, statistics.size());
+    SchemaStatistics schema = statistics.get(0);
+    Assert.assertEquals(SCHEMA.toURI().toString(), schema.getSchema());
+    Assert.assertEquals(5, schema.getValidationCount());
+    Assert.assertTrue(schema.getMeanMillis() > 0);
+    Assert.assertTrue(schema.getP50Millis() <= schema.getP99Millis());
+    Assert.assertTrue(schema.getP99Millis() <= schema.getMaxMillis());
+
+    Assert.assertEquals(1, monitor.evict(SCHEMA.toURI().toString()));
+    Assert.assertEquals(0, monitor.getCacheSize());
+    monitor.clearCaches();
+    Assert.assertEquals(0, monitor.getPooledInstanceCount());
+
+    // Validators keep reporting to their schema after a reset
+    monitor.resetStatistics();
+    Assert.assertEquals(0, monitor.getValidationCount());
+    validator.validate(XML);
+    Assert.assertEquals(1, monitor.getSchemaStatistics().get(0).getValidationCount());
+  }
+
+  @Test
+  public void testStatisticsWithoutSchema() throws Exception {
+    ValidatorMonitor monitor = new ValidatorMonitor("unknown-test");
+    Validator validator = new ValidatorFactory().newValidator(SCHEMA).metrics(monitor);
+    String xml = new String(Files.readAllBytes(XML.toPath()), StandardCharsets.UTF_8);
+    int documents = 5;
+    for (int i = 0; i < documents; i++) {
+      validator.validate(new StreamSource(new StringReader(xml), "document-"+i+".xml"));
+    }
+    monitor.onValidationError("other.xml", 1_000_000, new SchematronException("Failed"));
+    Assert.assertEquals(documents, monitor.getValidationCount());
+    Assert.assertEquals(1, monitor.getValidationErrorCount());
+    // Document system IDs must not create schema entries
+    List<SchemaStatistics> statistics = monitor.getSchemaStatistics();
+    Assert.assertEquals(1, statistics.size());
+    Assert.assertEquals("unknown", statistics.get(0).getSchema());
+    Assert.assertEquals(documents, statistics.get(0).getValidationCount());
+    Assert.assertEquals(1, statistics.get(0).getErrorCount());
+  }
+
+  @Test
+  public void testRegister() throws Exception {
+    ValidatorMonitor monitor = new ValidatorMonitor("register-test");
+    ObjectName name = monitor.register();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      Validator validator = new ValidatorFactory().metrics(monitor).newValidator(SCHEMA);
+      validator.validate(XML);
+      Assert.assertEquals(1L, server.getAttribute(name, "ValidationCount"));
+      CompositeData[] statistics = (CompositeData[]) server.getAttribute(name, "SchemaStatistics");
+      Assert.assertEquals(1, statistics.length);
+      Assert.assertEquals(1L, statistics[0].get("validationCount"));
+      Assert.assertEquals(0, server.invoke(name, "evict", new Object[]{"missing.sch"}, new String[]{String.class.getName()}));
+
+      // Proxies reconstruct the statistics
+      ValidatorMonitorMXBean proxy = JMX.newMXBeanProxy(server, name, ValidatorMonitorMXBean.class);
+      Assert.assertEquals(1, proxy.getSchemaStatistics().get(0).getValidationCount());
+    } finally {
+      monitor.unregister();
+    }
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+}
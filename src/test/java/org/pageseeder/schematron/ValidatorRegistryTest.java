@@ -0,0 +1,100 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+public class ValidatorRegistryTest {
+
+  private static final File BOOKS = new File("src/test/resources/xml/books.xml");
+
+  private static final String SCHEMA = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='xslt2'>"
+      + "<sch:include href='rules.sch'/></sch:schema>";
+
+  private static final String RULES = "<sch:pattern xmlns:sch='http://purl.oclc.org/dsdl/schematron'>"
+      + "<sch:rule context='catalog'><sch:assert test='count(book) %s'>Books</sch:assert></sch:rule></sch:pattern>";
+
+  @Test
+  public void testWatch() throws Exception {
+    Path dir = Files.createTempDirectory("registry");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (ValidatorRegistry registry = new ValidatorRegistry(new ValidatorFactory(), executor)) {
+      Path main = write(dir.resolve("main.sch"), SCHEMA);
+      Path rules = write(dir.resolve("rules.sch"), String.format(RULES, "&gt; 100"));
+      registry.watch(dir);
+      Assert.assertEquals(1, registry.getValidators().size());
+      Assert.assertNull(registry.get(rules));
+      Validator initial = registry.get(main);
+      Assert.assertFalse(initial.validate(BOOKS).isValid());
+
+      // Change the included file
+      write(rules, String.format(RULES, "&gt; 0"));
+      Assert.assertTrue(waitFor(() -> registry.get(main) != initial));
+      Assert.assertTrue(registry.get(main).validate(BOOKS).isValid());
+      Assert.assertFalse(initial.validate(BOOKS).isValid());
+      Assert.assertTrue(registry.getReloadCount() >= 1);
+
+      // Add and remove a schema
+      Path other = write(dir.resolve("other.sch"), SCHEMA);
+      Assert.assertTrue(waitFor(() -> registry.get(other) != null));
+      Files.delete(other);
+      Assert.assertTrue(waitFor(() -> registry.get(other) == null));
+    } finally {
+      executor.shutdown();
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testInvalidSchemaKeepsPrevious() throws Exception {
+    Path dir = Files.createTempDirectory("registry");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (ValidatorRegistry registry = new ValidatorRegistry(new ValidatorFactory(), executor)) {
+      Path main = write(dir.resolve("main.sch"), SCHEMA);
+      Path rules = write(dir.resolve("rules.sch"), String.format(RULES, "&gt; 0"));
+      registry.watch(dir);
+      Validator initial = registry.get(main);
+      Assert.assertNotNull(initial);
+      // The invalid version must not replace the current validator
+      write(rules, String.format(RULES, "&gt; 0 +"));
+      Thread.sleep(500);
+      Assert.assertSame(initial, registry.get(main));
+      write(rules, String.format(RULES, "= 12"));
+      Assert.assertTrue(waitFor(() -> registry.get(main) != initial));
+      Assert.assertTrue(registry.get(main).validate(BOOKS).isValid());
+    } finally {
+      executor.shutdown();
+      delete(dir);
+    }
+  }
+
+  private static Path write(Path file, String content) throws IOException {
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 20_000;
+    while (System.currentTimeMillis() < deadline) {
+      if (condition.getAsBoolean()) return true;
+      Thread.sleep(50);
+    }
+    return false;
+  }
+
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+}
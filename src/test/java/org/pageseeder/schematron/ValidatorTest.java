@@ -3,18 +3,31 @@ package org.pageseeder.schematron;
 import org.junit.Assert;
 import org.junit.Test;
 import org.pageseeder.schematron.svrl.AssertOrReport;
+import org.pageseeder.schematron.svrl.FiredRule;
+import org.pageseeder.schematron.svrl.SVRLParser;
 import org.pageseeder.schematron.svrl.SchematronOutput;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class ValidatorTest {
 
@@ -267,6 +280,289 @@ public class ValidatorTest {
     SchematronResult result = validator.validate(sample);
   }
 
+  @Test
+  public void testValidatePool() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    Validator validator = factory.newValidator(schema).pool(2);
+    File sample = new File("src/test/resources/xml/books.xml");
+    InstancePool pool = validator.pool();
+    Assert.assertNotNull(pool);
+    Assert.assertEquals(2, pool.getMaxSize());
+    for (int i=0; i < 10; i++) {
+      Assert.assertNotNull(validator.validate(sample));
+    }
+    Assert.assertEquals(1, pool.getCreatedCount());
+    Assert.assertEquals(1, pool.getIdleCount());
+    Assert.assertEquals(0, pool.getActiveCount());
+
+    // Borrow more instances than the pool can lend
+    Validator.Instance a = pool.borrow();
+    Validator.Instance b = pool.borrow();
+    Assert.assertEquals(2, pool.getActiveCount());
+    try {
+      pool.borrow(10, TimeUnit.MILLISECONDS);
+      Assert.fail("The pool should not lend more than 2 instances");
+    } catch (SchematronException ex) {
+      Assert.assertEquals(2, pool.getActiveCount());
+    }
+    a.close();
+    Validator.Instance c = pool.borrow(10, TimeUnit.MILLISECONDS);
+    Assert.assertSame(a, c);
+    b.close();
+    c.close();
+    Assert.assertEquals(2, pool.getIdleCount());
+    Assert.assertEquals(2, pool.getCreatedCount());
+    Assert.assertEquals(0, pool.getEvictedCount());
+    pool.clear();
+    Assert.assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void testValidatePoolResetParameters() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/params-xslt2.sch");
+    Validator validator = factory.newValidator(schema).pool(1);
+    File sample = new File("src/test/resources/xml/books.xml");
+    SchematronResult result = validator.validate(sample, Collections.singletonMap("gotit", "Yes!!"));
+    Assert.assertTrue(result.toSchematronOutput().getSuccessfulReports().get(0).toMessageString().contains("Yes!!"));
+    result = validator.validate(sample);
+    Assert.assertTrue(result.toSchematronOutput().getSuccessfulReports().get(0).toMessageString().contains("Nope."));
+    Assert.assertEquals(1, validator.pool().getCreatedCount());
+  }
+
+  @Test
+  public void testValidatePoolIdleTimeout() throws SchematronException, InterruptedException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    Validator validator = factory.newValidator(schema).pool(2, 10, TimeUnit.MILLISECONDS);
+    File sample = new File("src/test/resources/xml/books.xml");
+    validator.validate(sample);
+    Thread.sleep(50);
+    validator.validate(sample);
+    Assert.assertEquals(2, validator.pool().getCreatedCount());
+    Assert.assertEquals(1, validator.pool().getEvictedCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testValidatePoolReleaseTwice() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    InstancePool pool = factory.newValidator(schema).pool(1).pool();
+    Validator.Instance instance = pool.borrow();
+    pool.release(instance);
+    pool.release(instance);
+  }
+
+  @Test
+  public void testValidatePoolConcurrent() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    Validator validator = factory.newValidator(schema).pool(4);
+    File sample = new File("src/test/resources/xml/books.xml");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<SchematronResult>> futures = new ArrayList<>();
+      for (int i=0; i < 200; i++) {
+        futures.add(executor.submit(() -> validator.validate(sample)));
+      }
+      for (Future<SchematronResult> future : futures) {
+        Assert.assertNotNull(future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    InstancePool pool = validator.pool();
+    Assert.assertEquals(0, pool.getActiveCount());
+    Assert.assertTrue(pool.getIdleCount() <= 4);
+    Assert.assertEquals(pool.getCreatedCount(), pool.getIdleCount() + pool.getEvictedCount());
+  }
+
+  @Test
+  public void testValidateAsync() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/params-xslt2.sch");
+    File sample = new File("src/test/resources/xml/books.xml");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      CompletableFuture<SchematronResult> future = factory.newValidatorAsync(schema, executor)
+          .thenCompose(validator -> validator.validateAsync(new StreamSource(sample), Collections.singletonMap("gotit", "Yes!!"), executor));
+      SchematronResult result = future.get();
+      Assert.assertTrue(result.toSchematronOutput().getSuccessfulReports().get(0).toMessageString().contains("Yes!!"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateAsyncError() throws Exception {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/basic-xslt2.sch");
+    Validator validator = factory.newValidator(schema);
+    File sample = new File("src/test/resources/xml/xml_bomb.xml");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      validator.validateAsync(sample, executor).get();
+      Assert.fail("Expected validation to fail");
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof ValidationException);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testValidateToModel() throws SchematronException, IOException {
+    ValidatorFactory factory = new ValidatorFactory(CompileOptions.defaults().metadata(true));
+    String[][] cases = {
+        {"src/test/resources/sch/basic-xslt2.sch", "src/test/resources/xml/books.xml"},
+        {"src/test/resources/sch/namespaces-xslt2.sch", "src/test/resources/xml/namespaces.xml"},
+        {"src/test/resources/sch/params-xslt2.sch", "src/test/resources/xml/books.xml"}
+    };
+    OutputOptions options = OutputOptions.defaults().usePrefixInLocation(true);
+    for (String[] c : cases) {
+      Validator validator = factory.newValidator(new File(c[0])).options(options);
+      File sample = new File(c[1]);
+      SchematronResult parsed = validator.validate(sample);
+      SchematronResult direct = validator.validateToModel(new StreamSource(sample), Collections.emptyMap());
+      Assert.assertEquals(parsed.isValid(), direct.isValid());
+      Assert.assertEquals(parsed.getFailedMessage(), direct.getFailedMessage());
+      SchematronOutput expected = parsed.toSchematronOutput();
+      SchematronOutput actual = direct.toSchematronOutput();
+      Assert.assertSame(actual, direct.toSchematronOutput());
+      Assert.assertEquals(expected.toXML(), actual.toXML());
+      // Serialized on demand and can be parsed again
+      Assert.assertEquals(expected.toXML(), SVRLParser.parse(direct.getSVRLReader()).toXML());
+    }
+  }
+
+  @Test
+  public void testValidateToModelEncoding() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    Validator validator = factory.newValidator(new File("src/test/resources/sch/basic-xslt2.sch"))
+        .options(OutputOptions.defaults().encoding("UTF-16"));
+    SchematronResult result = validator.validateToModel(new StreamSource(new File("src/test/resources/xml/books.xml")), null);
+    String svrl = result.getSVRLAsString();
+    Assert.assertTrue(svrl.startsWith("<?xml version=\"1.0\" encoding=\"UTF-16\""));
+    Assert.assertEquals(svrl, new String(result.getSVRLAsBytes(), StandardCharsets.UTF_16));
+  }
+
+  @Test
+  public void testValidateCountsOnly() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/namespaces-xslt2.sch");
+    Validator validator = factory.newValidator(schema);
+    File sample = new File("src/test/resources/xml/namespaces.xml");
+    SchematronResult full = validator.validate(sample);
+    SchematronResult counts = validator.validateCountsOnly(new StreamSource(sample), Collections.emptyMap());
+    Assert.assertTrue(full.hasSVRL());
+    Assert.assertFalse(counts.hasSVRL());
+    Assert.assertEquals(full.isValid(), counts.isValid());
+    Assert.assertEquals(full.getAssertsCount(), counts.getAssertsCount());
+    Assert.assertEquals(full.getReportsCount(), counts.getReportsCount());
+    Assert.assertTrue(counts.hasAsserts());
+    Assert.assertTrue(counts.hasReports());
+    Assert.assertEquals(counts.getAssertsCount()+" failed assertions", counts.getFailedMessage());
+    try {
+      counts.getSVRLAsString();
+      Assert.fail("SVRL should not be available");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testValidateMaxFailures() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/failures-xslt2.sch");
+    Validator validator = factory.newValidator(schema);
+    File sample = new File("src/test/resources/xml/books.xml");
+    SchematronResult all = validator.validate(sample);
+    Assert.assertFalse(all.isTruncated());
+    Assert.assertEquals(12, all.getAssertsCount());
+
+    SchematronResult limited = validator.options(OutputOptions.defaults().maxFailures(5).indent(true)).validate(sample);
+    Assert.assertTrue(limited.isTruncated());
+    Assert.assertFalse(limited.isValid());
+    Assert.assertEquals(5, limited.getAssertsCount());
+    SchematronOutput output = limited.toSchematronOutput();
+    Assert.assertEquals(5, output.getFailedAsserts().size());
+    Assert.assertTrue(limited.getSVRLAsString().trim().endsWith("</svrl:schematron-output>"));
+
+    // Limit not reached
+    SchematronResult notReached = validator.options(OutputOptions.defaults().maxFailures(20)).validate(sample);
+    Assert.assertFalse(notReached.isTruncated());
+    Assert.assertEquals(12, notReached.getAssertsCount());
+  }
+
+  @Test
+  public void testValidateFailFast() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/failures-xslt2.sch");
+    Validator validator = factory.newValidator(schema).options(OutputOptions.defaults().failFast());
+    Source sample = new StreamSource(new File("src/test/resources/xml/books.xml"));
+    Validator.Instance instance = validator.newInstance();
+    SchematronResult counts = instance.validateCountsOnly(sample, null);
+    Assert.assertTrue(counts.isTruncated());
+    Assert.assertEquals(1, counts.getAssertsCount());
+    SchematronResult model = instance.validateToModel(new StreamSource(new File("src/test/resources/xml/books.xml")), null);
+    Assert.assertTrue(model.isTruncated());
+    Assert.assertEquals(1, model.toSchematronOutput().getFailedAsserts().size());
+    // The instance can be reused after a truncated result
+    SchematronResult full = instance.validate(new File("src/test/resources/xml/books.xml"));
+    Assert.assertTrue(full.isTruncated());
+  }
+
+  @Test
+  public void testValidateToListener() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/failures-xslt2.sch");
+    Validator validator = factory.newValidator(schema);
+    Source sample = new StreamSource(new File("src/test/resources/xml/books.xml"));
+    List<String> events = new ArrayList<>();
+    SchematronResult result = validator.validateToListener(sample, Collections.emptyMap(), new AssertionListener() {
+      @Override
+      public void onFailedAssert(AssertOrReport failedAssert) {
+        events.add("assert:"+failedAssert.toMessageString().trim());
+      }
+      @Override
+      public void onSuccessfulReport(AssertOrReport successfulReport) {
+        events.add("report:"+successfulReport.toMessageString().trim());
+      }
+      @Override
+      public void onFiredRule(FiredRule rule) {
+        events.add("rule:"+rule.getContext());
+      }
+    });
+    Assert.assertFalse(result.hasSVRL());
+    Assert.assertEquals(12, result.getAssertsCount());
+    Assert.assertEquals(12, result.getReportsCount());
+    Assert.assertEquals(36, events.size());
+    Assert.assertEquals("12 failed assertions", result.getFailedMessage());
+    Assert.assertEquals("rule:book", events.get(0));
+    Assert.assertTrue(events.get(1).startsWith("assert:"));
+    Assert.assertTrue(events.get(1).endsWith("Book bk101 failed"));
+    Assert.assertTrue(events.get(2).startsWith("report:"));
+    Assert.assertTrue(events.get(2).endsWith("Book bk101 reported"));
+  }
+
+  @Test
+  public void testValidateToListenerFailFast() throws SchematronException {
+    ValidatorFactory factory = new ValidatorFactory();
+    File schema = new File("src/test/resources/sch/failures-xslt2.sch");
+    Validator validator = factory.newValidator(schema).options(OutputOptions.defaults().failFast());
+    Source sample = new StreamSource(new File("src/test/resources/xml/books.xml"));
+    List<AssertOrReport> failures = new ArrayList<>();
+    SchematronResult result = validator.validateToListener(sample, null, new AssertionListener() {
+      @Override
+      public void onFailedAssert(AssertOrReport failedAssert) {
+        failures.add(failedAssert);
+      }
+    });
+    Assert.assertTrue(result.isTruncated());
+    Assert.assertEquals(1, failures.size());
+  }
+
   @Test
   public void testValidateInstanceSpeed() throws SchematronException {
     ValidatorFactory factory = new ValidatorFactory();
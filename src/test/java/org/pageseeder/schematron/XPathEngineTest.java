@@ -0,0 +1,276 @@
+package org.pageseeder.schematron;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.pageseeder.schematron.svrl.SchematronOutput;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public final class XPathEngineTest {
+
+  private static final File BOOKS = new File("src/test/resources/xml/books.xml");
+
+  private static final File SCHEMA = new File("src/test/resources/sch/engine-xslt1.sch");
+
+  @Test
+  public void testSameAsXSLT() throws SchematronException {
+    ValidatorFactory xslt = new ValidatorFactory();
+    ValidatorFactory engine = newEngineFactory(new ArrayList<>());
+    for (String phase : new String[]{null, "prices"}) {
+      SchematronResult expected = xslt.newValidator(SCHEMA, phase).validate(BOOKS);
+      SchematronResult result = engine.newValidator(SCHEMA, phase).validate(BOOKS);
+      Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+      Assert.assertEquals(expected.getAssertsCount(), result.getAssertsCount());
+      Assert.assertEquals(expected.getReportsCount(), result.getReportsCount());
+    }
+  }
+
+  @Test
+  public void testParameters() throws SchematronException {
+    Map<String, Object> parameters = Collections.singletonMap("max", 50);
+    SchematronResult expected = new ValidatorFactory().newValidator(SCHEMA).validate(BOOKS, parameters);
+    Validator validator = newEngineFactory(new ArrayList<>()).newValidator(SCHEMA);
+    SchematronResult defaults = validator.validate(BOOKS);
+    SchematronResult result = validator.validate(BOOKS, parameters);
+    Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+    Assert.assertEquals(4, defaults.getAssertsCount() - result.getAssertsCount());
+  }
+
+  @Test
+  public void testValidateDOM() throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document document = factory.newDocumentBuilder().parse(BOOKS);
+    Validator validator = newEngineFactory(new ArrayList<>()).newValidator(SCHEMA);
+    SchematronResult expected = validator.validate(BOOKS);
+    SchematronResult result = validator.validate(new DOMSource(document, BOOKS.toURI().toString()));
+    Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+  }
+
+  @Test
+  public void testValidateToModel() throws SchematronException {
+    Validator validator = newEngineFactory(new ArrayList<>()).newValidator(SCHEMA);
+    SchematronResult result = validator.validateToModel(new StreamSource(BOOKS), null);
+    SchematronOutput output = result.toSchematronOutput();
+    Assert.assertEquals(result.getAssertsCount(), output.getFailedAsserts().size());
+    Assert.assertEquals(result.getReportsCount(), output.getSuccessfulReports().size());
+  }
+
+  @Test
+  public void testMaxFailures() throws SchematronException {
+    Validator validator = newEngineFactory(new ArrayList<>()).newValidator(SCHEMA);
+    SchematronResult limited = validator.options(OutputOptions.defaults().maxFailures(2)).validate(BOOKS);
+    Assert.assertTrue(limited.isTruncated());
+    Assert.assertEquals(2, limited.getAssertsCount());
+    Assert.assertTrue(limited.getSVRLAsString().trim().endsWith("</svrl:schematron-output>"));
+  }
+
+  @Test(expected = ValidationException.class)
+  public void testXMLBomb() throws SchematronException {
+    Validator validator = newEngineFactory(new ArrayList<>()).newValidator(SCHEMA);
+    validator.validate(new File("src/test/resources/xml/xml_bomb.xml"));
+  }
+
+  @Test
+  public void testUnsupportedBinding() throws SchematronException {
+    List<String> warnings = new ArrayList<>();
+    ValidatorFactory factory = newEngineFactory(warnings);
+    SchematronResult result = factory.newValidator(new File("src/test/resources/sch/standalone-xslt2.sch")).validate(BOOKS);
+    Assert.assertEquals(1, warnings.size());
+    Assert.assertTrue(warnings.get(0).contains("'xslt2' query binding"));
+    Assert.assertTrue(result.isValid());
+  }
+
+  @Test
+  public void testFallbackToXSLT() throws SchematronException, IOException {
+    String[] tests = {"format-number(price, '0.00') = price", "current()/@id = @id", "generate-id() != ''"};
+    for (String test : tests) {
+      File schema = newSchema("<sch:pattern><sch:rule context='book'>"
+          + "<sch:assert test=\""+test+"\">Test</sch:assert>"
+          + "</sch:rule></sch:pattern>");
+      try {
+        List<String> warnings = new ArrayList<>();
+        SchematronResult result = newEngineFactory(warnings).newValidator(schema).validate(BOOKS);
+        Assert.assertEquals(test, 1, warnings.size());
+        Assert.assertTrue(warnings.get(0).contains("using XSLT instead"));
+        Assert.assertTrue(result.isValid());
+      } finally {
+        Files.delete(schema.toPath());
+      }
+    }
+  }
+
+  @Test
+  public void testLetTypes() throws SchematronException, IOException {
+    File schema = newSchema("<sch:let name='count' value='count($ids)'/>"
+        + "<sch:let name='ids' value='//book/@id'/>"
+        + "<sch:let name='first' value='string($ids[1])'/>"
+        + "<sch:let name='many' value='$count &gt; 10'/>"
+        + "<sch:pattern><sch:rule context='book'>"
+        + "<sch:let name='price' value='number(price)'/>"
+        + "<sch:let name='same' value='$price'/>"
+        + "<sch:assert test='$many and @id = $ids'>Book <sch:value-of select='@id'/></sch:assert>"
+        + "<sch:assert test='$same &lt; 40'>Price <sch:value-of select='$price'/> of <sch:value-of select='$count'/></sch:assert>"
+        + "<sch:report test='@id = $first'>First</sch:report>"
+        + "</sch:rule></sch:pattern>"
+        + "<sch:pattern><sch:rule context='@id | title'>"
+        + "<sch:report test='starts-with(., \"bk10\") or contains(., \"Rain\")'><sch:name/></sch:report>"
+        + "</sch:rule></sch:pattern>");
+    try {
+      SchematronResult expected = new ValidatorFactory().newValidator(schema).validate(BOOKS);
+      SchematronResult result = newEngineFactory(new ArrayList<>()).newValidator(schema).validate(BOOKS);
+      Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+      Assert.assertTrue(result.getAssertsCount() > 0);
+      Assert.assertTrue(result.getReportsCount() > 1);
+    } finally {
+      Files.delete(schema.toPath());
+    }
+  }
+
+  @Test
+  public void testPatterns() throws SchematronException, IOException {
+    assertSameAsXSLT("<sch:pattern>"
+        + "<sch:rule context='book[1] | book[last()]/title'><sch:report test='true()'>First or last <sch:name/></sch:report></sch:rule>"
+        + "<sch:rule context='catalog/book[position() mod 3 = 0]'><sch:report test='true()'>Third <sch:value-of select='@id'/></sch:report></sch:rule>"
+        + "<sch:rule context='book[genre = \"Fantasy\"][2]'><sch:report test='true()'>Second fantasy <sch:value-of select='@id'/></sch:report></sch:rule>"
+        + "<sch:rule context='/catalog//price'><sch:report test='. &gt; 30'>Price <sch:value-of select='.'/></sch:report></sch:rule>"
+        + "<sch:rule context='book/@id'><sch:assert test='starts-with(., \"bk1\")'>ID</sch:assert></sch:rule>"
+        + "<sch:rule context='text()[normalize-space()]'><sch:report test='contains(., \"Rain\")'>Text</sch:report></sch:rule>"
+        + "<sch:rule context='/'><sch:report test='count(//*) &gt; 0'>Root <sch:value-of select='count(//*)'/></sch:report></sch:rule>"
+        + "</sch:pattern>");
+  }
+
+  @Test
+  public void testAxesAndFunctions() throws SchematronException, IOException {
+    assertSameAsXSLT("<sch:pattern><sch:rule context='book'>"
+        + "<sch:report test='true()'><sch:value-of select='count(ancestor::*)'/>"
+        + " <sch:value-of select='count(preceding::price | following::price)'/>"
+        + " <sch:value-of select='preceding-sibling::book[1]/@id'/>"
+        + " <sch:value-of select='following-sibling::book[last()]/@id'/>"
+        + " <sch:value-of select='(ancestor-or-self::* | descendant::*)[last()]/text()'/>"
+        + " <sch:value-of select='name(descendant-or-self::*[3])'/>"
+        + " <sch:value-of select='local-name(parent::node())'/>"
+        + " <sch:value-of select='sum(../book/price) div count(../book)'/>"
+        + " <sch:value-of select='floor(price) + ceiling(price) - round(-price)'/>"
+        + " <sch:value-of select='substring(title, 2, 5)'/>"
+        + " <sch:value-of select='substring-before(author, \",\")'/>"
+        + " <sch:value-of select='translate(genre, \"abc\", \"AB\")'/>"
+        + " <sch:value-of select='concat(string-length(description), \"/\", boolean(@missing), \"/\", not(0))'/>"
+        + " <sch:value-of select='0 div 0'/> <sch:value-of select='0.1 + 0.2'/> <sch:value-of select='-0.5 * 2'/>"
+        + "</sch:report>"
+        + "<sch:assert test='price &gt; //book[1]/price or price = ../book/price[. &lt; 6]'>Price</sch:assert>"
+        + "<sch:assert test='lang(\"en\") or not(*[position() = 2 and self::title])'>Lang</sch:assert>"
+        + "</sch:rule></sch:pattern>");
+  }
+
+  @Test
+  public void testNamespaceAxisFallsBack() throws SchematronException, IOException {
+    File schema = newSchema("<sch:pattern><sch:rule context='book'>"
+        + "<sch:assert test='count(namespace::*) = 1'>Namespaces</sch:assert>"
+        + "</sch:rule></sch:pattern>");
+    try {
+      List<String> warnings = new ArrayList<>();
+      SchematronResult result = newEngineFactory(warnings).newValidator(schema).validate(BOOKS);
+      Assert.assertEquals(1, warnings.size());
+      Assert.assertTrue(warnings.get(0).contains("using XSLT instead"));
+      Assert.assertTrue(result.isValid());
+    } finally {
+      Files.delete(schema.toPath());
+    }
+  }
+
+  /**
+   * The time to validate a document must grow with its size as with the validation stylesheet,
+   * the ratio is generous but a quadratic evaluation would exceed it by far.
+   */
+  @Test
+  public void testScaling() throws SchematronException, IOException {
+    File schema = newSchema("<sch:pattern><sch:rule context='item[@id]'>"
+        + "<sch:assert test='not(@id = preceding-sibling::item[1]/@id)'>Duplicate</sch:assert>"
+        + "<sch:assert test='string-length(.) &gt; 0'>Empty <sch:value-of select='@id'/></sch:assert>"
+        + "</sch:rule><sch:rule context='item'>"
+        + "<sch:assert test='@id'>No ID</sch:assert>"
+        + "</sch:rule></sch:pattern>");
+    try {
+      Validator validator = newEngineFactory(new ArrayList<>()).newValidator(schema);
+      String small = items(4000);
+      String large = items(32000);
+      validator.validate(new StreamSource(new StringReader(small)));
+      long smallTime = time(validator, small);
+      long largeTime = time(validator, large);
+      Assert.assertTrue("4000 items in "+smallTime/1000000+"ms, 32000 items in "+largeTime/1000000+"ms",
+          largeTime < smallTime * 32 + 1000000000L);
+    } finally {
+      Files.delete(schema.toPath());
+    }
+  }
+
+  private static long time(Validator validator, String xml) throws SchematronException {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < 3; i++) {
+      long start = System.nanoTime();
+      SchematronResult result = validator.validate(new StreamSource(new StringReader(xml)));
+      best = Math.min(best, System.nanoTime() - start);
+      Assert.assertEquals(1, result.getAssertsCount());
+    }
+    return best;
+  }
+
+  private static String items(int count) {
+    StringBuilder xml = new StringBuilder("<items>");
+    for (int i = 0; i < count; i++) {
+      xml.append("<item id='i").append(i).append("'>Item ").append(i).append("</item>\n");
+    }
+    return xml.append("<item>Last</item></items>").toString();
+  }
+
+  private static void assertSameAsXSLT(String content) throws SchematronException, IOException {
+    File schema = newSchema(content);
+    try {
+      List<String> warnings = new ArrayList<>();
+      SchematronResult expected = new ValidatorFactory().newValidator(schema).validate(BOOKS);
+      SchematronResult result = newEngineFactory(warnings).newValidator(schema).validate(BOOKS);
+      Assert.assertEquals(Collections.emptyList(), warnings);
+      Assert.assertEquals(expected.getSVRLAsString(), result.getSVRLAsString());
+    } finally {
+      Files.delete(schema.toPath());
+    }
+  }
+
+  private static File newSchema(String content) throws IOException {
+    File schema = Files.createTempFile("engine-", ".sch").toFile();
+    String xml = "<sch:schema xmlns:sch='http://purl.oclc.org/dsdl/schematron' queryBinding='xslt'>"+content+"</sch:schema>";
+    Files.write(schema.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    return schema;
+  }
+
+  private static ValidatorFactory newEngineFactory(List<String> warnings) {
+    return new ValidatorFactory()
+        .options(CompileOptions.defaults().xpathEngine(true))
+        .errorListener(new ErrorListener() {
+          @Override
+          public void warning(TransformerException ex) {
+            warnings.add(ex.getMessage());
+          }
+          @Override
+          public void error(TransformerException ex) {}
+          @Override
+          public void fatalError(TransformerException ex) {}
+        });
+  }
+
+}